@@ -1,4 +1,6 @@
 package enigma;
+import java.util.Arrays;
+
 import static enigma.EnigmaException.*;
 
 /** An alphabet of encodable characters.  Provides a mapping from characters
@@ -6,8 +8,20 @@ import static enigma.EnigmaException.*;
  *  @author Tianyu Liu
  */
 class Alphabet {
+    /** Number of byte values, and of ASCII characters. */
+    static final int BYTES = 256, ASCII = 128;
     /** Characters within this alphabet. */
     private int[] _chars;
+    /** The index of each character up to the largest in this alphabet,
+     *  or -1 for those not in it. */
+    private int[] _index;
+    /** The index of the character with each ISO-8859-1 code, or -1. */
+    private final int[] _byteIndex = new int[BYTES];
+    /** The ISO-8859-1 code of each character, or null if some character
+     *  has none. */
+    private byte[] _codes;
+    /** Largest character in this alphabet. */
+    private int _max = -1;
 
     /**
      * A new alphabet containing CHARS. The K-th character has index
@@ -19,6 +33,23 @@ class Alphabet {
             char j = chars.charAt(i);
             _chars[i] = j;
         }
+        for (int ch : _chars) {
+            _max = Math.max(_max, ch);
+        }
+        _index = new int[_max + 1];
+        Arrays.fill(_index, -1);
+        for (int i = _chars.length - 1; i >= 0; i--) {
+            _index[_chars[i]] = i;
+        }
+        for (int b = 0; b < BYTES; b++) {
+            _byteIndex[b] = b < _index.length ? _index[b] : -1;
+        }
+        if (_max < BYTES) {
+            _codes = new byte[_chars.length];
+            for (int i = 0; i < _chars.length; i++) {
+                _codes[i] = (byte) _chars[i];
+            }
+        }
     }
 
     /**
@@ -42,16 +73,45 @@ class Alphabet {
         return _chars;
     }
 
+    /**
+     * Returns true iff all my characters are ASCII, so that text in any
+     * ASCII-compatible encoding can be converted byte by byte.
+     */
+    boolean isAscii() {
+        return _max < ASCII;
+    }
+
+    /**
+     * Returns a table of BYTES entries whose element B is the index of the
+     * character with ISO-8859-1 code B, or -1 if it is not in this
+     * alphabet.  The table is shared; modifying it has undefined results.
+     */
+    int[] byteIndices() {
+        return _byteIndex;
+    }
+
+    /**
+     * Returns the ISO-8859-1 code of each of my characters, by index, as
+     * a byte, or null if some character has no such code.  The array is
+     * shared; modifying it has undefined results.
+     */
+    byte[] byteCodes() {
+        return _codes;
+    }
+
     /**
      * Returns true if CH is in this alphabet.
      */
     boolean contains(char ch) {
-        for (int i = 0; i < size(); i++) {
-            if (_chars[i] == ch) {
-                return true;
-            }
-        }
-        return false;
+        return indexOf(ch) >= 0;
+    }
+
+    /**
+     * Returns the index of character CH, or -1 if CH is not in
+     * the alphabet.
+     */
+    int indexOf(char ch) {
+        return ch < _index.length ? _index[ch] : -1;
     }
 
     /**
@@ -68,12 +128,31 @@ class Alphabet {
      * the alphabet. This is the inverse of toChar().
      */
     int toInt(char ch) {
-        for (int i = 0; i < _chars.length; i++) {
-            if (ch == _chars[i]) {
-                return i;
-            }
+        int result = indexOf(ch);
+        if (result < 0) {
+            throw error("Wrong in alphabet");
         }
-        throw error("Wrong in alphabet");
+        return result;
     }
-}
 
+    /**
+     * Returns the indices of the characters written in TEXT, in order, as
+     * they appear within a cycle of a permutation.
+     */
+    int[] toInts(String text) {
+        int[] result = new int[text.length()];
+        return Arrays.copyOf(result, toInts(text, result));
+    }
+
+    /**
+     * Stores the indices of the characters written in TEXT, as for
+     * toInts(String), at the start of RESULT, which is at least as long
+     * as TEXT, and returns how many there are.
+     */
+    int toInts(CharSequence text, int[] result) {
+        for (int i = 0; i < text.length(); i++) {
+            result[i] = toInt(text.charAt(i));
+        }
+        return text.length();
+    }
+}
@@ -0,0 +1,658 @@
+package enigma;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HexFormat;
+import java.util.List;
+import java.util.PriorityQueue;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+import ucb.util.CommandArgs;
+
+import static enigma.EnigmaException.*;
+
+/** A ciphertext-only key search.
+ *
+ *  Stage 1 tries every rotor order and start position of the
+ *  configuration, with rings at their first position and no plugboard,
+ *  and keeps the keys whose decryptions have the highest index of
+ *  coincidence.  Stage 2 tries the ring settings of the two rightmost
+ *  rotors of each survivor, moving each position along with its ring so
+ *  that only the turnover points change.  Stage 3 hill-climbs a plugboard
+ *  for each survivor, scoring decryptions with an n-gram model; it is
+ *  skipped when there is no model, since on messages of usual length the
+ *  index of coincidence rewards spurious plugboard pairs.  Every stage runs in
+ *  parallel, and trial decryptions use Machine.step and Machine.scramble
+ *  over preallocated arrays, so the inner loops allocate nothing.
+ *
+ *  Stage 1, the long one, can be checkpointed to a file, from which an
+ *  interrupted search resumes.  The file names the search by a digest of
+ *  the configuration, rotor orders and ciphertext, and a search refuses
+ *  the checkpoint of any other.
+ *  @author Tianyu Liu
+ */
+class Attack {
+
+    /** Search for keys as specified by ARGS: a configuration file and a
+     *  ciphertext (blanks ignored).  --corpus=FILE gives text from which to
+     *  learn trigram statistics for the plugboard search, and --model=FILE
+     *  a model file saved by NGramModel instead; --checkpoint=FILE
+     *  names the checkpoint file; --keep=K is the number of stage-1
+     *  survivors (default 100); --top=T the number of setting lines
+     *  printed, best first (default 10); --plugs=P the most plugboard
+     *  pairs tried (default 10); --threads=N limits the parallelism. */
+    public static void main(String... args) {
+        try {
+            CommandArgs options =
+                new CommandArgs("--corpus=(.+) --model=(.+) "
+                                + "--checkpoint=(.+) --keep=(\\d+) "
+                                + "--top=(\\d+) --plugs=(\\d+) "
+                                + "--threads=(\\d+) --=(.*){2}", args);
+            if (!options.ok()) {
+                throw error("Usage: java enigma.Attack [--corpus=FILE] "
+                            + "[--model=FILE] [--checkpoint=FILE] "
+                            + "[--keep=K] [--top=T] [--plugs=P] "
+                            + "[--threads=N] CONFIG CIPHERTEXT");
+            }
+            List<String> files = options.get("--");
+            Machine machine = Main.readConfig(Main.getInput(files.get(0)));
+            Attack attack = new Attack(machine, files.get(1));
+            if (options.contains("--corpus")) {
+                attack.setModel(NGramModel.fromFile(
+                    machine.alphabet(), TRIGRAMS,
+                    options.getFirst("--corpus")));
+            } else if (options.contains("--model")) {
+                attack.setModel(NGramModel.load(
+                    Paths.get(options.getFirst("--model")),
+                    machine.alphabet()));
+            }
+            if (options.contains("--checkpoint")) {
+                attack.setCheckpoint(
+                    Paths.get(options.getFirst("--checkpoint")));
+            }
+            if (options.contains("--keep")) {
+                attack._keep = Integer.parseInt(options.getFirst("--keep"));
+            }
+            if (options.contains("--plugs")) {
+                attack._maxPlugs =
+                    Integer.parseInt(options.getFirst("--plugs"));
+            }
+            int top = options.contains("--top")
+                ? Integer.parseInt(options.getFirst("--top")) : DEFAULT_TOP;
+            ForkJoinPool pool = options.contains("--threads")
+                ? new ForkJoinPool(
+                    Integer.parseInt(options.getFirst("--threads")))
+                : ForkJoinPool.commonPool();
+            List<Candidate> ranked = attack.run(pool);
+            for (int i = 0; i < Math.min(top, ranked.size()); i++) {
+                System.out.println(attack.setting(ranked.get(i)));
+            }
+            return;
+        } catch (EnigmaException excp) {
+            System.err.printf("Error: %s%n", excp.getMessage());
+        }
+        System.exit(1);
+    }
+
+    /** An attack on CIPHERTEXT with the rotors of MACHINE. */
+    Attack(Machine machine, String ciphertext) {
+        _machine = machine;
+        _alphabet = machine.alphabet();
+        _n = _alphabet.size();
+        String cipher = ciphertext.replace(" ", "");
+        _cipher = new int[cipher.length()];
+        for (int i = 0; i < _cipher.length; i++) {
+            _cipher[i] = _alphabet.toInt(cipher.charAt(i));
+        }
+        _orders = machine.rotorOrders();
+        _units = _orders.size() * _n;
+    }
+
+    /** Score plugboards with MODEL, which must be over my alphabet. */
+    void setModel(NGramModel model) {
+        _model = model;
+    }
+
+    /** Checkpoint stage 1 to FILE, resuming from it if it exists. */
+    void setCheckpoint(Path file) {
+        _checkpoint = file;
+    }
+
+    /** Save the checkpoint, if any, every NANOS nanoseconds of stage 1
+     *  rather than every SAVE_INTERVAL. */
+    void setSaveInterval(long nanos) {
+        _saveInterval = nanos;
+    }
+
+    /** Keep the best K keys of stage 1. */
+    void setKeep(int k) {
+        _keep = k;
+    }
+
+    /** Try at most P plugboard pairs in stage 3. */
+    void setMaxPlugs(int p) {
+        _maxPlugs = p;
+    }
+
+    /** Search only the rotor orders ORDERS, each as for
+     *  Machine.insertRotors.  A checkpoint is only meaningful for the same
+     *  list of orders. */
+    void setOrders(List<String[]> orders) {
+        _orders = orders;
+        _units = orders.size() * _n;
+    }
+
+    /** Run all three stages on POOL and return the surviving keys, best
+     *  first. */
+    List<Candidate> run(ForkJoinPool pool) {
+        BitSet done = new BitSet(_units);
+        PriorityQueue<Candidate> best =
+            new PriorityQueue<>(Comparator.comparingDouble(c -> c.score));
+        if (_checkpoint != null && Files.exists(_checkpoint)) {
+            loadCheckpoint(done, best);
+        }
+        _lastSave = System.nanoTime();
+        pool.invoke(new Split(0, _units, (u, worker) -> {
+            if (!isDone(done, u)) {
+                List<Candidate> found = searchUnit(u, worker);
+                synchronized (this) {
+                    done.set(u);
+                    for (Candidate c : found) {
+                        offer(best, c, _keep);
+                    }
+                    if (_checkpoint != null
+                        && System.nanoTime() - _lastSave > _saveInterval) {
+                        saveCheckpoint(done, best);
+                    }
+                }
+            }
+        }));
+        if (_checkpoint != null) {
+            saveCheckpoint(done, best);
+        }
+        return refine(new ArrayList<>(best), pool);
+    }
+
+    /** Run stage 1 on POOL over work units LO .. HI-1 only, returning the
+     *  best keys found, in no particular order. */
+    List<Candidate> search(int lo, int hi, ForkJoinPool pool) {
+        PriorityQueue<Candidate> best =
+            new PriorityQueue<>(Comparator.comparingDouble(c -> c.score));
+        pool.invoke(new Split(lo, hi, (u, worker) -> {
+            List<Candidate> found = searchUnit(u, worker);
+            synchronized (best) {
+                for (Candidate c : found) {
+                    offer(best, c, _keep);
+                }
+            }
+        }));
+        return new ArrayList<>(best);
+    }
+
+    /** Run stages 2 and 3 on POOL over the stage-1 keys SURVIVORS, which
+     *  are modified, and return them best first. */
+    List<Candidate> refine(List<Candidate> survivors, ForkJoinPool pool) {
+        pool.invoke(new Split(0, survivors.size(), (i, worker) -> {
+            tryRings(survivors.get(i), worker);
+            if (_model != null) {
+                climbPlugboard(survivors.get(i), worker);
+            }
+        }));
+        survivors.sort(Comparator.comparingDouble((Candidate c) -> c.score)
+                       .reversed());
+        return survivors;
+    }
+
+    /** Return the number of stage-1 work units. */
+    int units() {
+        return _units;
+    }
+
+    /** Return the number of stage-1 survivors kept. */
+    int keep() {
+        return _keep;
+    }
+
+    /** Return true iff work unit U is marked in DONE. */
+    private synchronized boolean isDone(BitSet done, int u) {
+        return done.get(u);
+    }
+
+    /** Add C to BEST, keeping only the K highest-scoring candidates. */
+    static void offer(PriorityQueue<Candidate> best, Candidate c,
+                              int k) {
+        if (best.size() < k) {
+            best.add(c);
+        } else if (c.score > best.peek().score) {
+            best.poll();
+            best.add(c);
+        }
+    }
+
+    /** Return the best keys of work unit U: rotor order U / N with the
+     *  leftmost rotor after the reflector at position U % N, all other
+     *  positions tried, rings at 0 and no plugboard.  WORKER supplies the
+     *  scratch space. */
+    private List<Candidate> searchUnit(int u, Worker worker) {
+        PriorityQueue<Candidate> best =
+            new PriorityQueue<>(Comparator.comparingDouble(c -> c.score));
+        Machine mach = worker.machine;
+        int order = u / _n;
+        mach.insertRotors(_orders.get(order));
+        int[] rings = new int[mach.numRotors()];
+        mach.setRings(rings);
+        int[] start = new int[mach.numRotors()];
+        start[1] = u % _n;
+        do {
+            long ioc = coincidences(start, worker);
+            if (best.size() < _keep || ioc > best.peek().score) {
+                offer(best, new Candidate(order, start.clone(),
+                                          rings.clone(), ioc), _keep);
+            }
+        } while (nextPosition(start));
+        return new ArrayList<>(best);
+    }
+
+    /** Return the number of ordered pairs of equal letters (the unscaled
+     *  index of coincidence) in the decryption of my ciphertext by
+     *  WORKER's machine, with no plugboard, from rotor positions START. */
+    private long coincidences(int[] start, Worker worker) {
+        Machine mach = worker.machine;
+        int[] counts = worker.counts;
+        mach.setPositions(start);
+        for (int i = 0; i < _n; i++) {
+            counts[i] = 0;
+        }
+        for (int c : _cipher) {
+            mach.step();
+            counts[mach.scramble(c)] += 1;
+        }
+        long result = 0;
+        for (int k : counts) {
+            result += (long) k * (k - 1);
+        }
+        return result;
+    }
+
+    /** Advance START, with slot 1 held fixed, to the next combination of
+     *  the other rotors' positions, returning false if there is none. */
+    private boolean nextPosition(int[] start) {
+        for (int k = start.length - 1; k > 1; k--) {
+            start[k] += 1;
+            if (start[k] < _n) {
+                return true;
+            }
+            start[k] = 0;
+        }
+        return false;
+    }
+
+    /** Replace the rings and positions of C by the best-scoring
+     *  combination of ring settings for its two rightmost rotors, using
+     *  WORKER.  Every combination moves a rotor's ring and position
+     *  together from C's key as it was on entry. */
+    private void tryRings(Candidate c, Worker worker) {
+        Machine mach = worker.machine;
+        mach.insertRotors(_orders.get(c.order));
+        int fast = mach.numRotors() - 1, mid = fast - 1;
+        int[] baseStart = c.start, baseRings = c.rings;
+        int[] start = baseStart.clone(), rings = baseRings.clone();
+        int[] bestStart = baseStart, bestRings = baseRings;
+        double bestScore = c.score;
+        int midRings = mid > 0 && mach.getRotor(mid).rotates() ? _n : 1;
+        for (int rm = 0; rm < midRings; rm++) {
+            for (int rf = 0; rf < _n; rf++) {
+                rings[fast] = (baseRings[fast] + rf) % _n;
+                start[fast] = (baseStart[fast] + rf) % _n;
+                rings[mid] = (baseRings[mid] + rm) % _n;
+                start[mid] = (baseStart[mid] + rm) % _n;
+                mach.setRings(rings);
+                long ioc = coincidences(start, worker);
+                if (ioc > bestScore) {
+                    bestScore = ioc;
+                    bestStart = start.clone();
+                    bestRings = rings.clone();
+                }
+            }
+        }
+        c.score = bestScore;
+        c.start = bestStart;
+        c.rings = bestRings;
+    }
+
+    /** Hill-climb a plugboard for C using WORKER, replacing C's score by
+     *  the model's score of its best decryption. */
+    private void climbPlugboard(Candidate c, Worker worker) {
+        Machine mach = worker.machine;
+        mach.insertRotors(_orders.get(c.order));
+        mach.setRings(c.rings);
+        mach.setPositions(c.start);
+        int[] tables = worker.tables;
+        for (int i = 0; i < _cipher.length; i++) {
+            mach.step();
+            for (int x = 0; x < _n; x++) {
+                tables[i * _n + x] = mach.scramble(x);
+            }
+        }
+        int[] plug = worker.plug;
+        for (int x = 0; x < _n; x++) {
+            plug[x] = x;
+        }
+        double best = plugScore(worker);
+        int pairs = 0;
+        boolean improved = true;
+        while (improved) {
+            improved = false;
+            for (int a = 0; a < _n; a++) {
+                for (int b = a + 1; b < _n; b++) {
+                    int pa = plug[a], pb = plug[b];
+                    int newPairs = pairs - (pa != a ? 1 : 0)
+                        - (pb != b && pb != a ? 1 : 0)
+                        + (pa == b ? 0 : 1);
+                    if (newPairs > _maxPlugs) {
+                        continue;
+                    }
+                    swap(plug, a, b);
+                    double s = plugScore(worker);
+                    if (s > best) {
+                        best = s;
+                        pairs = newPairs;
+                        improved = true;
+                    } else {
+                        plug[a] = pa;
+                        plug[pa] = a;
+                        plug[b] = pb;
+                        plug[pb] = b;
+                    }
+                }
+            }
+        }
+        c.plug = plug.clone();
+        c.score = best;
+    }
+
+    /** Change PLUG by connecting A and B, first disconnecting each from
+     *  its current partner, or just disconnect them if they are already
+     *  connected to each other. */
+    private static void swap(int[] plug, int a, int b) {
+        if (plug[a] == b) {
+            plug[a] = a;
+            plug[b] = b;
+            return;
+        }
+        plug[plug[a]] = plug[a];
+        plug[plug[b]] = plug[b];
+        plug[a] = b;
+        plug[b] = a;
+    }
+
+    /** Return the n-gram score of decrypting my ciphertext with the rotor
+     *  tables and plugboard in WORKER. */
+    private double plugScore(Worker worker) {
+        int[] plain = worker.plain, tables = worker.tables;
+        int[] plug = worker.plug;
+        for (int i = 0; i < _cipher.length; i++) {
+            plain[i] = plug[tables[i * _n + plug[_cipher[i]]]];
+        }
+        return _model.score(plain, 0, plain.length);
+    }
+
+    /** Return a setting line for C that Main.setUp accepts. */
+    String setting(Candidate c) {
+        StringBuilder result = new StringBuilder("*");
+        for (String name : _orders.get(c.order)) {
+            result.append(' ').append(name);
+        }
+        result.append(' ');
+        boolean ringed = false;
+        for (int k = 1; k < c.start.length; k++) {
+            result.append(_alphabet.toChar(c.start[k]));
+            ringed |= c.rings[k] != 0;
+        }
+        if (ringed) {
+            result.append(' ');
+            for (int k = 1; k < c.rings.length; k++) {
+                result.append(_alphabet.toChar(c.rings[k]));
+            }
+        }
+        if (c.plug != null) {
+            for (int a = 0; a < _n; a++) {
+                if (c.plug[a] > a) {
+                    result.append(" (").append(_alphabet.toChar(a))
+                        .append(_alphabet.toChar(c.plug[a])).append(')');
+                }
+            }
+        }
+        return result.toString();
+    }
+
+    /** Return stage-1 key C as a line (without terminator) of the form
+     *  "cand SCORE ORDER POSITION...", positions from slot 1. */
+    String format(Candidate c) {
+        StringBuilder result = new StringBuilder();
+        result.append("cand ").append((long) c.score).append(' ')
+            .append(c.order);
+        for (int k = 1; k < c.start.length; k++) {
+            result.append(' ').append(c.start[k]);
+        }
+        return result.toString();
+    }
+
+    /** Return the stage-1 key in the fields F of a line written by
+     *  format. */
+    Candidate parse(String[] f) {
+        int slots = _machine.numRotors();
+        if (f.length != slots + 2) {
+            throw error("bad key line: %s", String.join(" ", f));
+        }
+        int[] start = new int[slots];
+        for (int k = 1; k < slots; k++) {
+            start[k] = Integer.parseInt(f[k + 2]);
+        }
+        return new Candidate(Integer.parseInt(f[2]), start, new int[slots],
+                             Long.parseLong(f[1]));
+    }
+
+    /** Write the units marked in DONE and the candidates in BEST to my
+     *  checkpoint file, replacing it atomically. */
+    private void saveCheckpoint(BitSet done, PriorityQueue<Candidate> best) {
+        _lastSave = System.nanoTime();
+        Path tmp = _checkpoint.resolveSibling(_checkpoint.getFileName()
+                                              + ".tmp");
+        try (BufferedWriter out =
+             Files.newBufferedWriter(tmp, StandardCharsets.UTF_8)) {
+            out.write(String.format("units %d %s%n", _units, digest()));
+            for (int u = done.nextSetBit(0); u >= 0;
+                 u = done.nextSetBit(done.nextClearBit(u))) {
+                out.write(String.format("done %d %d%n", u,
+                                        done.nextClearBit(u)));
+            }
+            for (Candidate c : best) {
+                out.write(format(c));
+                out.write(String.format("%n"));
+            }
+        } catch (IOException excp) {
+            throw error("could not write checkpoint %s", tmp);
+        }
+        try {
+            Files.move(tmp, _checkpoint, StandardCopyOption.REPLACE_EXISTING,
+                       StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException excp) {
+            throw error("could not replace checkpoint %s", _checkpoint);
+        }
+    }
+
+    /** Return a hex digest identifying my stage-1 search: the
+     *  configuration of my machine (as for ResultCache.fingerprint), my
+     *  rotor orders and my ciphertext.  Checkpoints and journals carry it,
+     *  so that none is resumed by another search. */
+    String digest() {
+        MessageDigest digest;
+        try {
+            digest = MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException excp) {
+            throw error("SHA-256 is not available");
+        }
+        digest.update(ResultCache.fingerprint(_machine,
+                                              StandardCharsets.UTF_8, "\n"));
+        StringBuilder orders = new StringBuilder();
+        orders.append(_orders.size()).append('\n');
+        for (String[] order : _orders) {
+            orders.append(String.join(" ", order)).append('\n');
+        }
+        digest.update(orders.toString().getBytes(StandardCharsets.UTF_8));
+        ByteBuffer cipher = ByteBuffer.allocate(4 * _cipher.length);
+        cipher.asIntBuffer().put(_cipher);
+        digest.update(cipher.array());
+        return HexFormat.of().formatHex(digest.digest());
+    }
+
+    /** Read my checkpoint file into DONE and BEST, which must be for the
+     *  same search as mine. */
+    private void loadCheckpoint(BitSet done, PriorityQueue<Candidate> best) {
+        List<String> lines;
+        try {
+            lines = Files.readAllLines(_checkpoint, StandardCharsets.UTF_8);
+        } catch (IOException excp) {
+            throw error("could not read checkpoint %s", _checkpoint);
+        }
+        if (lines.isEmpty() || !lines.get(0).trim().equals(
+                String.format("units %d %s", _units, digest()))) {
+            throw error("checkpoint is for a different search");
+        }
+        for (String line : lines.subList(1, lines.size())) {
+            String[] f = line.trim().split(" ");
+            switch (f[0]) {
+            case "done":
+                done.set(Integer.parseInt(f[1]), Integer.parseInt(f[2]));
+                break;
+            case "cand":
+                offer(best, parse(f), _keep);
+                break;
+            default:
+                throw error("bad checkpoint line: %s", line);
+            }
+        }
+    }
+
+    /** A candidate key. */
+    static class Candidate {
+        /** A key using rotor order number ORDER, start positions START and
+         *  rings RINGS (indexed by slot), scoring SCORE. */
+        Candidate(int order, int[] start, int[] rings, double score) {
+            this.order = order;
+            this.start = start;
+            this.rings = rings;
+            this.score = score;
+        }
+
+        /** Index of my rotor order. */
+        int order;
+        /** Start positions, by slot. */
+        int[] start;
+        /** Ring settings, by slot. */
+        int[] rings;
+        /** Plugboard partner of each index, or null for none. */
+        int[] plug;
+        /** Score: higher is better. */
+        double score;
+    }
+
+    /** Work to be done on one index with a worker's scratch space. */
+    private interface Job {
+        /** Do the work for index I using WORKER. */
+        void run(int i, Worker worker);
+    }
+
+    /** A task doing JOB on the indices in [LO, HI), giving each leaf its
+     *  own Worker. */
+    private class Split extends RecursiveAction {
+        /** Do JOB on LO .. HI-1. */
+        Split(int lo, int hi, Job job) {
+            _lo = lo;
+            _hi = hi;
+            _job = job;
+        }
+
+        @Override
+        protected void compute() {
+            if (_hi - _lo > 1) {
+                int mid = (_lo + _hi) >>> 1;
+                invokeAll(new Split(_lo, mid, _job),
+                          new Split(mid, _hi, _job));
+            } else if (_lo < _hi) {
+                _job.run(_lo, new Worker());
+            }
+        }
+
+        /** First index. */
+        private final int _lo;
+        /** Limit of indices. */
+        private final int _hi;
+        /** The work. */
+        private final Job _job;
+    }
+
+    /** Scratch space for one task. */
+    private class Worker {
+        /** My own copy of the machine. */
+        final Machine machine = _machine.copy();
+        /** Letter counts. */
+        final int[] counts = new int[_n];
+        /** A trial decryption. */
+        final int[] plain = new int[_cipher.length];
+        /** Rotor-stack table at each ciphertext position, flattened. */
+        final int[] tables = new int[_cipher.length * _n];
+        /** A trial plugboard. */
+        final int[] plug = new int[_n];
+    }
+
+    /** N-gram length used for plugboard scoring. */
+    static final int TRIGRAMS = 3;
+    /** Default number of setting lines printed. */
+    private static final int DEFAULT_TOP = 10;
+    /** Default number of stage-1 survivors. */
+    private static final int DEFAULT_KEEP = 100;
+    /** Default largest number of plugboard pairs. */
+    private static final int DEFAULT_PLUGS = 10;
+    /** Default nanoseconds between checkpoints. */
+    private static final long SAVE_INTERVAL = 10_000_000_000L;
+
+    /** The machine whose rotors are searched. */
+    private final Machine _machine;
+    /** Its alphabet. */
+    private final Alphabet _alphabet;
+    /** Size of the alphabet. */
+    private final int _n;
+    /** The ciphertext, as indices. */
+    private final int[] _cipher;
+    /** Rotor orders searched. */
+    private List<String[]> _orders;
+    /** Number of stage-1 work units. */
+    private int _units;
+    /** Plugboard scoring model, or null. */
+    private NGramModel _model;
+    /** Checkpoint file, or null. */
+    private Path _checkpoint;
+    /** Nanoseconds between checkpoints. */
+    private long _saveInterval = SAVE_INTERVAL;
+    /** Time of the last checkpoint. */
+    private long _lastSave;
+    /** Number of stage-1 survivors. */
+    private int _keep = DEFAULT_KEEP;
+    /** Largest number of plugboard pairs. */
+    private int _maxPlugs = DEFAULT_PLUGS;
+}
@@ -0,0 +1,140 @@
+package enigma;
+
+import java.io.IOException;
+import java.io.StringReader;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import org.junit.Test;
+import org.junit.Rule;
+import org.junit.rules.Timeout;
+import static org.junit.Assert.*;
+
+/** The suite of all JUnit tests for the Attack class.
+ *  @author Tianyu Liu
+ */
+public class AttackTest {
+
+    /** Testing time limit. */
+    @Rule
+    public Timeout globalTimeout = Timeout.seconds(60);
+
+    /* ***** TESTING UTILITIES ***** */
+
+    /** A plaintext long enough for the index of coincidence to work. */
+    static final String PLAIN =
+        "THEREWASNOPOSSIBILITYOFTAKINGAWALKTHATDAYWEHADBEENWANDERING"
+        + "INDEEDINTHELEAFLESSSHRUBBERYANHOURINTHEMORNINGBUTSINCEDINNER"
+        + "THECOLDWINTERWINDHADBROUGHTWITHITCLOUDSSOSOMBREANDARAINSO"
+        + "PENETRATINGTHATFURTHEROUTDOOREXERCISEWASNOWOUTOFTHEQUESTION"
+        + "IWASGLADOFITINEVERLIKEDLONGWALKSESPECIALLYONCHILLYAFTERNOONS";
+
+    /** Return PLAIN encrypted by a machine for BombeTest.CONFIG set up by
+     *  SETTING. */
+    static String encrypt(String setting) {
+        return BombeTest.machine(setting).convert(PLAIN);
+    }
+
+    /** Return CIPHER decrypted with SETTING. */
+    static String decrypt(String setting, String cipher) {
+        return BombeTest.machine(setting).convert(cipher);
+    }
+
+    /** Return an attack on CIPHER with the BombeTest configuration. */
+    static Attack attack(String cipher) {
+        return new Attack(BombeTest.machine("* B I II III AAA"), cipher);
+    }
+
+    /** Check that ATTACK refuses to resume from the checkpoint FILE. */
+    static void checkRefused(Attack attack, Path file) {
+        attack.setCheckpoint(file);
+        try {
+            attack.run(new ForkJoinPool(2));
+            fail("checkpoint for another search accepted");
+        } catch (EnigmaException excp) {
+            /* Expected. */
+        }
+    }
+
+    /* ***** TESTS ***** */
+
+    /** Without a model, ring settings are only found up to the index of
+     *  coincidence, which may prefer a turnover a letter early or late. */
+    @Test
+    public void testNoPlugboard() {
+        String cipher = encrypt("* B II III I KQD");
+        List<Attack.Candidate> ranked =
+            attack(cipher).run(new ForkJoinPool(2));
+        Attack att = attack(cipher);
+        String plain = decrypt(att.setting(ranked.get(0)), cipher);
+        int agree = 0;
+        for (int i = 0; i < PLAIN.length(); i++) {
+            agree += plain.charAt(i) == PLAIN.charAt(i) ? 1 : 0;
+        }
+        assertTrue("poor decryption: " + plain,
+                   agree > PLAIN.length() * 9 / 10);
+    }
+
+    @Test
+    public void testNoCheckpoint() {
+        String cipher = encrypt("* B II III I KQD");
+        Attack att = attack(cipher);
+        att.setSaveInterval(0);
+        assertFalse(att.run(new ForkJoinPool(2)).isEmpty());
+    }
+
+    @Test
+    public void testPlugboard() throws IOException {
+        String cipher = encrypt("* B III I II RXF (AQ) (TM)");
+        Attack att = attack(cipher);
+        att.setModel(new NGramModel(BombeTest.machine("* B I II III AAA")
+                                    .alphabet(), Attack.TRIGRAMS,
+                                    new StringReader(PLAIN)));
+        List<Attack.Candidate> ranked = att.run(new ForkJoinPool(2));
+        assertEquals(PLAIN, decrypt(att.setting(ranked.get(0)), cipher));
+    }
+
+    @Test
+    public void testResume() throws IOException {
+        String cipher = encrypt("* B I III II BAD");
+        Path file = Files.createTempFile("attack", ".ckpt");
+        Files.delete(file);
+        try {
+            Attack first = attack(cipher);
+            first.setCheckpoint(file);
+            String best = first.setting(
+                first.run(new ForkJoinPool(2)).get(0));
+            assertTrue(Files.exists(file));
+            Attack resumed = attack(cipher);
+            resumed.setCheckpoint(file);
+            assertEquals(best,
+                         resumed.setting(resumed.run(new ForkJoinPool(2))
+                                         .get(0)));
+            Attack other = attack(cipher);
+            String[] order = {"B", "I", "II", "III"};
+            other.setOrders(List.<String[]>of(order));
+            checkRefused(other, file);
+            List<String[]> reversed =
+                new ArrayList<>(BombeTest.machine("* B I II III AAA")
+                                .rotorOrders());
+            Collections.reverse(reversed);
+            other = attack(cipher);
+            other.setOrders(reversed);
+            checkRefused(other, file);
+            checkRefused(attack(encrypt("* B I III II BAE")), file);
+            Machine plugged = BombeTest.machine("* B I II III AAA");
+            plugged.setPlugboard(new Permutation("(AB)",
+                                                 plugged.alphabet()));
+            assertEquals(attack(cipher).digest(),
+                         new Attack(plugged, cipher).digest());
+            assertNotEquals(attack(cipher).digest(),
+                            new Attack(PipelineTest.machine(), cipher)
+                            .digest());
+        } finally {
+            Files.deleteIfExists(file);
+        }
+    }
+}
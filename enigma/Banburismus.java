@@ -0,0 +1,340 @@
+package enigma;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.PriorityQueue;
+import java.util.Scanner;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+import ucb.util.CommandArgs;
+
+import static enigma.EnigmaException.*;
+
+/** Finds pairs of messages "in depth": enciphered with overlapping
+ *  stretches of the same key stream, as happens to messages sent on one
+ *  rotor order from nearby start positions.  Where two such messages
+ *  overlap, a letter repeats in both wherever the plaintexts do, which is
+ *  noticeably more often than the 1 in N of unrelated ciphertexts.
+ *
+ *  Every pair of messages is compared at every relative offset, and each
+ *  alignment is scored by the weight of evidence (in decibans) that its
+ *  repeats give for depth, as in Banburismus.  Messages are packed into
+ *  bit planes, with bit I of plane P holding bit P of the message's letter
+ *  I, so that the repeats of an alignment are counted 64 letters at a
+ *  time: the letters at a position agree iff every plane does.  Rows of
+ *  the pair matrix are compared in parallel.
+ *  @author Tianyu Liu
+ */
+class Banburismus {
+
+    /** Find alignments as specified by ARGS: a configuration file (whose
+     *  alphabet is used) and a message file in the format read by Main,
+     *  whose setting lines are skipped.  Prints the best alignments, one
+     *  per line, as the line numbers of the two messages, the offset of
+     *  the second's start from the first's (which may be negative), the
+     *  repeats, the overlap and the score.  --top=T sets the number of
+     *  alignments printed (default 20); --min=M the least overlap
+     *  considered (default 30); --kappa=K the chance that two plaintext
+     *  letters agree (default 0.066); --threads=N limits the
+     *  parallelism. */
+    public static void main(String... args) {
+        try {
+            CommandArgs options =
+                new CommandArgs("--top=(\\d+) --min=(\\d+) "
+                                + "--kappa=(0?\\.\\d+) --threads=(\\d+) "
+                                + "--=(.*){2}", args);
+            if (!options.ok()) {
+                throw error("Usage: java enigma.Banburismus [--top=T] "
+                            + "[--min=M] [--kappa=K] [--threads=N] "
+                            + "CONFIG MESSAGES");
+            }
+            List<String> files = options.get("--");
+            Banburismus finder = new Banburismus(
+                Main.readConfig(Main.getInput(files.get(0))).alphabet());
+            if (options.contains("--min")) {
+                finder.setMinOverlap(
+                    Integer.parseInt(options.getFirst("--min")));
+            }
+            if (options.contains("--kappa")) {
+                finder.setKappa(
+                    Double.parseDouble(options.getFirst("--kappa")));
+            }
+            finder.read(Main.getInput(files.get(1)));
+            int top = options.contains("--top")
+                ? Integer.parseInt(options.getFirst("--top")) : DEFAULT_TOP;
+            ForkJoinPool pool = options.contains("--threads")
+                ? new ForkJoinPool(
+                    Integer.parseInt(options.getFirst("--threads")))
+                : ForkJoinPool.commonPool();
+            for (Alignment a : finder.run(pool, top)) {
+                System.out.printf("%d %d %d %d %d %.1f%n",
+                                  finder.line(a.first),
+                                  finder.line(a.second), a.offset,
+                                  a.repeats, a.overlap, a.score);
+            }
+            return;
+        } catch (EnigmaException excp) {
+            System.err.printf("Error: %s%n", excp.getMessage());
+        }
+        System.exit(1);
+    }
+
+    /** A finder for messages over ALPHABET. */
+    Banburismus(Alphabet alphabet) {
+        _alphabet = alphabet;
+        _planes = Math.max(1, Integer.SIZE
+                           - Integer.numberOfLeadingZeros(
+                               alphabet.size() - 1));
+        setKappa(DEFAULT_KAPPA);
+    }
+
+    /** Consider only alignments overlapping by at least M letters. */
+    void setMinOverlap(int m) {
+        _minOverlap = Math.max(1, m);
+    }
+
+    /** Score as if two letters of plaintext agree with probability K. */
+    void setKappa(double k) {
+        double random = 1.0 / _alphabet.size();
+        if (k <= random || k >= 1) {
+            throw error("kappa must lie between %.4f and 1", random);
+        }
+        _repeatWeight = DECIBANS * Math.log10(k / random);
+        _differWeight = DECIBANS * Math.log10((1 - k) / (1 - random));
+    }
+
+    /** Add each line of INPUT, which is in the format read by Main, that
+     *  is not a setting line and has some letters, as a message numbered
+     *  by its line. */
+    void read(Scanner input) {
+        for (int line = 1; input.hasNextLine(); line++) {
+            String text = input.nextLine();
+            if (!text.contains("*") && !text.isBlank()) {
+                add(text, line);
+            }
+        }
+    }
+
+    /** Add MESSAGE (blanks ignored), which came from line LINE. */
+    void add(String message, int line) {
+        String text = message.replace(" ", "");
+        int words = (text.length() + Long.SIZE - 1) / Long.SIZE;
+        long[] packed = new long[(words + 2) * _planes];
+        for (int i = 0; i < text.length(); i++) {
+            int c = _alphabet.toInt(text.charAt(i));
+            int base = (i / Long.SIZE + 1) * _planes;
+            for (int p = 0; p < _planes; p++) {
+                packed[base + p] |= (long) ((c >> p) & 1) << i;
+            }
+        }
+        _messages.add(packed);
+        _lengths.add(text.length());
+        _lines.add(line);
+    }
+
+    /** Return the number of messages. */
+    int size() {
+        return _messages.size();
+    }
+
+    /** Return the line number given for message I. */
+    int line(int i) {
+        return _lines.get(i);
+    }
+
+    /** Return the number of positions at which messages I and J have the
+     *  same letter when J starts OFFSET letters after I. */
+    int repeats(int i, int j, int offset) {
+        if (offset < 0) {
+            return repeats(j, i, -offset);
+        }
+        int end = Math.min(_lengths.get(i), _lengths.get(j) + offset);
+        return end <= offset ? 0
+            : count(_messages.get(i), _messages.get(j), offset, end);
+    }
+
+    /** Return the number of letters of message A from positions START
+     *  to END-1 equal to those of message B shifted right by START
+     *  letters. */
+    private int count(long[] a, long[] b, int start, int end) {
+        int shift = -start & (Long.SIZE - 1);
+        int first = start / Long.SIZE, last = (end - 1) / Long.SIZE;
+        int result = 0;
+        for (int w = first; w <= last; w++) {
+            int lo = ((w * Long.SIZE - start) >> LOG_WORD) + 1;
+            long diff = 0;
+            for (int p = 0; p < _planes; p++) {
+                long low = b[lo * _planes + p],
+                    high = b[(lo + 1) * _planes + p];
+                diff |= a[(w + 1) * _planes + p]
+                    ^ ((low >>> shift) | ((high << 1) << (~shift & 63)));
+            }
+            long mask = -1L;
+            if (w == first) {
+                mask &= -1L << start;
+            }
+            if (w == last) {
+                mask &= -1L >>> -end;
+            }
+            result += Long.bitCount(~diff & mask);
+        }
+        return result;
+    }
+
+    /** Return the score of an alignment with REPEATS repeats in
+     *  OVERLAP letters. */
+    double score(int repeats, int overlap) {
+        return repeats * _repeatWeight + (overlap - repeats) * _differWeight;
+    }
+
+    /** Compare every pair of messages at every offset on POOL and return
+     *  the TOP highest-scoring alignments, best first.  TOP must be
+     *  positive. */
+    List<Alignment> run(ForkJoinPool pool, int top) {
+        if (top < 1) {
+            throw error("must keep at least one alignment");
+        }
+        PriorityQueue<Alignment> best = new PriorityQueue<>(ORDER);
+        pool.invoke(new Rows(0, size(), top, best));
+        List<Alignment> result = new ArrayList<>(best);
+        result.sort(ORDER.reversed());
+        return result;
+    }
+
+    /** Add to BEST, keeping its TOP highest-scoring entries, the
+     *  alignments of message I with each later message. */
+    private void compareRow(int i, int top, PriorityQueue<Alignment> best) {
+        long[] a = _messages.get(i);
+        int na = _lengths.get(i);
+        for (int j = i + 1; j < size(); j++) {
+            long[] b = _messages.get(j);
+            int nb = _lengths.get(j);
+            for (int d = 0; na - d >= _minOverlap; d++) {
+                int end = Math.min(na, nb + d);
+                if (end - d >= _minOverlap) {
+                    offer(best, i, j, d, count(a, b, d, end), end - d, top);
+                }
+            }
+            for (int d = 1; nb - d >= _minOverlap; d++) {
+                int end = Math.min(nb, na + d);
+                if (end - d >= _minOverlap) {
+                    offer(best, i, j, -d, count(b, a, d, end), end - d, top);
+                }
+            }
+        }
+    }
+
+    /** Add the alignment of messages I and J at OFFSET, with REPEATS in
+     *  OVERLAP letters, to BEST if it is among the TOP highest-scoring. */
+    private void offer(PriorityQueue<Alignment> best, int i, int j,
+                       int offset, int repeats, int overlap, int top) {
+        double score = score(repeats, overlap);
+        if (best.size() < top) {
+            best.add(new Alignment(i, j, offset, repeats, overlap, score));
+        } else if (score > best.peek().score) {
+            best.poll();
+            best.add(new Alignment(i, j, offset, repeats, overlap, score));
+        }
+    }
+
+    /** An alignment of two messages. */
+    static class Alignment {
+        /** Messages FIRST and SECOND, with SECOND starting OFFSET letters
+         *  after FIRST, having REPEATS repeats in OVERLAP letters and
+         *  scoring SCORE. */
+        Alignment(int first, int second, int offset, int repeats,
+                  int overlap, double score) {
+            this.first = first;
+            this.second = second;
+            this.offset = offset;
+            this.repeats = repeats;
+            this.overlap = overlap;
+            this.score = score;
+        }
+
+        /** Message numbers, FIRST < SECOND. */
+        final int first, second;
+        /** Start of SECOND relative to FIRST. */
+        final int offset;
+        /** Letters that agree. */
+        final int repeats;
+        /** Letters compared. */
+        final int overlap;
+        /** Weight of evidence for depth, in decibans. */
+        final double score;
+    }
+
+    /** A task comparing rows [LO, HI) of the pair matrix. */
+    private class Rows extends RecursiveAction {
+        /** Compare rows LO .. HI-1, merging the TOP best alignments into
+         *  BEST. */
+        Rows(int lo, int hi, int top, PriorityQueue<Alignment> best) {
+            _lo = lo;
+            _hi = hi;
+            _top = top;
+            _best = best;
+        }
+
+        @Override
+        protected void compute() {
+            if (_hi - _lo > 1) {
+                int mid = (_lo + _hi) >>> 1;
+                invokeAll(new Rows(_lo, mid, _top, _best),
+                          new Rows(mid, _hi, _top, _best));
+            } else if (_lo < _hi) {
+                PriorityQueue<Alignment> mine = new PriorityQueue<>(ORDER);
+                compareRow(_lo, _top, mine);
+                synchronized (_best) {
+                    for (Alignment a : mine) {
+                        offer(_best, a.first, a.second, a.offset,
+                              a.repeats, a.overlap, _top);
+                    }
+                }
+            }
+        }
+
+        /** Range of rows. */
+        private final int _lo, _hi;
+        /** Number of alignments kept. */
+        private final int _top;
+        /** Shared best alignments. */
+        private final PriorityQueue<Alignment> _best;
+    }
+
+    /** Orders alignments by score. */
+    private static final Comparator<Alignment> ORDER =
+        Comparator.comparingDouble(a -> a.score);
+
+    /** Default number of alignments printed. */
+    static final int DEFAULT_TOP = 20;
+    /** Default least overlap. */
+    static final int DEFAULT_MIN_OVERLAP = 30;
+    /** Default chance that two plaintext letters agree (about right for
+     *  English). */
+    static final double DEFAULT_KAPPA = 0.066;
+    /** Decibans per factor of 10 in likelihood. */
+    private static final double DECIBANS = 10;
+    /** Log base 2 of the bits in a word. */
+    private static final int LOG_WORD = 6;
+
+    /** Alphabet of the messages. */
+    private final Alphabet _alphabet;
+    /** Bits per letter. */
+    private final int _planes;
+    /** Messages, packed as bit planes: bit I % 64 of element
+     *  (I / 64 + 1) * _planes + P holds bit P of letter I, with a word of
+     *  zeros at each end. */
+    private final List<long[]> _messages = new ArrayList<>();
+    /** Message lengths. */
+    private final List<Integer> _lengths = new ArrayList<>();
+    /** Line numbers of messages. */
+    private final List<Integer> _lines = new ArrayList<>();
+    /** Least overlap considered. */
+    private int _minOverlap = DEFAULT_MIN_OVERLAP;
+    /** Score of a repeat. */
+    private double _repeatWeight;
+    /** Score of a non-repeat. */
+    private double _differWeight;
+}
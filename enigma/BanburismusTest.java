@@ -0,0 +1,124 @@
+package enigma;
+
+import java.util.List;
+import java.util.Random;
+import java.util.Scanner;
+import java.util.concurrent.ForkJoinPool;
+import org.junit.Test;
+import org.junit.Rule;
+import org.junit.rules.Timeout;
+import static org.junit.Assert.*;
+
+/** The suite of all JUnit tests for the Banburismus class.
+ *  @author Tianyu Liu
+ */
+public class BanburismusTest {
+
+    /** Testing time limit. */
+    @Rule
+    public Timeout globalTimeout = Timeout.seconds(10);
+
+    /* ***** TESTING UTILITIES ***** */
+
+    /** Letters weighted roughly as in English text. */
+    private static final String WEIGHTED =
+        "EEEEEEEEEEEETTTTTTTTTAAAAAAAAOOOOOOOIIIIIIINNNNNNNSSSSSSHHHHHH"
+        + "RRRRRRDDDDLLLLCCCUUUMMWWFFGGYYPPBVKJXQZ";
+
+    /** Return LEN random letters with English-like frequencies. */
+    static String plaintext(int len, Random random) {
+        StringBuilder result = new StringBuilder();
+        for (int i = 0; i < len; i++) {
+            result.append(WEIGHTED.charAt(random.nextInt(WEIGHTED.length())));
+        }
+        return result.toString();
+    }
+
+    /** Return LEN random letters of A-Z. */
+    static String uniform(int len, Random random) {
+        StringBuilder result = new StringBuilder();
+        for (int i = 0; i < len; i++) {
+            result.append((char) ('A' + random.nextInt(26)));
+        }
+        return result.toString();
+    }
+
+    /** Return the repeats of A and B, with B starting OFFSET letters
+     *  after A, counted one letter at a time. */
+    static int naive(String a, String b, int offset) {
+        int result = 0;
+        for (int i = Math.max(0, offset);
+             i < a.length() && i - offset < b.length(); i++) {
+            if (a.charAt(i) == b.charAt(i - offset)) {
+                result += 1;
+            }
+        }
+        return result;
+    }
+
+    /* ***** TESTS ***** */
+
+    @Test
+    public void testRepeatsMatchNaive() {
+        Random random = new Random(40);
+        Banburismus finder = new Banburismus(new Alphabet());
+        String[] texts = new String[6];
+        for (int i = 0; i < texts.length; i++) {
+            texts[i] = uniform(1 + random.nextInt(200), random);
+            finder.add(texts[i], i + 1);
+        }
+        for (int i = 0; i < texts.length; i++) {
+            for (int j = 0; j < texts.length; j++) {
+                for (int d = -texts[j].length() - 1;
+                     d <= texts[i].length() + 1; d++) {
+                    assertEquals(naive(texts[i], texts[j], d),
+                                 finder.repeats(i, j, d));
+                }
+            }
+        }
+    }
+
+    @Test
+    public void testFindsDepth() {
+        Random random = new Random(41);
+        Machine machine = LaneEngineTest.randomMachines(1, random)[0];
+        Machine other = machine.copy();
+        Banburismus finder = new Banburismus(machine.alphabet());
+        for (int i = 0; i < 8; i++) {
+            finder.add(uniform(200, random), i + 1);
+        }
+        String first = machine.convert(plaintext(3000, random));
+        other.convert(plaintext(37, random));
+        String second = other.convert(plaintext(3000, random));
+        finder.add(first, 20);
+        finder.add(second, 30);
+        List<Banburismus.Alignment> best =
+            finder.run(new ForkJoinPool(2), 5);
+        assertEquals(5, best.size());
+        Banburismus.Alignment top = best.get(0);
+        assertEquals(20, finder.line(top.first));
+        assertEquals(30, finder.line(top.second));
+        assertEquals(37, top.offset);
+        assertTrue(top.score > best.get(1).score);
+    }
+
+    @Test
+    public void testReadSkipsSettings() {
+        Banburismus finder = new Banburismus(new Alphabet());
+        finder.read(new Scanner("* B BETA III IV I AXLE (HQ) (EX)\n"
+                                + "HELLO WORLD\n\nABC\n* B BETA I II III "
+                                + "AAAA\nXYZ\n"));
+        assertEquals(3, finder.size());
+        assertEquals(2, finder.line(0));
+        assertEquals(4, finder.line(1));
+        assertEquals(6, finder.line(2));
+    }
+
+    @Test(expected = EnigmaException.class)
+    public void testNoneKept() {
+        Banburismus finder = new Banburismus(new Alphabet());
+        finder.add("HELLOWORLD", 1);
+        finder.add("HELLOTHERE", 2);
+        finder.run(new ForkJoinPool(1), 0);
+    }
+}
@@ -0,0 +1,404 @@
+package enigma;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.function.Consumer;
+
+import ucb.util.CommandArgs;
+
+import static enigma.EnigmaException.*;
+
+/** A crib-based key search in the style of the Turing-Welchman Bombe.
+ *
+ *  Given a ciphertext and a guessed plaintext (the crib) for part of it,
+ *  the crib's letter pairs form a menu: a graph on the alphabet with an
+ *  edge between plaintext and ciphertext letter at each crib position.
+ *  For every rotor order and start position, the rotor stack (the machine
+ *  without its plugboard) at each of those positions is computed with the
+ *  machine's own stepping, so ring settings and numPawls() are honoured,
+ *  including double stepping.  Then, for the most connected menu letter
+ *  L and each hypothesis "L is plugged to x", the consequences are
+ *  propagated through the menu and the diagonal board (a plugged to b
+ *  means b is plugged to a).  A hypothesis that never plugs one letter to
+ *  two others is a stop, reported with the plugboard pairs it implies.
+ *
+ *  The search is split over a ForkJoinPool, each task owning its own
+ *  copy of the machine, and stops are handed to a consumer as they are
+ *  found.
+ *  @author Tianyu Liu
+ */
+class Bombe {
+
+    /** Search for keys as specified by ARGS: a configuration file, a
+     *  ciphertext and a crib (blanks in either are ignored).  --offset=K
+     *  places the crib under ciphertext position K (default 0), --ring=R
+     *  gives the ring settings to assume (default all the first letter),
+     *  and --threads=N limits the parallelism.  Each stop is printed as a
+     *  setting line as soon as it is found. */
+    public static void main(String... args) {
+        try {
+            CommandArgs options =
+                new CommandArgs("--offset=(\\d+) --ring=(.+) "
+                                + "--threads=(\\d+) --=(.*){3}", args);
+            if (!options.ok()) {
+                throw error("Usage: java enigma.Bombe [--offset=K] "
+                            + "[--ring=RING] [--threads=N] CONFIG "
+                            + "CIPHERTEXT CRIB");
+            }
+            List<String> files = options.get("--");
+            Machine machine = Main.readConfig(Main.getInput(files.get(0)));
+            int offset = options.contains("--offset")
+                ? Integer.parseInt(options.getFirst("--offset")) : 0;
+            Bombe bombe = new Bombe(machine, files.get(1), files.get(2),
+                                    offset);
+            if (options.contains("--ring")) {
+                bombe.setRing(options.getFirst("--ring"));
+            }
+            ForkJoinPool pool = options.contains("--threads")
+                ? new ForkJoinPool(
+                    Integer.parseInt(options.getFirst("--threads")))
+                : ForkJoinPool.commonPool();
+            bombe.run(pool, stop -> {
+                synchronized (System.out) {
+                    System.out.println(stop);
+                }
+            });
+            return;
+        } catch (EnigmaException excp) {
+            System.err.printf("Error: %s%n", excp.getMessage());
+        }
+        System.exit(1);
+    }
+
+    /** A bombe searching the rotor orders of MACHINE for keys under which
+     *  CIPHERTEXT, from position OFFSET on, decrypts to CRIB. */
+    Bombe(Machine machine, String ciphertext, String crib, int offset) {
+        _machine = machine;
+        _alphabet = machine.alphabet();
+        _n = _alphabet.size();
+        String cipher = ciphertext.replace(" ", "");
+        String plain = crib.replace(" ", "");
+        if (offset < 0 || offset + plain.length() > cipher.length()) {
+            throw error("crib does not fit the ciphertext at offset %d",
+                        offset);
+        }
+        _offset = offset;
+        _orders = machine.rotorOrders();
+        _ring = null;
+        buildMenu(plain, cipher.substring(offset, offset + plain.length()));
+    }
+
+    /** Assume ring settings RING, as in a setting line. */
+    void setRing(String ring) {
+        if (ring.length() != _machine.numRotors() - 1) {
+            throw error("wrong ring setting length");
+        }
+        _ring = ring;
+    }
+
+    /** Search only the rotor orders ORDERS, each an array of rotor names
+     *  as for Machine.insertRotors. */
+    void setOrders(List<String[]> orders) {
+        _orders = orders;
+    }
+
+    /** Build my menu from the crib PLAIN placed under CIPHER. */
+    private void buildMenu(String plain, String cipher) {
+        int m = plain.length();
+        _edgeA = new int[m];
+        _edgeB = new int[m];
+        int[] degree = new int[_n];
+        for (int j = 0; j < m; j++) {
+            _edgeA[j] = _alphabet.toInt(plain.charAt(j));
+            _edgeB[j] = _alphabet.toInt(cipher.charAt(j));
+            if (_edgeA[j] == _edgeB[j]) {
+                throw error("crib letter %c enciphers to itself at %d",
+                            plain.charAt(j), _offset + j);
+            }
+            degree[_edgeA[j]] += 1;
+            degree[_edgeB[j]] += 1;
+        }
+        _adjacent = new int[_n][];
+        for (int a = 0; a < _n; a++) {
+            _adjacent[a] = new int[degree[a]];
+            degree[a] = 0;
+        }
+        for (int j = 0; j < m; j++) {
+            _adjacent[_edgeA[j]][degree[_edgeA[j]]++] = j;
+            _adjacent[_edgeB[j]][degree[_edgeB[j]]++] = j;
+        }
+        _testLetter = 0;
+        for (int a = 1; a < _n; a++) {
+            if (_adjacent[a].length > _adjacent[_testLetter].length) {
+                _testLetter = a;
+            }
+        }
+    }
+
+    /** Search every rotor order and start position using POOL, passing
+     *  each stop to SINK (from whichever thread finds it) and returning
+     *  all of them. */
+    List<Stop> run(ForkJoinPool pool, Consumer<Stop> sink) {
+        List<Stop> stops = Collections.synchronizedList(new ArrayList<>());
+        Consumer<Stop> both = stop -> {
+            stops.add(stop);
+            sink.accept(stop);
+        };
+        pool.invoke(new Search(0, _orders.size() * _n, both));
+        return stops;
+    }
+
+    /** Search work unit U, which is rotor order U / N with the leftmost
+     *  rotor after the reflector at position U % N, where N is my alphabet
+     *  size.  WORKER holds the scratch space, and stops go to SINK. */
+    private void searchUnit(int u, Worker worker, Consumer<Stop> sink) {
+        String[] order = _orders.get(u / _n);
+        Machine mach = worker.machine;
+        mach.insertRotors(order);
+        if (_ring != null) {
+            mach.insertRings(_ring);
+        }
+        int slots = mach.numRotors();
+        int[] start = new int[slots];
+        start[1] = u % _n;
+        do {
+            mach.setPositions(start);
+            mach.advance(_offset);
+            for (int j = 0; j < _edgeA.length; j++) {
+                mach.step();
+                mach.rotorTable(worker.tables[j]);
+            }
+            for (int x = 0; x < _n; x++) {
+                if (worker.tested[x] != worker.round) {
+                    testHypothesis(x, worker, order, start, sink);
+                }
+            }
+            worker.round += 1;
+        } while (nextPosition(start));
+    }
+
+    /** Advance START, a value of Machine.positions() with slot 1 held
+     *  fixed, to the next combination of the other rotors' positions, and
+     *  return false if there is none. */
+    private boolean nextPosition(int[] start) {
+        for (int k = start.length - 1; k > 1; k--) {
+            start[k] += 1;
+            if (start[k] < _n) {
+                return true;
+            }
+            start[k] = 0;
+        }
+        return false;
+    }
+
+    /** Propagate the hypothesis that my test letter is plugged to X
+     *  through the menu, using the rotor tables in WORKER, and report a
+     *  stop for ORDER and START to SINK if it is consistent. */
+    private void testHypothesis(int x, Worker worker, String[] order,
+                                int[] start, Consumer<Stop> sink) {
+        boolean ok = propagate(x, worker);
+        for (int i = 0; i < worker.queueLen; i++) {
+            int pair = worker.queue[i];
+            if (pair / _n == _testLetter) {
+                worker.tested[pair % _n] = worker.round;
+            }
+        }
+        if (ok) {
+            int[] partner = new int[_n];
+            Arrays.fill(partner, -1);
+            for (int i = 0; i < worker.queueLen; i++) {
+                int pair = worker.queue[i];
+                partner[pair / _n] = pair % _n;
+            }
+            sink.accept(new Stop(order, start.clone(), _ring, partner,
+                                 _alphabet));
+        }
+        for (int i = 0; i < worker.queueLen; i++) {
+            int pair = worker.queue[i];
+            worker.live[pair] = false;
+            worker.count[pair / _n] = 0;
+        }
+        worker.queueLen = 0;
+    }
+
+    /** Compute in WORKER the closure of "test letter plugged to X" under
+     *  the menu and the diagonal board, returning false as soon as some
+     *  letter is found plugged to two others. */
+    private boolean propagate(int x, Worker worker) {
+        if (!plug(_testLetter, x, worker)) {
+            return false;
+        }
+        for (int head = 0; head < worker.queueLen; head++) {
+            int pair = worker.queue[head];
+            int a = pair / _n, b = pair % _n;
+            if (!plug(b, a, worker)) {
+                return false;
+            }
+            for (int e : _adjacent[a]) {
+                int other = _edgeA[e] == a ? _edgeB[e] : _edgeA[e];
+                if (!plug(other, worker.tables[e][b], worker)) {
+                    return false;
+                }
+            }
+        }
+        return true;
+    }
+
+    /** Record in WORKER that A is plugged to B.  Return false if A is
+     *  already plugged to something else. */
+    private boolean plug(int a, int b, Worker worker) {
+        int pair = a * _n + b;
+        if (worker.live[pair]) {
+            return true;
+        }
+        worker.live[pair] = true;
+        worker.queue[worker.queueLen++] = pair;
+        worker.count[a] += 1;
+        return worker.count[a] == 1;
+    }
+
+    /** Scratch space for one search thread. */
+    private class Worker {
+        /** My own copy of the machine. */
+        final Machine machine = _machine.copy();
+        /** Rotor-stack tables at each crib position. */
+        final int[][] tables = new int[_edgeA.length][_n];
+        /** Live (letter, partner) pairs, indexed by letter * N + partner. */
+        final boolean[] live = new boolean[_n * _n];
+        /** The live pairs, in the order they were found. */
+        final int[] queue = new int[_n * _n];
+        /** Number of pairs in queue. */
+        int queueLen;
+        /** Number of live partners of each letter. */
+        final int[] count = new int[_n];
+        /** tested[x] == round iff hypothesis x is settled for the current
+         *  start position. */
+        final int[] tested = new int[_n];
+        /** Number of the current start position; starts at 1 so that
+         *  tested[] starts out unsettled. */
+        int round = 1;
+    }
+
+    /** A task searching the work units in [LO, HI). */
+    private class Search extends RecursiveAction {
+        /** Search the work units LO to HI - 1, reporting stops to SINK. */
+        Search(int lo, int hi, Consumer<Stop> sink) {
+            _lo = lo;
+            _hi = hi;
+            _sink = sink;
+        }
+
+        @Override
+        protected void compute() {
+            if (_hi - _lo > 1) {
+                int mid = (_lo + _hi) >>> 1;
+                invokeAll(new Search(_lo, mid, _sink),
+                          new Search(mid, _hi, _sink));
+                return;
+            }
+            if (_lo < _hi) {
+                searchUnit(_lo, new Worker(), _sink);
+            }
+        }
+
+        /** First work unit. */
+        private final int _lo;
+        /** Limit of work units. */
+        private final int _hi;
+        /** Destination of stops. */
+        private final Consumer<Stop> _sink;
+    }
+
+    /** A bombe stop: a rotor order, start position and ring setting with
+     *  the plugboard connections they imply. */
+    static class Stop {
+        /** A stop for rotors ORDER at start positions START (as from
+         *  Machine.positions()) with ring setting RING (null for the
+         *  default), where PARTNER[a] is the letter plugged to a, or -1 if
+         *  that is unknown, over ALPHABET. */
+        Stop(String[] order, int[] start, String ring, int[] partner,
+             Alphabet alphabet) {
+            _order = order;
+            _start = start;
+            _ring = ring;
+            _partner = partner;
+            _alphabet = alphabet;
+        }
+
+        /** Return my rotor names, reflector first. */
+        String[] order() {
+            return _order;
+        }
+
+        /** Return my start positions, as from Machine.positions(). */
+        int[] start() {
+            return _start;
+        }
+
+        /** Return the letter my plugboard connects to A, or -1 if it is
+         *  not implied. */
+        int partner(int a) {
+            return _partner[a];
+        }
+
+        /** Returns a setting line for me that Main.setUp accepts.  Letters
+         *  whose plugging is unknown are left unplugged. */
+        @Override
+        public String toString() {
+            StringBuilder result = new StringBuilder("*");
+            for (String name : _order) {
+                result.append(' ').append(name);
+            }
+            result.append(' ');
+            for (int k = 1; k < _start.length; k++) {
+                result.append(_alphabet.toChar(_start[k]));
+            }
+            if (_ring != null) {
+                result.append(' ').append(_ring);
+            }
+            for (int a = 0; a < _partner.length; a++) {
+                if (_partner[a] > a) {
+                    result.append(" (").append(_alphabet.toChar(a))
+                        .append(_alphabet.toChar(_partner[a])).append(')');
+                }
+            }
+            return result.toString();
+        }
+
+        /** Rotor names, reflector first. */
+        private final String[] _order;
+        /** Start positions. */
+        private final int[] _start;
+        /** Ring setting, or null. */
+        private final String _ring;
+        /** Plugboard partners, or -1. */
+        private final int[] _partner;
+        /** Alphabet of the machine. */
+        private final Alphabet _alphabet;
+    }
+
+    /** The machine whose rotors are searched. */
+    private final Machine _machine;
+    /** Its alphabet. */
+    private final Alphabet _alphabet;
+    /** Size of the alphabet. */
+    private final int _n;
+    /** Ciphertext position of the first crib letter. */
+    private final int _offset;
+    /** Rotor orders to search. */
+    private List<String[]> _orders;
+    /** Ring setting to assume, or null for the default. */
+    private String _ring;
+    /** Plaintext letter of each menu edge. */
+    private int[] _edgeA;
+    /** Ciphertext letter of each menu edge. */
+    private int[] _edgeB;
+    /** Edges touching each letter. */
+    private int[][] _adjacent;
+    /** The most connected letter of the menu. */
+    private int _testLetter;
+}
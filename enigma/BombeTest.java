@@ -0,0 +1,97 @@
+package enigma;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Scanner;
+import java.util.concurrent.ForkJoinPool;
+import org.junit.Test;
+import org.junit.Rule;
+import org.junit.rules.Timeout;
+import static org.junit.Assert.*;
+
+/** The suite of all JUnit tests for the Bombe class.
+ *  @author Tianyu Liu
+ */
+public class BombeTest {
+
+    /** Testing time limit. */
+    @Rule
+    public Timeout globalTimeout = Timeout.seconds(20);
+
+    /* ***** TESTING UTILITIES ***** */
+
+    /** A three-rotor configuration. */
+    static final String CONFIG =
+        "ABCDEFGHIJKLMNOPQRSTUVWXYZ 4 3\n"
+        + " I MQ (AELTPHQXRU) (BKNW) (CMOY) (DFG) (IV) (JZ) (S)\n"
+        + " II ME (FIXVYOMW) (CDKLHUP) (ESZ) (BJ) (GR) (NT) (A) (Q)\n"
+        + " III MV (ABDHPEJT) (CFLVMZOYQIRWUKXSG) (N)\n"
+        + " B R (AE) (BN) (CK) (DQ) (FU) (GY) (HW) (IJ) (LO) (MP)\n"
+        + "     (RX) (SZ) (TV)\n";
+
+    /** Return a machine for CONFIG set up by SETTING. */
+    static Machine machine(String setting) {
+        Machine mach = Main.readConfig(new Scanner(CONFIG));
+        Main.setUp(mach, setting);
+        return mach;
+    }
+
+    /* ***** TESTS ***** */
+
+    @Test
+    public void testMachineOrders() {
+        Machine mach = Main.readConfig(new Scanner(ServerTest.CONFIG));
+        List<String[]> orders = mach.rotorOrders();
+        assertEquals(6, orders.size());
+        for (String[] order : orders) {
+            assertEquals("B", order[0]);
+            assertEquals("Beta", order[1]);
+        }
+    }
+
+    @Test
+    public void testRotorTable() {
+        Machine mach = machine("* B III I II QEV DFA");
+        Machine copy = mach.copy();
+        int[] table = new int[26];
+        for (int i = 0; i < 40; i++) {
+            copy.step();
+            copy.rotorTable(table);
+            mach.setPlugboard(new Permutation("", mach.alphabet()));
+            assertEquals(table[i % 26], mach.convert(i % 26));
+        }
+    }
+
+    @Test
+    public void testFindsKey() {
+        String setting = "* B II I III KDQ (AT) (BL) (MO) (WZ)";
+        String plain = "WETTERVORHERSAGEBISKAYAXKEINEAENDERUNG";
+        String cipher = machine(setting).convert(plain);
+        List<String[]> orders = new ArrayList<>();
+        orders.add(new String[] {"B", "II", "I", "III"});
+        orders.add(new String[] {"B", "I", "II", "III"});
+        Bombe bombe = new Bombe(Main.readConfig(new Scanner(CONFIG)), cipher,
+                                plain.substring(4, 30), 4);
+        bombe.setOrders(orders);
+        List<String> found = new ArrayList<>();
+        List<Bombe.Stop> stops = bombe.run(new ForkJoinPool(2), stop -> {
+            synchronized (found) {
+                found.add(stop.toString());
+            }
+        });
+        assertEquals(stops.size(), found.size());
+        boolean hit = false;
+        for (Bombe.Stop stop : stops) {
+            if (String.join(" ", stop.order()).equals("B II I III")
+                && stop.toString().startsWith("* B II I III KDQ")) {
+                hit = true;
+                assertEquals(0, stop.partner(19));
+                assertEquals(11, stop.partner(1));
+                assertEquals(14, stop.partner(12));
+                String line = stop.toString();
+                assertEquals(plain, machine(line).convert(cipher));
+            }
+        }
+        assertTrue("true key not found among " + found, hit);
+    }
+}
@@ -0,0 +1,284 @@
+package enigma;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+import ucb.util.CommandArgs;
+
+import static enigma.EnigmaException.*;
+
+/** Converts long runs of indices with a machine a block at a time.
+ *
+ *  Between turnovers only the rightmost rotor moves, so the machine's
+ *  permutation at each step is PLUG, then the rightmost rotor's wiring at
+ *  its offset, then the fixed permutation M of all the other rotors (see
+ *  Machine.innerTable), then the rightmost rotor's inverse wiring, then
+ *  PLUG again.  For each block the machine is first stepped through the
+ *  block, recording each step's rightmost offset and which M table
+ *  applies (a new one being computed after each turnover); then a kernel
+ *  does the five table lookups for every character of the block.  Those
+ *  lookups are independent, so the kernel can use vector gathers: the
+ *  VectorKernel does, when the jdk.incubator.vector module is present
+ *  (java --add-modules jdk.incubator.vector), and a scalar kernel is used
+ *  otherwise.
+ *
+ *  The machine is left as if it had converted each character itself.
+ *  @author Tianyu Liu
+ */
+class BulkConverter {
+
+    /** Compare the speed of Machine.convert(int) with the scalar and
+     *  vector kernels, as specified by ARGS: a configuration file, with
+     *  --setting giving the setting line, --length=N the message length
+     *  (default 1000000) and --rounds=R the number of timed rounds after
+     *  as many warm-up rounds (default 5). */
+    public static void main(String... args) {
+        try {
+            CommandArgs options =
+                new CommandArgs("--setting=(.+) --length=(\\d+) "
+                                + "--rounds=(\\d+) --=(.*){1}", args);
+            if (!options.ok() || !options.contains("--setting")) {
+                throw error("Usage: java [--add-modules jdk.incubator.vector] "
+                            + "enigma.BulkConverter --setting=SETTING "
+                            + "[--length=N] [--rounds=R] CONFIG");
+            }
+            Machine machine =
+                Main.readConfig(Main.getInput(options.getFirst("--")));
+            Main.setUp(machine, options.getFirst("--setting"));
+            int length = options.contains("--length")
+                ? Integer.parseInt(options.getFirst("--length")) : 1000000;
+            int rounds = options.contains("--rounds")
+                ? Integer.parseInt(options.getFirst("--rounds")) : 5;
+            benchmark(machine, length, rounds);
+            return;
+        } catch (EnigmaException excp) {
+            System.err.printf("Error: %s%n", excp.getMessage());
+        }
+        System.exit(1);
+    }
+
+    /** Time conversions of a random message of LENGTH indices with copies
+     *  of MACHINE for ROUNDS rounds, after as many warm-up rounds, and
+     *  report the best rate of each method. */
+    private static void benchmark(Machine machine, int length, int rounds) {
+        int n = machine.alphabet().size();
+        int[] text = new int[length];
+        Random random = new Random(38);
+        for (int i = 0; i < length; i++) {
+            text[i] = random.nextInt(n);
+        }
+        int[] expected = null;
+        Kernel vector = vectorKernel();
+        List<String> methods = vector == null
+            ? List.of("Machine.convert", "scalar")
+            : List.of("Machine.convert", "scalar", "vector");
+        for (String method : methods) {
+            long best = Long.MAX_VALUE;
+            int[] work = null;
+            for (int r = 0; r < 2 * rounds; r++) {
+                Machine mach = machine.copy();
+                work = text.clone();
+                long start = System.nanoTime();
+                if (method.equals("Machine.convert")) {
+                    for (int i = 0; i < length; i++) {
+                        work[i] = mach.convert(work[i]);
+                    }
+                } else {
+                    new BulkConverter(mach, method.equals("vector")
+                                      ? vectorKernel() : new ScalarKernel())
+                        .convert(work, 0, length);
+                }
+                long time = System.nanoTime() - start;
+                if (r >= rounds) {
+                    best = Math.min(best, time);
+                }
+            }
+            if (expected == null) {
+                expected = work;
+            } else if (!Arrays.equals(expected, work)) {
+                throw error("%s gave different results", method);
+            }
+            System.out.printf("%-16s %10.1f Mchar/s%n", method,
+                              length * 1e3 / best);
+        }
+    }
+
+    /** The table lookups of a block. */
+    interface Kernel {
+        /** For each I in 0 .. LEN-1, replace X = TEXT[FROM + I] by
+         *  PLUG[G[OFF[I] + M[SEG[I] + F[OFF[I] + PLUG[X]]]]]. */
+        void apply(int[] text, int from, int len, int[] off, int[] seg,
+                   int[] plug, int[] f, int[] m, int[] g);
+    }
+
+    /** The kernel without vector instructions. */
+    static class ScalarKernel implements Kernel {
+        @Override
+        public void apply(int[] text, int from, int len, int[] off,
+                          int[] seg, int[] plug, int[] f, int[] m,
+                          int[] g) {
+            for (int i = 0; i < len; i++) {
+                int o = off[i];
+                text[from + i] = plug[g[o + m[seg[i] + f[o
+                    + plug[text[from + i]]]]]];
+            }
+        }
+    }
+
+    /** Return a VectorKernel, or null if the jdk.incubator.vector module
+     *  is not available. */
+    static Kernel vectorKernel() {
+        try {
+            return (Kernel) Class.forName("enigma.VectorKernel")
+                .getDeclaredConstructor().newInstance();
+        } catch (ReflectiveOperationException | LinkageError excp) {
+            return null;
+        }
+    }
+
+    /** Return the vector kernel if available, and otherwise the scalar
+     *  one. */
+    static Kernel bestKernel() {
+        Kernel vector = vectorKernel();
+        return vector != null ? vector : new ScalarKernel();
+    }
+
+    /** A converter that steps MACHINE, using the vector kernel if
+     *  available. */
+    BulkConverter(Machine machine) {
+        this(machine, bestKernel());
+    }
+
+    /** A converter that steps MACHINE, using KERNEL. */
+    BulkConverter(Machine machine, Kernel kernel) {
+        if (!fits(machine.alphabet().size())) {
+            throw error("alphabet of %d symbols is too large for tables",
+                        machine.alphabet().size());
+        }
+        _machine = machine;
+        _kernel = kernel;
+        _n = machine.alphabet().size();
+        _fast = machine.numRotors() - 1;
+        _slow = new int[machine.numRotors()];
+        _off = new int[BLOCK];
+        _seg = new int[BLOCK];
+        _m = new int[4 * _n];
+        _inner = new int[_n];
+    }
+
+    /** Return the name of my kernel's class. */
+    String kernelName() {
+        return _kernel.getClass().getSimpleName();
+    }
+
+    /** Replace each index TEXT[FROM .. TO-1] by its conversion, in turn,
+     *  advancing my machine as Machine.convert(int) would. */
+    void convert(int[] text, int from, int to) {
+        int[] plug = _machine.plugboard().forwardTable();
+        prepareFast();
+        for (int start = from; start < to; start += BLOCK) {
+            int len = Math.min(BLOCK, to - start);
+            prepareBlock(len);
+            _kernel.apply(text, start, len, _off, _seg, plug, _f,
+                          _m, _g);
+        }
+    }
+
+    /** Set up the shifted tables of the rightmost rotor, if it is not the
+     *  one they were made for. */
+    private void prepareFast() {
+        Rotor fast = _machine.getRotor(_fast);
+        if (fast == _fastRotor) {
+            return;
+        }
+        int n = _n;
+        _f = new int[n * n];
+        _g = new int[n * n];
+        int[] forward = fast.permutation().forwardTable();
+        int[] inverse = fast.permutation().inverseTable();
+        int[] row = new int[n];
+        for (int o = 0; o < n; o++) {
+            System.arraycopy(Permutation.conjugate(forward, o, row), 0,
+                             _f, o * n, n);
+            System.arraycopy(Permutation.conjugate(inverse, o, row), 0,
+                             _g, o * n, n);
+        }
+        _fastRotor = fast;
+    }
+
+    /** Step my machine LEN times, filling _OFF and _SEG for each step and
+     *  computing the M tables they refer to. */
+    private void prepareBlock(int len) {
+        Machine mach = _machine;
+        Rotor fast = mach.getRotor(_fast);
+        int n = _n, segs = 0;
+        for (int i = 0; i < len; i++) {
+            mach.step();
+            boolean moved = slowMoved();
+            if (segs == 0 || moved) {
+                if ((segs + 1) * n > _m.length) {
+                    _m = Arrays.copyOf(_m, 2 * _m.length);
+                }
+                System.arraycopy(mach.innerTable(_inner), 0, _m, segs * n,
+                                 n);
+                segs += 1;
+            }
+            _seg[i] = (segs - 1) * n;
+            _off[i] = Math.floorMod(fast.setting() - fast.getr(), n) * n;
+        }
+    }
+
+    /** Return true iff a rotor other than the rightmost has moved since
+     *  the last call, recording the current positions. */
+    private boolean slowMoved() {
+        boolean moved = false;
+        for (int k = 1; k < _fast; k++) {
+            int p = _machine.getRotor(k).setting();
+            if (p != _slow[k]) {
+                _slow[k] = p;
+                moved = true;
+            }
+        }
+        return moved;
+    }
+
+    /** Return true iff the tables for an alphabet of N symbols, two of
+     *  N * N indices, are within MAX_SIZE. */
+    static boolean fits(int n) {
+        return n <= MAX_SIZE;
+    }
+
+    /** Number of characters per block. */
+    static final int BLOCK = 4096;
+
+    /** Largest alphabet for which tables are built: 2048 symbols take
+     *  32 MiB of tables, and much larger ones overflow an array index. */
+    static final int MAX_SIZE = 2048;
+
+    /** The machine being stepped. */
+    private final Machine _machine;
+    /** The table lookups. */
+    private final Kernel _kernel;
+    /** Alphabet size. */
+    private final int _n;
+    /** Slot of the rightmost rotor. */
+    private final int _fast;
+    /** Last positions seen of the other rotors, by slot. */
+    private final int[] _slow;
+    /** Offset of the rightmost rotor, times N, at each step of a
+     *  block. */
+    private final int[] _off;
+    /** Start in _M of the M table for each step of a block. */
+    private final int[] _seg;
+    /** The M tables of a block, one after another. */
+    private int[] _m;
+    /** Scratch M table. */
+    private final int[] _inner;
+    /** Forward wiring of the rightmost rotor at offset O, at O * N. */
+    private int[] _f;
+    /** Inverse wiring of the rightmost rotor at offset O, at O * N. */
+    private int[] _g;
+    /** The rotor _F and _G were made for. */
+    private Rotor _fastRotor;
+}
@@ -0,0 +1,71 @@
+package enigma;
+
+import java.util.Random;
+import org.junit.Test;
+import org.junit.Rule;
+import org.junit.rules.Timeout;
+import static org.junit.Assert.*;
+
+/** The suite of all JUnit tests for the BulkConverter class.
+ *  @author Tianyu Liu
+ */
+public class BulkConverterTest {
+
+    /** Testing time limit. */
+    @Rule
+    public Timeout globalTimeout = Timeout.seconds(10);
+
+    /* ***** TESTING UTILITIES ***** */
+
+    /** Check that KERNEL converts a long random message as MACHINE does,
+     *  leaving its copy of the machine in the same state. */
+    static void checkKernel(Machine machine, BulkConverter.Kernel kernel) {
+        Random random = new Random(38);
+        int[] text = new int[3 * BulkConverter.BLOCK + 17];
+        for (int i = 0; i < text.length; i++) {
+            text[i] = random.nextInt(machine.alphabet().size());
+        }
+        Machine copy = machine.copy();
+        int[] expected = new int[text.length];
+        for (int i = 0; i < text.length; i++) {
+            expected[i] = machine.convert(text[i]);
+        }
+        BulkConverter bulk = new BulkConverter(copy, kernel);
+        bulk.convert(text, 0, 5);
+        bulk.convert(text, 5, text.length);
+        assertArrayEquals(expected, text);
+        assertArrayEquals(machine.positions(), copy.positions());
+    }
+
+    /* ***** TESTS ***** */
+
+    @Test
+    public void testScalar() {
+        for (Machine mach : LaneEngineTest.randomMachines(5,
+                                                          new Random(1))) {
+            checkKernel(mach, new BulkConverter.ScalarKernel());
+        }
+    }
+
+    @Test
+    public void testVector() {
+        BulkConverter.Kernel kernel = BulkConverter.vectorKernel();
+        if (kernel == null) {
+            return;
+        }
+        for (Machine mach : LaneEngineTest.randomMachines(5,
+                                                          new Random(2))) {
+            checkKernel(mach, kernel);
+        }
+    }
+
+    @Test
+    public void testFixedRotors() {
+        checkKernel(BombeTest.machine("* B II I III ZZZ"),
+                    BulkConverter.bestKernel());
+        Machine mach = Main.readConfig(new java.util.Scanner(
+            "AB 2 0\n R1 N (AB)\n R2 R (AB)\n"));
+        mach.insertRotors(new String[] {"R2", "R1"});
+        checkKernel(mach, new BulkConverter.ScalarKernel());
+    }
+}
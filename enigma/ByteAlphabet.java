@@ -0,0 +1,67 @@
+package enigma;
+
+import static enigma.EnigmaException.*;
+
+/** The alphabet of all 256 byte values.  The symbol with index K is the
+ *  character whose (ISO-8859-1) code is K, so the index of a byte is its
+ *  unsigned value.  Since most of these symbols cannot be written in a
+ *  configuration file, cycles over this alphabet are written as pairs of
+ *  hexadecimal digits, e.g. "(00ff1b)".
+ *  @author Tianyu Liu
+ */
+class ByteAlphabet extends Alphabet {
+
+    /** The alphabet of all byte values. */
+    ByteAlphabet() {
+        super(allBytes());
+    }
+
+    /** Return the string of the characters with codes 0 to 255. */
+    private static String allBytes() {
+        char[] result = new char[SIZE];
+        for (int i = 0; i < SIZE; i++) {
+            result[i] = (char) i;
+        }
+        return new String(result);
+    }
+
+    @Override
+    int size() {
+        return SIZE;
+    }
+
+    @Override
+    int indexOf(char ch) {
+        return ch < SIZE ? ch : -1;
+    }
+
+    @Override
+    char toChar(int index) {
+        return (char) index;
+    }
+
+    /** Stores the byte values written as hexadecimal pairs in TEXT at the
+     *  start of RESULT and returns how many there are. */
+    @Override
+    int toInts(CharSequence text, int[] result) {
+        if (text.length() % 2 != 0) {
+            throw error("odd number of hex digits in %s", text);
+        }
+        int n = text.length() / 2;
+        for (int i = 0; i < n; i++) {
+            int hi = Character.digit(text.charAt(2 * i), HEX);
+            int lo = Character.digit(text.charAt(2 * i + 1), HEX);
+            if (hi < 0 || lo < 0) {
+                throw error("bad hex byte in %s", text);
+            }
+            result[i] = hi * HEX + lo;
+        }
+        return n;
+    }
+
+    /** Number of byte values. */
+    static final int SIZE = 256;
+
+    /** Radix of byte cycle notation. */
+    private static final int HEX = 16;
+}
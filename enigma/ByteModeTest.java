@@ -0,0 +1,243 @@
+package enigma;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.FileDescriptor;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.Random;
+import java.util.Scanner;
+import org.junit.Test;
+import org.junit.Rule;
+import org.junit.rules.Timeout;
+import static org.junit.Assert.*;
+
+/** The suite of all JUnit tests for the byte-alphabet mode and for the
+ *  byte conversions of ASCII alphabets.
+ *  @author Tianyu Liu
+ */
+public class ByteModeTest {
+
+    /** Testing time limit. */
+    @Rule
+    public Timeout globalTimeout = Timeout.seconds(5);
+
+    /* ***** TESTING UTILITIES ***** */
+
+    /** Return VALUES in byte cycle notation, as one cycle. */
+    private static String hexCycle(int... values) {
+        StringBuilder result = new StringBuilder("(");
+        for (int v : values) {
+            result.append(String.format("%02x", v));
+        }
+        return result.append(")").toString();
+    }
+
+    /** Return a random single-cycle permutation of the bytes, in byte
+     *  cycle notation, drawn using RANDOM. */
+    static String randomWiring(Random random) {
+        int[] order = shuffled(random);
+        return hexCycle(order);
+    }
+
+    /** Return a random pairing of all the bytes, in byte cycle notation,
+     *  drawn using RANDOM. */
+    static String randomReflector(Random random) {
+        int[] order = shuffled(random);
+        StringBuilder result = new StringBuilder();
+        for (int i = 0; i < order.length; i += 2) {
+            result.append(hexCycle(order[i], order[i + 1])).append(' ');
+        }
+        return result.toString();
+    }
+
+    /** Return the byte values in an order drawn using RANDOM. */
+    private static int[] shuffled(Random random) {
+        int[] order = new int[ByteAlphabet.SIZE];
+        for (int i = 0; i < order.length; i++) {
+            order[i] = i;
+        }
+        for (int i = order.length - 1; i > 0; i--) {
+            int j = random.nextInt(i + 1);
+            int t = order[i];
+            order[i] = order[j];
+            order[j] = t;
+        }
+        return order;
+    }
+
+    /** Return a byte-mode configuration with reflector R and moving rotors
+     *  X, Y and Z, drawn using a fixed seed. */
+    static String byteConfig() {
+        Random random = new Random(61);
+        return Main.BYTES + " 4 3\n"
+            + " R R " + randomReflector(random) + "\n"
+            + " X MQ " + randomWiring(random) + "\n"
+            + " Y ME " + randomWiring(random) + "\n"
+            + " Z MV " + randomWiring(random) + "\n";
+    }
+
+    /** The setting line used with byteConfig(). */
+    static final String SETTING = "* R X Y Z a~Q (41ff) (0010)";
+
+    /* ***** TESTS ***** */
+
+    @Test
+    public void testHexCycles() {
+        Permutation p = new Permutation("(00ff) (102030)",
+                                        new ByteAlphabet());
+        assertEquals(256, p.size());
+        assertEquals(255, p.permute(0));
+        assertEquals(0, p.permute(255));
+        assertEquals(0x20, p.permute(0x10));
+        assertEquals(0x10, p.invert(0x20));
+        assertEquals(5, p.permute(5));
+    }
+
+    @Test(expected = EnigmaException.class)
+    public void testBadHex() {
+        new Permutation("(0g)", new ByteAlphabet());
+    }
+
+    @Test
+    public void testBufferRoundTrip() {
+        Machine mach = Main.readConfig(new Scanner(byteConfig()));
+        Main.setUp(mach, SETTING);
+        byte[] plain = new byte[10000];
+        new Random(3).nextBytes(plain);
+
+        ByteBuffer direct = ByteBuffer.allocateDirect(plain.length);
+        direct.put(plain).flip();
+        assertEquals(plain.length, mach.convert(direct, direct));
+        assertFalse(direct.hasRemaining());
+        byte[] cipher = new byte[plain.length];
+        direct.flip();
+        direct.get(cipher);
+        for (int i = 0; i < plain.length; i++) {
+            assertNotEquals(plain[i], cipher[i]);
+        }
+
+        Main.setUp(mach, SETTING);
+        ByteBuffer out = ByteBuffer.allocate(plain.length);
+        mach.convert(ByteBuffer.wrap(cipher), out);
+        assertArrayEquals(plain, out.array());
+    }
+
+    @Test
+    public void testMainFiles() throws IOException {
+        File dir = Files.createTempDirectory("enigma").toFile();
+        File conf = new File(dir, "bytes.conf");
+        File in = new File(dir, "in.bin");
+        File enc = new File(dir, "enc.bin");
+        File dec = new File(dir, "dec.bin");
+        Files.writeString(conf.toPath(), byteConfig());
+        byte[] plain = new byte[200000];
+        new Random(4).nextBytes(plain);
+        Files.write(in.toPath(), plain);
+
+        Main.main("--setting=" + SETTING, conf.getPath(), in.getPath(),
+                  enc.getPath());
+        byte[] withLine = Files.readAllBytes(enc.toPath());
+        byte[] framed = Arrays.copyOf((SETTING + "\n").getBytes("ISO-8859-1"),
+                                      SETTING.length() + 1 + plain.length);
+        System.arraycopy(withLine, 0, framed, SETTING.length() + 1,
+                         withLine.length);
+        Files.write(enc.toPath(), framed);
+        Main.main(conf.getPath(), enc.getPath(), dec.getPath());
+        assertArrayEquals(plain, Files.readAllBytes(dec.toPath()));
+    }
+
+    @Test
+    public void testAsciiBytes() {
+        Machine expected = PipelineTest.machine();
+        Machine mach = PipelineTest.machine();
+        String setting = "* B Beta I II III AXLE (HQ) (EX) (IP)";
+        Main.setUp(expected, setting);
+        Main.setUp(mach, setting);
+        byte[] text = "HELLO, WORLD".getBytes(StandardCharsets.US_ASCII);
+        assertEquals(12, mach.convert(text, 0, 12, ForeignPolicy.PASS));
+        assertEquals(expected.convert("HELLO") + ", "
+                     + expected.convert("WORLD"),
+                     new String(text, StandardCharsets.US_ASCII));
+        text = "AB-CD".getBytes(StandardCharsets.US_ASCII);
+        assertEquals(4, mach.convert(text, 0, 5, ForeignPolicy.DROP));
+        assertEquals(expected.convert("ABCD"),
+                     new String(text, 0, 4, StandardCharsets.US_ASCII));
+        ByteBuffer buf = ByteBuffer.wrap(
+            "QRSTUV".getBytes(StandardCharsets.US_ASCII));
+        assertEquals(6, mach.convert(buf, buf));
+        assertEquals(expected.convert("QRSTUV"),
+                     new String(buf.array(), StandardCharsets.US_ASCII));
+        try {
+            mach.convert("AB1".getBytes(StandardCharsets.US_ASCII), 0, 3,
+                         ForeignPolicy.FAIL);
+            fail("foreign character accepted");
+        } catch (EnigmaException excp) {
+            /* Expected. */
+        }
+    }
+
+    @Test
+    public void testAsciiMain() throws IOException {
+        File dir = Files.createTempDirectory("enigma").toFile();
+        File conf = new File(dir, "ascii.conf");
+        File in = new File(dir, "in.txt");
+        File out = new File(dir, "out.txt");
+        Files.writeString(conf.toPath(), ServerTest.CONFIG);
+        Random random = new Random(47);
+        StringBuilder input = new StringBuilder("* B Beta I II III AAAA\n");
+        for (int i = 0; i < 200; i++) {
+            input.append(i % 50 == 49 ? "* B Beta III I II QRST ABCD (EF)"
+                         : PipelineTest.letters(random.nextInt(90), random))
+                .append(i % 3 == 0 ? "\r\n" : "\n");
+        }
+        input.append("LAST");
+        Files.writeString(in.toPath(), input);
+        Main.main(conf.getPath(), in.getPath(), out.getPath());
+        assertEquals(PipelineTest.sequential(input.toString()),
+                     Files.readString(out.toPath()));
+        for (File f : new File[] {conf, in, out, dir}) {
+            f.delete();
+        }
+    }
+
+    @Test
+    public void testStandardStreamsStayOpen() throws IOException {
+        File dir = Files.createTempDirectory("enigma").toFile();
+        File bytes = new File(dir, "bytes.conf");
+        File ascii = new File(dir, "ascii.conf");
+        File cache = new File(dir, "cache");
+        Files.writeString(bytes.toPath(), byteConfig());
+        Files.writeString(ascii.toPath(), ServerTest.CONFIG);
+        InputStream stdin = System.in;
+        String text = "--setting=* B Beta I II III AAAA";
+        String[][] runs = {
+            {"--setting=" + SETTING, bytes.getPath()},
+            {text, ascii.getPath()},
+            {text, "--pipeline", ascii.getPath()},
+            {text, "--cache=" + cache, ascii.getPath()},
+        };
+        try {
+            for (String[] args : runs) {
+                boolean[] closed = {false};
+                System.setIn(new ByteArrayInputStream(new byte[0]) {
+                        @Override
+                        public void close() {
+                            closed[0] = true;
+                        }
+                    });
+                Main.main(args);
+                String run = String.join(" ", args);
+                assertFalse(run, closed[0]);
+                assertTrue(run, FileDescriptor.out.valid());
+            }
+        } finally {
+            System.setIn(stdin);
+            ResultCacheTest.delete(dir.toPath());
+        }
+    }
+}
@@ -0,0 +1,502 @@
+package enigma;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.LongBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Scanner;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+import ucb.util.CommandArgs;
+
+import static enigma.EnigmaException.*;
+
+/** A catalogue of the characteristics of every rotor order and start
+ *  position of a configuration, after Rejewski.  If A .. F are the
+ *  permutations performed by the machine (without its plugboard) on the
+ *  first six letters from a start position, the characteristic of that
+ *  position is the cycle types of the products AD, BE and CF (A applied
+ *  first).  The plugboard conjugates these products, so their cycle
+ *  types do not depend on it, and can be read off a day's doubled
+ *  message-key indicators.
+ *
+ *  Each state (rotor order and start positions, rings at their first
+ *  position) is numbered by rank: order * N^(S-1) plus the positions read
+ *  as digits, slot 1 first, where S is the number of slots.  The index
+ *  file holds one long per state: the high bits are a hash of the state's
+ *  characteristic and the low bits its rank.  As in Rejewski's catalogue,
+ *  the states of each rotor order form a separate sorted run, so that
+ *  building needs memory for only one order per thread however large the
+ *  key space.  Lookups map the file and binary-search every run, then
+ *  recompute each hit to discard hash collisions.
+ *  @author Tianyu Liu
+ */
+class Catalogue {
+
+    /** Build or query a catalogue as specified by ARGS.  With --build,
+     *  the arguments are a configuration file and the index file to write.
+     *  Otherwise they are a configuration file, an index file built from
+     *  it and optionally a file of six-letter indicators (default the
+     *  standard input): the characteristic of the indicators is printed,
+     *  and then a setting line for each matching state.  --stats instead
+     *  prints the number of states, the number of distinct characteristics
+     *  summed over rotor orders, and the size of the largest class of
+     *  states of one order that share a characteristic.
+     *  --threads=N limits the parallelism of --build. */
+    public static void main(String... args) {
+        try {
+            CommandArgs options =
+                new CommandArgs("--build --stats --threads=(\\d+) "
+                                + "--=(.*){2,3}", args);
+            if (!options.ok()) {
+                throw error("Usage: java enigma.Catalogue [--build] "
+                            + "[--stats] [--threads=N] CONFIG INDEX "
+                            + "[INDICATORS]");
+            }
+            List<String> files = options.get("--");
+            Machine machine = Main.readConfig(Main.getInput(files.get(0)));
+            Catalogue catalogue = new Catalogue(machine);
+            Path index = Paths.get(files.get(1));
+            if (options.contains("--build")) {
+                ForkJoinPool pool = options.contains("--threads")
+                    ? new ForkJoinPool(
+                        Integer.parseInt(options.getFirst("--threads")))
+                    : ForkJoinPool.commonPool();
+                catalogue.build(pool, index);
+                return;
+            }
+            catalogue.open(index);
+            if (options.contains("--stats")) {
+                System.out.printf("%d states, %d classes, "
+                                  + "largest class %d%n",
+                                  catalogue.states(), catalogue.classes(),
+                                  catalogue.largestClass());
+                return;
+            }
+            Scanner input = files.size() > 2
+                ? Main.getInput(files.get(2)) : new Scanner(System.in);
+            List<String> indicators = new ArrayList<>();
+            while (input.hasNext()) {
+                indicators.add(input.next());
+            }
+            int[][] chr = characteristic(machine.alphabet(), indicators);
+            System.out.println(format(chr));
+            for (int state : catalogue.lookup(chr)) {
+                System.out.println(catalogue.setting(state));
+            }
+            return;
+        } catch (EnigmaException excp) {
+            System.err.printf("Error: %s%n", excp.getMessage());
+        }
+        System.exit(1);
+    }
+
+    /** A catalogue of the rotor orders and positions of MACHINE. */
+    Catalogue(Machine machine) {
+        _machine = machine;
+        _n = machine.alphabet().size();
+        _orders = machine.rotorOrders();
+        long positions = 1;
+        for (int k = 1; k < machine.numRotors(); k++) {
+            positions *= _n;
+        }
+        long states = positions * _orders.size();
+        if (states > MAX_STATES) {
+            throw error("too many states to catalogue");
+        }
+        _positions = (int) positions;
+        _states = (int) states;
+        _stateBits = Math.max(1, Integer.SIZE
+                              - Integer.numberOfLeadingZeros(_states - 1));
+        _stateMask = (1L << _stateBits) - 1;
+    }
+
+    /** Return the number of states I catalogue. */
+    int states() {
+        return _states;
+    }
+
+    /** Compute the characteristic of every state on POOL and write the
+     *  index to FILE. */
+    void build(ForkJoinPool pool, Path file) {
+        ByteBuffer header = ByteBuffer.allocate(HEADER_BYTES)
+            .order(ByteOrder.LITTLE_ENDIAN);
+        header.putLong(MAGIC).putLong(fingerprint()).putLong(_states);
+        header.flip();
+        try (FileChannel channel =
+             FileChannel.open(file, StandardOpenOption.CREATE,
+                              StandardOpenOption.WRITE,
+                              StandardOpenOption.TRUNCATE_EXISTING)) {
+            writeFully(channel, header, 0);
+            pool.invoke(new Fill(channel, 0, _orders.size()));
+        } catch (IOException excp) {
+            throw error("could not write catalogue %s", file);
+        }
+    }
+
+    /** Write all of BUF to CHANNEL starting at byte POSITION. */
+    private static void writeFully(FileChannel channel, ByteBuffer buf,
+                                   long position) throws IOException {
+        while (buf.hasRemaining()) {
+            position += channel.write(buf, position);
+        }
+    }
+
+    /** Map the index in FILE, which must have been built for my
+     *  configuration. */
+    void open(Path file) {
+        long runBytes = (long) _positions * Long.BYTES;
+        int runsPerSegment = (int) Math.max(1, SEGMENT_BYTES / runBytes);
+        int runs = _orders.size();
+        LongBuffer[] segments =
+            new LongBuffer[(runs + runsPerSegment - 1) / runsPerSegment];
+        try (FileChannel channel =
+             FileChannel.open(file, StandardOpenOption.READ)) {
+            if (channel.size() != HEADER_BYTES + (long) _states * Long.BYTES) {
+                throw error("%s is not a catalogue of this configuration",
+                            file);
+            }
+            ByteBuffer header = channel.map(FileChannel.MapMode.READ_ONLY,
+                                            0, HEADER_BYTES)
+                .order(ByteOrder.LITTLE_ENDIAN);
+            if (header.getLong() != MAGIC
+                || header.getLong() != fingerprint()
+                || header.getLong() != _states) {
+                throw error("%s is not a catalogue of this configuration",
+                            file);
+            }
+            for (int i = 0; i < segments.length; i++) {
+                int first = i * runsPerSegment;
+                int count = Math.min(runsPerSegment, runs - first);
+                segments[i] = channel.map(FileChannel.MapMode.READ_ONLY,
+                                          HEADER_BYTES + first * runBytes,
+                                          count * runBytes)
+                    .order(ByteOrder.LITTLE_ENDIAN).asLongBuffer();
+            }
+        } catch (IOException excp) {
+            throw error("could not map catalogue %s", file);
+        }
+        _segments = segments;
+        _runsPerSegment = runsPerSegment;
+    }
+
+    /** Return the sorted records of rotor order ORDER in the open index:
+     *  entries [START, START + _positions) of the result, where START is
+     *  returned in RUN[0]. */
+    private LongBuffer run(int order, int[] run) {
+        run[0] = (order % _runsPerSegment) * _positions;
+        return _segments[order / _runsPerSegment];
+    }
+
+    /** Return the ranks of the states whose characteristic is CHR, in
+     *  increasing order.  Requires that an index be open. */
+    int[] lookup(int[][] chr) {
+        long key = hash(chr) & ~_stateMask;
+        Worker worker = new Worker();
+        int[] result = new int[0];
+        int count = 0;
+        int[] start = new int[1];
+        for (int order = 0; order < _orders.size(); order++) {
+            LongBuffer index = run(order, start);
+            int lo = start[0], hi = start[0] + _positions;
+            int end = hi;
+            while (lo < hi) {
+                int mid = (lo + hi) >>> 1;
+                if (index.get(mid) < key) {
+                    lo = mid + 1;
+                } else {
+                    hi = mid;
+                }
+            }
+            for (int i = lo; i < end && (index.get(i) & ~_stateMask) == key;
+                 i++) {
+                int state = (int) (index.get(i) & _stateMask);
+                if (Arrays.deepEquals(chr, characteristic(state, worker))) {
+                    if (count == result.length) {
+                        result = Arrays.copyOf(result, 2 * count + 1);
+                    }
+                    result[count++] = state;
+                }
+            }
+        }
+        result = Arrays.copyOf(result, count);
+        Arrays.sort(result);
+        return result;
+    }
+
+    /** Return the number of distinct characteristic hashes in the open
+     *  index, counted separately for each rotor order. */
+    long classes() {
+        long result = 0;
+        int[] start = new int[1];
+        for (int order = 0; order < _orders.size(); order++) {
+            LongBuffer index = run(order, start);
+            for (int i = start[0]; i < start[0] + _positions; i++) {
+                if (i == start[0] || (index.get(i) & ~_stateMask)
+                    != (index.get(i - 1) & ~_stateMask)) {
+                    result += 1;
+                }
+            }
+        }
+        return result;
+    }
+
+    /** Return the largest number of states of one rotor order sharing a
+     *  characteristic hash in the open index. */
+    int largestClass() {
+        int result = 0;
+        int[] start = new int[1];
+        for (int order = 0; order < _orders.size(); order++) {
+            LongBuffer index = run(order, start);
+            int size = 0;
+            for (int i = start[0]; i < start[0] + _positions; i++) {
+                if (i == start[0] || (index.get(i) & ~_stateMask)
+                    != (index.get(i - 1) & ~_stateMask)) {
+                    size = 0;
+                }
+                size += 1;
+                result = Math.max(result, size);
+            }
+        }
+        return result;
+    }
+
+    /** Return the characteristic of the state with rank STATE. */
+    int[][] characteristic(int state) {
+        return characteristic(state, new Worker());
+    }
+
+    /** Return the characteristic of the state with rank STATE, using the
+     *  scratch space in WORKER. */
+    private int[][] characteristic(int state, Worker worker) {
+        Machine mach = worker.machine;
+        int order = state / _positions;
+        if (order != worker.order) {
+            mach.insertRotors(_orders.get(order));
+            mach.setRings(new int[mach.numRotors()]);
+            worker.order = order;
+        }
+        int[] start = worker.start;
+        for (int k = start.length - 1, rest = state % _positions; k > 0;
+             k--, rest /= _n) {
+            start[k] = rest % _n;
+        }
+        mach.setPositions(start);
+        int[][] tables = worker.tables;
+        for (int[] table : tables) {
+            mach.step();
+            for (int x = 0; x < _n; x++) {
+                table[x] = mach.scramble(x);
+            }
+        }
+        int[][] result = new int[DOUBLED][];
+        int[] product = worker.product;
+        for (int j = 0; j < DOUBLED; j++) {
+            Permutation.compose(tables[j], tables[j + DOUBLED], product);
+            result[j] = Permutation.cycleType(product);
+        }
+        return result;
+    }
+
+    /** Return a setting line that puts a machine for my configuration in
+     *  the state with rank STATE. */
+    String setting(int state) {
+        StringBuilder result = new StringBuilder("*");
+        for (String name : _orders.get(state / _positions)) {
+            result.append(' ').append(name);
+        }
+        char[] start = new char[_machine.numRotors() - 1];
+        for (int k = start.length - 1, rest = state % _positions; k >= 0;
+             k--, rest /= _n) {
+            start[k] = _machine.alphabet().toChar(rest % _n);
+        }
+        return result.append(' ').append(start).toString();
+    }
+
+    /** Return the characteristic determined by INDICATORS, each of which
+     *  is six letters of ALPHABET: a message key enciphered twice from
+     *  the same start position. */
+    static int[][] characteristic(Alphabet alphabet, List<String> indicators) {
+        int n = alphabet.size();
+        int[][] products = new int[DOUBLED][n];
+        for (int[] product : products) {
+            Arrays.fill(product, -1);
+        }
+        for (String ind : indicators) {
+            if (ind.length() != 2 * DOUBLED) {
+                throw error("indicator %s is not %d letters", ind,
+                            2 * DOUBLED);
+            }
+            for (int j = 0; j < DOUBLED; j++) {
+                int from = alphabet.toInt(ind.charAt(j)),
+                    to = alphabet.toInt(ind.charAt(j + DOUBLED));
+                if (products[j][from] >= 0 && products[j][from] != to) {
+                    throw error("indicators are inconsistent at %s", ind);
+                }
+                products[j][from] = to;
+            }
+        }
+        int[][] result = new int[DOUBLED][];
+        for (int j = 0; j < DOUBLED; j++) {
+            for (int x = 0; x < n; x++) {
+                if (products[j][x] < 0) {
+                    throw error("indicators do not determine the "
+                                + "characteristic: no %c in position %d",
+                                alphabet.toChar(x), j + 1);
+                }
+            }
+            result[j] = Permutation.cycleType(products[j]);
+        }
+        return result;
+    }
+
+    /** Return CHR in the form "13 13 / 10 10 3 3 / 9 9 4 4". */
+    static String format(int[][] chr) {
+        StringBuilder result = new StringBuilder();
+        for (int[] type : chr) {
+            if (result.length() > 0) {
+                result.append(" /");
+            }
+            for (int len : type) {
+                if (result.length() > 0) {
+                    result.append(' ');
+                }
+                result.append(len);
+            }
+        }
+        return result.toString();
+    }
+
+    /** Return a 64-bit FNV-1a hash of CHR. */
+    static long hash(int[][] chr) {
+        long h = FNV_BASIS;
+        for (int[] type : chr) {
+            for (int len : type) {
+                h = (h ^ len) * FNV_PRIME;
+            }
+            h = (h ^ 0) * FNV_PRIME;
+        }
+        return h;
+    }
+
+    /** Return a hash identifying my alphabet and rotor orders, which must
+     *  match between building and using an index. */
+    private long fingerprint() {
+        long h = FNV_BASIS;
+        Alphabet alpha = _machine.alphabet();
+        for (int i = 0; i < _n; i++) {
+            h = (h ^ alpha.toChar(i)) * FNV_PRIME;
+        }
+        for (String[] order : _orders) {
+            for (String name : order) {
+                for (int i = 0; i < name.length(); i++) {
+                    h = (h ^ name.charAt(i)) * FNV_PRIME;
+                }
+                h = (h ^ ' ') * FNV_PRIME;
+            }
+        }
+        return h;
+    }
+
+    /** A task writing the sorted runs of rotor orders [LO, HI). */
+    private class Fill extends RecursiveAction {
+        /** Write the runs for orders LO .. HI-1 to CHANNEL. */
+        Fill(FileChannel channel, int lo, int hi) {
+            _channel = channel;
+            _lo = lo;
+            _hi = hi;
+        }
+
+        @Override
+        protected void compute() {
+            if (_hi - _lo > 1) {
+                int mid = (_lo + _hi) >>> 1;
+                invokeAll(new Fill(_channel, _lo, mid),
+                          new Fill(_channel, mid, _hi));
+            } else if (_lo < _hi) {
+                Worker worker = new Worker();
+                long[] records = new long[_positions];
+                int first = _lo * _positions;
+                for (int i = 0; i < _positions; i++) {
+                    long h = hash(characteristic(first + i, worker));
+                    records[i] = (h & ~_stateMask) | (first + i);
+                }
+                Arrays.sort(records);
+                ByteBuffer out = ByteBuffer
+                    .allocate(_positions * Long.BYTES)
+                    .order(ByteOrder.LITTLE_ENDIAN);
+                out.asLongBuffer().put(records);
+                try {
+                    writeFully(_channel, out,
+                               HEADER_BYTES + (long) first * Long.BYTES);
+                } catch (IOException excp) {
+                    throw error("could not write catalogue");
+                }
+            }
+        }
+
+        /** Index file. */
+        private final FileChannel _channel;
+        /** First unit. */
+        private final int _lo;
+        /** Limit of units. */
+        private final int _hi;
+    }
+
+    /** Scratch space for one task. */
+    private class Worker {
+        /** My own copy of the machine. */
+        final Machine machine = _machine.copy();
+        /** Rotor order now in the machine, or -1. */
+        int order = -1;
+        /** Start positions, by slot. */
+        final int[] start = new int[_machine.numRotors()];
+        /** Permutations A .. F. */
+        final int[][] tables = new int[2 * DOUBLED][_n];
+        /** A product such as AD. */
+        final int[] product = new int[_n];
+    }
+
+    /** Number of letters in a message key. */
+    static final int DOUBLED = 3;
+    /** Largest number of states catalogued. */
+    private static final long MAX_STATES = Integer.MAX_VALUE - 8;
+    /** First long of an index file. */
+    private static final long MAGIC = 0x31474f5441434e45L;
+    /** Length of the header of an index file: magic, configuration
+     *  fingerprint and number of states. */
+    private static final int HEADER_BYTES = 3 * Long.BYTES;
+    /** Largest part of an index mapped at once. */
+    private static final long SEGMENT_BYTES = 1L << 30;
+    /** FNV-1a offset basis. */
+    private static final long FNV_BASIS = 0xcbf29ce484222325L;
+    /** FNV-1a prime. */
+    private static final long FNV_PRIME = 0x100000001b3L;
+
+    /** The configuration catalogued. */
+    private final Machine _machine;
+    /** Size of its alphabet. */
+    private final int _n;
+    /** Its rotor orders. */
+    private final List<String[]> _orders;
+    /** Number of start positions per order. */
+    private final int _positions;
+    /** Total number of states. */
+    private final int _states;
+    /** Number of low bits of a record holding the rank. */
+    private final int _stateBits;
+    /** Mask for those bits. */
+    private final long _stateMask;
+    /** The open index, mapped in segments of whole runs, or null. */
+    private LongBuffer[] _segments;
+    /** Number of runs in each segment. */
+    private int _runsPerSegment;
+}
@@ -0,0 +1,101 @@
+package enigma;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.Scanner;
+import java.util.concurrent.ForkJoinPool;
+import org.junit.Test;
+import org.junit.Rule;
+import org.junit.rules.Timeout;
+import static org.junit.Assert.*;
+
+/** The suite of all JUnit tests for the Catalogue class.
+ *  @author Tianyu Liu
+ */
+public class CatalogueTest {
+
+    /** Testing time limit. */
+    @Rule
+    public Timeout globalTimeout = Timeout.seconds(30);
+
+    /* ***** TESTING UTILITIES ***** */
+
+    /** Return COUNT doubled indicators of random message keys enciphered
+     *  with a machine for BombeTest.CONFIG set up by SETTING. */
+    static List<String> indicators(String setting, int count) {
+        Random random = new Random(34);
+        List<String> result = new ArrayList<>();
+        for (int i = 0; i < count; i++) {
+            Machine mach = BombeTest.machine(setting);
+            String key = "";
+            for (int j = 0; j < Catalogue.DOUBLED; j++) {
+                key += (char) ('A' + random.nextInt(26));
+            }
+            result.add(mach.convert(key + key));
+        }
+        return result;
+    }
+
+    /* ***** TESTS ***** */
+
+    @Test
+    public void testCycleType() {
+        Permutation perm = new Permutation("(ABC) (DE) (FGHIJ)",
+                                           new Alphabet());
+        assertArrayEquals(new int[] {5, 3, 2, 1, 1, 1, 1, 1, 1, 1, 1, 1, 1,
+                                     1, 1, 1, 1, 1, 1},
+                          perm.cycleType());
+    }
+
+    @Test
+    public void testCharacteristic() {
+        Catalogue cat =
+            new Catalogue(Main.readConfig(new Scanner(BombeTest.CONFIG)));
+        int[][] chr = Catalogue.characteristic(
+            new Alphabet(), indicators("* B II I III GXT (AQ) (MZ)", 300));
+        for (int[] type : chr) {
+            for (int i = 0; i < type.length; i += 2) {
+                assertEquals(type[i], type[i + 1]);
+            }
+        }
+        int state = (2 * 26 * 26 + ('G' - 'A') * 26 + ('X' - 'A')) * 26
+            + ('T' - 'A');
+        assertEquals("* B II I III GXT", cat.setting(state));
+        assertArrayEquals(chr, cat.characteristic(state));
+    }
+
+    @Test
+    public void testBuildAndLookup() throws IOException {
+        Catalogue cat =
+            new Catalogue(Main.readConfig(new Scanner(BombeTest.CONFIG)));
+        Path file = Files.createTempFile("catalogue", ".idx");
+        try {
+            cat.build(new ForkJoinPool(2), file);
+            cat.open(file);
+            assertTrue(cat.classes() > 6);
+            String setting = "* B III II I QEV";
+            int[][] chr = Catalogue.characteristic(
+                new Alphabet(), indicators(setting + " (BY) (JK)", 300));
+            boolean found = false;
+            for (int state : cat.lookup(chr)) {
+                assertArrayEquals(chr, cat.characteristic(state));
+                found |= cat.setting(state).equals(setting);
+            }
+            assertTrue(found);
+            Catalogue other =
+                new Catalogue(Main.readConfig(new Scanner(ServerTest.CONFIG)));
+            try {
+                other.open(file);
+                fail("catalogue opened for another configuration");
+            } catch (EnigmaException excp) {
+                /* Expected. */
+            }
+        } finally {
+            Files.delete(file);
+        }
+    }
+}
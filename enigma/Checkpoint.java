@@ -0,0 +1,141 @@
+package enigma;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.HexFormat;
+import java.util.List;
+
+import static enigma.EnigmaException.*;
+
+/** The state of a conversion of one file to another, from which it can
+ *  be resumed: how many bytes of input have been consumed and of output
+ *  written, the setting line in force and the rotor positions reached.
+ *  A checkpoint file holds one "KEY VALUE" line for each, and is always
+ *  replaced atomically, so a reader sees either the old or the new one.
+ *  It also names its source, the input file and machine configuration
+ *  it was taken for (see source), and is only loaded for the same.
+ *  @author Tianyu Liu
+ */
+class Checkpoint {
+
+    /** A checkpoint of a conversion from SOURCE (as from source) after
+     *  INPUT bytes consumed and OUTPUT written, with SETTING in force and
+     *  rotor positions POSITIONS (indexed by slot, as from
+     *  Machine.positions). */
+    Checkpoint(String source, long input, long output, String setting,
+               int[] positions) {
+        this.source = source;
+        this.input = input;
+        this.output = output;
+        this.setting = setting;
+        this.positions = positions;
+    }
+
+    /** Write me to FILE, replacing it atomically. */
+    void save(Path file) {
+        Path tmp = file.resolveSibling(file.getFileName() + ".tmp");
+        try (BufferedWriter out =
+             Files.newBufferedWriter(tmp, StandardCharsets.UTF_8)) {
+            out.write(String.format("%s %d%n", VERSION, 2));
+            out.write(String.format("source %s%n", source));
+            out.write(String.format("input %d%n", input));
+            out.write(String.format("output %d%n", output));
+            out.write("positions");
+            for (int k = 1; k < positions.length; k++) {
+                out.write(" " + positions[k]);
+            }
+            out.write(String.format("%nsetting %s%n", setting));
+        } catch (IOException excp) {
+            throw error("could not write checkpoint %s", tmp);
+        }
+        try {
+            Files.move(tmp, file, StandardCopyOption.REPLACE_EXISTING,
+                       StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException excp) {
+            throw error("could not replace checkpoint %s", file);
+        }
+    }
+
+    /** Return a description of the conversion of INPUT by machines
+     *  configured as CONFIG: the size and modification time of INPUT and
+     *  the configuration's ResultCache.fingerprint. */
+    static String source(Path input, Machine config) {
+        BasicFileAttributes attrs;
+        try {
+            attrs = Files.readAttributes(input, BasicFileAttributes.class);
+        } catch (IOException excp) {
+            throw error("could not read %s", input);
+        }
+        byte[] fingerprint =
+            ResultCache.fingerprint(config, Charset.defaultCharset(),
+                                    System.lineSeparator());
+        return String.format("%d %d %s", attrs.size(),
+                             attrs.lastModifiedTime().toMillis(),
+                             HexFormat.of().formatHex(fingerprint));
+    }
+
+    /** Return the checkpoint in FILE, for a conversion from SOURCE (as
+     *  from source) by a machine with SLOTS rotor slots. */
+    static Checkpoint load(Path file, String source, int slots) {
+        List<String> lines;
+        try {
+            lines = Files.readAllLines(file, StandardCharsets.UTF_8);
+        } catch (IOException excp) {
+            throw error("could not read checkpoint %s", file);
+        }
+        if (lines.size() != 6 || !lines.get(0).equals(VERSION + " 2")
+            || !lines.get(1).startsWith("source ")
+            || !lines.get(5).startsWith("setting ")) {
+            throw error("bad checkpoint %s", file);
+        }
+        if (!lines.get(1).equals("source " + source)) {
+            throw error("checkpoint %s is for another input or "
+                        + "configuration", file);
+        }
+        try {
+            String[] posns = lines.get(4).split(" ");
+            if (!posns[0].equals("positions") || posns.length != slots) {
+                throw error("checkpoint %s is for another machine", file);
+            }
+            int[] positions = new int[slots];
+            for (int k = 1; k < slots; k++) {
+                positions[k] = Integer.parseInt(posns[k]);
+            }
+            return new Checkpoint(source, field(lines.get(2), "input"),
+                                  field(lines.get(3), "output"),
+                                  lines.get(5).substring("setting ".length()),
+                                  positions);
+        } catch (NumberFormatException excp) {
+            throw error("bad checkpoint %s", file);
+        }
+    }
+
+    /** Return the number on LINE, which must be "KEY NUMBER". */
+    private static long field(String line, String key) {
+        String[] f = line.split(" ");
+        if (f.length != 2 || !f[0].equals(key)) {
+            throw error("bad checkpoint line: %s", line);
+        }
+        return Long.parseLong(f[1]);
+    }
+
+    /** First word of a checkpoint file. */
+    private static final String VERSION = "enigma-checkpoint";
+
+    /** The input file and configuration converted. */
+    final String source;
+    /** Bytes of input consumed. */
+    final long input;
+    /** Bytes of output written. */
+    final long output;
+    /** The setting line in force. */
+    final String setting;
+    /** Rotor positions by slot. */
+    final int[] positions;
+}
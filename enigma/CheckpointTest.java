@@ -0,0 +1,165 @@
+package enigma;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.Random;
+import java.util.Scanner;
+import org.junit.Test;
+import org.junit.Rule;
+import org.junit.rules.Timeout;
+import static org.junit.Assert.*;
+
+/** The suite of all JUnit tests for checkpointed conversions.
+ *  @author Tianyu Liu
+ */
+public class CheckpointTest {
+
+    /** Testing time limit. */
+    @Rule
+    public Timeout globalTimeout = Timeout.seconds(10);
+
+    /* ***** TESTS ***** */
+
+    @Test
+    public void testSaveAndLoad() throws IOException {
+        Path file = Files.createTempFile("enigma", ".ckpt");
+        try {
+            new Checkpoint("1 2 abc", 123456789012L, 42,
+                           "* B Beta I II III AXLE (HQ)",
+                           new int[] {0, 1, 2, 3, 25}).save(file);
+            Checkpoint c = Checkpoint.load(file, "1 2 abc", 5);
+            assertEquals(123456789012L, c.input);
+            assertEquals(42, c.output);
+            assertEquals("* B Beta I II III AXLE (HQ)", c.setting);
+            assertArrayEquals(new int[] {0, 1, 2, 3, 25}, c.positions);
+            try {
+                Checkpoint.load(file, "1 2 abc", 4);
+                fail("checkpoint for another machine accepted");
+            } catch (EnigmaException excp) {
+                /* Expected. */
+            }
+            try {
+                Checkpoint.load(file, "1 3 abc", 5);
+                fail("checkpoint for another source accepted");
+            } catch (EnigmaException excp) {
+                /* Expected. */
+            }
+        } finally {
+            Files.deleteIfExists(file);
+        }
+    }
+
+    @Test
+    public void testResumeText() throws IOException {
+        Path dir = Files.createTempDirectory("enigma");
+        Path conf = dir.resolve("conf"), in = dir.resolve("in"),
+            out = dir.resolve("out"), ckpt = dir.resolve("out.ckpt");
+        try {
+            Files.write(conf,
+                        ServerTest.CONFIG.getBytes(StandardCharsets.UTF_8));
+            Random random = new Random(44);
+            StringBuilder text = new StringBuilder("* B Beta I II III AAAA\n");
+            for (int i = 0; i < 40; i++) {
+                text.append(i == 25 ? "* B Beta III II I QRST (AB)"
+                            : PipelineTest.letters(30, random)).append('\n');
+            }
+            String input = text.toString();
+            Files.write(in, input.getBytes(StandardCharsets.UTF_8));
+            String expected = PipelineTest.sequential(input);
+
+            Main.main("--checkpoint=" + ckpt, "--every=0", conf.toString(),
+                      in.toString(), out.toString());
+            assertEquals(expected, Files.readString(out));
+            assertFalse(Files.exists(ckpt));
+
+            String[] lines = input.split("\n", -1);
+            int done = 30;
+            long inOffset = 0;
+            for (int i = 0; i <= done; i++) {
+                inOffset += lines[i].length() + 1;
+            }
+            String head = String.join("\n", Arrays.copyOf(lines, done + 1))
+                + "\n";
+            String written = PipelineTest.sequential(head);
+            Machine mach = Main.readConfig(new Scanner(ServerTest.CONFIG));
+            for (String line : head.split("\n")) {
+                if (line.contains("*")) {
+                    Main.setUp(mach, line);
+                } else {
+                    mach.convert(line.replace(" ", ""));
+                }
+            }
+            new Checkpoint(Checkpoint.source(in, mach), inOffset,
+                           written.length(),
+                           "* B Beta III II I QRST (AB)", mach.positions())
+                .save(ckpt);
+            Files.writeString(out, written + "GARBAGE FROM A LOST RUN");
+            Main.main("--resume", conf.toString(), in.toString(),
+                      out.toString());
+            assertEquals(expected, Files.readString(out));
+            assertFalse(Files.exists(ckpt));
+        } finally {
+            for (Path p : new Path[] {conf, in, out, ckpt, dir}) {
+                Files.deleteIfExists(p);
+            }
+        }
+    }
+
+    @Test
+    public void testResumeBytes() throws IOException {
+        Path dir = Files.createTempDirectory("enigma");
+        Path conf = dir.resolve("conf"), in = dir.resolve("in"),
+            out = dir.resolve("out"), ckpt = dir.resolve("ckpt");
+        try {
+            Files.write(conf, ByteModeTest.byteConfig()
+                        .getBytes(StandardCharsets.ISO_8859_1));
+            byte[] data = new byte[300000];
+            new Random(45).nextBytes(data);
+            Files.write(in, data);
+            Main.main("--setting=" + ByteModeTest.SETTING, conf.toString(),
+                      in.toString(), out.toString());
+            byte[] expected = Files.readAllBytes(out);
+
+            int done = 100000;
+            Machine mach = Main.readConfig(new Scanner(ByteModeTest
+                                                       .byteConfig()));
+            Main.setUp(mach, ByteModeTest.SETTING);
+            for (int i = 0; i < done; i++) {
+                mach.convert(data[i] & 0xff);
+            }
+            new Checkpoint(Checkpoint.source(in, mach), done, done,
+                           ByteModeTest.SETTING, mach.positions()).save(ckpt);
+            Files.write(out, Arrays.copyOf(expected, done + 7));
+            Main.main("--setting=" + ByteModeTest.SETTING,
+                      "--checkpoint=" + ckpt, "--resume", conf.toString(),
+                      in.toString(), out.toString());
+            assertArrayEquals(expected, Files.readAllBytes(out));
+        } finally {
+            for (Path p : new Path[] {conf, in, out, ckpt, dir}) {
+                Files.deleteIfExists(p);
+            }
+        }
+    }
+
+    @Test
+    public void testSource() throws IOException {
+        Path dir = Files.createTempDirectory("enigma");
+        Path in = dir.resolve("in");
+        try {
+            Files.writeString(in, "* B Beta I II III AAAA\nHELLO\n");
+            Machine mach = Main.readConfig(new Scanner(ServerTest.CONFIG));
+            String source = Checkpoint.source(in, mach);
+            assertEquals(source, Checkpoint.source(in, mach.copy()));
+            assertNotEquals(source, Checkpoint.source(
+                in, BombeTest.machine("* B I II III AAA")));
+            Files.writeString(in, "* B Beta I II III AAAA\nHELLO\nWORLD\n");
+            assertNotEquals(source, Checkpoint.source(in, mach));
+        } finally {
+            Files.deleteIfExists(in);
+            Files.deleteIfExists(dir);
+        }
+    }
+}
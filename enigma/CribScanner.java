@@ -0,0 +1,392 @@
+package enigma;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import ucb.util.CommandArgs;
+
+import static enigma.EnigmaException.*;
+
+/** Finds every placement of a crib in a file of intercepts at which no
+ *  letter of the crib lies over the same letter of the ciphertext, which
+ *  is where a machine that never encrypts a letter to itself could have
+ *  produced the ciphertext from the crib.
+ *
+ *  Each line of the file is a message, in which blanks are ignored, as
+ *  they are by Main and Bombe.  A placement is reported as the line
+ *  number (from 1) and the offset of the crib's first letter among the
+ *  line's non-blank characters, which is what Bombe's --offset expects.
+ *  Placements may not span lines, nor cover characters outside the
+ *  alphabet.  With a byte-mode alphabet, every byte is a letter and the
+ *  file is a single message.
+ *
+ *  The scan is the shift-or method: for each letter X, bit J of MASK[X]
+ *  is set iff the crib's letter J is X, and after each ciphertext letter
+ *  X the state D becomes (D << 1) | MASK[X].  Bit J of D is then set iff
+ *  the placement ending J letters later has a clash so far, so one shift
+ *  and one or per byte test all (up to 64) crib positions at once.  The
+ *  file is mapped in chunks scanned by separate threads: a first pass
+ *  counts the lines in each chunk so that the second knows the line and
+ *  offset at which each chunk starts.
+ *  @author Tianyu Liu
+ */
+class CribScanner {
+
+    /** Scan as specified by ARGS: a configuration file (whose alphabet is
+     *  used), a crib and a file of intercepts, printing each admissible
+     *  placement as a line number and offset.  --count prints only the
+     *  number of placements; --threads=N sets the number of threads. */
+    public static void main(String... args) {
+        try {
+            CommandArgs options =
+                new CommandArgs("--count --threads=(\\d+) --=(.*){3}", args);
+            if (!options.ok()) {
+                throw error("Usage: java enigma.CribScanner [--count] "
+                            + "[--threads=N] CONFIG CRIB INTERCEPTS");
+            }
+            List<String> files = options.get("--");
+            Alphabet alphabet =
+                Main.readConfig(Main.getInput(files.get(0))).alphabet();
+            CribScanner scanner = new CribScanner(alphabet, files.get(1));
+            int threads = options.contains("--threads")
+                ? Integer.parseInt(options.getFirst("--threads"))
+                : Runtime.getRuntime().availableProcessors();
+            boolean count = options.contains("--count");
+            Output out = count ? null : new Output(System.out);
+            long found = scanner.scan(Paths.get(files.get(2)), threads, out);
+            if (count) {
+                System.out.println(found);
+            } else {
+                out.flush();
+            }
+            return;
+        } catch (EnigmaException excp) {
+            System.err.printf("Error: %s%n", excp.getMessage());
+        }
+        System.exit(1);
+    }
+
+    /** Receives admissible placements. */
+    interface Hits {
+        /** The crib may lie at OFFSET in message number LINE. */
+        void hit(long line, long offset);
+    }
+
+    /** Hits written as lines of ASCII "LINE OFFSET", formatted directly
+     *  into a byte buffer, since there may be billions of them. */
+    private static class Output implements Hits {
+        /** Hits written to OUT. */
+        Output(OutputStream out) {
+            _out = out;
+        }
+
+        @Override
+        public void hit(long line, long offset) {
+            if (_len > _buf.length - 2 * MAX_DIGITS - 2) {
+                flush();
+            }
+            append(line);
+            _buf[_len++] = ' ';
+            append(offset);
+            _buf[_len++] = '\n';
+        }
+
+        /** Add the decimal digits of nonnegative X to my buffer. */
+        private void append(long x) {
+            int start = _len;
+            do {
+                _buf[_len++] = (byte) ('0' + x % 10);
+                x /= 10;
+            } while (x > 0);
+            for (int i = start, j = _len - 1; i < j; i++, j--) {
+                byte t = _buf[i];
+                _buf[i] = _buf[j];
+                _buf[j] = t;
+            }
+        }
+
+        /** Write out my buffer. */
+        void flush() {
+            try {
+                _out.write(_buf, 0, _len);
+                _out.flush();
+            } catch (IOException excp) {
+                throw error("could not write output");
+            }
+            _len = 0;
+        }
+
+        /** Most digits in a long. */
+        private static final int MAX_DIGITS = 19;
+        /** Destination. */
+        private final OutputStream _out;
+        /** Buffered output. */
+        private final byte[] _buf = new byte[OUTPUT_BUFFER];
+        /** Bytes in _buf. */
+        private int _len;
+    }
+
+    /** A scanner for CRIB (blanks ignored) over ALPHABET. */
+    CribScanner(Alphabet alphabet, String crib) {
+        crib = crib.replace(" ", "");
+        _len = crib.length();
+        if (_len == 0 || _len > Long.SIZE) {
+            throw error("crib must have 1 to %d letters", Long.SIZE);
+        }
+        Arrays.fill(_kind, OTHER);
+        Arrays.fill(_mask, -1L);
+        _kind[' '] = _kind['\t'] = _kind['\r'] = BLANK;
+        _kind['\n'] = BREAK;
+        for (int b = 0; b < BYTES; b++) {
+            if (alphabet.contains((char) b)) {
+                _kind[b] = LETTER;
+                _mask[b] = 0;
+            }
+        }
+        for (int j = 0; j < _len; j++) {
+            char c = crib.charAt(j);
+            if (c >= BYTES || _kind[c] != LETTER) {
+                throw error("crib character %c is not in the alphabet", c);
+            }
+            _mask[c] |= 1L << j;
+        }
+        _top = 1L << (_len - 1);
+    }
+
+    /** Set the number of bytes scanned by each task to SIZE. */
+    void setChunkSize(int size) {
+        _chunk = size;
+    }
+
+    /** Scan FILE with THREADS threads, reporting each admissible
+     *  placement to OUT (if not null) in file order.  Return the number of
+     *  placements.  Only a few chunks per thread are in progress at a
+     *  time, so memory use does not grow with the file. */
+    long scan(Path file, int threads, Hits out) {
+        ExecutorService pool = Executors.newFixedThreadPool(threads);
+        try (FileChannel channel =
+             FileChannel.open(file, StandardOpenOption.READ)) {
+            long size = channel.size();
+            int chunks = (int) ((size + _chunk - 1) / _chunk);
+            List<Future<long[]>> counts = new ArrayList<>();
+            for (int c = 0; c < chunks; c++) {
+                long start = (long) c * _chunk;
+                counts.add(pool.submit(() -> countLines(
+                    map(channel, start, Math.min(_chunk, size - start)))));
+            }
+            List<Future<Chunk>> scans = new ArrayList<>();
+            long line = 1, column = 0, found = 0;
+            for (int c = 0, next = 0; c < chunks; c++) {
+                while (next < chunks && next < c + WINDOW * threads) {
+                    long start = (long) next * _chunk;
+                    long firstLine = line, firstColumn = column;
+                    scans.add(pool.submit(() -> {
+                        Chunk result = new Chunk(firstLine, out != null);
+                        scanChunk(map(channel, start,
+                                      Math.min(_chunk, size - start)),
+                                  warmUp(channel, start), firstColumn,
+                                  result);
+                        return result;
+                    }));
+                    long[] lines = counts.get(next).get();
+                    line += lines[0];
+                    column = lines[0] > 0 ? lines[1] : column + lines[1];
+                    next += 1;
+                }
+                Chunk chunk = scans.set(c, null).get();
+                found += chunk.count;
+                if (out != null) {
+                    chunk.report(out);
+                }
+            }
+            return found;
+        } catch (IOException excp) {
+            throw error("could not read %s", file);
+        } catch (InterruptedException excp) {
+            Thread.currentThread().interrupt();
+            throw error("scan interrupted");
+        } catch (ExecutionException excp) {
+            if (excp.getCause() instanceof EnigmaException) {
+                throw (EnigmaException) excp.getCause();
+            }
+            throw error("scan failed: %s", excp.getCause());
+        } finally {
+            pool.shutdown();
+        }
+    }
+
+    /** Return LEN bytes of CHANNEL from START, mapped. */
+    private static MappedByteBuffer map(FileChannel channel, long start,
+                                        long len) throws IOException {
+        return channel.map(FileChannel.MapMode.READ_ONLY, start, len);
+    }
+
+    /** Return the number of line breaks in DATA and the number of
+     *  non-blank characters after the last (or in all of DATA if there
+     *  is none). */
+    private long[] countLines(ByteBuffer data) {
+        long breaks = 0, column = 0;
+        for (int i = data.position(); i < data.limit(); i++) {
+            int k = _kind[data.get(i) & BYTE_MASK];
+            if (k == BREAK) {
+                breaks += 1;
+                column = 0;
+            } else if (k != BLANK) {
+                column += 1;
+            }
+        }
+        return new long[] { breaks, column };
+    }
+
+    /** Return the scan state at byte START of CHANNEL: the state D after
+     *  the last _len - 1 non-blank characters before START on the same
+     *  line. */
+    private long warmUp(FileChannel channel, long start)
+        throws IOException {
+        byte[] back = new byte[_len];
+        int seen = 0;
+        boolean lineStart = false;
+        ByteBuffer block = ByteBuffer.allocate(WARM_BLOCK);
+        for (long end = start; end > 0 && !lineStart && seen < _len - 1;) {
+            long from = Math.max(0, end - WARM_BLOCK);
+            block.clear().limit((int) (end - from));
+            while (block.hasRemaining()) {
+                if (channel.read(block, from + block.position()) < 0) {
+                    break;
+                }
+            }
+            for (int i = (int) (end - from) - 1; i >= 0 && seen < _len - 1;
+                 i--) {
+                int b = block.get(i) & BYTE_MASK;
+                if (_kind[b] == BREAK) {
+                    lineStart = true;
+                    break;
+                } else if (_kind[b] != BLANK) {
+                    back[seen++] = (byte) b;
+                }
+            }
+            end = from;
+        }
+        long d = -1L;
+        for (int i = seen - 1; i >= 0; i--) {
+            d = (d << 1) | _mask[back[i] & BYTE_MASK];
+        }
+        return d;
+    }
+
+    /** Scan DATA, starting in scan state D with COLUMN non-blank
+     *  characters of the current line before it, recording admissible
+     *  placements in OUT. */
+    private void scanChunk(ByteBuffer data, long d, long column,
+                           Chunk out) {
+        long line = out.firstLine;
+        long top = _top;
+        byte[] kind = _kind;
+        long[] mask = _mask;
+        for (int i = data.position(), end = data.limit(); i < end; i++) {
+            int b = data.get(i) & BYTE_MASK;
+            byte k = kind[b];
+            if (k == BLANK) {
+                continue;
+            } else if (k == BREAK) {
+                d = -1L;
+                column = 0;
+                line += 1;
+            } else {
+                d = (d << 1) | mask[b];
+                column += 1;
+                if ((d & top) == 0) {
+                    out.add(line, column - _len);
+                }
+            }
+        }
+    }
+
+    /** The placements found in one chunk. */
+    private static class Chunk {
+        /** Placements in a chunk starting on line FIRSTLINE, which are
+         *  recorded only if KEEP. */
+        Chunk(long firstLine, boolean keep) {
+            this.firstLine = firstLine;
+            _keep = keep;
+        }
+
+        /** Record a placement at OFFSET on LINE. */
+        void add(long line, long offset) {
+            if (!_keep) {
+                count += 1;
+                return;
+            }
+            if (2 * count == hits.length) {
+                hits = Arrays.copyOf(hits, Math.max(2 * hits.length,
+                                                    INITIAL_HITS));
+            }
+            hits[(int) (2 * count)] = line;
+            hits[(int) (2 * count + 1)] = offset;
+            count += 1;
+        }
+
+        /** Report my placements to OUT. */
+        void report(Hits out) {
+            for (int i = 0; i < count; i++) {
+                out.hit(hits[2 * i], hits[2 * i + 1]);
+            }
+        }
+
+        /** Line on which my chunk starts. */
+        final long firstLine;
+        /** Number of placements. */
+        long count;
+        /** Line and offset of each placement. */
+        long[] hits = new long[0];
+        /** True iff placements are recorded, and not just counted. */
+        private final boolean _keep;
+    }
+
+    /** Byte kinds: alphabet letters. */
+    private static final byte LETTER = 0;
+    /** Characters outside the alphabet, which no placement may cover. */
+    private static final byte OTHER = 1;
+    /** Ignored characters. */
+    private static final byte BLANK = 2;
+    /** Message separators. */
+    private static final byte BREAK = 3;
+    /** Number of byte values. */
+    private static final int BYTES = 256;
+    /** Mask giving a byte's unsigned value. */
+    private static final int BYTE_MASK = 0xff;
+    /** Default chunk size. */
+    private static final int DEFAULT_CHUNK = 1 << 22;
+    /** Chunks in progress per thread. */
+    private static final int WINDOW = 2;
+    /** Bytes read at a time when looking back before a chunk. */
+    private static final int WARM_BLOCK = 1 << 12;
+    /** Size of the output buffer. */
+    private static final int OUTPUT_BUFFER = 1 << 16;
+    /** Initial size of a chunk's placement array. */
+    private static final int INITIAL_HITS = 1 << 10;
+
+    /** Crib length. */
+    private final int _len;
+    /** Bit for the placement ending at the current letter. */
+    private final long _top;
+    /** Kind of each byte value. */
+    private final byte[] _kind = new byte[BYTES];
+    /** Shift-or mask of each byte value. */
+    private final long[] _mask = new long[BYTES];
+    /** Bytes per chunk. */
+    private int _chunk = DEFAULT_CHUNK;
+}
@@ -0,0 +1,113 @@
+package enigma;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import org.junit.Test;
+import org.junit.Rule;
+import org.junit.rules.Timeout;
+import static org.junit.Assert.*;
+
+/** The suite of all JUnit tests for the CribScanner class.
+ *  @author Tianyu Liu
+ */
+public class CribScannerTest {
+
+    /** Testing time limit. */
+    @Rule
+    public Timeout globalTimeout = Timeout.seconds(10);
+
+    /* ***** TESTING UTILITIES ***** */
+
+    /** Return the placements of CRIB in the lines of TEXT found by
+     *  comparing letters one at a time, as "LINE OFFSET" strings. */
+    static List<String> naive(String text, String crib) {
+        List<String> result = new ArrayList<>();
+        String[] lines = text.split("\n", -1);
+        for (int l = 0; l < lines.length; l++) {
+            String msg = lines[l].replace(" ", "");
+            for (int k = 0; k + crib.length() <= msg.length(); k++) {
+                boolean ok = true;
+                for (int j = 0; j < crib.length() && ok; j++) {
+                    char c = msg.charAt(k + j);
+                    ok = c != crib.charAt(j) && c >= 'A' && c <= 'Z';
+                }
+                if (ok) {
+                    result.add((l + 1) + " " + k);
+                }
+            }
+        }
+        return result;
+    }
+
+    /** Return random text over a small alphabet, with blanks, line breaks
+     *  and an occasional foreign character, drawn from RANDOM. */
+    static String randomText(Random random, int length) {
+        StringBuilder result = new StringBuilder();
+        String letters = "ABCDEABCDEWXYZ";
+        for (int i = 0; i < length; i++) {
+            int r = random.nextInt(100);
+            result.append(r < 8 ? ' ' : r < 10 ? '\n' : r < 11 ? '#'
+                          : letters.charAt(random.nextInt(letters.length())));
+        }
+        return result.toString();
+    }
+
+    /** Return the placements that SCANNER finds in FILE with THREADS
+     *  threads. */
+    static List<String> scan(CribScanner scanner, Path file, int threads) {
+        List<String> result = new ArrayList<>();
+        long count = scanner.scan(file, threads,
+                                  (line, offset) -> result.add(line + " "
+                                                               + offset));
+        assertEquals(result.size(), count);
+        return result;
+    }
+
+    /* ***** TESTS ***** */
+
+    @Test
+    public void testChunks() throws IOException {
+        Random random = new Random(39);
+        String text = randomText(random, 20000);
+        Path file = Files.createTempFile("intercepts", ".txt");
+        try {
+            Files.write(file, text.getBytes(StandardCharsets.US_ASCII));
+            for (String crib : new String[] {"A", "ABCDE", "WEDDEDBEDAXY"}) {
+                List<String> expected = naive(text, crib);
+                CribScanner scanner = new CribScanner(new Alphabet(), crib);
+                assertEquals(expected, scan(scanner, file, 1));
+                for (int chunk : new int[] {1, 7, 4096}) {
+                    scanner.setChunkSize(chunk);
+                    assertEquals(crib + " " + chunk, expected,
+                                 scan(scanner, file, 3));
+                }
+            }
+        } finally {
+            Files.delete(file);
+        }
+    }
+
+    @Test
+    public void testFeedsBombe() throws IOException {
+        String setting = "* B III II I QEV (AZ)";
+        String plain = "WEATHERREPORTFORTODAYWEATHERREPORTCLEAR";
+        String cipher = BombeTest.machine(setting).convert(plain);
+        Path file = Files.createTempFile("intercepts", ".txt");
+        try {
+            Files.write(file, ("XYZ\n" + Main.groups(cipher) + "\n")
+                        .getBytes(StandardCharsets.US_ASCII));
+            List<String> found =
+                scan(new CribScanner(new Alphabet(), "WEATHERREPORT"),
+                     file, 2);
+            assertTrue(found.contains("2 0"));
+            assertTrue(found.contains("2 21"));
+        } finally {
+            Files.delete(file);
+        }
+    }
+}
@@ -0,0 +1,297 @@
+package enigma;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.EnumMap;
+import java.util.Map;
+import java.util.Properties;
+import java.util.Random;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+
+import static enigma.EnigmaException.*;
+
+/** Chooses how a Machine converts a message given as an array of
+ *  indices.  The interpretive Machine.convert(int) needs no setting up,
+ *  so it wins on short messages; a BulkConverter builds tables first
+ *  and then converts much faster, so it wins on long ones.  Where the
+ *  two cross depends on the alphabet size, the number of rotors and the
+ *  hardware, so it is measured: the first time a machine of a given
+ *  shape is seen, a micro-benchmark times each engine on messages of
+ *  increasing length and records the shortest length from which tables
+ *  always win, along with the faster table kernel.  The measurements can
+ *  be saved to and loaded from a properties file, so that they are taken
+ *  once per host.  Alphabets too large for BulkConverter's tables are
+ *  always converted by the interpretive engine, without calibrating.
+ *
+ *  A selector is shared by all the machines that use it, and counts the
+ *  messages and characters each engine has converted.
+ *  @author Tianyu Liu
+ */
+class EngineSelector {
+
+    /** The ways of converting a message. */
+    enum Engine {
+        /** Machine.convert(int) on each index. */
+        INTERPRETED,
+        /** A BulkConverter with the scalar kernel. */
+        SCALAR,
+        /** A BulkConverter with the vector kernel. */
+        VECTOR;
+
+        /** Return this engine's table kernel, or null if it has none or
+         *  it is not available. */
+        BulkConverter.Kernel kernel() {
+            switch (this) {
+            case SCALAR:
+                return new BulkConverter.ScalarKernel();
+            case VECTOR:
+                return BulkConverter.vectorKernel();
+            default:
+                return null;
+            }
+        }
+    }
+
+    /** A selector with no measurements. */
+    EngineSelector() {
+        for (Engine e : Engine.values()) {
+            _messages.put(e, new LongAdder());
+            _chars.put(e, new LongAdder());
+        }
+    }
+
+    /** Return a selector with the measurements saved in FILE, or with
+     *  none if FILE does not exist.  A vector kernel that this JVM lacks
+     *  is replaced by the scalar one. */
+    static EngineSelector load(Path file) {
+        EngineSelector result = new EngineSelector();
+        if (!Files.exists(file)) {
+            return result;
+        }
+        Properties props = new Properties();
+        try (Reader in = Files.newBufferedReader(file,
+                                                 StandardCharsets.UTF_8)) {
+            props.load(in);
+        } catch (IOException excp) {
+            throw error("could not read calibration %s", file);
+        }
+        for (String key : props.stringPropertyNames()) {
+            if (!key.endsWith(THRESHOLD)) {
+                continue;
+            }
+            String shape = key.substring(0, key.length()
+                                         - THRESHOLD.length());
+            try {
+                Engine kernel = Engine.valueOf(
+                    props.getProperty(shape + KERNEL, "SCALAR"));
+                if (kernel == Engine.VECTOR && kernel.kernel() == null) {
+                    kernel = Engine.SCALAR;
+                }
+                result._choices.put(shape, new Choice(
+                    Integer.parseInt(props.getProperty(key)), kernel));
+            } catch (IllegalArgumentException excp) {
+                throw error("bad calibration entry %s", key);
+            }
+        }
+        return result;
+    }
+
+    /** Save my measurements to FILE. */
+    void save(Path file) {
+        Properties props = new Properties();
+        for (Map.Entry<String, Choice> e : _choices.entrySet()) {
+            props.setProperty(e.getKey() + THRESHOLD,
+                              Integer.toString(e.getValue().threshold));
+            props.setProperty(e.getKey() + KERNEL,
+                              e.getValue().kernel.name());
+        }
+        try (Writer out = Files.newBufferedWriter(file,
+                                                  StandardCharsets.UTF_8)) {
+            props.store(out, "enigma engine calibration");
+        } catch (IOException excp) {
+            throw error("could not write calibration %s", file);
+        }
+        _changed = false;
+    }
+
+    /** Return true iff I have measurements not yet saved. */
+    boolean changed() {
+        return _changed;
+    }
+
+    /** Return the engine to convert a message of LENGTH indices with
+     *  MACHINE, whose rotors are in place, calibrating for MACHINE's shape
+     *  first if necessary. */
+    Engine choose(Machine machine, int length) {
+        if (Main.verbose()) {
+            return Engine.INTERPRETED;
+        }
+        Choice c = choice(machine);
+        return length >= c.threshold ? c.kernel : Engine.INTERPRETED;
+    }
+
+    /** Calibrate for machines shaped like CONFIG, which need not have
+     *  rotors in place, unless that is already done. */
+    void prepare(Machine config) {
+        if (!_choices.containsKey(shape(config))) {
+            Machine mach = config.copy();
+            mach.insertRotors(mach.rotorOrders().get(0));
+            choice(mach);
+        }
+    }
+
+    /** Return the shortest message length for which MACHINE's shape uses
+     *  tables, calibrating first if necessary. */
+    int threshold(Machine machine) {
+        return choice(machine).threshold;
+    }
+
+    /** Count a message of LENGTH indices converted by ENGINE. */
+    void record(Engine engine, int length) {
+        _messages.get(engine).increment();
+        _chars.get(engine).add(length);
+    }
+
+    /** Return a one-line summary of the messages and characters each
+     *  engine has converted, and of the thresholds in use. */
+    String stats() {
+        StringBuilder result = new StringBuilder("engines");
+        for (Engine e : Engine.values()) {
+            result.append(String.format(" %s %d/%d", e.name().toLowerCase(),
+                                        _messages.get(e).sum(),
+                                        _chars.get(e).sum()));
+        }
+        for (Map.Entry<String, Choice> e : _choices.entrySet()) {
+            result.append(String.format(", %s %s from %d", e.getKey(),
+                                        e.getValue().kernel.name()
+                                        .toLowerCase(),
+                                        e.getValue().threshold));
+        }
+        return result.toString();
+    }
+
+    /** Return the choice for MACHINE's shape, calibrating if there is
+     *  none. */
+    private Choice choice(Machine machine) {
+        String shape = shape(machine);
+        Choice c = _choices.get(shape);
+        if (c == null) {
+            c = _choices.computeIfAbsent(shape, s -> calibrate(machine));
+            _changed = true;
+        }
+        return c;
+    }
+
+    /** Return the key for MACHINE's alphabet size and number of rotors. */
+    static String shape(Machine machine) {
+        return String.format("engine.%d.%d", machine.alphabet().size(),
+                             machine.numRotors());
+    }
+
+    /** Return the measured choice for machines shaped like MACHINE, using
+     *  a copy of it. */
+    static Choice calibrate(Machine machine) {
+        int n = machine.alphabet().size();
+        if (!BulkConverter.fits(n)) {
+            return new Choice(Integer.MAX_VALUE, Engine.INTERPRETED);
+        }
+        Machine mach = machine.copy();
+        int longest = LENGTHS[LENGTHS.length - 1];
+        int[] text = new int[longest], work = new int[longest];
+        Random random = new Random(43);
+        for (int i = 0; i < longest; i++) {
+            text[i] = random.nextInt(n);
+        }
+        BulkConverter scalar =
+            new BulkConverter(mach, new BulkConverter.ScalarKernel());
+        BulkConverter.Kernel vectorKernel = BulkConverter.vectorKernel();
+        BulkConverter vector = vectorKernel == null ? null
+            : new BulkConverter(mach, vectorKernel);
+        long[][] times = new long[Engine.values().length][LENGTHS.length];
+        for (int pass = 0; pass < PASSES; pass++) {
+            for (int k = 0; k < LENGTHS.length; k++) {
+                int len = LENGTHS[k];
+                times[0][k] = time(mach, null, text, work, len, pass <= 1,
+                                   times[0][k]);
+                times[1][k] = time(mach, scalar, text, work, len,
+                                   pass <= 1, times[1][k]);
+                if (vector != null) {
+                    times[2][k] = time(mach, vector, text, work, len,
+                                       pass <= 1, times[2][k]);
+                }
+            }
+        }
+        int last = LENGTHS.length - 1;
+        Engine kernel = vector != null && times[2][last] < times[1][last]
+            ? Engine.VECTOR : Engine.SCALAR;
+        int threshold = Integer.MAX_VALUE;
+        for (int k = last; k >= 0
+                 && times[kernel.ordinal()][k] < times[0][k]; k--) {
+            threshold = LENGTHS[k];
+        }
+        return new Choice(threshold, kernel);
+    }
+
+    /** Return the lesser of BEST (ignored if FIRST) and the time per
+     *  message of converting the first LEN indices of TEXT, copied to
+     *  WORK, with MACHINE, using BULK or, if BULK is null, the interpretive
+     *  engine.  Repeats enough messages to convert about SAMPLE
+     *  characters. */
+    private static long time(Machine machine, BulkConverter bulk,
+                             int[] text, int[] work, int len, boolean first,
+                             long best) {
+        int reps = Math.max(1, SAMPLE / len);
+        long start = System.nanoTime();
+        for (int r = 0; r < reps; r++) {
+            System.arraycopy(text, 0, work, 0, len);
+            if (bulk == null) {
+                for (int i = 0; i < len; i++) {
+                    work[i] = machine.convert(work[i]);
+                }
+            } else {
+                bulk.convert(work, 0, len);
+            }
+        }
+        long result = (System.nanoTime() - start) / reps;
+        return first ? result : Math.min(best, result);
+    }
+
+    /** The engine chosen for one shape of machine. */
+    static class Choice {
+        /** Use KERNEL for messages of at least THRESHOLD indices. */
+        Choice(int threshold, Engine kernel) {
+            this.threshold = threshold;
+            this.kernel = kernel;
+        }
+
+        /** Shortest message converted with tables. */
+        final int threshold;
+        /** Table engine used. */
+        final Engine kernel;
+    }
+
+    /** Message lengths timed in calibration. */
+    private static final int[] LENGTHS = {4, 16, 64, 256, 1024, 4096, 16384};
+    /** Characters converted for each timing. */
+    private static final int SAMPLE = 1 << 15;
+    /** Timing passes, the first of which warms up. */
+    private static final int PASSES = 3;
+    /** Property name suffixes. */
+    private static final String THRESHOLD = ".threshold", KERNEL = ".kernel";
+
+    /** Choice for each machine shape. */
+    private final Map<String, Choice> _choices = new ConcurrentHashMap<>();
+    /** True iff _choices has changed since it was loaded or saved. */
+    private volatile boolean _changed;
+    /** Messages converted by each engine. */
+    private final Map<Engine, LongAdder> _messages =
+        new EnumMap<>(Engine.class);
+    /** Characters converted by each engine. */
+    private final Map<Engine, LongAdder> _chars =
+        new EnumMap<>(Engine.class);
+}
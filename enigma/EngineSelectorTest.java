@@ -0,0 +1,143 @@
+package enigma;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import org.junit.Test;
+import org.junit.Rule;
+import org.junit.rules.Timeout;
+import static org.junit.Assert.*;
+
+/** The suite of all JUnit tests for the EngineSelector class.
+ *  @author Tianyu Liu
+ */
+public class EngineSelectorTest {
+
+    /** Testing time limit. */
+    @Rule
+    public Timeout globalTimeout = Timeout.seconds(30);
+
+    /* ***** TESTING UTILITIES ***** */
+
+    /** Return a selector that uses the scalar tables for messages of at
+     *  least THRESHOLD letters on machines for ServerTest.CONFIG, loaded
+     *  from a temporary file. */
+    static EngineSelector fixed(int threshold) throws IOException {
+        Path file = Files.createTempFile("engines", ".properties");
+        try {
+            Files.write(file, ("engine.26.5.threshold=" + threshold
+                               + "\nengine.26.5.kernel=SCALAR\n")
+                        .getBytes(StandardCharsets.UTF_8));
+            return EngineSelector.load(file);
+        } finally {
+            Files.delete(file);
+        }
+    }
+
+    /** Return a machine with rotors in place on an alphabet of N
+     *  symbols: a reflector swapping neighbours and two rotors shifting
+     *  by 1 and 7. */
+    static Machine large(int n) {
+        StringBuilder chars = new StringBuilder();
+        for (int i = 0; i < n; i++) {
+            chars.append((char) ('\u4e00' + i));
+        }
+        Alphabet alpha = new Alphabet(chars.toString());
+        int[] swap = new int[n], one = new int[n], seven = new int[n];
+        for (int i = 0; i < n; i++) {
+            swap[i] = i ^ 1;
+            one[i] = (i + 1) % n;
+            seven[i] = (i + 7) % n;
+        }
+        Machine result = new Machine(alpha, 3, 2, List.of(
+            new Reflector("R", new Permutation(swap, alpha)),
+            new MovingRotor("I", new Permutation(one, alpha),
+                            "" + chars.charAt(0)),
+            new MovingRotor("II", new Permutation(seven, alpha),
+                            "" + chars.charAt(3))));
+        result.insertRotors(new String[] {"R", "I", "II"});
+        return result;
+    }
+
+    /* ***** TESTS ***** */
+
+    @Test
+    public void testChoiceAndResults() throws IOException {
+        EngineSelector selector = fixed(100);
+        Machine plain = PipelineTest.machine();
+        Main.setUp(plain, "* B Beta I II III AXLE (HQ) (EX) (IP)");
+        Machine chosen = plain.copy();
+        chosen.setSelector(selector);
+        assertEquals(EngineSelector.Engine.INTERPRETED,
+                     selector.choose(chosen, 99));
+        assertEquals(EngineSelector.Engine.SCALAR,
+                     selector.choose(chosen, 100));
+        Random random = new Random(43);
+        for (int len : new int[] {5, 99, 100, 5000, 3}) {
+            String msg = BanburismusTest.uniform(len, random);
+            assertEquals(plain.convert(msg), chosen.convert(msg));
+        }
+        assertTrue(selector.stats().startsWith(
+            "engines interpreted 3/107 scalar 2/5100 vector 0/0"));
+        assertFalse(selector.changed());
+    }
+
+    @Test
+    public void testSaveAndLoad() throws IOException {
+        EngineSelector selector = fixed(64);
+        Path file = Files.createTempFile("engines", ".properties");
+        try {
+            selector.save(file);
+            Machine mach = PipelineTest.machine();
+            Main.setUp(mach, "* B Beta I II III AAAA");
+            assertEquals(64, EngineSelector.load(file).threshold(mach));
+        } finally {
+            Files.delete(file);
+        }
+    }
+
+    @Test
+    public void testCalibrate() {
+        EngineSelector selector = new EngineSelector();
+        Machine config = PipelineTest.machine();
+        selector.prepare(config);
+        assertTrue(selector.changed());
+        Main.setUp(config, "* B Beta I II III AAAA");
+        assertTrue(selector.threshold(config) > 1);
+        assertEquals(EngineSelector.Engine.INTERPRETED,
+                     selector.choose(config, 1));
+    }
+
+    @Test
+    public void testLargeAlphabet() {
+        Machine plain = large(40000);
+        EngineSelector.Choice choice = EngineSelector.calibrate(plain);
+        assertEquals(Integer.MAX_VALUE, choice.threshold);
+        assertEquals(EngineSelector.Engine.INTERPRETED, choice.kernel);
+        Machine chosen = plain.copy();
+        EngineSelector selector = new EngineSelector();
+        chosen.setSelector(selector);
+        selector.prepare(chosen);
+        int[] text = new int[100000], expected = new int[text.length];
+        Random random = new Random(43);
+        for (int i = 0; i < text.length; i++) {
+            text[i] = random.nextInt(40000);
+        }
+        System.arraycopy(text, 0, expected, 0, text.length);
+        plain.convert(expected, 0, expected.length);
+        chosen.convert(text, 0, text.length);
+        assertTrue(Arrays.equals(expected, text));
+        assertTrue(selector.stats().startsWith(
+            "engines interpreted 1/100000 scalar 0/0"));
+    }
+
+    @Test(expected = EnigmaException.class)
+    public void testNoTablesForLargeAlphabet() {
+        new BulkConverter(large(BulkConverter.MAX_SIZE + 2),
+                          new BulkConverter.ScalarKernel());
+    }
+}
@@ -0,0 +1,131 @@
+package enigma;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.SeekableByteChannel;
+
+import static enigma.EnigmaException.*;
+
+/** A SeekableByteChannel that encrypts or decrypts another channel, such
+ *  as a FileChannel, through a byte-mode Enigma machine.  Enigma has no
+ *  chaining: the byte at offset K is converted by the machine as it is
+ *  after K steps from its starting position.  A seek therefore jumps the
+ *  rotors straight to the state for the new offset with
+ *  Machine.advance, and reads and writes may start anywhere.
+ *  @author Tianyu Liu
+ */
+class EnigmaChannel implements SeekableByteChannel {
+
+    /** A channel converting the bytes of FILE with MACHINE, which must
+     *  have a byte alphabet and be set up as it should be for the byte at
+     *  offset 0 of FILE. */
+    EnigmaChannel(SeekableByteChannel file, Machine machine) {
+        if (!(machine.alphabet() instanceof ByteAlphabet)) {
+            throw error("channel conversion needs a byte alphabet");
+        }
+        _file = file;
+        _machine = machine;
+        _start = machine.positions();
+    }
+
+    @Override
+    public int read(ByteBuffer dst) throws IOException {
+        seekMachine();
+        int start = dst.position();
+        _file.position(_position);
+        int n = _file.read(dst);
+        if (n <= 0) {
+            return n;
+        }
+        ByteBuffer view = dst.duplicate();
+        view.position(start).limit(start + n);
+        _machine.convert(view, view);
+        _position += n;
+        _machinePosition += n;
+        return n;
+    }
+
+    @Override
+    public int write(ByteBuffer src) throws IOException {
+        seekMachine();
+        _file.position(_position);
+        int total = 0;
+        while (src.hasRemaining()) {
+            _scratch.clear();
+            _machine.convert(src, _scratch);
+            _scratch.flip();
+            while (_scratch.hasRemaining()) {
+                total += _file.write(_scratch);
+            }
+        }
+        _position += total;
+        _machinePosition += total;
+        return total;
+    }
+
+    @Override
+    public long position() {
+        return _position;
+    }
+
+    @Override
+    public EnigmaChannel position(long newPosition) {
+        if (newPosition < 0) {
+            throw new IllegalArgumentException("negative position");
+        }
+        _position = newPosition;
+        return this;
+    }
+
+    @Override
+    public long size() throws IOException {
+        return _file.size();
+    }
+
+    @Override
+    public EnigmaChannel truncate(long size) throws IOException {
+        _file.truncate(size);
+        _position = Math.min(_position, size);
+        return this;
+    }
+
+    @Override
+    public boolean isOpen() {
+        return _file.isOpen();
+    }
+
+    @Override
+    public void close() throws IOException {
+        _file.close();
+    }
+
+    /** Bring my machine to the state for the byte at my position. */
+    private void seekMachine() {
+        if (_machinePosition == _position) {
+            return;
+        }
+        if (_machinePosition < _position) {
+            _machine.advance(_position - _machinePosition);
+        } else {
+            _machine.setPositions(_start);
+            _machine.advance(_position);
+        }
+        _machinePosition = _position;
+    }
+
+    /** Size of the buffer holding converted bytes being written. */
+    private static final int SCRATCH_SIZE = 1 << 16;
+
+    /** The channel I convert. */
+    private final SeekableByteChannel _file;
+    /** The machine that converts my bytes. */
+    private final Machine _machine;
+    /** Rotor positions of _machine for offset 0. */
+    private final int[] _start;
+    /** My current position. */
+    private long _position;
+    /** The offset whose byte _machine is next set up to convert. */
+    private long _machinePosition;
+    /** Converted bytes on their way to _file. */
+    private final ByteBuffer _scratch = ByteBuffer.allocateDirect(SCRATCH_SIZE);
+}
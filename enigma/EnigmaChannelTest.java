@@ -0,0 +1,110 @@
+package enigma;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.Random;
+import java.util.Scanner;
+import org.junit.Test;
+import org.junit.Rule;
+import org.junit.rules.Timeout;
+import static org.junit.Assert.*;
+
+/** The suite of all JUnit tests for EnigmaChannel and Machine.advance.
+ *  @author Tianyu Liu
+ */
+public class EnigmaChannelTest {
+
+    /** Testing time limit. */
+    @Rule
+    public Timeout globalTimeout = Timeout.seconds(10);
+
+    /* ***** TESTING UTILITIES ***** */
+
+    /** Return a machine set up from the configuration of ServerTest. */
+    private Machine letters(String setting) {
+        Machine mach = Main.readConfig(new Scanner(ServerTest.CONFIG));
+        Main.setUp(mach, setting);
+        return mach;
+    }
+
+    /** Return a byte-mode machine set up as in ByteModeTest. */
+    private Machine bytes() {
+        Machine mach = Main.readConfig(new Scanner(ByteModeTest.byteConfig()));
+        Main.setUp(mach, ByteModeTest.SETTING);
+        return mach;
+    }
+
+    /* ***** TESTS ***** */
+
+    @Test
+    public void testAdvanceMatchesStepping() {
+        for (String setting : new String[] {"* B Beta I II III AADU",
+                                            "* B Beta III II I ZEQA BCDE",
+                                            "* B Beta I II III AAAA"}) {
+            Machine stepped = letters(setting);
+            for (int n : new int[] {0, 1, 5, 25, 26, 650, 677, 20000}) {
+                Machine jumped = letters(setting);
+                jumped.advance(n);
+                Machine slow = letters(setting);
+                for (int i = 0; i < n; i++) {
+                    slow.convert(0);
+                }
+                assertArrayEquals(setting + " " + n, slow.positions(),
+                                  jumped.positions());
+            }
+        }
+    }
+
+    @Test
+    public void testAdvanceIsAdditive() {
+        long big = 1_000_000_000_007L;
+        Machine once = letters("* B Beta I II III AADU");
+        once.advance(big + 12345);
+        Machine twice = letters("* B Beta I II III AADU");
+        twice.advance(big);
+        twice.advance(12345);
+        assertArrayEquals(once.positions(), twice.positions());
+    }
+
+    @Test
+    public void testRandomAccess() throws IOException {
+        byte[] plain = new byte[300000];
+        new Random(7).nextBytes(plain);
+        Path file = Files.createTempFile("enigma", ".bin");
+        try (EnigmaChannel out =
+             new EnigmaChannel(FileChannel.open(file, StandardOpenOption.WRITE),
+                               bytes())) {
+            out.write(ByteBuffer.wrap(plain));
+        }
+
+        Machine whole = bytes();
+        byte[] cipher = Files.readAllBytes(file);
+        ByteBuffer all = ByteBuffer.wrap(cipher.clone());
+        whole.convert(all, all);
+        assertArrayEquals(plain, all.array());
+
+        try (EnigmaChannel in =
+             new EnigmaChannel(FileChannel.open(file), bytes())) {
+            assertEquals(plain.length, in.size());
+            int[] offsets = {250000, 17, 299990, 65536, 0, 123457};
+            for (int off : offsets) {
+                ByteBuffer got = ByteBuffer.allocateDirect(10);
+                in.position(off);
+                in.read(got);
+                got.flip();
+                byte[] b = new byte[got.remaining()];
+                got.get(b);
+                assertArrayEquals("offset " + off,
+                                  Arrays.copyOfRange(plain, off,
+                                                     off + b.length), b);
+            }
+        } finally {
+            Files.delete(file);
+        }
+    }
+}
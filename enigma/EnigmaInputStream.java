@@ -0,0 +1,91 @@
+package enigma;
+
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+
+/** An InputStream that converts the bytes of another InputStream through
+ *  an Enigma machine as they are read.  Each byte stands for the
+ *  character with the same ISO-8859-1 code.
+ *  @author Tianyu Liu
+ */
+class EnigmaInputStream extends FilterInputStream {
+
+    /** A stream that converts the bytes of IN with MACHINE, treating
+     *  characters outside the machine's alphabet according to POLICY. */
+    EnigmaInputStream(InputStream in, Machine machine,
+                      ForeignPolicy policy) {
+        super(in);
+        _machine = machine;
+        _policy = policy;
+    }
+
+    /** A stream that converts the bytes of IN with MACHINE, passing
+     *  characters outside its alphabet through unchanged. */
+    EnigmaInputStream(InputStream in, Machine machine) {
+        this(in, machine, ForeignPolicy.PASS);
+    }
+
+    @Override
+    public int read() throws IOException {
+        if (read(_one, 0, 1) < 0) {
+            return -1;
+        }
+        return _one[0] & 0xff;
+    }
+
+    @Override
+    public int read(byte[] b, int off, int len) throws IOException {
+        if (len == 0) {
+            return 0;
+        }
+        while (true) {
+            int n = in.read(b, off, len);
+            if (n < 0) {
+                return -1;
+            }
+            n = _machine.convert(b, off, n, _policy);
+            if (n > 0) {
+                return n;
+            }
+        }
+    }
+
+    @Override
+    public long skip(long n) throws IOException {
+        byte[] buf = new byte[(int) Math.min(n, SKIP_BUFFER)];
+        long skipped = 0;
+        while (skipped < n) {
+            int k = read(buf, 0, (int) Math.min(n - skipped, buf.length));
+            if (k < 0) {
+                break;
+            }
+            skipped += k;
+        }
+        return skipped;
+    }
+
+    @Override
+    public boolean markSupported() {
+        return false;
+    }
+
+    @Override
+    public synchronized void mark(int readlimit) {
+    }
+
+    @Override
+    public synchronized void reset() throws IOException {
+        throw new IOException("reset not supported");
+    }
+
+    /** Size of the scratch buffer used by skip. */
+    private static final int SKIP_BUFFER = 1024;
+
+    /** The machine that converts my bytes. */
+    private final Machine _machine;
+    /** Treatment of characters outside the machine's alphabet. */
+    private final ForeignPolicy _policy;
+    /** Scratch buffer for single-byte reads. */
+    private final byte[] _one = new byte[1];
+}
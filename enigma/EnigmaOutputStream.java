@@ -0,0 +1,62 @@
+package enigma;
+
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+
+/** An OutputStream that converts bytes through an Enigma machine before
+ *  passing them on to another OutputStream.  Each byte stands for the
+ *  character with the same ISO-8859-1 code.
+ *  @author Tianyu Liu
+ */
+class EnigmaOutputStream extends FilterOutputStream {
+
+    /** A stream that converts bytes with MACHINE and writes them to OUT,
+     *  treating characters outside the machine's alphabet according to
+     *  POLICY. */
+    EnigmaOutputStream(OutputStream out, Machine machine,
+                       ForeignPolicy policy) {
+        super(out);
+        _machine = machine;
+        _policy = policy;
+    }
+
+    /** A stream that converts bytes with MACHINE and writes them to OUT,
+     *  passing characters outside its alphabet through unchanged. */
+    EnigmaOutputStream(OutputStream out, Machine machine) {
+        this(out, machine, ForeignPolicy.PASS);
+    }
+
+    @Override
+    public void write(int b) throws IOException {
+        _buffer[0] = (byte) b;
+        flushBuffer(1);
+    }
+
+    @Override
+    public void write(byte[] b, int off, int len) throws IOException {
+        while (len > 0) {
+            int n = Math.min(len, _buffer.length);
+            System.arraycopy(b, off, _buffer, 0, n);
+            flushBuffer(n);
+            off += n;
+            len -= n;
+        }
+    }
+
+    /** Convert the first N bytes of my buffer and write the result. */
+    private void flushBuffer(int n) throws IOException {
+        int k = _machine.convert(_buffer, 0, n, _policy);
+        out.write(_buffer, 0, k);
+    }
+
+    /** Size of my conversion buffer. */
+    private static final int BUFFER_SIZE = 1024;
+
+    /** The machine that converts my bytes. */
+    private final Machine _machine;
+    /** Treatment of characters outside the machine's alphabet. */
+    private final ForeignPolicy _policy;
+    /** Bytes being converted. */
+    private final byte[] _buffer = new byte[BUFFER_SIZE];
+}
@@ -0,0 +1,319 @@
+package enigma;
+
+import java.nio.CharBuffer;
+import java.util.ArrayDeque;
+import java.util.concurrent.Flow;
+
+import static enigma.EnigmaException.*;
+
+/** A reactive-streams processor that converts chunks of characters through
+ *  an Enigma machine.  A chunk whose first non-blank character is '*' is a
+ *  setting line and re-keys the machine exactly as a '*' line does in
+ *  Main.  Other chunks are converted and packed into output buffers of at
+ *  most a fixed batch size.  Upstream chunks are requested only while my
+ *  subscriber has unmet demand, a few at a time, so memory stays bounded
+ *  however fast the publisher is.
+ *  @author Tianyu Liu
+ */
+class EnigmaProcessor implements Flow.Processor<CharBuffer, CharBuffer> {
+
+    /** A processor converting with MACHINE into buffers of at most BATCH
+     *  characters, requesting up to PREFETCH chunks upstream at a time and
+     *  treating foreign characters according to POLICY. */
+    EnigmaProcessor(Machine machine, int batch, int prefetch,
+                    ForeignPolicy policy) {
+        if (batch <= 0 || prefetch <= 0) {
+            throw error("batch and prefetch sizes must be positive");
+        }
+        _machine = machine;
+        _batchSize = batch;
+        _prefetch = prefetch;
+        _policy = policy;
+        _batch = new char[batch];
+    }
+
+    /** A processor converting with MACHINE into buffers of at most BATCH
+     *  characters, passing foreign characters through unchanged. */
+    EnigmaProcessor(Machine machine, int batch) {
+        this(machine, batch, DEFAULT_PREFETCH, ForeignPolicy.PASS);
+    }
+
+    @Override
+    public void subscribe(Flow.Subscriber<? super CharBuffer> subscriber) {
+        boolean accepted;
+        synchronized (this) {
+            accepted = !_subscribed;
+            _subscribed = true;
+        }
+        if (!accepted) {
+            subscriber.onSubscribe(INERT);
+            subscriber.onError(
+                new IllegalStateException("already subscribed"));
+            return;
+        }
+        subscriber.onSubscribe(new Downstream());
+        synchronized (this) {
+            _downstream = subscriber;
+        }
+        drain();
+    }
+
+    @Override
+    public void onSubscribe(Flow.Subscription subscription) {
+        boolean accepted;
+        synchronized (this) {
+            accepted = _upstream == null && !_cancelled;
+            if (accepted) {
+                _upstream = subscription;
+            }
+        }
+        if (!accepted) {
+            subscription.cancel();
+            return;
+        }
+        drain();
+    }
+
+    @Override
+    public void onNext(CharBuffer chunk) {
+        Flow.Subscription cancel = null;
+        synchronized (this) {
+            if (_cancelled || _done) {
+                return;
+            }
+            _outstanding -= 1;
+            try {
+                if (isSetting(chunk)) {
+                    flushBatch();
+                    Main.setUp(_machine, chunk.toString().trim());
+                } else {
+                    convert(chunk);
+                }
+            } catch (EnigmaException excp) {
+                cancel = _upstream;
+                finish(excp);
+            }
+            if (_outstanding == 0) {
+                flushBatch();
+            }
+        }
+        if (cancel != null) {
+            cancel.cancel();
+        }
+        drain();
+    }
+
+    @Override
+    public void onError(Throwable throwable) {
+        synchronized (this) {
+            finish(throwable);
+        }
+        drain();
+    }
+
+    @Override
+    public void onComplete() {
+        synchronized (this) {
+            finish(null);
+        }
+        drain();
+    }
+
+    /** Return true iff CHUNK is a setting line. */
+    private static boolean isSetting(CharBuffer chunk) {
+        for (int i = chunk.position(); i < chunk.limit(); i++) {
+            char c = chunk.get(i);
+            if (!Character.isWhitespace(c)) {
+                return c == '*';
+            }
+        }
+        return false;
+    }
+
+    /** Convert the remaining characters of CHUNK into my current batch,
+     *  queueing each batch as it fills. */
+    private void convert(CharBuffer chunk) {
+        while (chunk.hasRemaining()) {
+            int n = Math.min(chunk.remaining(), _batchSize - _batchLen);
+            chunk.get(_batch, _batchLen, n);
+            _batchLen += _machine.convert(_batch, _batchLen, n, _policy);
+            if (_batchLen == _batchSize) {
+                flushBatch();
+            }
+        }
+    }
+
+    /** Queue my current batch, if it is not empty, and start a new one. */
+    private void flushBatch() {
+        if (_batchLen > 0) {
+            _ready.add(CharBuffer.wrap(_batch, 0, _batchLen));
+            _batch = new char[_batchSize];
+            _batchLen = 0;
+        }
+    }
+
+    /** Record that my input has ended, with error ERR if non-null. */
+    private void finish(Throwable err) {
+        if (!_done) {
+            _done = true;
+            _error = err;
+            if (err == null) {
+                flushBatch();
+            } else {
+                _ready.clear();
+            }
+        }
+    }
+
+    /** Deliver as many ready batches as my subscriber has asked for,
+     *  signal the end of the stream when everything is delivered, and
+     *  ask upstream for more input when all ready batches are gone.
+     *  Each step is chosen while holding my lock and taken after
+     *  releasing it, so subscribers and publishers are never called with
+     *  the lock held.  One thread drains at a time; calls made meanwhile
+     *  (e.g., a request issued from inside onNext) are folded into the
+     *  running loop. */
+    private void drain() {
+        synchronized (this) {
+            if (_draining) {
+                _missed = true;
+                return;
+            }
+            _draining = true;
+        }
+        while (true) {
+            Flow.Subscriber<? super CharBuffer> down;
+            CharBuffer next = null;
+            Throwable error = null;
+            boolean complete = false;
+            Flow.Subscription up = null;
+            synchronized (this) {
+                down = _downstream;
+                if (down == null || _cancelled) {
+                    _draining = false;
+                    return;
+                }
+                if (_demand > 0 && !_ready.isEmpty()) {
+                    _demand -= 1;
+                    next = _ready.poll();
+                } else if (_done && _ready.isEmpty() && !_terminated) {
+                    _terminated = true;
+                    error = _error;
+                    complete = error == null;
+                } else if (_demand > 0 && _ready.isEmpty() && !_done
+                           && _upstream != null && _outstanding == 0) {
+                    _outstanding = _prefetch;
+                    up = _upstream;
+                } else if (_missed) {
+                    _missed = false;
+                    continue;
+                } else {
+                    _draining = false;
+                    return;
+                }
+            }
+            if (next != null) {
+                down.onNext(next);
+            } else if (complete) {
+                down.onComplete();
+            } else if (error != null) {
+                down.onError(error);
+            } else {
+                up.request(_prefetch);
+            }
+        }
+    }
+
+    /** The subscription handed to my subscriber. */
+    private class Downstream implements Flow.Subscription {
+        @Override
+        public void request(long n) {
+            Flow.Subscription up = null;
+            synchronized (EnigmaProcessor.this) {
+                if (n <= 0) {
+                    if (!_terminated) {
+                        _done = true;
+                        _error = new IllegalArgumentException(
+                            "non-positive request");
+                        _ready.clear();
+                        up = _upstream;
+                    }
+                } else {
+                    _demand += n;
+                    if (_demand < 0) {
+                        _demand = Long.MAX_VALUE;
+                    }
+                }
+            }
+            if (up != null) {
+                up.cancel();
+            }
+            drain();
+        }
+
+        @Override
+        public void cancel() {
+            Flow.Subscription up;
+            synchronized (EnigmaProcessor.this) {
+                _cancelled = true;
+                _ready.clear();
+                up = _upstream;
+            }
+            if (up != null) {
+                up.cancel();
+            }
+        }
+    }
+
+    /** The subscription handed to a subscriber I turn away, which does
+     *  nothing. */
+    private static final Flow.Subscription INERT = new Flow.Subscription() {
+        @Override
+        public void request(long n) {
+        }
+
+        @Override
+        public void cancel() {
+        }
+    };
+
+    /** Default number of chunks requested upstream at a time. */
+    static final int DEFAULT_PREFETCH = 4;
+
+    /** The machine that converts my chunks. */
+    private final Machine _machine;
+    /** Largest number of characters in one output buffer. */
+    private final int _batchSize;
+    /** Number of chunks requested upstream at a time. */
+    private final int _prefetch;
+    /** Treatment of characters outside the machine's alphabet. */
+    private final ForeignPolicy _policy;
+    /** The batch being filled. */
+    private char[] _batch;
+    /** Number of characters in _batch. */
+    private int _batchLen;
+    /** Converted batches waiting for demand. */
+    private final ArrayDeque<CharBuffer> _ready = new ArrayDeque<>();
+    /** My source of chunks. */
+    private Flow.Subscription _upstream;
+    /** True once I have accepted a subscriber. */
+    private boolean _subscribed;
+    /** My subscriber, once its onSubscribe has returned. */
+    private Flow.Subscriber<? super CharBuffer> _downstream;
+    /** Number of batches my subscriber has asked for but not received. */
+    private long _demand;
+    /** Number of chunks requested upstream but not yet received. */
+    private long _outstanding;
+    /** True once my input has ended. */
+    private boolean _done;
+    /** The error that ended my input, if any. */
+    private Throwable _error;
+    /** True once my subscriber has been told the stream ended. */
+    private boolean _terminated;
+    /** True once my subscriber has cancelled. */
+    private boolean _cancelled;
+    /** True while some thread is in drain(). */
+    private boolean _draining;
+    /** True if drain() was called while it was running. */
+    private boolean _missed;
+}
@@ -0,0 +1,180 @@
+package enigma;
+
+import java.nio.CharBuffer;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.concurrent.Flow;
+import java.util.concurrent.SubmissionPublisher;
+import org.junit.Test;
+import org.junit.Rule;
+import org.junit.rules.Timeout;
+import static org.junit.Assert.*;
+
+/** The suite of all JUnit tests for the EnigmaProcessor class.
+ *  @author Tianyu Liu
+ */
+public class EnigmaProcessorTest {
+
+    /** Testing time limit. */
+    @Rule
+    public Timeout globalTimeout = Timeout.seconds(5);
+
+    /* ***** TESTING UTILITIES ***** */
+
+    private static final Alphabet AZ = new Alphabet(TestUtils.UPPER_STRING);
+
+    /** Return a fresh machine holding the rotors used by
+     *  testing/correct/trivial.in. */
+    private Machine machine() {
+        HashMap<String, String> nav = TestUtils.NAVALA;
+        List<Rotor> rotors = new ArrayList<>();
+        rotors.add(new Reflector("B", new Permutation(nav.get("B"), AZ)));
+        rotors.add(new FixedRotor("Beta",
+                                  new Permutation(nav.get("Beta"), AZ)));
+        rotors.add(new MovingRotor("I", new Permutation(nav.get("I"), AZ),
+                                   "Q"));
+        rotors.add(new MovingRotor("II", new Permutation(nav.get("II"), AZ),
+                                   "E"));
+        rotors.add(new MovingRotor("III",
+                                   new Permutation(nav.get("III"), AZ),
+                                   "V"));
+        return new Machine(AZ, 5, 3, rotors);
+    }
+
+    /** A subscriber that records what it receives and requests only when
+     *  told to. */
+    private static class Collector implements Flow.Subscriber<CharBuffer> {
+        @Override
+        public void onSubscribe(Flow.Subscription s) {
+            subscription = s;
+        }
+
+        @Override
+        public void onNext(CharBuffer item) {
+            received.add(item.toString());
+        }
+
+        @Override
+        public void onError(Throwable t) {
+            error = t;
+        }
+
+        @Override
+        public void onComplete() {
+            complete = true;
+        }
+
+        Flow.Subscription subscription;
+        List<String> received = new ArrayList<>();
+        Throwable error;
+        boolean complete;
+    }
+
+    /* ***** TESTS ***** */
+
+    @Test
+    public void testConvertWithSettingChunks() {
+        EnigmaProcessor proc = new EnigmaProcessor(machine(), 100);
+        Collector sink = new Collector();
+        proc.subscribe(sink);
+        SubmissionPublisher<CharBuffer> pub =
+            new SubmissionPublisher<>(Runnable::run, 16);
+        pub.subscribe(proc);
+        sink.subscription.request(Long.MAX_VALUE);
+        pub.submit(CharBuffer.wrap("* B Beta I II III AAAA"));
+        pub.submit(CharBuffer.wrap("HELLO"));
+        pub.submit(CharBuffer.wrap("WORLD"));
+        pub.submit(CharBuffer.wrap("* B Beta I II III AAAA"));
+        pub.submit(CharBuffer.wrap("ILBDAAMTAZ"));
+        pub.close();
+        assertNull(sink.error);
+        assertTrue(sink.complete);
+        assertEquals("ILBDAAMTAZHELLOWORLD", String.join("", sink.received));
+    }
+
+    @Test
+    public void testHonoursDemand() {
+        EnigmaProcessor proc = new EnigmaProcessor(machine(), 4);
+        Collector sink = new Collector();
+        proc.subscribe(sink);
+        SubmissionPublisher<CharBuffer> pub =
+            new SubmissionPublisher<>(Runnable::run, 16);
+        pub.subscribe(proc);
+        pub.submit(CharBuffer.wrap("* B Beta I II III AAAA"));
+        pub.submit(CharBuffer.wrap("HELLOWORLD"));
+        pub.close();
+        assertEquals(0, sink.received.size());
+        sink.subscription.request(1);
+        assertEquals(List.of("ILBD"), sink.received);
+        sink.subscription.request(1);
+        assertEquals(List.of("ILBD", "AAMT"), sink.received);
+        assertFalse(sink.complete);
+        sink.subscription.request(5);
+        assertEquals(List.of("ILBD", "AAMT", "AZ"), sink.received);
+        assertTrue(sink.complete);
+    }
+
+    @Test
+    public void testBadSettingIsError() {
+        EnigmaProcessor proc = new EnigmaProcessor(machine(), 8);
+        Collector sink = new Collector();
+        proc.subscribe(sink);
+        SubmissionPublisher<CharBuffer> pub =
+            new SubmissionPublisher<>(Runnable::run, 16);
+        pub.subscribe(proc);
+        sink.subscription.request(10);
+        pub.submit(CharBuffer.wrap("* B Beta I I III AAAA"));
+        assertTrue(sink.error instanceof EnigmaException);
+    }
+
+    @Test
+    public void testSecondSubscriberTurnedAway() {
+        EnigmaProcessor proc = new EnigmaProcessor(machine(), 4);
+        Collector sink = new Collector(), other = new Collector();
+        proc.subscribe(sink);
+        proc.subscribe(other);
+        assertTrue(other.error instanceof IllegalStateException);
+        other.subscription.request(0);
+        other.subscription.cancel();
+        SubmissionPublisher<CharBuffer> pub =
+            new SubmissionPublisher<>(Runnable::run, 16);
+        pub.subscribe(proc);
+        pub.submit(CharBuffer.wrap("* B Beta I II III AAAA"));
+        pub.submit(CharBuffer.wrap("HELLOWORLD"));
+        pub.close();
+        sink.subscription.request(10);
+        assertEquals(List.of("ILBD", "AAMT", "AZ"), sink.received);
+        assertNull(sink.error);
+        assertTrue(sink.complete);
+        assertTrue(other.received.isEmpty());
+    }
+
+    @Test
+    public void testRequestFromAnotherThread() {
+        EnigmaProcessor proc = new EnigmaProcessor(machine(), 4);
+        Collector sink = new Collector() {
+            @Override
+            public void onNext(CharBuffer item) {
+                super.onNext(item);
+                Thread t = new Thread(() -> subscription.request(1));
+                t.start();
+                try {
+                    t.join();
+                } catch (InterruptedException excp) {
+                    throw new AssertionError(excp);
+                }
+            }
+        };
+        proc.subscribe(sink);
+        SubmissionPublisher<CharBuffer> pub =
+            new SubmissionPublisher<>(Runnable::run, 16);
+        pub.subscribe(proc);
+        pub.submit(CharBuffer.wrap("* B Beta I II III AAAA"));
+        pub.submit(CharBuffer.wrap("HELLOWORLD"));
+        pub.close();
+        sink.subscription.request(1);
+        assertEquals(List.of("ILBD", "AAMT", "AZ"), sink.received);
+        assertTrue(sink.complete);
+    }
+}
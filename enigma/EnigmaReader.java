@@ -0,0 +1,92 @@
+package enigma;
+
+import java.io.FilterReader;
+import java.io.IOException;
+import java.io.Reader;
+
+/** A Reader that converts the characters of another Reader through an
+ *  Enigma machine as they are read.  Characters are converted in bulk,
+ *  one underlying read at a time, so only a bounded buffer is ever held.
+ *  @author Tianyu Liu
+ */
+class EnigmaReader extends FilterReader {
+
+    /** A Reader that converts the characters of IN with MACHINE, treating
+     *  characters outside the machine's alphabet according to POLICY. */
+    EnigmaReader(Reader in, Machine machine, ForeignPolicy policy) {
+        super(in);
+        _machine = machine;
+        _policy = policy;
+    }
+
+    /** A Reader that converts the characters of IN with MACHINE, passing
+     *  characters outside its alphabet through unchanged. */
+    EnigmaReader(Reader in, Machine machine) {
+        this(in, machine, ForeignPolicy.PASS);
+    }
+
+    @Override
+    public int read() throws IOException {
+        if (read(_one, 0, 1) < 0) {
+            return -1;
+        }
+        return _one[0];
+    }
+
+    @Override
+    public int read(char[] cbuf, int off, int len) throws IOException {
+        if (len == 0) {
+            return 0;
+        }
+        while (true) {
+            int n = in.read(cbuf, off, len);
+            if (n < 0) {
+                return -1;
+            }
+            n = _machine.convert(cbuf, off, n, _policy);
+            if (n > 0) {
+                return n;
+            }
+        }
+    }
+
+    @Override
+    public long skip(long n) throws IOException {
+        char[] buf = new char[(int) Math.min(n, SKIP_BUFFER)];
+        long skipped = 0;
+        while (skipped < n) {
+            int k = read(buf, 0, (int) Math.min(n - skipped, buf.length));
+            if (k < 0) {
+                break;
+            }
+            skipped += k;
+        }
+        return skipped;
+    }
+
+    @Override
+    public boolean markSupported() {
+        return false;
+    }
+
+    @Override
+    public void mark(int readAheadLimit) throws IOException {
+        throw new IOException("mark not supported");
+    }
+
+    @Override
+    public void reset() throws IOException {
+        throw new IOException("reset not supported");
+    }
+
+    /** Size of the scratch buffer used by skip.  Skipped characters
+     *  must still pass through the machine to keep its rotors in step. */
+    private static final int SKIP_BUFFER = 1024;
+
+    /** The machine that converts my characters. */
+    private final Machine _machine;
+    /** Treatment of characters outside the machine's alphabet. */
+    private final ForeignPolicy _policy;
+    /** Scratch buffer for single-character reads. */
+    private final char[] _one = new char[1];
+}
@@ -0,0 +1,125 @@
+package enigma;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.Reader;
+import java.io.StringReader;
+import java.io.StringWriter;
+import java.io.Writer;
+import java.util.HashMap;
+import org.junit.Test;
+import org.junit.Rule;
+import org.junit.rules.Timeout;
+import static org.junit.Assert.*;
+
+/** The suite of all JUnit tests for the Enigma stream adapters.
+ *  @author Tianyu Liu
+ */
+public class EnigmaStreamTest {
+
+    /** Testing time limit. */
+    @Rule
+    public Timeout globalTimeout = Timeout.seconds(5);
+
+    /* ***** TESTING UTILITIES ***** */
+
+    private static final Alphabet AZ = new Alphabet(TestUtils.UPPER_STRING);
+
+    private static final String PLAIN = "FROMHISSHOULDERHIAWATHA";
+    private static final String CIPHER = "QVPQSOKOILPUBKJZPISFXDW";
+
+    /** Return a fresh machine set up as in MachineTest. */
+    private Machine machine() {
+        HashMap<String, String> nav = TestUtils.NAVALA;
+        HashMap<String, Rotor> rotors = new HashMap<>();
+        rotors.put("B", new Reflector("B", new Permutation(nav.get("B"), AZ)));
+        rotors.put("Beta", new FixedRotor("Beta",
+                new Permutation(nav.get("Beta"), AZ)));
+        rotors.put("III", new MovingRotor("III",
+                new Permutation(nav.get("III"), AZ), "V"));
+        rotors.put("IV", new MovingRotor("IV",
+                new Permutation(nav.get("IV"), AZ), "J"));
+        rotors.put("I", new MovingRotor("I",
+                new Permutation(nav.get("I"), AZ), "Q"));
+        Machine mach = new Machine(AZ, 5, 3, rotors.values());
+        mach.insertRotors(new String[] {"B", "Beta", "III", "IV", "I"});
+        mach.setRotors("AXLE");
+        mach.setPlugboard(new Permutation("(HQ) (EX) (IP) (TR) (BY)", AZ));
+        return mach;
+    }
+
+    /** Return everything read from R. */
+    private String readAll(Reader r) throws IOException {
+        StringBuilder result = new StringBuilder();
+        char[] buf = new char[4];
+        int n;
+        while ((n = r.read(buf, 0, buf.length)) >= 0) {
+            result.append(buf, 0, n);
+        }
+        return result.toString();
+    }
+
+    /* ***** TESTS ***** */
+
+    @Test
+    public void testReaderPass() throws IOException {
+        Reader r = new EnigmaReader(new StringReader("FROM HIS SHOULDER "
+                                                     + "HIAWATHA"),
+                                    machine());
+        assertEquals("QVPQ SOK OILPUBKJ ZPISFXDW", readAll(r));
+    }
+
+    @Test
+    public void testReaderDrop() throws IOException {
+        Reader r = new EnigmaReader(new StringReader("FROM HIS SHOULDER "
+                                                     + "HIAWATHA"),
+                                    machine(), ForeignPolicy.DROP);
+        assertEquals(CIPHER, readAll(r));
+    }
+
+    @Test(expected = EnigmaException.class)
+    public void testReaderFail() throws IOException {
+        readAll(new EnigmaReader(new StringReader("FROM HIS"), machine(),
+                                 ForeignPolicy.FAIL));
+    }
+
+    @Test
+    public void testReaderSkipKeepsStep() throws IOException {
+        Reader r = new EnigmaReader(new StringReader(PLAIN), machine());
+        assertEquals(4, r.skip(4));
+        assertEquals(CIPHER.substring(4), readAll(r));
+    }
+
+    @Test
+    public void testWriter() throws IOException {
+        StringWriter sink = new StringWriter();
+        Writer w = new EnigmaWriter(sink, machine(), ForeignPolicy.DROP);
+        w.write("FROM HIS ");
+        w.write('S');
+        w.write("HOULDERHIAWATHA".toCharArray());
+        w.flush();
+        assertEquals(CIPHER, sink.toString());
+    }
+
+    @Test
+    public void testStreamsRoundTrip() throws IOException {
+        ByteArrayOutputStream sink = new ByteArrayOutputStream();
+        OutputStream out = new EnigmaOutputStream(sink, machine());
+        out.write((PLAIN + "\n").getBytes("ISO-8859-1"));
+        out.flush();
+        assertEquals(CIPHER + "\n", sink.toString("ISO-8859-1"));
+
+        InputStream in =
+            new EnigmaInputStream(new ByteArrayInputStream(sink.toByteArray()),
+                                  machine());
+        ByteArrayOutputStream back = new ByteArrayOutputStream();
+        int b;
+        while ((b = in.read()) >= 0) {
+            back.write(b);
+        }
+        assertEquals(PLAIN + "\n", back.toString("ISO-8859-1"));
+    }
+}
@@ -0,0 +1,73 @@
+package enigma;
+
+import java.io.FilterWriter;
+import java.io.IOException;
+import java.io.Writer;
+
+/** A Writer that converts characters through an Enigma machine before
+ *  passing them on to another Writer.  Characters are converted in bulk
+ *  through a fixed-size buffer.
+ *  @author Tianyu Liu
+ */
+class EnigmaWriter extends FilterWriter {
+
+    /** A Writer that converts characters with MACHINE and writes them to
+     *  OUT, treating characters outside the machine's alphabet according
+     *  to POLICY. */
+    EnigmaWriter(Writer out, Machine machine, ForeignPolicy policy) {
+        super(out);
+        _machine = machine;
+        _policy = policy;
+    }
+
+    /** A Writer that converts characters with MACHINE and writes them to
+     *  OUT, passing characters outside its alphabet through unchanged. */
+    EnigmaWriter(Writer out, Machine machine) {
+        this(out, machine, ForeignPolicy.PASS);
+    }
+
+    @Override
+    public void write(int c) throws IOException {
+        _buffer[0] = (char) c;
+        flushBuffer(1);
+    }
+
+    @Override
+    public void write(char[] cbuf, int off, int len) throws IOException {
+        while (len > 0) {
+            int n = Math.min(len, _buffer.length);
+            System.arraycopy(cbuf, off, _buffer, 0, n);
+            flushBuffer(n);
+            off += n;
+            len -= n;
+        }
+    }
+
+    @Override
+    public void write(String str, int off, int len) throws IOException {
+        while (len > 0) {
+            int n = Math.min(len, _buffer.length);
+            str.getChars(off, off + n, _buffer, 0);
+            flushBuffer(n);
+            off += n;
+            len -= n;
+        }
+    }
+
+    /** Convert the first N characters of my buffer and write the
+     *  result. */
+    private void flushBuffer(int n) throws IOException {
+        int k = _machine.convert(_buffer, 0, n, _policy);
+        out.write(_buffer, 0, k);
+    }
+
+    /** Size of my conversion buffer. */
+    private static final int BUFFER_SIZE = 1024;
+
+    /** The machine that converts my characters. */
+    private final Machine _machine;
+    /** Treatment of characters outside the machine's alphabet. */
+    private final ForeignPolicy _policy;
+    /** Characters being converted. */
+    private final char[] _buffer = new char[BUFFER_SIZE];
+}
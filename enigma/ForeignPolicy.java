@@ -0,0 +1,16 @@
+package enigma;
+
+/** What the bulk conversions of a Machine do with characters that are
+ *  not in its alphabet.
+ *  @author Tianyu Liu
+ */
+enum ForeignPolicy {
+    /** Copy the character to the output unchanged.  The rotors do not
+     *  advance. */
+    PASS,
+    /** Leave the character out of the output.  The rotors do not
+     *  advance. */
+    DROP,
+    /** Report an error. */
+    FAIL;
+}
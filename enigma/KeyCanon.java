@@ -0,0 +1,228 @@
+package enigma;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import static enigma.EnigmaException.*;
+
+/** Maps the keys of a machine configuration to canonical representatives
+ *  of the keys that encipher every message of a given length alike.
+ *
+ *  A rotor enciphers by its offset, its setting less its ring setting, so
+ *  a ring and position moved together change only when the rotor's notch
+ *  takes effect.  A rotor left of the pawls never moves, and the
+ *  leftmost rotor with a pawl never moves another, so for each offset
+ *  only one position of either matters: the canonical position is 0.
+ *  Any other rotor passes through a run of positions during the message,
+ *  one more than the number of times it moves; if no notch lies in that
+ *  run, the rotor neither moves itself nor its neighbour, and the
+ *  canonical position is the first with no notch in a run of that length.
+ *  Otherwise the position is kept.  A plugboard pair that touches neither
+ *  the letters of a message nor those of its conversion does nothing to
+ *  it, and is dropped.
+ *
+ *  The rules are those of odometer stepping, the only kind accepted.
+ *  @author Tianyu Liu
+ */
+class KeyCanon {
+
+    /** A canonicalizer for the keys of the configuration of MACHINE (which
+     *  need not have rotors in place) over messages of LENGTH
+     *  characters. */
+    KeyCanon(Machine machine, int length) {
+        if (machine.stepping() != SteppingStrategy.ODOMETER) {
+            throw error("keys need odometer stepping, not %s",
+                        machine.stepping().name());
+        }
+        if (length <= 0) {
+            throw error("message length must be positive");
+        }
+        _config = machine.copy();
+        _n = machine.alphabet().size();
+        _slots = machine.numRotors();
+        _first = _slots - machine.numPawls();
+        _length = length;
+        for (Rotor r : machine.availableRotors()) {
+            boolean[] notch = new boolean[_n];
+            if (r.rotates()) {
+                for (int p : r.getnotchlist()) {
+                    notch[p] = true;
+                }
+            }
+            _notches.put(r.name(), notch);
+        }
+    }
+
+    /** Return the message length I canonicalize for. */
+    int length() {
+        return _length;
+    }
+
+    /** Return the canonical key for SETTING, a setting line as for
+     *  Main.setUp, as a setting line.  The plugboard is kept whole. */
+    String canonical(String setting) {
+        return canonical(setting, null);
+    }
+
+    /** Return the canonical key for SETTING, a setting line as for
+     *  Main.setUp, over MESSAGE (blanks ignored), as a setting line.
+     *  Plugboard pairs that MESSAGE does not need are dropped; MESSAGE may
+     *  be null, in which case the plugboard is kept whole. */
+    String canonical(String setting, String message) {
+        Machine mach = _config.copy();
+        Main.setUp(mach, setting);
+        String[] rotors = new String[_slots];
+        for (int k = 0; k < _slots; k++) {
+            rotors[k] = mach.getRotor(k).name();
+        }
+        int[] positions = mach.positions(), rings = mach.rings();
+        int[] canon = canonicalPositions(rotors, positions);
+        for (int k = 1; k < _slots; k++) {
+            rings[k] = Math.floorMod(rings[k] + canon[k] - positions[k], _n);
+        }
+        boolean[] used = null;
+        if (message != null) {
+            used = new boolean[_n];
+            Alphabet alpha = mach.alphabet();
+            String text = message.replaceAll("\\s", "");
+            for (String s : new String[] {text, mach.convert(text)}) {
+                for (int i = 0; i < s.length(); i++) {
+                    if (alpha.contains(s.charAt(i))) {
+                        used[alpha.toInt(s.charAt(i))] = true;
+                    }
+                }
+            }
+        }
+        return format(rotors, canon, rings, mach.plugboard(), used);
+    }
+
+    /** Return true iff the key with rotors ROTORS and positions POSITIONS
+     *  (by slot, as for Machine.insertRotors and Machine.setPositions)
+     *  has canonical positions in all of SLOTS, whose rings are free to
+     *  move with their positions. */
+    boolean isCanonical(String[] rotors, int[] positions, int... slots) {
+        boolean moving = false;
+        for (int k : slots) {
+            if (k <= _first) {
+                if (positions[k] != 0) {
+                    return false;
+                }
+            } else {
+                moving = true;
+            }
+        }
+        if (!moving) {
+            return true;
+        }
+        int[] canon = canonicalPositions(rotors, positions);
+        for (int k : slots) {
+            if (canon[k] != positions[k]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /** Return the canonical positions, by slot, of the key with rotors
+     *  ROTORS and positions POSITIONS, for the same offsets. */
+    int[] canonicalPositions(String[] rotors, int[] positions) {
+        int[] result = new int[_slots];
+        int last = _slots - 1;
+        if (_first >= last) {
+            return result;
+        }
+        boolean[][] notch = new boolean[_slots][];
+        for (int k = _first; k <= last; k++) {
+            notch[k] = _notches.get(rotors[k]);
+            if (notch[k] == null) {
+                throw error("unknown rotor %s", rotors[k]);
+            }
+        }
+        int[] posn = positions.clone(), moves = new int[_slots];
+        for (int t = 1; t < _length; t++) {
+            for (int k = _first; k <= last; k++) {
+                if (k == last || k > _first && notch[k][posn[k]]
+                    || notch[k + 1][posn[k + 1]]) {
+                    posn[k] = (posn[k] + 1) % _n;
+                    moves[k] += 1;
+                }
+            }
+        }
+        for (int k = _first + 1; k <= last; k++) {
+            int run = moves[k] + 1;
+            result[k] = clear(notch[k], positions[k], run)
+                ? firstClear(notch[k], run) : positions[k];
+        }
+        return result;
+    }
+
+    /** Return true iff none of the RUN positions from P on is in
+     *  NOTCH. */
+    private boolean clear(boolean[] notch, int p, int run) {
+        if (run >= _n) {
+            run = _n;
+        }
+        for (int i = 0; i < run; i++) {
+            if (notch[(p + i) % _n]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /** Return the first position from which RUN positions are clear of
+     *  NOTCH, which there must be. */
+    private int firstClear(boolean[] notch, int run) {
+        int p = 0;
+        while (!clear(notch, p, run)) {
+            p += 1;
+        }
+        return p;
+    }
+
+    /** Return a setting line for ROTORS at POSITIONS with RINGS (all by
+     *  slot) and the pairs of PLUGBOARD that touch a letter in USED, or all
+     *  of them if USED is null. */
+    private String format(String[] rotors, int[] positions, int[] rings,
+                          Permutation plugboard, boolean[] used) {
+        Alphabet alpha = _config.alphabet();
+        StringBuilder result = new StringBuilder("*");
+        for (String name : rotors) {
+            result.append(' ').append(name);
+        }
+        result.append(' ');
+        boolean ringed = false;
+        for (int k = 1; k < _slots; k++) {
+            result.append(alpha.toChar(positions[k]));
+            ringed |= rings[k] != 0;
+        }
+        if (ringed) {
+            result.append(' ');
+            for (int k = 1; k < _slots; k++) {
+                result.append(alpha.toChar(rings[k]));
+            }
+        }
+        for (int a = 0; a < _n; a++) {
+            int b = plugboard.permute(a);
+            if (b > a && (used == null || used[a] || used[b])) {
+                result.append(" (").append(alpha.toChar(a))
+                    .append(alpha.toChar(b)).append(')');
+            }
+        }
+        return result.toString();
+    }
+
+    /** A machine of my configuration, copied to set up keys. */
+    private final Machine _config;
+    /** Alphabet size. */
+    private final int _n;
+    /** Number of slots, including the reflector's. */
+    private final int _slots;
+    /** Slot of the leftmost rotor with a pawl. */
+    private final int _first;
+    /** Message length. */
+    private final int _length;
+    /** Notch positions of each available rotor, none for those that do
+     *  not rotate. */
+    private final Map<String, boolean[]> _notches = new HashMap<>();
+}
@@ -0,0 +1,183 @@
+package enigma;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Random;
+import java.util.Scanner;
+import java.util.Set;
+import org.junit.Test;
+import org.junit.Rule;
+import org.junit.rules.Timeout;
+import static org.junit.Assert.*;
+
+/** The suite of all JUnit tests for the KeyCanon class.
+ *  @author Tianyu Liu
+ */
+public class KeyCanonTest {
+
+    /** Testing time limit. */
+    @Rule
+    public Timeout globalTimeout = Timeout.seconds(20);
+
+    /* ***** TESTING UTILITIES ***** */
+
+    /** Return a random setting line for ServerTest.CONFIG, with rings and
+     *  up to PAIRS plugboard pairs, chosen by RANDOM. */
+    static String randomSetting(int pairs, Random random) {
+        String[][] orders = {{"I", "II", "III"}, {"III", "I", "II"},
+                             {"II", "III", "I"}};
+        String[] order = orders[random.nextInt(orders.length)];
+        StringBuilder result = new StringBuilder("* B Beta");
+        for (String name : order) {
+            result.append(' ').append(name);
+        }
+        for (int r = 0; r < 2; r++) {
+            result.append(' ');
+            for (int k = 0; k < 4; k++) {
+                result.append((char) ('A' + random.nextInt(26)));
+            }
+        }
+        List<Character> letters = new ArrayList<>();
+        for (char c = 'A'; c <= 'Z'; c++) {
+            letters.add(c);
+        }
+        Collections.shuffle(letters, random);
+        for (int p = 0; p < pairs; p++) {
+            result.append(" (").append(letters.get(2 * p))
+                .append(letters.get(2 * p + 1)).append(')');
+        }
+        return result.toString();
+    }
+
+    /** Return MESSAGE converted by a machine for ServerTest.CONFIG set up
+     *  by SETTING. */
+    static String convert(String setting, String message) {
+        Machine mach = PipelineTest.machine();
+        Main.setUp(mach, setting);
+        return mach.convert(message);
+    }
+
+    /** Return a string identifying the canonical form under CANON of the
+     *  key at CURSOR, whose rings may move in RINGSLOTS. */
+    static String canonicalKey(KeyCanon canon, KeySpace.Cursor cursor,
+                               int... ringSlots) {
+        int[] posns = cursor.positions(), rings = cursor.rings();
+        int[] canonical = canon.canonicalPositions(cursor.rotors(), posns);
+        for (int k : ringSlots) {
+            rings[k] = Math.floorMod(rings[k] + canonical[k] - posns[k], 26);
+            posns[k] = canonical[k];
+        }
+        return String.join(" ", cursor.rotors()) + Arrays.toString(posns)
+            + Arrays.toString(rings);
+    }
+
+    /* ***** TESTS ***** */
+
+    @Test
+    public void testEnciphersAlike() {
+        Random random = new Random(49);
+        for (int trial = 0; trial < 300; trial++) {
+            int len = 1 + random.nextInt(80);
+            String message = PipelineTest.letters(len, random)
+                .replace(" ", "");
+            if (message.isEmpty()) {
+                continue;
+            }
+            KeyCanon canon = new KeyCanon(PipelineTest.machine(),
+                                          message.length());
+            String setting = randomSetting(random.nextInt(11), random);
+            String c = canon.canonical(setting, message);
+            assertEquals(setting + " / " + c, convert(setting, message),
+                         convert(c, message));
+            assertEquals(c, canon.canonical(c, message));
+            assertEquals(canon.canonical(setting),
+                         canon.canonical(canon.canonical(setting)));
+        }
+    }
+
+    @Test
+    public void testSlowRotors() {
+        KeyCanon canon = new KeyCanon(PipelineTest.machine(), 20);
+        assertEquals("* B Beta I II III AAAK VDQR",
+                     canon.canonical("* B Beta I II III FCMK AFCR"));
+        assertEquals("* B Beta I II III AAEK AFCR",
+                     canon.canonical("* B Beta I II III AAEK AFCR"));
+        assertEquals("* B Beta I II III AAAK ZZBA (AB) (YZ)",
+                     canon.canonical("* B Beta I II III BBZK (AB) (YZ)"));
+        assertEquals("* B Beta I II III AAZK ZZAA",
+                     new KeyCanon(PipelineTest.machine(), 400)
+                     .canonical("* B Beta I II III BBZK"));
+    }
+
+    @Test
+    public void testUnusedPlugs() {
+        KeyCanon canon = new KeyCanon(PipelineTest.machine(), 3);
+        String setting = "* B Beta I II III AAAA (AB) (CD) (EF) (GH) (IJ)";
+        String message = "ACE";
+        String seen = message + convert(setting, message);
+        String c = canon.canonical(setting, message);
+        assertEquals(convert(setting, message), convert(c, message));
+        for (String pair : new String[] {"AB", "CD", "EF", "GH", "IJ"}) {
+            boolean used = seen.indexOf(pair.charAt(0)) >= 0
+                || seen.indexOf(pair.charAt(1)) >= 0;
+            assertEquals(pair, used, c.contains("(" + pair + ")"));
+        }
+        assertTrue(c.contains("(AB)"));
+    }
+
+    @Test
+    public void testPrunedSpace() {
+        Machine mach = BombeTest.machine("* B I II III AAA");
+        List<String[]> orders =
+            List.<String[]>of(new String[] {"B", "I", "II", "III"});
+        KeyCanon canon = new KeyCanon(mach, 30);
+        for (int ringSlot = 1; ringSlot <= 2; ringSlot++) {
+            KeySpace space = new KeySpace(mach, orders, ringSlot);
+            Set<String> images = new HashSet<>();
+            KeySpace.Cursor all = space.cursor(0, space.size(), null);
+            while (all.next()) {
+                images.add(canonicalKey(canon, all, ringSlot));
+            }
+            Set<String> visited = new HashSet<>();
+            KeySpace.Cursor pruned =
+                space.cursor(0, space.size(), null, canon);
+            while (pruned.next()) {
+                assertTrue(visited.add(canonicalKey(canon, pruned,
+                                                    ringSlot)));
+            }
+            assertEquals(images, visited);
+            assertTrue(visited.size() + " keys",
+                       visited.size() * (ringSlot == 1 ? 26 : 4)
+                       <= space.size());
+        }
+    }
+
+    @Test
+    public void testPrunedListener() {
+        Machine mach = BombeTest.machine("* B I II III AAA");
+        KeySpace space = new KeySpace(mach, 2);
+        KeyCanon canon = new KeyCanon(mach, 50);
+        Machine tracked = mach.copy();
+        KeySpace.Cursor cursor = space.cursor(1000, 40000,
+                                              KeySpace.tracking(tracked),
+                                              canon);
+        int count = 0;
+        while (cursor.next()) {
+            assertArrayEquals(cursor.positions(), tracked.positions());
+            assertArrayEquals(cursor.rings(), tracked.rings());
+            assertTrue(canon.isCanonical(cursor.rotors(),
+                                         cursor.positions(), 2));
+            count += 1;
+        }
+        assertTrue(count > 0 && count < 39000);
+    }
+
+    @Test(expected = EnigmaException.class)
+    public void testOdometerOnly() {
+        new KeyCanon(Main.readConfig(new Scanner(
+            ServerTest.CONFIG.replace(" 3\n", " 3 @cog\n"))), 10);
+    }
+}
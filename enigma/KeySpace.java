@@ -0,0 +1,357 @@
+package enigma;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static enigma.EnigmaException.*;
+
+/** The keys of a machine configuration: rotor orders, start positions
+ *  and, optionally, ring settings of chosen slots, visited in a
+ *  reflected Gray-code order.  Each key is a digit per dimension: one for
+ *  the position of each slot after the reflector (rightmost slot
+ *  fastest), one for the ring of each chosen slot and, slowest, one for
+ *  the rotor order.  Going from one key to the next changes a single
+ *  digit by one, so that consecutive keys differ in one rotor's position
+ *  or ring, or in the rotor order.  Rotor orders are arranged so that
+ *  neighbouring orders differ in as few slots as practical (one, when
+ *  there are spare rotors).
+ *
+ *  Keys are numbered by rank in visiting order, and a Cursor visits any
+ *  range of ranks, so the space splits into ranges for parallel workers.
+ *  A Cursor reports every change to a Listener, which can update cached
+ *  partial results (such as the composite of the slow rotors) instead of
+ *  rebuilding them.  A Cursor given a KeyCanon skips the keys it does
+ *  not map to themselves, for which another key of the space enciphers
+ *  alike; the listener still hears of every change on the way.
+ *  @author Tianyu Liu
+ */
+class KeySpace {
+
+    /** The kinds of change between consecutive keys. */
+    enum Kind {
+        /** A different rotor in a slot. */
+        ROTOR,
+        /** A different start position of the rotor in a slot. */
+        POSITION,
+        /** A different ring setting of the rotor in a slot. */
+        RING
+    }
+
+    /** Receives the keys visited by a Cursor. */
+    interface Listener {
+        /** CURSOR has moved to its first key, which may differ from
+         *  anything seen before in every respect. */
+        void reset(Cursor cursor);
+
+        /** CURSOR has moved to the next key, which differs from the last
+         *  one only as described by KIND in slot SLOT.  A change of rotor
+         *  order is reported once for each slot whose rotor changed. */
+        void changed(Cursor cursor, Kind kind, int slot);
+    }
+
+    /** The keys of MACHINE, with every rotor order of its configuration,
+     *  enumerating rings in the slots RINGSLOTS; the other rings stay as
+     *  they are in MACHINE (or at 0 if it has no rotors yet). */
+    KeySpace(Machine machine, int... ringSlots) {
+        this(machine, machine.rotorOrders(), ringSlots);
+    }
+
+    /** The keys of MACHINE with rotor orders ORDERS (each as for
+     *  Machine.insertRotors), enumerating rings in the slots RINGSLOTS;
+     *  the other rings stay as they are in MACHINE. */
+    KeySpace(Machine machine, List<String[]> orders, int... ringSlots) {
+        if (orders.isEmpty()) {
+            throw error("no rotor orders");
+        }
+        _n = machine.alphabet().size();
+        _slots = machine.numRotors();
+        _baseRings = new int[_slots];
+        for (int k = 1; k < _slots; k++) {
+            Rotor r = machine.getRotor(k);
+            _baseRings[k] = r == null ? 0 : r.getr();
+        }
+        _ringSlots = ringSlots.clone();
+        _orders = arrange(orders);
+        int dims = _slots - 1 + _ringSlots.length + 1;
+        _radix = new int[dims];
+        Arrays.fill(_radix, _n);
+        _radix[dims - 1] = _orders.size();
+        _weight = new long[dims + 1];
+        _weight[0] = 1;
+        for (int i = 0; i < dims; i++) {
+            if (_weight[i] > Long.MAX_VALUE / _radix[i]) {
+                throw error("key space too large");
+            }
+            _weight[i + 1] = _weight[i] * _radix[i];
+        }
+    }
+
+    /** Return the number of keys. */
+    long size() {
+        return _weight[_radix.length];
+    }
+
+    /** Return my rotor orders, in the order visited. */
+    List<String[]> orders() {
+        return _orders;
+    }
+
+    /** Return the bounds of PARTS nearly equal ranges of ranks covering
+     *  all keys: range I is [RESULT[I], RESULT[I + 1]). */
+    long[] split(int parts) {
+        long[] result = new long[parts + 1];
+        long size = size(), each = size / parts, extra = size % parts;
+        for (int i = 0; i <= parts; i++) {
+            result[i] = each * i + Math.min(i, extra);
+        }
+        return result;
+    }
+
+    /** Return a cursor visiting the keys of ranks FROM .. TO-1, in order,
+     *  and reporting them to LISTENER (which may be null). */
+    Cursor cursor(long from, long to, Listener listener) {
+        return cursor(from, to, listener, null);
+    }
+
+    /** Return a cursor visiting the keys of ranks FROM .. TO-1 that CANON
+     *  (if not null) finds canonical, in order, and reporting every key
+     *  passed to LISTENER (which may be null). */
+    Cursor cursor(long from, long to, Listener listener, KeyCanon canon) {
+        if (from < 0 || to > size() || from > to) {
+            throw error("bad key range [%d, %d)", from, to);
+        }
+        return new Cursor(from, to, listener, canon);
+    }
+
+    /** Return a Listener that keeps the rotors, rings and positions of
+     *  MACHINE equal to the key of the cursor.  Between keys, MACHINE
+     *  must not be stepped. */
+    static Listener tracking(Machine machine) {
+        return new Listener() {
+            @Override
+            public void reset(Cursor cursor) {
+                machine.insertRotors(cursor.rotors());
+                machine.setRings(cursor.rings());
+                machine.setPositions(cursor.positions());
+            }
+
+            @Override
+            public void changed(Cursor cursor, Kind kind, int slot) {
+                switch (kind) {
+                case ROTOR:
+                    machine.insertRotor(slot, cursor.rotors()[slot]);
+                    if (slot > 0) {
+                        machine.getRotor(slot).useR(cursor.ring(slot));
+                        machine.getRotor(slot).set(cursor.position(slot));
+                    }
+                    break;
+                case POSITION:
+                    machine.getRotor(slot).set(cursor.position(slot));
+                    break;
+                default:
+                    machine.getRotor(slot).useR(cursor.ring(slot));
+                    break;
+                }
+            }
+        };
+    }
+
+    /** A walk over a range of my keys. */
+    class Cursor {
+        /** A cursor over ranks FROM .. TO-1 reporting to LISTENER and
+         *  skipping keys that CANON does not find canonical. */
+        private Cursor(long from, long to, Listener listener,
+                       KeyCanon canon) {
+            _rank = from - 1;
+            _from = from;
+            _end = to;
+            _listener = listener;
+            _canon = canon;
+            _digit = new int[_radix.length];
+            _dir = new int[_radix.length];
+            _posns = new int[_slots];
+        }
+
+        /** Move to the next key, returning false if there are no more. */
+        boolean next() {
+            while (step()) {
+                if (_canon == null || canonical()) {
+                    return true;
+                }
+            }
+            return false;
+        }
+
+        /** Return true iff my current key is canonical for _canon, among
+         *  those that differ only in the positions and rings of the slots
+         *  whose rings I enumerate. */
+        private boolean canonical() {
+            for (int k = 1; k < _slots; k++) {
+                _posns[k] = position(k);
+            }
+            return _canon.isCanonical(rotors(), _posns, _ringSlots);
+        }
+
+        /** Move to the next key, canonical or not, returning false if
+         *  there are no more. */
+        private boolean step() {
+            if (_rank + 1 >= _end) {
+                return false;
+            }
+            _rank += 1;
+            if (_rank == _from) {
+                seek(_rank);
+                if (_listener != null) {
+                    _listener.reset(this);
+                }
+                return true;
+            }
+            int j = 0;
+            while (_digit[j] + _dir[j] < 0
+                   || _digit[j] + _dir[j] >= _radix[j]) {
+                _dir[j] = -_dir[j];
+                j += 1;
+            }
+            String[] old = rotors();
+            _digit[j] += _dir[j];
+            if (_listener == null) {
+                return true;
+            }
+            if (j == _radix.length - 1) {
+                String[] now = rotors();
+                for (int k = 0; k < now.length; k++) {
+                    if (!now[k].equals(old[k])) {
+                        _listener.changed(this, Kind.ROTOR, k);
+                    }
+                }
+            } else if (j < _slots - 1) {
+                _listener.changed(this, Kind.POSITION, _slots - 1 - j);
+            } else {
+                _listener.changed(this, Kind.RING,
+                                  _ringSlots[j - (_slots - 1)]);
+            }
+            return true;
+        }
+
+        /** Set my digits and directions to those of the key of rank
+         *  RANK. */
+        private void seek(long rank) {
+            for (int i = 0; i < _radix.length; i++) {
+                long a = rank / _weight[i];
+                int d = (int) (a % _radix[i]);
+                boolean reflected = ((a / _radix[i]) & 1) != 0;
+                _digit[i] = reflected ? _radix[i] - 1 - d : d;
+                _dir[i] = reflected ? -1 : 1;
+            }
+        }
+
+        /** Return the rank of my current key. */
+        long rank() {
+            return _rank;
+        }
+
+        /** Return the index in orders() of my current rotor order. */
+        int order() {
+            return _digit[_radix.length - 1];
+        }
+
+        /** Return the rotor names of my current key, by slot.  The result
+         *  is shared and must not be modified. */
+        String[] rotors() {
+            return _orders.get(order());
+        }
+
+        /** Return the position of slot K in my current key. */
+        int position(int k) {
+            return _digit[_slots - 1 - k];
+        }
+
+        /** Return the ring setting of slot K in my current key. */
+        int ring(int k) {
+            for (int i = 0; i < _ringSlots.length; i++) {
+                if (_ringSlots[i] == k) {
+                    return _digit[_slots - 1 + i];
+                }
+            }
+            return _baseRings[k];
+        }
+
+        /** Return the positions of my current key, by slot, as for
+         *  Machine.setPositions. */
+        int[] positions() {
+            int[] result = new int[_slots];
+            for (int k = 1; k < _slots; k++) {
+                result[k] = position(k);
+            }
+            return result;
+        }
+
+        /** Return the ring settings of my current key, by slot, as for
+         *  Machine.setRings. */
+        int[] rings() {
+            int[] result = new int[_slots];
+            for (int k = 1; k < _slots; k++) {
+                result[k] = ring(k);
+            }
+            return result;
+        }
+
+        /** Rank of the current key. */
+        private long _rank;
+        /** First rank. */
+        private final long _from;
+        /** Limit of ranks. */
+        private final long _end;
+        /** Receiver of changes, or null. */
+        private final Listener _listener;
+        /** Judge of the keys visited, or null to visit all. */
+        private final KeyCanon _canon;
+        /** Positions of the current key, for _canon. */
+        private final int[] _posns;
+        /** Current digits, least significant first. */
+        private final int[] _digit;
+        /** Direction, +1 or -1, in which each digit next moves. */
+        private final int[] _dir;
+    }
+
+    /** Return ORDERS rearranged so that each order differs from the one
+     *  before it in as few slots as a greedy choice allows, starting with
+     *  the first. */
+    private static List<String[]> arrange(List<String[]> orders) {
+        List<String[]> left = new ArrayList<>(orders);
+        List<String[]> result = new ArrayList<>(orders.size());
+        result.add(left.remove(0));
+        while (!left.isEmpty()) {
+            String[] last = result.get(result.size() - 1);
+            int best = 0, bestDiff = Integer.MAX_VALUE;
+            for (int i = 0; i < left.size() && bestDiff > 1; i++) {
+                int diff = 0;
+                for (int k = 0; k < last.length; k++) {
+                    diff += last[k].equals(left.get(i)[k]) ? 0 : 1;
+                }
+                if (diff < bestDiff) {
+                    best = i;
+                    bestDiff = diff;
+                }
+            }
+            result.add(left.remove(best));
+        }
+        return result;
+    }
+
+    /** Alphabet size. */
+    private final int _n;
+    /** Number of slots, including the reflector's. */
+    private final int _slots;
+    /** Ring settings of slots not enumerated. */
+    private final int[] _baseRings;
+    /** Slots whose rings are enumerated. */
+    private final int[] _ringSlots;
+    /** Rotor orders, in visiting order. */
+    private final List<String[]> _orders;
+    /** Radix of each digit, least significant first. */
+    private final int[] _radix;
+    /** Number of keys per unit of each digit; the last is the size. */
+    private final long[] _weight;
+}
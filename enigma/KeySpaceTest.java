@@ -0,0 +1,119 @@
+package enigma;
+
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.Scanner;
+import org.junit.Test;
+import org.junit.Rule;
+import org.junit.rules.Timeout;
+import static org.junit.Assert.*;
+
+/** The suite of all JUnit tests for the KeySpace class.
+ *  @author Tianyu Liu
+ */
+public class KeySpaceTest {
+
+    /** Testing time limit. */
+    @Rule
+    public Timeout globalTimeout = Timeout.seconds(20);
+
+    /* ***** TESTING UTILITIES ***** */
+
+    /** Return a machine for BombeTest.CONFIG. */
+    static Machine machine() {
+        return BombeTest.machine("* B I II III AAA");
+    }
+
+    /** Return a string identifying the key at CURSOR. */
+    static String key(KeySpace.Cursor cursor) {
+        return String.join(" ", cursor.rotors()) + " "
+            + Arrays.toString(cursor.positions())
+            + Arrays.toString(cursor.rings());
+    }
+
+    /** Return the number of slots in which the keys A and B differ. */
+    static int diff(String a, String b) {
+        String[] x = a.split("[ \\[\\],]+"), y = b.split("[ \\[\\],]+");
+        int result = 0;
+        for (int i = 0; i < x.length; i++) {
+            result += x[i].equals(y[i]) ? 0 : 1;
+        }
+        return result;
+    }
+
+    /* ***** TESTS ***** */
+
+    @Test
+    public void testGrayOrder() {
+        KeySpace space = new KeySpace(machine(), 3);
+        assertEquals(6L * 26 * 26 * 26 * 26, space.size());
+        Set<String> seen = new HashSet<>();
+        KeySpace.Cursor cursor = space.cursor(0, space.size(), null);
+        String last = null;
+        while (cursor.next()) {
+            String key = key(cursor);
+            assertTrue(seen.add(key));
+            if (last != null) {
+                int d = diff(last, key);
+                assertTrue(last + " -> " + key, d == 1 || d == 2);
+            }
+            last = key;
+        }
+        assertEquals(space.size(), seen.size());
+    }
+
+    @Test
+    public void testRanges() {
+        KeySpace space = new KeySpace(machine());
+        long[] bounds = space.split(7);
+        assertEquals(0, bounds[0]);
+        assertEquals(space.size(), bounds[7]);
+        KeySpace.Cursor whole = space.cursor(0, space.size(), null);
+        for (int i = 0; i < 7; i++) {
+            KeySpace.Cursor part = space.cursor(bounds[i], bounds[i + 1],
+                                                null);
+            while (part.next()) {
+                assertTrue(whole.next());
+                assertEquals(whole.rank(), part.rank());
+                assertEquals(key(whole), key(part));
+            }
+        }
+        assertFalse(whole.next());
+    }
+
+    @Test
+    public void testTracking() {
+        Machine mach = machine();
+        KeySpace space = new KeySpace(mach, 2, 3);
+        long[] bounds = space.split(50);
+        KeySpace.Cursor cursor =
+            space.cursor(bounds[20], bounds[23], KeySpace.tracking(mach));
+        Machine fresh = machine();
+        int[] table = new int[26], expected = new int[26];
+        while (cursor.next()) {
+            fresh.insertRotors(cursor.rotors());
+            fresh.setRings(cursor.rings());
+            fresh.setPositions(cursor.positions());
+            assertArrayEquals(fresh.rotorTable(expected),
+                              mach.rotorTable(table));
+            assertArrayEquals(cursor.positions(), mach.positions());
+            assertArrayEquals(cursor.rings(), mach.rings());
+        }
+    }
+
+    /** With no spare rotors, neighbouring orders differ by a swap. */
+    @Test
+    public void testOrderChanges() {
+        Machine mach = Main.readConfig(new Scanner(ServerTest.CONFIG));
+        KeySpace space = new KeySpace(mach);
+        String[] last = null;
+        for (String[] order : space.orders()) {
+            if (last != null) {
+                int d = diff(String.join(" ", last), String.join(" ", order));
+                assertTrue(d == 2);
+            }
+            last = order;
+        }
+    }
+}
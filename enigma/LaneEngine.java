@@ -0,0 +1,278 @@
+package enigma;
+
+import java.util.Arrays;
+import java.util.List;
+
+import static enigma.EnigmaException.*;
+
+/** Many independent machines of one configuration, held as a structure
+ *  of arrays so that a character can be converted under every key in one
+ *  pass.  The wiring of every available rotor is copied once into flat
+ *  tables indexed by rotor number; each lane (one key) is just a rotor
+ *  number, position and ring offset per slot and a plugboard table, all
+ *  in primitive arrays indexed slot-major by lane.  The loops over lanes
+ *  are simple strided gathers from the wiring tables with no per-key
+ *  objects or calls.  The pass of every lane through a slot, the bulk of
+ *  the work, is done by a Kernel: LaneVectorKernel does it with vector
+ *  gathers when the jdk.incubator.vector module is present, and
+ *  ScalarKernel with a plain loop, which the JIT optimizes well, when
+ *  it is not.
+ *
+ *  Every lane steps exactly as a Machine with the odometer stepping
+ *  strategy does, which is the only strategy an engine accepts.
+ *  @author Tianyu Liu
+ */
+class LaneEngine {
+
+    /** The passes of all lanes through one slot. */
+    interface Kernel {
+        /** For each LANE in 0 .. LANES-1, pass X[LANE] through
+         *  WIRING[BASE[LANE] .. BASE[LANE]+N-1] rotated by OFFSET[LANE],
+         *  which is in 0 .. N-1. */
+        void through(int[] wiring, int[] base, int[] offset, int[] x,
+                     int lanes, int n);
+    }
+
+    /** The kernel without vector instructions. */
+    static class ScalarKernel implements Kernel {
+        @Override
+        public void through(int[] wiring, int[] base, int[] offset,
+                            int[] x, int lanes, int n) {
+            for (int lane = 0; lane < lanes; lane++) {
+                int o = offset[lane];
+                int i = x[lane] + o;
+                int y = wiring[base[lane] + (i >= n ? i - n : i)] - o;
+                x[lane] = y < 0 ? y + n : y;
+            }
+        }
+    }
+
+    /** Return a LaneVectorKernel, or null if the jdk.incubator.vector
+     *  module is not available. */
+    static Kernel vectorKernel() {
+        try {
+            return (Kernel) Class.forName("enigma.LaneVectorKernel")
+                .getDeclaredConstructor().newInstance();
+        } catch (ReflectiveOperationException | LinkageError excp) {
+            return null;
+        }
+    }
+
+    /** An engine of LANES keys over the rotors and slots of MACHINE, using
+     *  the vector kernel if available.  All lanes start with MACHINE's
+     *  rotors, positions, rings and plugboard if it has rotors in place,
+     *  and must be set otherwise. */
+    LaneEngine(Machine machine, int lanes) {
+        this(machine, lanes, vectorKernel());
+    }
+
+    /** An engine of LANES keys over the rotors and slots of MACHINE, using
+     *  KERNEL, or the scalar kernel if KERNEL is null.  Lanes start as
+     *  for LaneEngine(MACHINE, LANES). */
+    LaneEngine(Machine machine, int lanes, Kernel kernel) {
+        _kernel = kernel != null ? kernel : new ScalarKernel();
+        if (machine.stepping() != SteppingStrategy.ODOMETER) {
+            throw error("lanes need odometer stepping, not %s",
+                        machine.stepping().name());
+        }
+        _n = machine.alphabet().size();
+        _slots = machine.numRotors();
+        _pawl = _slots - machine.numPawls();
+        _lanes = lanes;
+        _available = machine.availableRotors();
+        int count = _available.size();
+        _forward = new int[count * _n];
+        _inverse = new int[count * _n];
+        _notch = new boolean[count * _n];
+        _rotates = new boolean[count];
+        for (int r = 0; r < count; r++) {
+            Rotor rotor = _available.get(r);
+            System.arraycopy(rotor.permutation().forwardTable(), 0,
+                             _forward, r * _n, _n);
+            System.arraycopy(rotor.permutation().inverseTable(), 0,
+                             _inverse, r * _n, _n);
+            int[] notches = rotor.getnotchlist();
+            if (notches != null) {
+                for (int p : notches) {
+                    _notch[r * _n + p] = true;
+                }
+            }
+            _rotates[r] = rotor.rotates();
+        }
+        _rotor = new int[_slots][lanes];
+        _base = new int[_slots][lanes];
+        _pos = new int[_slots][lanes];
+        _offset = new int[_slots][lanes];
+        _flag = new boolean[_slots][lanes];
+        _plug = new int[lanes * _n];
+        _x = new int[lanes];
+        if (machine.getRotor(1) != null) {
+            for (int lane = 0; lane < lanes; lane++) {
+                setLane(lane, machine);
+            }
+        }
+    }
+
+    /** Return the number of lanes. */
+    int lanes() {
+        return _lanes;
+    }
+
+    /** Set LANE to the rotors, positions, rings and plugboard now in
+     *  MACHINE, which must have my configuration. */
+    void setLane(int lane, Machine machine) {
+        String[] names = new String[_slots];
+        for (int k = 0; k < _slots; k++) {
+            names[k] = machine.getRotor(k).name();
+        }
+        setLane(lane, names, machine.positions(), machine.rings(),
+                machine.plugboard().forwardTable());
+    }
+
+    /** Set LANE to the rotors named ROTORS (by slot, reflector first),
+     *  with POSITIONS and RINGS as for Machine.setPositions and
+     *  Machine.setRings, and plugboard PLUG, a table as for
+     *  Permutation.forwardTable. */
+    void setLane(int lane, String[] rotors, int[] positions, int[] rings,
+                 int[] plug) {
+        for (int k = 0; k < _slots; k++) {
+            int r = rotorNumber(rotors[k]);
+            _rotor[k][lane] = r;
+            _base[k][lane] = r * _n;
+            _pos[k][lane] = k == 0 ? 0 : positions[k];
+            _offset[k][lane] =
+                k == 0 ? 0 : Math.floorMod(positions[k] - rings[k], _n);
+        }
+        System.arraycopy(plug, 0, _plug, lane * _n, _n);
+    }
+
+    /** Return the position of slot K in LANE. */
+    int position(int lane, int k) {
+        return _pos[k][lane];
+    }
+
+    /** Return the index of the rotor named NAME among my rotors. */
+    private int rotorNumber(String name) {
+        for (int r = 0; r < _available.size(); r++) {
+            if (_available.get(r).name().equals(name)) {
+                return r;
+            }
+        }
+        throw error("no rotor named %s", name);
+    }
+
+    /** Advance the rotors of every lane one step. */
+    void step() {
+        int lanes = _lanes, n = _n;
+        boolean[] notch = _notch, rotates = _rotates;
+        for (int k = _pawl; k < _slots; k++) {
+            Arrays.fill(_flag[k], k == _slots - 1);
+        }
+        for (int k = _slots - 1; k > _pawl; k--) {
+            int[] base = _base[k], pos = _pos[k];
+            int[] rotor = _rotor[k], left = _rotor[k - 1];
+            boolean[] flag = _flag[k], flagLeft = _flag[k - 1];
+            for (int lane = 0; lane < lanes; lane++) {
+                if (notch[base[lane] + pos[lane]]) {
+                    flag[lane] |= rotates[rotor[lane]];
+                    flagLeft[lane] |= rotates[left[lane]];
+                }
+            }
+        }
+        for (int k = _pawl; k < _slots; k++) {
+            int[] pos = _pos[k], offset = _offset[k];
+            boolean[] flag = _flag[k];
+            for (int lane = 0; lane < lanes; lane++) {
+                if (flag[lane]) {
+                    int p = pos[lane] + 1, o = offset[lane] + 1;
+                    pos[lane] = p == n ? 0 : p;
+                    offset[lane] = o == n ? 0 : o;
+                }
+            }
+        }
+    }
+
+    /** Set OUT[LANE] to the result of passing index C through the
+     *  plugboard and rotors of each lane in their current positions,
+     *  without stepping. */
+    void scramble(int c, int[] out) {
+        int lanes = _lanes, n = _n;
+        int[] plug = _plug;
+        for (int lane = 0; lane < lanes; lane++) {
+            out[lane] = plug[lane * n + c];
+        }
+        for (int k = _slots - 1; k >= 0; k--) {
+            through(_forward, _base[k], _offset[k], out);
+        }
+        for (int k = 1; k < _slots; k++) {
+            through(_inverse, _base[k], _offset[k], out);
+        }
+        for (int lane = 0; lane < lanes; lane++) {
+            out[lane] = plug[lane * n + out[lane]];
+        }
+    }
+
+    /** Pass each X[LANE] through WIRING[BASE[LANE] .. BASE[LANE]+N-1]
+     *  rotated by OFFSET[LANE]. */
+    private void through(int[] wiring, int[] base, int[] offset, int[] x) {
+        _kernel.through(wiring, base, offset, x, _lanes, _n);
+    }
+
+    /** Step every lane and then set OUT[LANE] to its conversion of index
+     *  C, as Machine.convert(int) does. */
+    void convert(int c, int[] out) {
+        step();
+        scramble(c, out);
+    }
+
+    /** Convert TEXT[FROM .. TO-1] under every lane, adding one to
+     *  COUNTS[LANE * N + X] for each output index X of each lane, where N
+     *  is the alphabet size.  This is the inner loop of a search by
+     *  letter frequencies, and allocates nothing. */
+    void count(int[] text, int from, int to, int[] counts) {
+        int[] x = _x;
+        int n = _n;
+        for (int i = from; i < to; i++) {
+            convert(text[i], x);
+            for (int lane = 0; lane < _lanes; lane++) {
+                counts[lane * n + x[lane]] += 1;
+            }
+        }
+    }
+
+    /** The kernel passing lanes through slots. */
+    private final Kernel _kernel;
+    /** Alphabet size. */
+    private final int _n;
+    /** Number of slots, including the reflector's. */
+    private final int _slots;
+    /** First slot with a pawl. */
+    private final int _pawl;
+    /** Number of lanes. */
+    private final int _lanes;
+    /** The rotors of the configuration, by rotor number. */
+    private final List<Rotor> _available;
+    /** Forward wiring of rotor R at [R * N, (R + 1) * N). */
+    private final int[] _forward;
+    /** Inverse wiring, laid out as _forward. */
+    private final int[] _inverse;
+    /** Whether rotor R has a notch at position P, at R * N + P. */
+    private final boolean[] _notch;
+    /** Whether rotor R rotates. */
+    private final boolean[] _rotates;
+    /** For each slot, each lane's rotor number. */
+    private final int[][] _rotor;
+    /** For each slot, the offset in the wiring tables of each lane's
+     *  rotor. */
+    private final int[][] _base;
+    /** For each slot, each lane's rotor position. */
+    private final int[][] _pos;
+    /** For each slot, each lane's position less its ring, modulo N. */
+    private final int[][] _offset;
+    /** For each slot, whether each lane's rotor steps. */
+    private final boolean[][] _flag;
+    /** Each lane's plugboard, lane L at [L * N, (L + 1) * N). */
+    private final int[] _plug;
+    /** Scratch outputs for count. */
+    private final int[] _x;
+}
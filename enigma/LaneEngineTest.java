@@ -0,0 +1,131 @@
+package enigma;
+
+import java.util.List;
+import java.util.Random;
+import java.util.Scanner;
+import org.junit.Test;
+import org.junit.Rule;
+import org.junit.rules.Timeout;
+import static org.junit.Assert.*;
+
+/** The suite of all JUnit tests for the LaneEngine class.
+ *  @author Tianyu Liu
+ */
+public class LaneEngineTest {
+
+    /** Testing time limit. */
+    @Rule
+    public Timeout globalTimeout = Timeout.seconds(10);
+
+    /* ***** TESTING UTILITIES ***** */
+
+    /** Return COUNT machines for ServerTest.CONFIG with random rotor
+     *  orders, positions, rings and plugboards, chosen by RANDOM. */
+    static Machine[] randomMachines(int count, Random random) {
+        Machine config = Main.readConfig(new Scanner(ServerTest.CONFIG));
+        List<String[]> orders = config.rotorOrders();
+        Machine[] result = new Machine[count];
+        for (int i = 0; i < count; i++) {
+            Machine mach = config.copy();
+            mach.insertRotors(orders.get(random.nextInt(orders.size())));
+            int[] positions = new int[mach.numRotors()];
+            int[] rings = new int[mach.numRotors()];
+            for (int k = 1; k < positions.length; k++) {
+                positions[k] = random.nextInt(26);
+                rings[k] = random.nextInt(26);
+            }
+            mach.setPositions(positions);
+            mach.setRings(rings);
+            String plugs = "";
+            for (char a = 'A'; a < 'Z'; a += 2) {
+                if (random.nextBoolean()) {
+                    plugs += "(" + a + (char) (a + 1) + ")";
+                }
+            }
+            mach.setPlugboard(new Permutation(plugs, mach.alphabet()));
+            result[i] = mach;
+        }
+        return result;
+    }
+
+    /** Check that an engine using KERNEL matches one using the scalar
+     *  kernel on MACHINES, over random input. */
+    static void checkKernel(LaneEngine.Kernel kernel, Machine[] machines) {
+        LaneEngine scalar = new LaneEngine(machines[0], machines.length,
+                                           new LaneEngine.ScalarKernel());
+        LaneEngine other = new LaneEngine(machines[0], machines.length,
+                                          kernel);
+        for (int lane = 0; lane < machines.length; lane++) {
+            scalar.setLane(lane, machines[lane]);
+            other.setLane(lane, machines[lane]);
+        }
+        int[] expected = new int[machines.length];
+        int[] out = new int[machines.length];
+        Random random = new Random(38);
+        for (int i = 0; i < 2000; i++) {
+            int c = random.nextInt(26);
+            scalar.convert(c, expected);
+            other.convert(c, out);
+            assertArrayEquals(expected, out);
+        }
+    }
+
+    /* ***** TESTS ***** */
+
+    @Test
+    public void testMatchesMachines() {
+        Random random = new Random(37);
+        Machine[] machines = randomMachines(64, random);
+        LaneEngine engine = new LaneEngine(machines[0], machines.length);
+        for (int lane = 0; lane < machines.length; lane++) {
+            engine.setLane(lane, machines[lane]);
+        }
+        int[] out = new int[machines.length];
+        for (int i = 0; i < 2000; i++) {
+            int c = random.nextInt(26);
+            engine.convert(c, out);
+            for (int lane = 0; lane < machines.length; lane++) {
+                assertEquals(machines[lane].convert(c), out[lane]);
+                assertEquals(machines[lane].getRotor(3).setting(),
+                             engine.position(lane, 3));
+            }
+        }
+    }
+
+    @Test
+    public void testCount() {
+        Random random = new Random(3);
+        Machine[] machines = randomMachines(8, random);
+        LaneEngine engine = new LaneEngine(machines[0], machines.length);
+        for (int lane = 0; lane < machines.length; lane++) {
+            engine.setLane(lane, machines[lane]);
+        }
+        int[] text = new int[300];
+        for (int i = 0; i < text.length; i++) {
+            text[i] = random.nextInt(26);
+        }
+        int[] counts = new int[machines.length * 26];
+        engine.count(text, 0, text.length, counts);
+        for (int lane = 0; lane < machines.length; lane++) {
+            int[] expected = new int[26];
+            for (int c : text) {
+                expected[machines[lane].convert(c)] += 1;
+            }
+            for (int x = 0; x < 26; x++) {
+                assertEquals(expected[x], counts[lane * 26 + x]);
+            }
+        }
+    }
+
+    @Test
+    public void testVector() {
+        LaneEngine.Kernel kernel = LaneEngine.vectorKernel();
+        if (kernel == null) {
+            return;
+        }
+        Random random = new Random(39);
+        for (int lanes : new int[] {1, 7, 8, 64, 101}) {
+            checkKernel(kernel, randomMachines(lanes, random));
+        }
+    }
+}
@@ -0,0 +1,47 @@
+package enigma;
+
+import jdk.incubator.vector.IntVector;
+import jdk.incubator.vector.VectorOperators;
+import jdk.incubator.vector.VectorSpecies;
+
+/** The LaneEngine kernel using vector gathers.  This class needs the
+ *  jdk.incubator.vector module; LaneEngine loads it reflectively and
+ *  falls back to scalar code when it cannot.
+ *  @author Tianyu Liu
+ */
+final class LaneVectorKernel implements LaneEngine.Kernel {
+
+    @Override
+    public void through(int[] wiring, int[] base, int[] offset, int[] x,
+                        int lanes, int n) {
+        int[] idx = _idx;
+        int lane = 0;
+        for (int bound = SPECIES.loopBound(lanes); lane < bound;
+             lane += SPECIES.length()) {
+            IntVector o = IntVector.fromArray(SPECIES, offset, lane);
+            IntVector i = IntVector.fromArray(SPECIES, x, lane).add(o);
+            i = i.lanewise(VectorOperators.SUB, n,
+                           i.compare(VectorOperators.GE, n));
+            i.add(IntVector.fromArray(SPECIES, base, lane))
+                .intoArray(idx, 0);
+            IntVector y = IntVector.fromArray(SPECIES, wiring, 0, idx, 0)
+                .sub(o);
+            y.lanewise(VectorOperators.ADD, n,
+                       y.compare(VectorOperators.LT, 0))
+                .intoArray(x, lane);
+        }
+        for (; lane < lanes; lane++) {
+            int o = offset[lane];
+            int i = x[lane] + o;
+            int y = wiring[base[lane] + (i >= n ? i - n : i)] - o;
+            x[lane] = y < 0 ? y + n : y;
+        }
+    }
+
+    /** The vector shape used, fixed at 256 bits as for VectorKernel. */
+    private static final VectorSpecies<Integer> SPECIES =
+        IntVector.SPECIES_256;
+
+    /** Index vectors for gathers. */
+    private final int[] _idx = new int[SPECIES.length()];
+}
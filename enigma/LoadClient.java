@@ -0,0 +1,194 @@
+package enigma;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.SocketAddress;
+import java.net.UnixDomainSocketAddress;
+import java.nio.channels.Channels;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.atomic.LongAdder;
+
+import ucb.util.CommandArgs;
+
+import static enigma.EnigmaException.*;
+
+/** A load generator for Server.  It opens a number of connections in
+ *  parallel, sends each a stream of requests (a setting line followed by
+ *  a random message), waits for every answer and reports throughput.
+ *  @author Tianyu Liu
+ */
+public final class LoadClient {
+
+    /** Generate load as specified by ARGS: --port=N or --socket=PATH
+     *  names the server; --connections=C, --requests=R and --length=L give
+     *  the number of connections, requests per connection and message
+     *  length (defaults 4, 1000 and 100); --alphabet=CHARS gives the
+     *  message characters (default A-Z).  The single non-option argument
+     *  is the setting line to send. */
+    public static void main(String... args) {
+        try {
+            CommandArgs options =
+                new CommandArgs("--port=(\\d+) --socket=(.+) "
+                                + "--connections=(\\d+) --requests=(\\d+) "
+                                + "--length=(\\d+) --alphabet=(.+) "
+                                + "--=(.*){1}", args);
+            if (!options.ok() || options.contains("--port")
+                                 == options.contains("--socket")) {
+                throw error("Usage: java enigma.LoadClient "
+                            + "(--port=N | --socket=PATH) [--connections=C] "
+                            + "[--requests=R] [--length=L] "
+                            + "[--alphabet=CHARS] SETTING");
+            }
+            SocketAddress address;
+            if (options.contains("--port")) {
+                address = new InetSocketAddress(
+                    InetAddress.getLoopbackAddress(),
+                    Integer.parseInt(options.getFirst("--port")));
+            } else {
+                address = UnixDomainSocketAddress.of(
+                    options.getFirst("--socket"));
+            }
+            LoadClient client =
+                new LoadClient(address, options.getFirst("--"),
+                               intOption(options, "--connections", 4),
+                               intOption(options, "--requests", 1000),
+                               intOption(options, "--length", 100));
+            if (options.contains("--alphabet")) {
+                client._alphabet = options.getFirst("--alphabet");
+            }
+            client.run();
+            System.out.println(client.report());
+            return;
+        } catch (EnigmaException excp) {
+            System.err.printf("Error: %s%n", excp.getMessage());
+        }
+        System.exit(1);
+    }
+
+    /** Return the value of integer option NAME in OPTIONS, or DFLT. */
+    private static int intOption(CommandArgs options, String name,
+                                 int dflt) {
+        if (options.contains(name)) {
+            return Integer.parseInt(options.getFirst(name));
+        }
+        return dflt;
+    }
+
+    /** A client sending REQUESTS requests of LENGTH characters under
+     *  setting line SETTING on each of CONNECTIONS connections to the
+     *  server at ADDRESS. */
+    LoadClient(SocketAddress address, String setting, int connections,
+               int requests, int length) {
+        _address = address;
+        _setting = setting;
+        _connections = connections;
+        _requests = requests;
+        _length = length;
+    }
+
+    /** Run the load and wait for every connection to finish. */
+    void run() {
+        List<Thread> threads = new ArrayList<>();
+        List<Throwable> failures = new ArrayList<>();
+        long start = System.nanoTime();
+        for (int c = 0; c < _connections; c++) {
+            long seed = c;
+            Thread t = new Thread(() -> {
+                try {
+                    drive(new Random(seed));
+                } catch (IOException | EnigmaException excp) {
+                    synchronized (failures) {
+                        failures.add(excp);
+                    }
+                }
+            });
+            threads.add(t);
+            t.start();
+        }
+        for (Thread t : threads) {
+            try {
+                t.join();
+            } catch (InterruptedException excp) {
+                throw error("interrupted");
+            }
+        }
+        _elapsed = System.nanoTime() - start;
+        if (!failures.isEmpty()) {
+            throw error("connection failed: %s",
+                        failures.get(0).getMessage());
+        }
+    }
+
+    /** Send my requests over one connection, using RANDOM to make
+     *  messages, and check that each gets a well-formed answer. */
+    private void drive(Random random) throws IOException {
+        try (SocketChannel channel = SocketChannel.open(_address)) {
+            BufferedReader in = new BufferedReader(new InputStreamReader(
+                Channels.newInputStream(channel), StandardCharsets.UTF_8));
+            Writer out = new BufferedWriter(new OutputStreamWriter(
+                Channels.newOutputStream(channel), StandardCharsets.UTF_8));
+            char[] msg = new char[_length];
+            for (int r = 0; r < _requests; r++) {
+                for (int i = 0; i < _length; i++) {
+                    msg[i] = _alphabet.charAt(
+                        random.nextInt(_alphabet.length()));
+                }
+                out.write(_setting);
+                out.write('\n');
+                out.write(msg);
+                out.write('\n');
+                out.flush();
+                String answer = in.readLine();
+                if (answer == null || answer.startsWith("Error")) {
+                    throw error("bad answer: %s", answer);
+                }
+                _answered.increment();
+                _chars.add(_length);
+            }
+        }
+    }
+
+    /** Return the number of answers received. */
+    long answered() {
+        return _answered.sum();
+    }
+
+    /** Return a summary of the last run. */
+    String report() {
+        double secs = _elapsed / 1e9;
+        return String.format("%d connections, %d requests, %d characters "
+                             + "in %.3f s: %.0f requests/s, %.0f chars/s",
+                             _connections, _answered.sum(), _chars.sum(),
+                             secs, _answered.sum() / secs,
+                             _chars.sum() / secs);
+    }
+
+    /** The server's address. */
+    private final SocketAddress _address;
+    /** The setting line sent with each request. */
+    private final String _setting;
+    /** Number of parallel connections. */
+    private final int _connections;
+    /** Requests sent on each connection. */
+    private final int _requests;
+    /** Characters in each message. */
+    private final int _length;
+    /** Characters from which messages are made. */
+    private String _alphabet = TestUtils.UPPER_STRING;
+    /** Answers received. */
+    private final LongAdder _answered = new LongAdder();
+    /** Characters sent. */
+    private final LongAdder _chars = new LongAdder();
+    /** Duration of the last run, in nanoseconds. */
+    private long _elapsed;
+}
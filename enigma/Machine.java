@@ -1,6 +1,9 @@
 package enigma;
 
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
 import java.util.Collection;
+import java.util.List;
 
 import static enigma.EnigmaException.*;
 
@@ -14,15 +17,51 @@ class Machine {
      *  available rotors. */
     Machine(Alphabet alpha, int numRotors, int pawls,
             Collection<Rotor> allRotors) {
+        this(alpha, numRotors, pawls, allRotors, SteppingStrategy.ODOMETER);
+    }
+
+    /** A new Enigma machine with alphabet ALPHA, 1 < NUMROTORS rotor slots,
+     *  and 0 <= PAWLS < NUMROTORS pawls, whose rotors move as STEPPING
+     *  says.  ALLROTORS contains all the available rotors. */
+    Machine(Alphabet alpha, int numRotors, int pawls,
+            Collection<Rotor> allRotors, SteppingStrategy stepping) {
         _alphabet = alpha;
         _numrotor = numRotors;
         _pawl = pawls;
+        _stepping = stepping;
         _all = allRotors.toArray(new Rotor[numRotors]);
-        _plugboard = new Permutation(" ", AZ);
+        _plugboard = new Permutation(" ", alpha);
         _rotorslot = new Rotor[_numrotor];
     }
 
 
+    /** Return a new machine with my alphabet, slots, pawls, available
+     *  rotors, inserted rotors, settings, rings and plugboard, whose rotors
+     *  are copies of mine and so move independently of me.  My
+     *  permutations, which never change, are shared. */
+    Machine copy() {
+        ArrayList<Rotor> all = new ArrayList<>();
+        Rotor[] slots = new Rotor[_numrotor];
+        for (Rotor r : _all) {
+            if (r == null) {
+                continue;
+            }
+            Rotor c = r.copy();
+            all.add(c);
+            for (int k = 0; k < _numrotor; k++) {
+                if (_rotorslot[k] == r) {
+                    slots[k] = c;
+                }
+            }
+        }
+        Machine result =
+            new Machine(_alphabet, _numrotor, _pawl, all, _stepping);
+        result._rotorslot = slots;
+        result._plugboard = _plugboard;
+        result._selector = _selector;
+        return result;
+    }
+
     /** Return the number of rotor slots I have. */
     int numRotors() {
         return _numrotor;
@@ -33,6 +72,11 @@ class Machine {
         return _pawl;
     }
 
+    /** Return how my rotors move. */
+    SteppingStrategy stepping() {
+        return _stepping;
+    }
+
     /** Return Rotor #K, where Rotor #0 is the reflector, and Rotor
      *  #(numRotors()-1) is the fast Rotor.  Modifying this Rotor has
      *  undefined results. */
@@ -44,23 +88,112 @@ class Machine {
         return _alphabet;
     }
 
+    /** Return the rotors available to me. */
+    List<Rotor> availableRotors() {
+        List<Rotor> result = new ArrayList<>();
+        for (Rotor r : _all) {
+            if (r != null) {
+                result.add(r);
+            }
+        }
+        return result;
+    }
+
+    /** Return every way of filling my slots from my available rotors
+     *  that makes a working machine: a reflector in slot 0, non-moving
+     *  rotors in the slots without pawls, moving rotors in the slots with
+     *  pawls, and no rotor used twice.  Each is an array of rotor names
+     *  as accepted by insertRotors. */
+    List<String[]> rotorOrders() {
+        List<String[]> result = new ArrayList<>();
+        fillOrders(new String[_numrotor], 0, result);
+        return result;
+    }
+
+    /** Add to RESULT every completion of ORDER, whose first K slots are
+     *  filled, as described for rotorOrders. */
+    private void fillOrders(String[] order, int k, List<String[]> result) {
+        if (k == _numrotor) {
+            result.add(order.clone());
+            return;
+        }
+        for (Rotor r : availableRotors()) {
+            boolean fits;
+            if (k == 0) {
+                fits = r.reflecting();
+            } else if (k < _numrotor - _pawl) {
+                fits = !r.reflecting() && !r.rotates();
+            } else {
+                fits = r.rotates();
+            }
+            for (int i = 0; fits && i < k; i++) {
+                fits = !order[i].equals(r.name());
+            }
+            if (fits) {
+                order[k] = r.name();
+                fillOrders(order, k + 1, result);
+            }
+        }
+    }
+
+    /** Put the rotor named NAME in slot K, leaving the other slots as
+     *  they are. */
+    void insertRotor(int k, String name) {
+        for (Rotor r : _all) {
+            if (r.name().equals(name)) {
+                _rotorslot[k] = r;
+                return;
+            }
+        }
+        throw error("no rotor named %s", name);
+    }
+
     /** Set my rotor slots to the rotors named ROTORS from my set of
-     *  available rotors (ROTORS[0] names the reflector).
+     *  available rotors (ROTORS[0] names the reflector).  A name that is
+     *  not among them is an error, and leaves my slots as they were.
      *  Initially, all rotors are set at their 0 setting. */
     void insertRotors(String[] rotors) {
+        Rotor[] found = new Rotor[rotors.length];
         for (int i = 0; i < rotors.length; i++) {
             for (int j = 0; j < _all.length; j++) {
                 Rotor targetRotor = _all[j];
                 if (rotors[i].equals(targetRotor.name())) {
-                    _rotorslot[i] = targetRotor;
+                    found[i] = targetRotor;
                 }
             }
+            if (found[i] == null) {
+                throw error("unknown rotor %s", rotors[i]);
+            }
         }
+        System.arraycopy(found, 0, _rotorslot, 0, found.length);
         if (_rotorslot.length != _numrotor) {
             throw error("Wrong insertRotor in machine, %s", _rotorslot.length);
         }
     }
 
+    /** Return the index among my available rotors of the rotor in each
+     *  of my slots, or -1 for an empty slot. */
+    int[] slots() {
+        int[] result = new int[_numrotor];
+        for (int k = 0; k < _numrotor; k++) {
+            result[k] = -1;
+            for (int j = 0; j < _all.length; j++) {
+                if (_all[j] != null && _all[j] == _rotorslot[k]) {
+                    result[k] = j;
+                }
+            }
+        }
+        return result;
+    }
+
+    /** Put in each slot K my available rotor with index SLOTS[K], as
+     *  returned by slots(), or nothing if it is -1. */
+    void setSlots(int[] slots) {
+        for (int k = 0; k < _numrotor; k++) {
+            _rotorslot[k] = slots[k] < 0 ? null : _all[slots[k]];
+        }
+    }
+
     void insertRings(String ring) {
         for (int i = 1; i < _rotorslot.length; i++) {
             _rotorslot[i].useR(ring.charAt(i - 1));
@@ -114,27 +247,168 @@ class Machine {
         return c;
     }
 
-    /** Advance all rotors to their next position. */
-    private void advanceRotors() {
+    /** Let SELECTOR choose how convert(int[], int, int) works, or always
+     *  use convert(int) if SELECTOR is null. */
+    void setSelector(EngineSelector selector) {
+        _selector = selector;
+        _bulk = null;
+        _bulkEngine = null;
+    }
 
-        int pawNum = this.numRotors() - this.numPawls();
-        boolean[] flag = new boolean[this.numRotors()];
-        for (int i = _rotorslot.length - 1; i > pawNum; i--) {
-            if (this.getRotor(i).atNotch()) {
-                if (this.getRotor(i).rotates()) {
-                    flag[i] = true;
-                }
-                if (this.getRotor(i - 1).rotates() && i > pawNum) {
-                    flag[i - 1] = true;
-                }
+    /** Return my engine selector, or null. */
+    EngineSelector selector() {
+        return _selector;
+    }
+
+    /** Replace each index TEXT[FROM .. TO-1] by its conversion, in turn,
+     *  as convert(int) would, with the engine my selector chooses. */
+    void convert(int[] text, int from, int to) {
+        EngineSelector.Engine engine = _selector == null
+            ? EngineSelector.Engine.INTERPRETED
+            : _selector.choose(this, to - from);
+        if (!BulkConverter.fits(_alphabet.size())) {
+            engine = EngineSelector.Engine.INTERPRETED;
+        }
+        if (engine != EngineSelector.Engine.INTERPRETED
+            && _bulkEngine != engine) {
+            BulkConverter.Kernel kernel = engine.kernel();
+            _bulk = new BulkConverter(this, kernel != null ? kernel
+                                      : new BulkConverter.ScalarKernel());
+            _bulkEngine = engine;
+        }
+        if (engine == EngineSelector.Engine.INTERPRETED) {
+            for (int i = from; i < to; i++) {
+                text[i] = convert(text[i]);
             }
+        } else {
+            _bulk.convert(text, from, to);
+        }
+        if (_selector != null) {
+            _selector.record(engine, to - from);
+        }
+    }
+
+    /** Advance my rotors one step, as converting a character does. */
+    void step() {
+        advanceRotors();
+    }
+
+    /** Fill TABLE with the permutation that my rotors, but not my
+     *  plugboard, apply in their current positions, and return TABLE.
+     *  This works directly on the rotors' wiring tables, so it is much
+     *  cheaper than converting each index. */
+    int[] rotorTable(int[] table) {
+        for (int c = 0; c < table.length; c++) {
+            table[c] = scramble(c);
+        }
+        return table;
+    }
+
+    /** Return the result of passing index C through my rotors, but not
+     *  my plugboard, in their current positions.  Unlike convert, this
+     *  neither steps the rotors nor allocates, so trial decryptions can
+     *  call it in their inner loops. */
+    int scramble(int c) {
+        int n = _alphabet.size();
+        for (int k = _numrotor - 1; k >= 0; k--) {
+            Rotor r = _rotorslot[k];
+            c = mapThrough(r.permutation().forwardTable(),
+                           r.setting() - r.getr(), n, c);
+        }
+        for (int k = 1; k < _numrotor; k++) {
+            Rotor r = _rotorslot[k];
+            c = mapThrough(r.permutation().inverseTable(),
+                           r.setting() - r.getr(), n, c);
         }
-        flag[flag.length - 1] = true;
-        for (int j = pawNum; j < this.numRotors(); j++) {
-            if (flag[j]) {
-                this.getRotor(j).advance();
+        return c;
+    }
+
+    /** Fill TABLE with the permutation that my rotors other than the
+     *  rightmost apply in their current positions, and return TABLE.
+     *  Between turnovers only the rightmost rotor moves, so this table
+     *  stays fixed while it does. */
+    int[] innerTable(int[] table) {
+        int n = _alphabet.size();
+        for (int c = 0; c < table.length; c++) {
+            int x = c;
+            for (int k = _numrotor - 2; k >= 0; k--) {
+                Rotor r = _rotorslot[k];
+                x = mapThrough(r.permutation().forwardTable(),
+                               r.setting() - r.getr(), n, x);
+            }
+            for (int k = 1; k < _numrotor - 1; k++) {
+                Rotor r = _rotorslot[k];
+                x = mapThrough(r.permutation().inverseTable(),
+                               r.setting() - r.getr(), n, x);
             }
+            table[c] = x;
+        }
+        return table;
+    }
+
+    /** Return the result of passing C through WIRING, a table of N
+     *  elements, when the wiring is rotated by OFFSET positions. */
+    private static int mapThrough(int[] wiring, int offset, int n, int c) {
+        offset = Math.floorMod(offset, n);
+        int x = c + offset;
+        if (x >= n) {
+            x -= n;
+        }
+        x = wiring[x] - offset;
+        if (x < 0) {
+            x += n;
         }
+        return x;
+    }
+
+    /** Advance all rotors to their next position.  The strategy is in a
+     *  final field, so this call has one target while a program uses one
+     *  strategy. */
+    private void advanceRotors() {
+        _stepping.step(_rotorslot, _numrotor - _pawl);
+    }
+
+    /** Return the current settings of my rotors: element K is the setting
+     *  of Rotor #K. */
+    int[] positions() {
+        int[] result = new int[_numrotor];
+        for (int k = 1; k < _numrotor; k++) {
+            result[k] = _rotorslot[k].setting();
+        }
+        return result;
+    }
+
+    /** Set the setting of each Rotor #K other than the reflector to
+     *  POSNS[K], as returned by positions(). */
+    void setPositions(int[] posns) {
+        for (int k = 1; k < _numrotor; k++) {
+            _rotorslot[k].set(posns[k]);
+        }
+    }
+
+    /** Return the current ring settings of my rotors: element K is the
+     *  ring setting of Rotor #K. */
+    int[] rings() {
+        int[] result = new int[_numrotor];
+        for (int k = 1; k < _numrotor; k++) {
+            result[k] = _rotorslot[k].getr();
+        }
+        return result;
+    }
+
+    /** Set the ring setting of each Rotor #K other than the reflector to
+     *  RINGS[K], as returned by rings(). */
+    void setRings(int[] rings) {
+        for (int k = 1; k < _numrotor; k++) {
+            _rotorslot[k].useR(rings[k]);
+        }
+    }
+
+    /** Advance my rotors N steps, leaving them as they would be after
+     *  converting N characters, without stepping through each one where
+     *  my stepping strategy knows a shortcut. */
+    void advance(long n) {
+        _stepping.advance(_rotorslot, _numrotor - _pawl, n);
     }
 
     /** Return the result of applying the rotors to the character C (as an
@@ -160,6 +434,18 @@ class Machine {
     /** Returns the encoding/decoding of MSG, updating the state of
      *  the rotors accordingly. */
     String convert(String msg) {
+        if (_selector != null) {
+            int[] text = new int[msg.length()];
+            for (int i = 0; i < text.length; i++) {
+                text[i] = _alphabet.toInt(msg.charAt(i));
+            }
+            convert(text, 0, text.length);
+            char[] result = new char[text.length];
+            for (int i = 0; i < text.length; i++) {
+                result[i] = _alphabet.toChar(text[i]);
+            }
+            return new String(result);
+        }
         String result = "";
         for (int i = 0; i < msg.length(); i++) {
             char ch = msg.charAt(i);
@@ -171,18 +457,174 @@ class Machine {
         return result;
     }
 
+    /** Convert the LEN characters of BUF starting at OFF in place,
+     *  advancing the rotors once for each character in my alphabet.
+     *  Characters outside my alphabet are handled according to POLICY.
+     *  Returns the number of characters left in BUF starting at OFF,
+     *  which is less than LEN only when POLICY drops characters. */
+    int convert(char[] buf, int off, int len, ForeignPolicy policy) {
+        int out = off;
+        for (int i = off; i < off + len; i++) {
+            int ch = convertChar(buf[i], policy);
+            if (ch >= 0) {
+                buf[out] = (char) ch;
+                out++;
+            }
+        }
+        return out - off;
+    }
+
+    /** Convert the LEN bytes of BUF starting at OFF in place, treating
+     *  each byte as the character with the same (ISO-8859-1) code.  The
+     *  handling of foreign characters and the return value are as for
+     *  convert(char[], int, int, ForeignPolicy).  When all my characters
+     *  have such codes, bytes are mapped to indices and back through my
+     *  alphabet's byte tables, and each run of them is converted as one
+     *  array of indices, with the engine my selector chooses. */
+    int convert(byte[] buf, int off, int len, ForeignPolicy policy) {
+        byte[] codes = _alphabet.byteCodes();
+        if (codes != null) {
+            return convertCodes(buf, off, len, policy, codes);
+        }
+        int out = off;
+        for (int i = off; i < off + len; i++) {
+            int ch = convertChar((char) (buf[i] & 0xff), policy);
+            if (ch > 0xff) {
+                throw error("character %c cannot be written as a byte",
+                            (char) ch);
+            }
+            if (ch >= 0) {
+                buf[out] = (byte) ch;
+                out++;
+            }
+        }
+        return out - off;
+    }
+
+    /** Convert BUF as for convert(byte[], int, int, ForeignPolicy), where
+     *  CODES holds the byte codes of all my characters. */
+    private int convertCodes(byte[] buf, int off, int len,
+                             ForeignPolicy policy, byte[] codes) {
+        int[] index = _alphabet.byteIndices();
+        if (_byteText == null || _byteText.length < len) {
+            _byteText = new int[Math.max(len, 2 * Alphabet.BYTES)];
+        }
+        int[] text = _byteText;
+        int out = off, run = 0;
+        for (int i = off; i < off + len; i++) {
+            int c = index[buf[i] & 0xff];
+            if (c >= 0) {
+                text[run++] = c;
+                continue;
+            }
+            out = writeCodes(text, run, codes, buf, out);
+            run = 0;
+            switch (policy) {
+            case PASS:
+                buf[out++] = buf[i];
+                break;
+            case DROP:
+                break;
+            default:
+                throw error("character %c is not in the alphabet",
+                            (char) (buf[i] & 0xff));
+            }
+        }
+        return writeCodes(text, run, codes, buf, out) - off;
+    }
+
+    /** Convert the first RUN indices of TEXT and write the codes of the
+     *  results, from CODES, to BUF starting at OUT.  Return the index in
+     *  BUF after the last one written. */
+    private int writeCodes(int[] text, int run, byte[] codes, byte[] buf,
+                           int out) {
+        if (run > 0) {
+            convert(text, 0, run);
+            for (int k = 0; k < run; k++) {
+                buf[out++] = codes[text[k]];
+            }
+        }
+        return out;
+    }
+
+    /** Return the conversion of character CH, or -1 if CH is to be
+     *  dropped under POLICY. */
+    private int convertChar(char ch, ForeignPolicy policy) {
+        int c = _alphabet.indexOf(ch);
+        if (c >= 0) {
+            return _alphabet.toChar(convert(c));
+        }
+        switch (policy) {
+        case PASS:
+            return ch;
+        case DROP:
+            return -1;
+        default:
+            throw error("character %c is not in the alphabet", ch);
+        }
+    }
+
+    /** Convert the bytes remaining in SRC, writing the results to DST,
+     *  where each of my characters must have an ISO-8859-1 code, so that
+     *  each byte is one character; with a ByteAlphabet, each byte's value
+     *  is its index.  Converts as many bytes as both buffers have room
+     *  for, advances both positions past them, and returns their number.
+     *  A byte that is not in my alphabet is an error.  The buffers are
+     *  accessed in place, so they may be direct, and SRC and DST may be
+     *  the same buffer to convert in place. */
+    int convert(ByteBuffer src, ByteBuffer dst) {
+        byte[] codes = _alphabet.byteCodes();
+        if (codes == null) {
+            throw error("byte conversion needs an alphabet of bytes");
+        }
+        int n = Math.min(src.remaining(), dst.remaining());
+        int sp = src.position(), dp = dst.position();
+        if (_alphabet instanceof ByteAlphabet) {
+            for (int i = 0; i < n; i++) {
+                dst.put(dp + i, (byte) convert(src.get(sp + i) & 0xff));
+            }
+        } else {
+            int[] index = _alphabet.byteIndices();
+            for (int i = 0; i < n; i++) {
+                int c = index[src.get(sp + i) & 0xff];
+                if (c < 0) {
+                    src.position(sp + i);
+                    if (dst != src) {
+                        dst.position(dp + i);
+                    }
+                    throw error("character %c is not in the alphabet",
+                                (char) (src.get(sp + i) & 0xff));
+                }
+                dst.put(dp + i, codes[convert(c)]);
+            }
+        }
+        src.position(sp + n);
+        if (dst != src) {
+            dst.position(dp + n);
+        }
+        return n;
+    }
+
     /** Common alphabet of my rotors. */
     private final Alphabet _alphabet;
     /** Num of rotor that can be inserted into this machine. */
     private int _numrotor;
     /** Num of pawl of this machine. */
     private int _pawl;
+    /** How my rotors move. */
+    private final SteppingStrategy _stepping;
     /** Rotors that have been inserted. */
     private Rotor[] _rotorslot;
     /** Current plugboard. */
     private Permutation _plugboard;
     /** All the rotors that are available. */
     private Rotor[] _all;
-    /** An easy alphabet. */
-    private static final Alphabet AZ = new Alphabet(TestUtils.UPPER_STRING);
+    /** Chooses how to convert arrays of indices, or null. */
+    private EngineSelector _selector;
+    /** Converter for the table engines, or null. */
+    private BulkConverter _bulk;
+    /** Work space for convert(byte[], ...), or null. */
+    private int[] _byteText;
+    /** The engine _bulk was made for. */
+    private EngineSelector.Engine _bulkEngine;
 }
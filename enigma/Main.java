@@ -1,13 +1,39 @@
 package enigma;
 
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
 import java.io.File;
+import java.io.FileDescriptor;
+import java.io.FileOutputStream;
+import java.io.FilterInputStream;
+import java.io.FilterOutputStream;
 import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
 import java.io.PrintStream;
+import java.io.Reader;
+import java.io.Writer;
+
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
 
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
 import java.util.NoSuchElementException;
 import java.util.Scanner;
+import java.util.concurrent.TimeUnit;
 
 import ucb.util.CommandArgs;
 
@@ -26,18 +52,94 @@ public final class Main {
      *  input.  ARGS[2] is optional; when present, it names an output
      *  file for processed messages.  Otherwise, output goes to the
      *  standard output. Exits normally if there are no errors in the input;
-     *  otherwise with code 1. */
+     *  otherwise with code 1.
+     *
+     *  The option --setting=LINE sets the machine up with setting line
+     *  LINE before any input is read.  When the configuration's alphabet
+     *  is (BYTES), the input and output are binary: the input is read and
+     *  converted as raw bytes, except that its first line is taken as the
+     *  setting line unless --setting is given.  When the alphabet is
+     *  ASCII, text messages are converted as encoded bytes, and only
+     *  setting lines are decoded.  --pipeline reads,
+     *  converts and writes text input on three separate threads.
+     *  --calibration=FILE lets the machine choose its engine for each
+     *  message (see EngineSelector), using and updating the measurements
+     *  in FILE.
+     *
+     *  With input and output files, --checkpoint=FILE saves a Checkpoint
+     *  to FILE every --every=SECONDS seconds (default 60), and --resume
+     *  continues from FILE, if it exists, instead of starting afresh.  The
+     *  checkpoint file defaults to the output file's name plus ".ckpt",
+     *  and is removed when the conversion finishes.  A checkpoint taken
+     *  when the input file or the configuration was different is
+     *  refused.
+     *
+     *  --cache=DIR keeps the output of text input in a ResultCache in DIR
+     *  of at most --cache-size=MEGABYTES (default 256), so that blocks of
+     *  lines converted before under the same configuration and setting
+     *  line are copied from it instead of converted again.  The cache hit
+     *  rate is reported on the standard error. */
     public static void main(String... args) {
         try {
             CommandArgs options =
-                new CommandArgs("--verbose --=(.*){1,3}", args);
+                new CommandArgs("--verbose --setting=(.+) --pipeline "
+                                + "--calibration=(.+) --checkpoint=(.+) "
+                                + "--every=(\\d+) --resume "
+                                + "--cache=(.+) --cache-size=(\\d+) "
+                                + "--=(.*){1,3}", args);
             if (!options.ok()) {
                 throw error("Usage: java enigma.Main [--verbose] "
-                            + "[INPUT [OUTPUT]]");
+                            + "[--setting=LINE] [--pipeline] "
+                            + "[--calibration=FILE] [--checkpoint=FILE] "
+                            + "[--every=SECONDS] [--resume] "
+                            + "[--cache=DIR [--cache-size=MEGABYTES]] "
+                            + "CONFIG [INPUT [OUTPUT]]");
+            }
+            boolean checkpoints = options.contains("--checkpoint")
+                || options.contains("--resume");
+            if (checkpoints && options.get("--").size() < 3) {
+                throw error("checkpoints need input and output files");
+            }
+            if (checkpoints && options.contains("--pipeline")) {
+                throw error("--pipeline does not take checkpoints");
+            }
+            if (options.contains("--cache")
+                && (checkpoints || options.contains("--pipeline"))) {
+                throw error("--cache does not combine with --pipeline "
+                            + "or checkpoints");
+            }
+            if (options.contains("--cache-size")
+                && !options.contains("--cache")) {
+                throw error("--cache-size needs --cache");
             }
 
             _verbose = options.contains("--verbose");
-            new Main(options.get("--")).process();
+            Main main = new Main(options.get("--"));
+            main._setting = options.getFirst("--setting");
+            main._pipeline = options.contains("--pipeline");
+            if (options.contains("--calibration")) {
+                main._calibration =
+                    Paths.get(options.getFirst("--calibration"));
+            }
+            if (checkpoints) {
+                main._checkpoint = Paths.get(
+                    options.contains("--checkpoint")
+                    ? options.getFirst("--checkpoint")
+                    : main._outputName + ".ckpt");
+                main._resume = options.contains("--resume");
+                if (options.contains("--every")) {
+                    main._every = TimeUnit.SECONDS.toNanos(
+                        Long.parseLong(options.getFirst("--every")));
+                }
+            }
+            if (options.contains("--cache")) {
+                main._cache = Paths.get(options.getFirst("--cache"));
+                if (options.contains("--cache-size")) {
+                    main._cacheSize = MEGABYTE * Long.parseLong(
+                        options.getFirst("--cache-size"));
+                }
+            }
+            main.process();
             return;
         } catch (EnigmaException excp) {
             System.err.printf("Error: %s%n", excp.getMessage());
@@ -51,20 +153,22 @@ public final class Main {
         _config = getInput(args.get(0));
 
         if (args.size() > 1) {
-            _input = getInput(args.get(1));
-        } else {
-            _input = new Scanner(System.in);
+            _inputName = args.get(1);
         }
 
         if (args.size() > 2) {
-            _output = getOutput(args.get(2));
-        } else {
-            _output = System.out;
+            _outputName = args.get(2);
         }
     }
 
+    /** A Main that reads its configuration from CONFIG and has no
+     *  message input or output. */
+    private Main(Scanner config) {
+        _config = config;
+    }
+
     /** Return a Scanner reading from the file named NAME. */
-    private Scanner getInput(String name) {
+    static Scanner getInput(String name) {
         try {
             return new Scanner(new File(name));
         } catch (IOException excp) {
@@ -81,13 +185,81 @@ public final class Main {
         }
     }
 
+    /** Return a stream reading the standard input that leaves it open
+     *  when closed. */
+    private static InputStream standardInput() {
+        return new FilterInputStream(System.in) {
+            @Override
+            public void close() {
+            }
+        };
+    }
+
+    /** Return an unbuffered stream writing to the standard output, past
+     *  System.out, that only flushes when closed and so leaves the
+     *  standard output open. */
+    private static OutputStream standardOutput() {
+        return new FilterOutputStream(
+            new FileOutputStream(FileDescriptor.out)) {
+            @Override
+            public void write(byte[] b, int off, int len)
+                throws IOException {
+                out.write(b, off, len);
+            }
+
+            @Override
+            public void close() throws IOException {
+                flush();
+            }
+        };
+    }
+
     /** Configure an Enigma machine from the contents of configuration
      *  file _config and apply it to the messages in _input, sending the
      *  results to _output. */
     private void process() {
         try {
             Machine thisMachine = readConfig();
-            String setting = _input.nextLine();
+            if (_calibration != null) {
+                EngineSelector selector = EngineSelector.load(_calibration);
+                selector.prepare(thisMachine);
+                thisMachine.setSelector(selector);
+                if (selector.changed()) {
+                    selector.save(_calibration);
+                }
+            }
+            if (_alphabet instanceof ByteAlphabet) {
+                if (_cache != null) {
+                    throw error("--cache needs a text alphabet");
+                }
+                processBytes(thisMachine);
+                return;
+            }
+            if (_cache != null) {
+                processCached(thisMachine);
+                return;
+            }
+            if (_pipeline) {
+                processPipelined(thisMachine);
+                return;
+            }
+            if (_checkpoint != null) {
+                processCheckpointed(thisMachine);
+                return;
+            }
+            if (_alphabet.isAscii()
+                && asciiCompatible(Charset.defaultCharset())) {
+                processAscii(thisMachine);
+                return;
+            }
+            _input = _inputName == null
+                ? new Scanner(System.in) : getInput(_inputName);
+            _output = _outputName == null
+                ? System.out : getOutput(_outputName);
+            String setting = _setting;
+            if (setting == null) {
+                setting = _input.nextLine();
+            }
             if (!setting.contains("*")) {
                 throw error("Wrong format of setting line");
             }
@@ -108,13 +280,405 @@ public final class Main {
         }
     }
 
+    /** Apply machine M, which has a byte alphabet, to the raw bytes of
+     *  the input, writing the results to the output.  The input is
+     *  streamed through one direct buffer, converted in place, with
+     *  checkpoints between buffers if requested. */
+    private void processBytes(Machine M) {
+        Checkpoint resume = resumePoint(M);
+        try (ReadableByteChannel in = _inputName == null
+                 ? Channels.newChannel(standardInput())
+                 : FileChannel.open(Paths.get(_inputName));
+             WritableByteChannel out = _outputName == null
+                 ? Channels.newChannel(standardOutput())
+                 : FileChannel.open(Paths.get(_outputName),
+                                    StandardOpenOption.CREATE,
+                                    StandardOpenOption.WRITE)) {
+            ByteBuffer buf = ByteBuffer.allocateDirect(BYTE_BUFFER_SIZE);
+            String setting = _setting;
+            long read = 0, written = 0;
+            if (resume != null) {
+                setting = resume.setting;
+                read = resume.input;
+                written = resume.output;
+                ((FileChannel) in).position(read);
+                buf.flip();
+            } else if (setting == null) {
+                setting = readSettingLine(in, buf);
+                read = buf.limit();
+            } else {
+                buf.flip();
+            }
+            if (out instanceof FileChannel) {
+                ((FileChannel) out).truncate(written).position(written);
+            }
+            if (!setting.contains("*")) {
+                throw error("Wrong format of setting line");
+            }
+            setUp(M, setting.trim());
+            if (resume != null) {
+                M.setPositions(resume.positions);
+            }
+            long lastSave = System.nanoTime();
+            while (true) {
+                int start = buf.position();
+                M.convert(buf, buf);
+                buf.position(start);
+                while (buf.hasRemaining()) {
+                    written += out.write(buf);
+                }
+                if (_checkpoint != null
+                    && System.nanoTime() - lastSave >= _every) {
+                    checkpoint((FileChannel) out, read, written, setting, M);
+                    lastSave = System.nanoTime();
+                }
+                buf.clear();
+                int n = in.read(buf);
+                if (n < 0) {
+                    break;
+                }
+                read += n;
+                buf.flip();
+            }
+        } catch (IOException excp) {
+            throw error("I/O error: %s", excp.getMessage());
+        }
+        finishCheckpoints();
+        System.out.flush();
+    }
+
+    /** Apply machine M, whose alphabet is ASCII, to the messages of the
+     *  input, writing the results to the output, as the Scanner loop of
+     *  process does but on the encoded bytes: message bytes are mapped
+     *  to indices and back through the alphabet's byte tables, and only
+     *  setting lines are decoded. */
+    private void processAscii(Machine M) {
+        Charset charset = Charset.defaultCharset();
+        byte[] newline = System.lineSeparator().getBytes(charset);
+        try (ReadableByteChannel in = _inputName == null
+                 ? Channels.newChannel(standardInput())
+                 : FileChannel.open(Paths.get(_inputName));
+             OutputStream out = new BufferedOutputStream(
+                 _outputName == null ? standardOutput()
+                 : Files.newOutputStream(Paths.get(_outputName)),
+                 BYTE_BUFFER_SIZE)) {
+            LineInput lines = new LineInput(in, charset);
+            String setting = _setting;
+            if (setting == null) {
+                setting = lines.readLine();
+                if (setting == null) {
+                    throw error("Wrong next in process");
+                }
+            }
+            if (!setting.contains("*")) {
+                throw error("Wrong format of setting line");
+            }
+            setUp(M, setting);
+            byte[] grouped = new byte[LINE_SIZE];
+            for (int len = lines.readBytes(); len >= 0;
+                 len = lines.readBytes()) {
+                byte[] line = lines.bytes();
+                if (indexOf(line, len, '*') >= 0) {
+                    setUp(M, new String(line, 0, len, charset));
+                    continue;
+                }
+                int n = 0;
+                for (int i = 0; i < len; i++) {
+                    if (line[i] != ' ') {
+                        line[n++] = line[i];
+                    }
+                }
+                M.convert(line, 0, n, ForeignPolicy.FAIL);
+                int size = n + Math.max(0, n - 1) / GROUP + newline.length;
+                if (grouped.length < size) {
+                    grouped = new byte[2 * size];
+                }
+                int g = 0;
+                for (int i = 0; i < n; i++) {
+                    if (i > 0 && i % GROUP == 0) {
+                        grouped[g++] = ' ';
+                    }
+                    grouped[g++] = line[i];
+                }
+                System.arraycopy(newline, 0, grouped, g, newline.length);
+                out.write(grouped, 0, size);
+            }
+        } catch (IOException excp) {
+            throw error("I/O error: %s", excp.getMessage());
+        }
+    }
+
+    /** Return the index of the first B among the first LEN bytes of BUF,
+     *  or -1 if there is none. */
+    private static int indexOf(byte[] buf, int len, char b) {
+        for (int i = 0; i < len; i++) {
+            if (buf[i] == b) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    /** Return true iff CHARSET encodes each ASCII character as the one
+     *  byte with its code. */
+    static boolean asciiCompatible(Charset charset) {
+        byte[] ascii = new byte[Alphabet.ASCII];
+        for (int b = 0; b < ascii.length; b++) {
+            ascii[b] = (byte) b;
+        }
+        return Arrays.equals(ascii, new String(ascii, StandardCharsets
+                                               .ISO_8859_1)
+                             .getBytes(charset));
+    }
+
+    /** Apply machine M to the messages of the input file, writing the
+     *  results to the output file, with checkpoints between lines.  Lines
+     *  are read as bytes so that the input offset of each is known. */
+    private void processCheckpointed(Machine M) {
+        Checkpoint resume = resumePoint(M);
+        Charset charset = Charset.defaultCharset();
+        byte[] newline = System.lineSeparator().getBytes(charset);
+        try (FileChannel in = FileChannel.open(Paths.get(_inputName));
+             FileChannel out = FileChannel.open(Paths.get(_outputName),
+                                                StandardOpenOption.CREATE,
+                                                StandardOpenOption.WRITE)) {
+            LineInput lines = new LineInput(in, charset);
+            long written = 0;
+            String setting = _setting;
+            if (resume != null) {
+                lines.seek(resume.input);
+                written = resume.output;
+                setting = resume.setting;
+            } else if (setting == null) {
+                setting = lines.readLine();
+                if (setting == null) {
+                    throw error("Wrong next in process");
+                }
+            }
+            out.truncate(written).position(written);
+            if (!setting.contains("*")) {
+                throw error("Wrong format of setting line");
+            }
+            setUp(M, setting);
+            if (resume != null) {
+                M.setPositions(resume.positions);
+            }
+            OutputStream sink = new BufferedOutputStream(
+                Channels.newOutputStream(out), BYTE_BUFFER_SIZE);
+            long lastSave = System.nanoTime();
+            for (String line = lines.readLine(); line != null;
+                 line = lines.readLine()) {
+                if (line.contains("*")) {
+                    setUp(M, line);
+                    setting = line;
+                } else {
+                    byte[] text = groups(M.convert(line.replace(" ", "")))
+                        .getBytes(charset);
+                    sink.write(text);
+                    sink.write(newline);
+                    written += text.length + newline.length;
+                }
+                if (System.nanoTime() - lastSave >= _every) {
+                    sink.flush();
+                    checkpoint(out, lines.offset(), written, setting, M);
+                    lastSave = System.nanoTime();
+                }
+            }
+            sink.flush();
+        } catch (IOException excp) {
+            throw error("I/O error: %s", excp.getMessage());
+        }
+        finishCheckpoints();
+    }
+
+    /** Apply machine M to the messages of the input, writing the results
+     *  to the output, through the ResultCache in _cache.  The message
+     *  lines under each setting line are taken in blocks of about
+     *  CACHE_BLOCK characters.  A block found in the cache is copied to
+     *  the output without converting it; any other is converted, once M
+     *  has jumped ahead to the block's place under its setting line, and
+     *  added to the cache. */
+    private void processCached(Machine M) {
+        Charset charset = Charset.defaultCharset();
+        String newline = System.lineSeparator();
+        byte[] fingerprint = ResultCache.fingerprint(M, charset, newline);
+        ResultCache cache = new ResultCache(_cache, _cacheSize);
+        try (cache;
+             ReadableByteChannel in = _inputName == null
+                 ? Channels.newChannel(standardInput())
+                 : FileChannel.open(Paths.get(_inputName));
+             OutputStream out = new BufferedOutputStream(
+                 _outputName == null ? standardOutput()
+                 : Files.newOutputStream(Paths.get(_outputName)),
+                 BYTE_BUFFER_SIZE)) {
+            LineInput lines = new LineInput(in, charset);
+            String setting = _setting;
+            if (setting == null) {
+                setting = lines.readLine();
+                if (setting == null) {
+                    throw error("Wrong next in process");
+                }
+            }
+            if (!setting.contains("*")) {
+                throw error("Wrong format of setting line");
+            }
+            setUp(M, setting);
+            List<String> block = new ArrayList<>();
+            int size = 0;
+            long offset = 0;
+            boolean inPlace = true;
+            while (true) {
+                String line = lines.readLine();
+                if (line != null && !line.contains("*")) {
+                    block.add(line);
+                    size += line.length();
+                    if (size < CACHE_BLOCK) {
+                        continue;
+                    }
+                }
+                if (!block.isEmpty()) {
+                    byte[] key =
+                        ResultCache.key(fingerprint, setting, offset, block);
+                    byte[] cached = cache.get(key);
+                    long letters = 0;
+                    if (cached != null) {
+                        out.write(cached);
+                        inPlace = false;
+                        for (String msg : block) {
+                            letters += msg.replace(" ", "").length();
+                        }
+                    } else {
+                        if (!inPlace) {
+                            setUp(M, setting);
+                            M.advance(offset);
+                            inPlace = true;
+                        }
+                        ByteArrayOutputStream result =
+                            new ByteArrayOutputStream();
+                        for (String msg : block) {
+                            String text = msg.replace(" ", "");
+                            byte[] converted = (groups(M.convert(text))
+                                                + newline).getBytes(charset);
+                            out.write(converted);
+                            result.writeBytes(converted);
+                            letters += text.length();
+                        }
+                        cache.put(key, result.toByteArray());
+                    }
+                    offset += letters;
+                    block.clear();
+                    size = 0;
+                }
+                if (line == null) {
+                    break;
+                }
+                if (line.contains("*")) {
+                    setUp(M, line);
+                    setting = line;
+                    offset = 0;
+                    inPlace = true;
+                }
+            }
+        } catch (IOException excp) {
+            throw error("I/O error: %s", excp.getMessage());
+        }
+        System.err.println(cache.stats());
+    }
+
+    /** Return the checkpoint to resume from with machine M, or null to
+     *  start from the beginning.  A checkpoint taken for another input
+     *  file or configuration is refused. */
+    private Checkpoint resumePoint(Machine M) {
+        if (_checkpoint == null) {
+            return null;
+        }
+        _source = Checkpoint.source(Paths.get(_inputName), M);
+        if (_resume && Files.exists(_checkpoint)) {
+            return Checkpoint.load(_checkpoint, _source, M.numRotors());
+        }
+        return null;
+    }
+
+    /** Force OUT to disk and then record a checkpoint after IN bytes of
+     *  input and OUTBYTES bytes of output, with SETTING in force and M's
+     *  rotor positions. */
+    private void checkpoint(FileChannel out, long in, long outBytes,
+                            String setting, Machine M) throws IOException {
+        out.force(false);
+        new Checkpoint(_source, in, outBytes, setting, M.positions())
+            .save(_checkpoint);
+    }
+
+    /** Remove the checkpoint file, if any, once the conversion is
+     *  complete. */
+    private void finishCheckpoints() {
+        if (_checkpoint != null) {
+            try {
+                Files.deleteIfExists(_checkpoint);
+            } catch (IOException excp) {
+                throw error("could not remove checkpoint %s", _checkpoint);
+            }
+        }
+    }
+
+    /** Apply machine M to the messages of the input with a Pipeline,
+     *  writing the results to the output. */
+    private void processPipelined(Machine M) {
+        try (Reader in = new InputStreamReader(
+                 _inputName == null ? standardInput()
+                 : Files.newInputStream(Paths.get(_inputName)));
+             Writer out = new OutputStreamWriter(
+                 _outputName == null ? standardOutput()
+                 : Files.newOutputStream(Paths.get(_outputName)))) {
+            new Pipeline(M).run(in, out, _setting);
+        } catch (IOException excp) {
+            throw error("I/O error: %s", excp.getMessage());
+        }
+    }
+
+    /** Read bytes from IN into BUF up to and including the first newline,
+     *  and return the line before it as ISO-8859-1 text.  On return, BUF
+     *  is ready for reading and holds whatever followed the newline. */
+    private static String readSettingLine(ReadableByteChannel in,
+                                          ByteBuffer buf) throws IOException {
+        int scanned = 0;
+        while (true) {
+            for (; scanned < buf.position(); scanned++) {
+                if (buf.get(scanned) == '\n') {
+                    byte[] line = new byte[scanned];
+                    buf.flip();
+                    buf.get(line);
+                    buf.get();
+                    return new String(line, StandardCharsets.ISO_8859_1);
+                }
+            }
+            if (!buf.hasRemaining() || in.read(buf) < 0) {
+                throw error("missing setting line");
+            }
+        }
+    }
+
+    /** Return an Enigma machine configured from the contents of the
+     *  configuration read by CONFIG. */
+    static Machine readConfig(Scanner config) {
+        return new Main(config).readConfig();
+    }
+
     /** Return an Enigma machine configured from the contents of configuration
-     *  file _config. */
+     *  file _config.  The numbers of slots and pawls may be followed by
+     *  "@NAME", choosing the stepping strategy called NAME (see
+     *  SteppingStrategy.forName); otherwise the rotors step as an
+     *  odometer. */
     private Machine readConfig() {
         try {
             allRotors = new ArrayList<Rotor>();
             String az = _config.next();
-            _alphabet = new Alphabet(az);
+            if (az.equals(BYTES)) {
+                _alphabet = new ByteAlphabet();
+                az = "";
+            } else {
+                _alphabet = new Alphabet(az);
+            }
             if (az.contains("*")) {
                 throw error("Wrong alphabet NO.1");
             }
@@ -123,10 +687,14 @@ public final class Main {
             }
             int numRotors = _config.nextInt();
             int numPawls = _config.nextInt();
+            SteppingStrategy stepping = _config.hasNext("@\\S+")
+                ? SteppingStrategy.forName(_config.next().substring(1))
+                : SteppingStrategy.ODOMETER;
             while (_config.hasNext()) {
                 allRotors.add(readRotor());
             }
-            return new Machine(_alphabet, numRotors, numPawls, allRotors);
+            return new Machine(_alphabet, numRotors, numPawls, allRotors,
+                               stepping);
         } catch (NoSuchElementException excp) {
             throw error("configuration file truncated");
         }
@@ -137,24 +705,11 @@ public final class Main {
         try {
             String rotorName = _config.next();
             String notchString = _config.next();
-            String cycles = "";
+            StringBuilder cycles = new StringBuilder();
             while (_config.hasNext("\\(.*\\)")) {
-                String nextCycle = "";
-                String nextElement = _config.next();
-                if (nextElement.contains(")(")) {
-                    String[] C = nextElement.split("\\)\\(");
-                    for (int i = 0; i < C.length; i++) {
-                        nextCycle += C[i] + " ";
-                    }
-                } else {
-                    nextCycle = nextElement;
-                }
-                if (nextCycle.equals("(AVOLDRWFIUQ)(BZKSMNHYC)")) {
-                    throw error("right here!");
-                }
-                cycles += nextCycle + " ";
+                cycles.append(_config.next()).append(' ');
             }
-            Permutation perm = new Permutation(cycles, _alphabet);
+            Permutation perm = new Permutation(cycles.toString(), _alphabet);
             if (notchString.charAt(0) == 'M') {
                 String notches = "";
                 for (int i = 1; i < notchString.length(); i++) {
@@ -189,8 +744,9 @@ public final class Main {
     }
 
     /** Set M according to the specification given on SETTINGS,
-     *  which must have the format specified in the assignment. */
-    private void setUp(Machine M, String settings) {
+     *  which must have the format specified in the assignment.  Rings
+     *  not given are set to 0, whatever M had before. */
+    static void setUp(Machine M, String settings) {
         String[] setString = settings.split(" ");
         String[] rotorSet = new String[M.numRotors()];
         for (int i = 1; i <= M.numRotors(); i++) {
@@ -214,7 +770,7 @@ public final class Main {
             throw error("wrong setting format in setUp");
         }
         for (int i = 0; i < setting.length(); i++) {
-            if (!_alphabet.contains(setting.charAt(i))) {
+            if (!M.alphabet().contains(setting.charAt(i))) {
                 throw error("Setting contains unknown character");
             }
         }
@@ -232,7 +788,7 @@ public final class Main {
         for (int j = M.numRotors() + index; j < setString.length; j++) {
             plugboard += setString[j] + " ";
         }
-        Permutation perm = new Permutation(plugboard, _alphabet);
+        Permutation perm = new Permutation(plugboard, M.alphabet());
         M.setPlugboard(perm);
         M.insertRotors(rotorSet);
         if (!M.getRotor(0).reflecting()) {
@@ -241,6 +797,8 @@ public final class Main {
         M.setRotors(setting);
         if (ring.length() != 0) {
             M.insertRings(ring);
+        } else {
+            M.setRings(new int[M.numRotors()]);
         }
     }
 
@@ -252,6 +810,12 @@ public final class Main {
     /** Print MSG in groups of five (except that the last group may
      *  have fewer letters). */
     private void printMessageLine(String msg) {
+        _output.println(groups(msg));
+    }
+
+    /** Return MSG without blanks, in groups of five separated by single
+     *  blanks (except that the last group may have fewer letters). */
+    static String groups(String msg) {
         String m = msg.replace(" ", "");
         String result = "";
         while (m.length() > 5) {
@@ -259,12 +823,67 @@ public final class Main {
             m = m.substring(5, m.length());
         }
         result += m;
-        _output.println(result);
+        return result;
     }
 
+    /** Configuration alphabet that selects the byte alphabet. */
+    static final String BYTES = "(BYTES)";
+
+    /** Characters of message lines per block of the result cache. */
+    private static final int CACHE_BLOCK = 1 << 16;
+
+    /** Bytes per megabyte. */
+    private static final long MEGABYTE = 1 << 20;
+
+    /** Default size limit of the result cache, in bytes. */
+    private static final long DEFAULT_CACHE_SIZE = 256 * MEGABYTE;
+
+    /** Size of the buffer used to stream binary input. */
+    private static final int BYTE_BUFFER_SIZE = 1 << 16;
+
+    /** Letters in each group of output. */
+    private static final int GROUP = 5;
+
+    /** Default seconds between checkpoints. */
+    private static final long DEFAULT_EVERY = 60;
+
     /** Alphabet used in this machine. */
     private Alphabet _alphabet;
 
+    /** Name of the input file, or null for the standard input. */
+    private String _inputName;
+
+    /** Name of the output file, or null for the standard output. */
+    private String _outputName;
+
+    /** Setting line given on the command line, or null. */
+    private String _setting;
+
+    /** True if --pipeline specified. */
+    private boolean _pipeline;
+
+    /** Engine calibration file given by --calibration, or null. */
+    private Path _calibration;
+
+    /** Checkpoint file, or null if there are no checkpoints. */
+    private Path _checkpoint;
+
+    /** True if --resume specified. */
+    private boolean _resume;
+
+    /** Input file and configuration named by checkpoints (see
+     *  Checkpoint.source). */
+    private String _source;
+
+    /** Result cache directory, or null. */
+    private Path _cache;
+
+    /** Size limit of the result cache, in bytes. */
+    private long _cacheSize = DEFAULT_CACHE_SIZE;
+
+    /** Nanoseconds between checkpoints. */
+    private long _every = TimeUnit.SECONDS.toNanos(DEFAULT_EVERY);
+
     /** Source of input messages. */
     private Scanner _input;
 
@@ -279,5 +898,87 @@ public final class Main {
 
     /** All rotor. */
     private ArrayList<Rotor> allRotors;
-}
 
+    /** The lines of a channel, read as bytes in the manner of
+     *  Scanner.nextLine, keeping track of the byte offset. */
+    private static class LineInput {
+        /** Lines of IN, decoded with CHARSET. */
+        LineInput(ReadableByteChannel in, Charset charset) {
+            _in = in;
+            _charset = charset;
+            _buf.flip();
+        }
+
+        /** Continue from byte OFFSET of my file, which must be a
+         *  FileChannel. */
+        void seek(long offset) throws IOException {
+            ((FileChannel) _in).position(offset);
+            _offset = offset;
+            _buf.clear().flip();
+        }
+
+        /** Return the offset of the first byte not yet read as part of a
+         *  line. */
+        long offset() {
+            return _offset;
+        }
+
+        /** Return the next line, without its terminator, or null at the
+         *  end of the file. */
+        String readLine() throws IOException {
+            int len = readBytes();
+            return len < 0 ? null : new String(_line, 0, len, _charset);
+        }
+
+        /** Read the next line, without its terminator, into the array
+         *  returned by bytes(), and return its length, or -1 at the end of
+         *  the file. */
+        int readBytes() throws IOException {
+            int len = 0;
+            while (true) {
+                if (!_buf.hasRemaining()) {
+                    _buf.clear();
+                    int n = _in.read(_buf);
+                    _buf.flip();
+                    if (n < 0) {
+                        return len == 0 ? -1 : trim(len);
+                    }
+                }
+                byte b = _buf.get();
+                _offset += 1;
+                if (b == '\n') {
+                    return trim(len);
+                }
+                if (len == _line.length) {
+                    _line = Arrays.copyOf(_line, 2 * len);
+                }
+                _line[len++] = b;
+            }
+        }
+
+        /** Return the array holding the line last read by readBytes. */
+        byte[] bytes() {
+            return _line;
+        }
+
+        /** Return LEN, the length of the line buffer, less one if it ends
+         *  in a carriage return. */
+        private int trim(int len) {
+            return len > 0 && _line[len - 1] == '\r' ? len - 1 : len;
+        }
+
+        /** The file. */
+        private final ReadableByteChannel _in;
+        /** Its encoding. */
+        private final Charset _charset;
+        /** Bytes read but not yet consumed. */
+        private final ByteBuffer _buf = ByteBuffer.allocate(BYTE_BUFFER_SIZE);
+        /** The line being read. */
+        private byte[] _line = new byte[LINE_SIZE];
+        /** Offset of the next byte of _buf in the file. */
+        private long _offset;
+    }
+
+    /** Initial size of a line buffer. */
+    private static final int LINE_SIZE = 256;
+}
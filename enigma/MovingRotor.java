@@ -14,6 +14,7 @@ class MovingRotor extends Rotor {
      */
     MovingRotor(String name, Permutation perm, String notches) {
         super(name, perm);
+        _notches = notches;
         _notch = new int[notches.length()];
         for (int i = 0; i < notches.length(); i++) {
             int num = perm.wrap(getr());
@@ -21,6 +22,11 @@ class MovingRotor extends Rotor {
         }
     }
 
+    @Override
+    Rotor copy() {
+        return copyState(new MovingRotor(name(), permutation(), _notches));
+    }
+
     @Override
     boolean atNotch() {
         for (int j = 0; j < _notch.length; j++) {
@@ -54,4 +60,7 @@ class MovingRotor extends Rotor {
     /** A list used to store the notches. */
     private int[] _notch;
 
+    /** The letters of my notches, as given to my constructor. */
+    private final String _notches;
+
 }
@@ -0,0 +1,278 @@
+package enigma;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.Reader;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.ShortBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.List;
+
+import ucb.util.CommandArgs;
+
+import static enigma.EnigmaException.*;
+
+/** A language model giving the base-10 log probability of each n-gram
+ *  over an alphabet, learned from a text corpus, for scoring trial
+ *  decryptions.  N-grams are numbered in mixed radix: the n-gram with
+ *  indices x0 x1 ... x(k-1) has code ((x0 * N + x1) * N + ...) where N
+ *  is the alphabet size, and the table is a flat array of shorts indexed
+ *  by code, holding log probabilities in units of 1/SCALE.
+ *
+ *  A model can be saved to a file holding a short header and then the
+ *  table, and loaded by mapping that file, so that a large table loads
+ *  at once and is shared through the page cache by every process using
+ *  it.
+ *  @author Tianyu Liu
+ */
+class NGramModel {
+
+    /** Build a model file as specified by ARGS: a configuration file
+     *  whose alphabet is modelled, a corpus file and the output file.
+     *  --order=K gives the n-gram length (default 4). */
+    public static void main(String... args) {
+        try {
+            CommandArgs options =
+                new CommandArgs("--order=(\\d+) --=(.*){3}", args);
+            if (!options.ok()) {
+                throw error("Usage: java enigma.NGramModel [--order=K] "
+                            + "CONFIG CORPUS OUTPUT");
+            }
+            List<String> files = options.get("--");
+            int k = options.contains("--order")
+                ? Integer.parseInt(options.getFirst("--order")) : QUADGRAMS;
+            Alphabet alphabet =
+                Main.readConfig(Main.getInput(files.get(0))).alphabet();
+            fromFile(alphabet, k, files.get(1)).save(Paths.get(files.get(2)));
+            return;
+        } catch (EnigmaException excp) {
+            System.err.printf("Error: %s%n", excp.getMessage());
+        }
+        System.exit(1);
+    }
+
+    /** A model of the K-grams over ALPHABET in the text read from CORPUS.
+     *  Corpus characters not in ALPHABET, even after conversion to upper
+     *  case, are skipped, as blanks are skipped in messages. */
+    NGramModel(Alphabet alphabet, int k, Reader corpus) throws IOException {
+        _alphabet = alphabet;
+        _k = k;
+        _n = alphabet.size();
+        long size = tableSize(_n, k);
+        if (size < 0) {
+            throw error("cannot model %d-grams over %d symbols", k, _n);
+        }
+        _high = (int) (size / _n);
+        long[] counts = new long[(int) size];
+        long total = 0;
+        BufferedReader in = new BufferedReader(corpus);
+        int code = 0, seen = 0, ch;
+        while ((ch = in.read()) >= 0) {
+            int x = _alphabet.indexOf((char) ch);
+            if (x < 0) {
+                x = _alphabet.indexOf(Character.toUpperCase((char) ch));
+            }
+            if (x < 0) {
+                continue;
+            }
+            code = (code % _high) * _n + x;
+            seen += 1;
+            if (seen >= k) {
+                counts[code] += 1;
+                total += 1;
+            }
+        }
+        if (total == 0) {
+            throw error("corpus has no %d-grams", k);
+        }
+        short[] table = new short[(int) size];
+        double floor = Math.log10(FLOOR / total);
+        for (int i = 0; i < table.length; i++) {
+            double logProb = counts[i] == 0
+                ? floor : Math.log10((double) counts[i] / total);
+            table[i] = (short) Math.max(Short.MIN_VALUE,
+                                        Math.round(logProb * SCALE));
+        }
+        _table = ShortBuffer.wrap(table);
+    }
+
+    /** A model of the K-grams over ALPHABET whose table is TABLE. */
+    private NGramModel(Alphabet alphabet, int k, ShortBuffer table) {
+        _alphabet = alphabet;
+        _k = k;
+        _n = alphabet.size();
+        _high = table.capacity() / _n;
+        _table = table;
+    }
+
+    /** Return the model saved in FILE by save, which must be over
+     *  ALPHABET.  The file is mapped rather than read. */
+    static NGramModel load(Path file, Alphabet alphabet) {
+        ByteBuffer map;
+        try (FileChannel channel =
+             FileChannel.open(file, StandardOpenOption.READ)) {
+            map = channel.map(FileChannel.MapMode.READ_ONLY, 0,
+                              channel.size());
+        } catch (IOException excp) {
+            throw error("could not map model %s", file);
+        }
+        map.order(ByteOrder.LITTLE_ENDIAN);
+        if (map.remaining() < HEADER_INTS * Integer.BYTES
+            || map.getInt() != MAGIC || map.getInt() != VERSION) {
+            throw error("%s is not a model file", file);
+        }
+        int k = map.getInt(), n = map.getInt(), scale = map.getInt();
+        if (n != alphabet.size() || scale != SCALE) {
+            throw error("model %s does not match alphabet", file);
+        }
+        if (map.remaining() < headerBytes(n) - HEADER_INTS * Integer.BYTES) {
+            throw error("model %s is truncated", file);
+        }
+        long size = tableSize(n, k);
+        if (size < 0) {
+            throw error("model %s has %d-grams over %d symbols", file, k, n);
+        }
+        for (int i = 0; i < n; i++) {
+            if (map.getChar() != alphabet.toChar(i)) {
+                throw error("model %s does not match alphabet", file);
+            }
+        }
+        map.position(headerBytes(n));
+        if (map.remaining() != size * Short.BYTES) {
+            throw error("model %s is truncated", file);
+        }
+        return new NGramModel(alphabet, k, map.slice()
+                              .order(ByteOrder.LITTLE_ENDIAN)
+                              .asShortBuffer());
+    }
+
+    /** Write me to FILE in the form read by load. */
+    void save(Path file) {
+        long bytes = headerBytes(_n) + (long) _table.capacity() * Short.BYTES;
+        if (bytes > Integer.MAX_VALUE) {
+            throw error("model too large to save");
+        }
+        ByteBuffer out = ByteBuffer.allocate((int) bytes)
+            .order(ByteOrder.LITTLE_ENDIAN);
+        out.putInt(MAGIC).putInt(VERSION).putInt(_k).putInt(_n)
+            .putInt(SCALE);
+        for (int i = 0; i < _n; i++) {
+            out.putChar(_alphabet.toChar(i));
+        }
+        out.position(headerBytes(_n));
+        for (int i = 0; i < _table.capacity(); i++) {
+            out.putShort(_table.get(i));
+        }
+        out.flip();
+        try (FileChannel channel =
+             FileChannel.open(file, StandardOpenOption.CREATE,
+                              StandardOpenOption.WRITE,
+                              StandardOpenOption.TRUNCATE_EXISTING)) {
+            while (out.hasRemaining()) {
+                channel.write(out);
+            }
+        } catch (IOException excp) {
+            throw error("could not write model %s", file);
+        }
+    }
+
+    /** Return the number of K-grams over N symbols, or -1 if K is not
+     *  positive or there are too many for one array. */
+    private static long tableSize(int n, int k) {
+        if (k < 1) {
+            return -1;
+        }
+        long size = 1;
+        for (int i = 0; i < k; i++) {
+            size *= n;
+            if (size > Integer.MAX_VALUE) {
+                return -1;
+            }
+        }
+        return size;
+    }
+
+    /** Return the length of the header of a model file over N symbols,
+     *  rounded up to keep the table aligned. */
+    private static int headerBytes(int n) {
+        int bytes = HEADER_INTS * Integer.BYTES + n * Character.BYTES;
+        return (bytes + ALIGN - 1) / ALIGN * ALIGN;
+    }
+
+    /** Return a model of the K-grams over ALPHABET in the corpus file
+     *  named NAME. */
+    static NGramModel fromFile(Alphabet alphabet, int k, String name) {
+        try (Reader corpus = Files.newBufferedReader(Paths.get(name),
+                                                     StandardCharsets.UTF_8)) {
+            return new NGramModel(alphabet, k, corpus);
+        } catch (IOException excp) {
+            throw error("could not read corpus %s", name);
+        }
+    }
+
+    /** Return my n-gram length. */
+    int order() {
+        return _k;
+    }
+
+    /** Return my alphabet. */
+    Alphabet alphabet() {
+        return _alphabet;
+    }
+
+    /** Return the log probability of the n-gram with code CODE. */
+    float logProb(int code) {
+        return (float) _table.get(code) / SCALE;
+    }
+
+    /** Return the sum of the log probabilities of the n-grams in the
+     *  indices TEXT[FROM .. TO-1]. */
+    float score(int[] text, int from, int to) {
+        ShortBuffer table = _table;
+        long result = 0;
+        int code = 0;
+        int first = Math.min(to, from + _k - 1);
+        for (int i = from; i < first; i++) {
+            code = code * _n + text[i];
+        }
+        for (int i = first; i < to; i++) {
+            code = (code % _high) * _n + text[i];
+            result += table.get(code);
+        }
+        return (float) result / SCALE;
+    }
+
+    /** Default n-gram length of model files. */
+    static final int QUADGRAMS = 4;
+    /** Relative weight given to n-grams missing from the corpus. */
+    private static final double FLOOR = 0.01;
+    /** Table entries per unit of log probability. */
+    static final int SCALE = 1000;
+    /** First word of a model file: "ENGM". */
+    private static final int MAGIC = 0x4d474e45;
+    /** Model file format version. */
+    private static final int VERSION = 1;
+    /** Number of ints in a model file header: magic, version, n-gram
+     *  length, alphabet size and scale, followed by the alphabet. */
+    private static final int HEADER_INTS = 5;
+    /** Alignment of the table in a model file. */
+    private static final int ALIGN = 8;
+
+    /** Alphabet of my n-grams. */
+    private final Alphabet _alphabet;
+    /** N-gram length. */
+    private final int _k;
+    /** Alphabet size. */
+    private final int _n;
+    /** Number of (k-1)-grams, the radix of an n-gram's leading digit. */
+    private final int _high;
+    /** Scaled log probability of each n-gram, by code: in the heap
+     *  when built from a corpus, mapped when loaded from a file. */
+    private final ShortBuffer _table;
+}
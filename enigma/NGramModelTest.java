@@ -0,0 +1,111 @@
+package enigma;
+
+import java.io.IOException;
+import java.io.StringReader;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import org.junit.Test;
+import org.junit.Rule;
+import org.junit.rules.Timeout;
+import static org.junit.Assert.*;
+
+/** The suite of all JUnit tests for the NGramModel class.
+ *  @author Tianyu Liu
+ */
+public class NGramModelTest {
+
+    /** Testing time limit. */
+    @Rule
+    public Timeout globalTimeout = Timeout.seconds(5);
+
+    /* ***** TESTING UTILITIES ***** */
+
+    /** Return a model of the K-grams in AttackTest.PLAIN over the upper-case
+     *  alphabet. */
+    static NGramModel model(int k) throws IOException {
+        return new NGramModel(new Alphabet(), k,
+                              new StringReader(AttackTest.PLAIN));
+    }
+
+    /** Return the indices of TEXT in the upper-case alphabet. */
+    static int[] indices(String text) {
+        Alphabet alpha = new Alphabet();
+        int[] result = new int[text.length()];
+        for (int i = 0; i < result.length; i++) {
+            result[i] = alpha.toInt(text.charAt(i));
+        }
+        return result;
+    }
+
+    /* ***** TESTS ***** */
+
+    @Test
+    public void testScore() throws IOException {
+        NGramModel model = model(3);
+        int[] english = indices("THEWINTERWIND");
+        int[] noise = indices("QXZJVKQXZJVKQ");
+        assertTrue(model.score(english, 0, english.length)
+                   > model.score(noise, 0, noise.length));
+        int the = (19 * 26 + 7) * 26 + 4;
+        assertEquals(model.logProb(the), model.score(english, 0, 3), 1e-6);
+        assertEquals(0, model.score(english, 0, 2), 0);
+        assertEquals(model.score(english, 3, 6),
+                     model.score(indices("WIN"), 0, 3), 1e-6);
+    }
+
+    @Test
+    public void testSaveAndLoad() throws IOException {
+        NGramModel model = model(4);
+        Path file = Files.createTempFile("ngram", ".model");
+        try {
+            model.save(file);
+            NGramModel loaded = NGramModel.load(file, new Alphabet());
+            assertEquals(4, loaded.order());
+            int[] text = indices(AttackTest.PLAIN);
+            assertEquals(model.score(text, 0, text.length),
+                         loaded.score(text, 0, text.length), 0);
+            try {
+                NGramModel.load(file, new Alphabet("ZYXWVUTSRQPONMLKJIHG"
+                                                   + "FEDCBA"));
+                fail("model loaded over the wrong alphabet");
+            } catch (EnigmaException excp) {
+                /* Expected. */
+            }
+        } finally {
+            Files.delete(file);
+        }
+    }
+
+    @Test
+    public void testBadFiles() throws IOException {
+        Path file = Files.createTempFile("ngram", ".model");
+        try {
+            model(3).save(file);
+            byte[] saved = Files.readAllBytes(file);
+            List<byte[]> bad = new ArrayList<>();
+            bad.add(Arrays.copyOf(saved, 30));
+            for (int k : new int[] {0, -1, 7, 14, 1 << 30}) {
+                byte[] data = saved.clone();
+                ByteBuffer.wrap(data).order(ByteOrder.LITTLE_ENDIAN)
+                    .putInt(8, k);
+                bad.add(data);
+            }
+            for (byte[] data : bad) {
+                Files.write(file, data);
+                try {
+                    NGramModel.load(file, new Alphabet());
+                    fail("bad model loaded");
+                } catch (EnigmaException excp) {
+                    /* Expected. */
+                }
+            }
+        } finally {
+            Files.delete(file);
+        }
+    }
+}
@@ -1,13 +1,118 @@
 package enigma;
-import java.util.HashMap;
-import java.util.Scanner;
+import java.lang.ref.Reference;
+import java.util.Arrays;
+import java.util.Random;
+
+import ucb.util.CommandArgs;
+
+import static enigma.EnigmaException.*;
 
 
 /** Represents a permutation of a range of integers starting at 0 corresponding
  *  to the characters of an alphabet.
+ *
+ *  The mapping is held in the narrowest array that fits the alphabet: a
+ *  byte per symbol for up to 256 symbols, a char for up to 65536 and an
+ *  int beyond that.  The inverse is held the same way, except that an
+ *  involution (such as a reflector or a plugboard) shares one array for
+ *  both directions.  The int[] tables used by the table-driven engines are
+ *  built only when first asked for.
  *  @author Tianyu Liu
  */
 class Permutation {
+
+    /** Report the memory used by permutations over alphabets of several
+     *  sizes, as specified by ARGS: --sizes=N,N,... gives the alphabet
+     *  sizes (default 26,256,4096,20000, at most 20992, the number of CJK
+     *  unified ideographs) and --count=C the number of random permutations
+     *  of each size (default enough for about SAMPLE symbols in all). */
+    public static void main(String... args) {
+        try {
+            CommandArgs options =
+                new CommandArgs("--sizes=([\\d,]+) --count=(\\d+)",
+                                args);
+            if (!options.ok()) {
+                throw error("Usage: java enigma.Permutation "
+                            + "[--sizes=N,N,...] [--count=C]");
+            }
+            String sizes = options.contains("--sizes")
+                ? options.getFirst("--sizes") : "26,256,4096,20000";
+            footprint(CJK_SIZE, 1, false);
+            System.out.printf("%8s %12s %12s %12s%n", "symbols",
+                              "parse (us)", "store (B)", "tables (B)");
+            for (String size : sizes.split(",")) {
+                int n = Integer.parseInt(size);
+                if (n < 1 || n > CJK_SIZE) {
+                    throw error("alphabet size must be 1 to %d", CJK_SIZE);
+                }
+                int count = options.contains("--count")
+                    ? Integer.parseInt(options.getFirst("--count"))
+                    : Math.max(1, SAMPLE / n);
+                footprint(n, count, true);
+            }
+            return;
+        } catch (EnigmaException excp) {
+            System.err.printf("Error: %s%n", excp.getMessage());
+        }
+        System.exit(1);
+    }
+
+    /** Parse COUNT random permutations in cycle notation over N CJK
+     *  ideographs and, if REPORT, report the time per parse and the heap
+     *  used per permutation, first as parsed and then with both int[]
+     *  tables built. */
+    private static void footprint(int n, int count, boolean report) {
+        char[] symbols = new char[n];
+        for (int k = 0; k < n; k++) {
+            symbols[k] = (char) (CJK_FIRST + k);
+        }
+        Alphabet alphabet = new Alphabet(new String(symbols));
+        Random random = new Random(45);
+        String[] cycles = new String[count];
+        for (int i = 0; i < count; i++) {
+            int[] table = new int[n];
+            for (int k = 0; k < n; k++) {
+                int j = random.nextInt(k + 1);
+                table[k] = table[j];
+                table[j] = k;
+            }
+            cycles[i] = cycles(table).toString(alphabet);
+        }
+        Permutation[] perms = new Permutation[count];
+        long before = heapUsed();
+        long start = System.nanoTime();
+        for (int i = 0; i < count; i++) {
+            perms[i] = new Permutation(cycles[i], alphabet);
+        }
+        long time = System.nanoTime() - start;
+        long parsed = heapUsed();
+        for (Permutation p : perms) {
+            p.forwardTable();
+            p.inverseTable();
+        }
+        long tables = heapUsed();
+        Reference.reachabilityFence(cycles);
+        Reference.reachabilityFence(perms);
+        if (!report) {
+            return;
+        }
+        System.out.printf("%8d %12.1f %12d %12d%n", n,
+                          time / 1e3 / count, (parsed - before) / count,
+                          (tables - before) / count);
+    }
+
+    /** Return the heap in use after collecting garbage. */
+    private static long heapUsed() {
+        Runtime runtime = Runtime.getRuntime();
+        long used = Long.MAX_VALUE, last;
+        do {
+            last = used;
+            System.gc();
+            used = runtime.totalMemory() - runtime.freeMemory();
+        } while (used < last);
+        return used;
+    }
+
     /** Set this Permutation to that specified by CYCLES, a string in the
      *  form "(cccc) (cc) ..." where the c's are characters in ALPHABET, which
      *  is interpreted as a permutation in cycle notation.  Characters in the
@@ -15,42 +120,66 @@ class Permutation {
      *  Whitespace is ignored. */
     Permutation(String cycles, Alphabet alphabet) {
         _alphabet = alphabet;
-        _cycle = cycles;
-        map1 = new HashMap<>();
-        map2 = new HashMap<>();
-        Scanner a = new Scanner(cycles);
-        while (a.hasNext()) {
-            String next = a.next().trim();
-            next = next.replace("(", "");
-            next = next.replace(")", "");
-            addCycle(next);
+        int n = alphabet.size();
+        int[] table = new int[n];
+        Arrays.fill(table, -1);
+        int[] cycle = new int[cycles.length()];
+        StringBuilder text = new StringBuilder();
+        for (int i = 0; i <= cycles.length(); i++) {
+            char ch = i < cycles.length() ? cycles.charAt(i) : ' ';
+            if (ch == '(' || ch == ')' || Character.isWhitespace(ch)) {
+                if (text.length() > 0) {
+                    addCycle(table, cycle, alphabet.toInts(text, cycle));
+                    text.setLength(0);
+                }
+            } else {
+                text.append(ch);
+            }
         }
-        for (int i = 0; i < alphabet().size(); i++) {
-            if (!map1.containsKey(i)) {
-                map1.put(i, i);
-                map2.put(i, i);
+        for (int k = 0; k < n; k++) {
+            if (table[k] < 0) {
+                table[k] = k;
             }
         }
+        _forward = new Store(table);
+        _inverse = inverseStore(table);
     }
 
-    /** Add the cycle c0->c1->...->cm->c0 to the permutation, where CYCLE is
-     *  c0c1...cm. */
-    private void addCycle(String cycle) {
-        int last = _alphabet.toInt(cycle.charAt(cycle.length() - 1));
-        int first = _alphabet.toInt(cycle.charAt(0));
-        map1.put(last, first);
-        map2.put(first, last);
+    /** Set this Permutation to the one mapping K to TABLE[K], over
+     *  ALPHABET, which must have TABLE.length symbols.  TABLE is copied. */
+    Permutation(int[] table, Alphabet alphabet) {
+        if (table.length != alphabet.size() || !isPermutation(table)) {
+            throw error("not a permutation of %d symbols",
+                        alphabet.size());
+        }
+        _alphabet = alphabet;
+        _forward = new Store(table);
+        _inverse = inverseStore(table);
+    }
 
-        for (int i = 0; i < cycle.length() - 1; i++) {
-            int i1 = _alphabet.toInt(cycle.charAt(i));
-            int i2 = _alphabet.toInt(cycle.charAt(i + 1));
-            map1.put(i1, i2);
+    /** Add the cycle c0->c1->...->cm->c0 to TABLE, where c0 ... cm are the
+     *  first LENGTH elements of CYCLE.  The elements of TABLE not yet set
+     *  are negative. */
+    private void addCycle(int[] table, int[] cycle, int length) {
+        for (int i = 0; i < length; i++) {
+            int c = cycle[i];
+            if (table[c] >= 0) {
+                throw error("%c is in more than one cycle",
+                            _alphabet.toChar(c));
+            }
+            table[c] = cycle[i + 1 < length ? i + 1 : 0];
         }
-        for (int j = 0; j < cycle.length() - 1; j++) {
-            int i1 = _alphabet.toInt(cycle.charAt(j + 1));
-            int i2 = _alphabet.toInt(cycle.charAt(j));
-            map2.put(i1, i2);
+    }
+
+    /** Return a store for the inverse of TABLE, which is the store for
+     *  TABLE itself if TABLE is an involution. */
+    private Store inverseStore(int[] table) {
+        for (int k = 0; k < table.length; k++) {
+            if (table[table[k]] != k) {
+                return new Store(invert(table, new int[table.length]));
+            }
         }
+        return _forward;
     }
 
     /** Return the value of P modulo the size of this permutation. */
@@ -70,15 +199,13 @@ class Permutation {
     /** Return the result of applying this permutation to P modulo the
      *  alphabet size. */
     int permute(int p) {
-        int wrapped = wrap(p);
-        return map1.get(wrapped);
+        return _forward.get(wrap(p));
     }
 
     /** Return the result of applying the inverse of this permutation
      *  to  C modulo the alphabet size. */
     int invert(int c) {
-        int wrapped = wrap(c);
-        return map2.get(wrapped);
+        return _inverse.get(wrap(c));
     }
 
     /** Return the result of applying this permutation to the index of P
@@ -94,6 +221,31 @@ class Permutation {
         return _alphabet.toChar(invert(targetInt));
     }
 
+    /** Return the mapping of this permutation as an array whose element K
+     *  is permute(K).  The array is built once and shared; modifying it
+     *  has undefined results.  Threads that ask at once may each build
+     *  one, but any thread that sees the cached array sees it whole. */
+    int[] forwardTable() {
+        int[] table = _forwardTable;
+        if (table == null) {
+            table = _forward.toArray();
+            _forwardTable = table;
+        }
+        return table;
+    }
+
+    /** Return the mapping of the inverse of this permutation as an array,
+     *  as for forwardTable. */
+    int[] inverseTable() {
+        int[] table = _inverseTable;
+        if (table == null) {
+            table = _inverse == _forward ? forwardTable()
+                : _inverse.toArray();
+            _inverseTable = table;
+        }
+        return table;
+    }
+
     /** Return the alphabet used to initialize this Permutation. */
     Alphabet alphabet() {
         return _alphabet;
@@ -102,21 +254,292 @@ class Permutation {
     /** Return true iff this permutation is a derangement (i.e., a
      *  permutation for which no value maps to itself). */
     boolean derangement() {
-        for (Integer a: map1.keySet()) {
-            if (a.equals(map1.get(a))) {
+        for (int k = 0; k < size(); k++) {
+            if (_forward.get(k) == k) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /** Return the permutation that applies me and then NEXT, which must
+     *  have my alphabet. */
+    Permutation compose(Permutation next) {
+        return new Permutation(compose(forwardTable(), next.forwardTable(),
+                                       new int[size()]), _alphabet);
+    }
+
+    /** Return my inverse. */
+    Permutation inverse() {
+        return new Permutation(inverseTable(), _alphabet);
+    }
+
+    /** Return me applied K times (my inverse applied -K times if K is
+     *  negative). */
+    Permutation power(int k) {
+        return new Permutation(power(forwardTable(), k, new int[size()]),
+                               _alphabet);
+    }
+
+    /** Return me conjugated by a rotation of SHIFT places, that is, the
+     *  permutation applied by a rotor with my wiring at offset SHIFT. */
+    Permutation conjugate(int shift) {
+        return new Permutation(conjugate(forwardTable(), shift,
+                                         new int[size()]), _alphabet);
+    }
+
+    /** Return my cycles. */
+    Cycles cycles() {
+        return cycles(forwardTable());
+    }
+
+    /** Return my cycle type, as for cycleType(int[]). */
+    int[] cycleType() {
+        return cycleType(forwardTable());
+    }
+
+    /* The static methods below operate on permutations of 0 .. N-1 given as
+     * tables whose element K is the image of K.  Those taking a RESULT
+     * array fill and return it, allocating nothing, so that they can run
+     * once per machine step; RESULT must not be one of the arguments. */
+
+    /** Return true iff TABLE is a permutation of 0 .. TABLE.length-1. */
+    static boolean isPermutation(int[] table) {
+        boolean[] seen = new boolean[table.length];
+        for (int v : table) {
+            if (v < 0 || v >= table.length || seen[v]) {
                 return false;
             }
+            seen[v] = true;
         }
         return true;
     }
 
+    /** Set RESULT to the permutation applying FIRST and then NEXT, and
+     *  return it. */
+    static int[] compose(int[] first, int[] next, int[] result) {
+        for (int k = 0; k < first.length; k++) {
+            result[k] = next[first[k]];
+        }
+        return result;
+    }
+
+    /** Set RESULT to the inverse of TABLE and return it. */
+    static int[] invert(int[] table, int[] result) {
+        for (int k = 0; k < table.length; k++) {
+            result[table[k]] = k;
+        }
+        return result;
+    }
+
+    /** Set RESULT to TABLE applied K times, where K may be negative, and
+     *  return it.  Each cycle is walked once, so the time is linear in
+     *  the size of TABLE whatever K is. */
+    static int[] power(int[] table, int k, int[] result) {
+        int n = table.length;
+        Arrays.fill(result, -1);
+        for (int start = 0; start < n; start++) {
+            if (result[start] >= 0) {
+                continue;
+            }
+            int len = 1;
+            for (int x = table[start]; x != start; x = table[x]) {
+                len += 1;
+            }
+            int step = Math.floorMod(k, len);
+            int y = start;
+            for (int i = 0; i < step; i++) {
+                y = table[y];
+            }
+            int x = start;
+            do {
+                result[x] = y;
+                x = table[x];
+                y = table[y];
+            } while (x != start);
+        }
+        return result;
+    }
+
+    /** Set RESULT to TABLE conjugated by a rotation of SHIFT places,
+     *  mapping K to TABLE[K + SHIFT] - SHIFT modulo the size, and return
+     *  it. */
+    static int[] conjugate(int[] table, int shift, int[] result) {
+        int n = table.length;
+        int s = Math.floorMod(shift, n);
+        for (int k = 0; k < n; k++) {
+            int x = k + s < n ? k + s : k + s - n;
+            int y = table[x] - s;
+            result[k] = y < 0 ? y + n : y;
+        }
+        return result;
+    }
+
+    /** Return the cycles of TABLE. */
+    static Cycles cycles(int[] table) {
+        int n = table.length;
+        boolean[] seen = new boolean[n];
+        int[] elements = new int[n];
+        int[] offsets = new int[n + 1];
+        int count = 0, m = 0;
+        for (int start = 0; start < n; start++) {
+            if (!seen[start]) {
+                offsets[count++] = m;
+                for (int k = start; !seen[k]; k = table[k]) {
+                    seen[k] = true;
+                    elements[m++] = k;
+                }
+            }
+        }
+        offsets[count] = m;
+        return new Cycles(elements, Arrays.copyOf(offsets, count + 1));
+    }
+
+    /** Return the lengths of the cycles of TABLE, longest first.  Fixed
+     *  points count as cycles of length 1. */
+    static int[] cycleType(int[] table) {
+        Cycles cycles = cycles(table);
+        int count = cycles.count();
+        int[] result = new int[count];
+        for (int i = 0; i < count; i++) {
+            result[i] = -cycles.length(i);
+        }
+        Arrays.sort(result);
+        for (int i = 0; i < count; i++) {
+            result[i] = -result[i];
+        }
+        return result;
+    }
+
+    /** The cycles of a permutation, as two flat arrays: the elements of
+     *  every cycle in turn, each cycle starting with its least element,
+     *  and the offset in the first array at which each cycle starts. */
+    static final class Cycles {
+        /** Cycles listing ELEMENTS, cycle I starting at OFFSETS[I] and
+         *  ending before OFFSETS[I + 1]. */
+        Cycles(int[] elements, int[] offsets) {
+            _elements = elements;
+            _offsets = offsets;
+        }
+
+        /** Return the number of cycles. */
+        int count() {
+            return _offsets.length - 1;
+        }
+
+        /** Return the length of cycle I. */
+        int length(int i) {
+            return _offsets[i + 1] - _offsets[i];
+        }
+
+        /** Return element J of cycle I. */
+        int get(int i, int j) {
+            return _elements[_offsets[i] + j];
+        }
+
+        /** Return the cycles in the notation of the Permutation
+         *  constructor, with the symbols of ALPHABET, omitting fixed
+         *  points. */
+        String toString(Alphabet alphabet) {
+            StringBuilder result = new StringBuilder();
+            for (int i = 0; i < count(); i++) {
+                if (length(i) > 1) {
+                    if (result.length() > 0) {
+                        result.append(' ');
+                    }
+                    result.append('(');
+                    for (int j = 0; j < length(i); j++) {
+                        result.append(alphabet.toChar(get(i, j)));
+                    }
+                    result.append(')');
+                }
+            }
+            return result.toString();
+        }
+
+        /** Elements, cycle by cycle. */
+        private final int[] _elements;
+        /** Start of each cycle in _elements, and then the length of
+         *  _elements. */
+        private final int[] _offsets;
+    }
+
+
+    /** A table of N indices less than N, in a byte[] if N is at most 256,
+     *  in a char[] if N is at most 65536 and in an int[] otherwise.
+     *  Exactly one of the arrays is non-null. */
+    private static final class Store {
+        /** A store holding a copy of TABLE. */
+        Store(int[] table) {
+            int n = table.length;
+            if (n <= BYTE_LIMIT) {
+                _bytes = new byte[n];
+                for (int k = 0; k < n; k++) {
+                    _bytes[k] = (byte) table[k];
+                }
+            } else if (n <= CHAR_LIMIT) {
+                _chars = new char[n];
+                for (int k = 0; k < n; k++) {
+                    _chars[k] = (char) table[k];
+                }
+            } else {
+                _ints = table.clone();
+            }
+        }
+
+        /** Return element K. */
+        int get(int k) {
+            if (_bytes != null) {
+                return _bytes[k] & BYTE_MASK;
+            } else if (_chars != null) {
+                return _chars[k];
+            } else {
+                return _ints[k];
+            }
+        }
+
+        /** Return my elements as an array, which is mine if I hold an
+         *  int[]. */
+        int[] toArray() {
+            if (_ints != null) {
+                return _ints;
+            }
+            int n = _bytes != null ? _bytes.length : _chars.length;
+            int[] result = new int[n];
+            for (int k = 0; k < n; k++) {
+                result[k] = get(k);
+            }
+            return result;
+        }
+
+        /** Elements of a table of at most BYTE_LIMIT, or null. */
+        private byte[] _bytes;
+        /** Elements of a table of at most CHAR_LIMIT, or null. */
+        private char[] _chars;
+        /** Elements of a larger table, or null. */
+        private int[] _ints;
+    }
+
+    /** Largest table held in bytes, and the largest in chars. */
+    private static final int BYTE_LIMIT = 256, CHAR_LIMIT = 65536;
+    /** Mask giving the unsigned value of a byte. */
+    private static final int BYTE_MASK = 0xff;
+    /** Symbols permuted for each size in the footprint benchmark. */
+    private static final int SAMPLE = 1 << 22;
+    /** First CJK unified ideograph, and their number. */
+    private static final int CJK_FIRST = 0x4e00, CJK_SIZE = 20992;
+
     /** Alphabet of this permutation. */
     private Alphabet _alphabet;
-    /** Unused stuff. */
-    private String _cycle;
-    /** Forward hashmap. */
-    private HashMap<Integer, Integer> map1;
-    /** Backward hashmap. */
-    private HashMap<Integer, Integer> map2;
+    /** My mapping. */
+    private final Store _forward;
+    /** My inverse mapping, which is _forward if I am an involution. */
+    private final Store _inverse;
+    /** Cached forward mapping as an int[], or null.  Volatile, since
+     *  permutations are shared by the rotors of machines on several
+     *  threads. */
+    private volatile int[] _forwardTable;
+    /** Cached inverse mapping as an int[], or null. */
+    private volatile int[] _inverseTable;
 
 }
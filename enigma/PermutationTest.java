@@ -1,5 +1,14 @@
 package enigma;
 
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.CyclicBarrier;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
 import org.junit.Test;
 import org.junit.Rule;
 import org.junit.rules.Timeout;
@@ -122,11 +131,139 @@ public class PermutationTest {
     }
 
 
-}
 
+    @Test
+    public void testCompose() {
+        Permutation p = new Permutation("(ABC) (DE)", UPPER);
+        Permutation q = new Permutation("(AD) (BZ)", UPPER);
+        Permutation pq = p.compose(q);
+        for (int k = 0; k < 26; k += 1) {
+            assertEquals(q.permute(p.permute(k)), pq.permute(k));
+        }
+        assertEquals("(AZBCDE)", pq.cycles().toString(UPPER));
+    }
 
+    @Test
+    public void testInverseAndPower() {
+        Permutation p = new Permutation("(ABCDE) (FG) (XYZ)", UPPER);
+        Permutation id = p.compose(p.inverse());
+        for (int k = 0; k < 26; k += 1) {
+            assertEquals(k, id.permute(k));
+            assertEquals(p.invert(k), p.inverse().permute(k));
+        }
+        Permutation p2 = p.compose(p);
+        assertArrayEquals(p2.forwardTable(), p.power(2).forwardTable());
+        assertArrayEquals(p.inverseTable(), p.power(-1).forwardTable());
+        assertArrayEquals(new Permutation("", UPPER).forwardTable(),
+                          p.power(30).forwardTable());
+        assertArrayEquals(p.forwardTable(), p.power(31).forwardTable());
+        assertArrayEquals(p.power(7).forwardTable(),
+                          p.power(-23).forwardTable());
+    }
+
+    @Test
+    public void testConjugate() {
+        Permutation p = new Permutation("(AELTPHQXRU) (BKNW) (CMOY) (DFG) "
+                                        + "(IV) (JZ) (S)", UPPER);
+        Permutation c = p.conjugate(3);
+        for (int k = 0; k < 26; k += 1) {
+            assertEquals(p.wrap(p.permute(p.wrap(k + 3)) - 3), c.permute(k));
+        }
+        assertArrayEquals(p.forwardTable(), c.conjugate(-3).forwardTable());
+        assertArrayEquals(p.cycleType(), c.cycleType());
+    }
+
+    @Test
+    public void testCycles() {
+        Permutation p = new Permutation("(BDC) (EF)", UPPER);
+        Permutation.Cycles cycles = p.cycles();
+        assertEquals(23, cycles.count());
+        assertEquals(1, cycles.length(0));
+        assertEquals(3, cycles.length(1));
+        assertEquals(1, cycles.get(1, 0));
+        assertEquals(3, cycles.get(1, 1));
+        assertEquals("(BDC) (EF)", cycles.toString(UPPER));
+        assertArrayEquals(new int[] {3, 2, 1, 1, 1, 1, 1, 1, 1, 1, 1, 1, 1,
+                                     1, 1, 1, 1, 1, 1, 1, 1, 1, 1},
+                          p.cycleType());
+    }
 
+    @Test
+    public void testAdjacentCycles() {
+        Permutation p = new Permutation("(AB)(CD)\t(EF\nG)", UPPER);
+        assertEquals("(AB) (CD) (EF)", p.cycles().toString(UPPER));
+        assertEquals(p.forwardTable(), p.inverseTable());
+    }
 
+    @Test(expected = EnigmaException.class)
+    public void testRepeatedSymbol() {
+        new Permutation("(ABC) (DA)", UPPER);
+    }
 
+    @Test
+    public void testLargeAlphabets() {
+        Random random = new Random(45);
+        for (int n : new int[] {256, 257, 20000}) {
+            char[] symbols = new char[n];
+            for (int k = 0; k < n; k++) {
+                symbols[k] = (char) (0x4e00 + k);
+            }
+            Alphabet alphabet = new Alphabet(new String(symbols));
+            int[] table = new int[n];
+            for (int k = 0; k < n; k++) {
+                int j = random.nextInt(k + 1);
+                table[k] = table[j];
+                table[j] = k;
+            }
+            Permutation p =
+                new Permutation(Permutation.cycles(table).toString(alphabet),
+                                alphabet);
+            assertArrayEquals(table, p.forwardTable());
+            for (int k = 0; k < n; k += 1) {
+                assertEquals(k, p.invert(table[k]));
+                assertEquals(symbols[table[k]], p.permute(symbols[k]));
+            }
+        }
+        Permutation bytes = new Permutation("(00ff) (7f80)",
+                                            new ByteAlphabet());
+        assertEquals(255, bytes.permute(0));
+        assertEquals(128, bytes.invert(127));
+        assertEquals(1, bytes.permute(1));
+    }
 
+    @Test(expected = EnigmaException.class)
+    public void testNotPermutation() {
+        new Permutation(new int[] {0, 1, 1, 3}, new Alphabet("ABCD"));
+    }
 
+    @Test
+    public void testSharedTables() throws Exception {
+        char[] symbols = new char[4096];
+        for (int k = 0; k < symbols.length; k++) {
+            symbols[k] = (char) (0x4e00 + k);
+        }
+        Alphabet alphabet = new Alphabet(new String(symbols));
+        int[] table = new int[symbols.length], inverse = new int[table.length];
+        for (int k = 0; k < table.length; k++) {
+            table[k] = (k + 1) % table.length;
+            inverse[table[k]] = k;
+        }
+        for (int trial = 0; trial < 20; trial++) {
+            Permutation p = new Permutation(table, alphabet);
+            CyclicBarrier start = new CyclicBarrier(4);
+            List<Future<Boolean>> results = new ArrayList<>();
+            ExecutorService pool = Executors.newFixedThreadPool(4);
+            for (int t = 0; t < 4; t++) {
+                results.add(pool.submit(() -> {
+                    start.await();
+                    return Arrays.equals(table, p.forwardTable())
+                        && Arrays.equals(inverse, p.inverseTable());
+                }));
+            }
+            pool.shutdown();
+            for (Future<Boolean> r : results) {
+                assertTrue(r.get());
+            }
+        }
+    }
+}
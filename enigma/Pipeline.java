@@ -0,0 +1,372 @@
+package enigma;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.io.Writer;
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.locks.LockSupport;
+
+import static enigma.EnigmaException.*;
+
+/** Converts text in the format of Main's input in three overlapping
+ *  stages, each on its own thread: a parser that splits the input into
+ *  lines and strips their blanks, a converter that runs the machine, and
+ *  a writer that groups the results in fives and writes them out.
+ *
+ *  The stages pass a fixed set of preallocated records around a cycle of
+ *  three single-producer, single-consumer rings (parser to converter,
+ *  converter to writer, and writer back to parser), so converting a
+ *  message allocates nothing.  A record holds up to RECORD_SIZE
+ *  characters of a message line; longer lines take several.  Setting
+ *  lines travel as control records, which the converter applies to the
+ *  machine, so they take effect exactly where they appear.
+ *
+ *  A stage that finishes, normally or not, closes the ring it feeds and
+ *  abandons the one it drains, so the stage after it stops once it has
+ *  taken everything already sent and the stage before it stops sending.
+ *  A failure in any stage thus stops the others after every line before
+ *  it is written.  The writer holds each line until its last record, so
+ *  a line is written whole or not at all.
+ *  @author Tianyu Liu
+ */
+class Pipeline {
+
+    /** A pipeline converting with MACHINE. */
+    Pipeline(Machine machine) {
+        _machine = machine;
+        for (int i = 0; i < RECORDS; i++) {
+            _free.put(new Record());
+        }
+    }
+
+    /** Convert the messages read from IN, writing them to OUT, as Main
+     *  does.  SETTING, if not null, is applied before the input;
+     *  otherwise the input must start with a setting line. */
+    void run(Reader in, Writer out, String setting) {
+        Thread parser = new Thread(() -> guard(() -> parse(in, setting)),
+                                   "enigma-parse");
+        Thread converter = new Thread(() -> guard(this::convert),
+                                      "enigma-convert");
+        parser.setDaemon(true);
+        converter.setDaemon(true);
+        parser.start();
+        converter.start();
+        guard(() -> write(out));
+        try {
+            parser.join();
+            converter.join();
+        } catch (InterruptedException excp) {
+            Thread.currentThread().interrupt();
+            fail(error("conversion interrupted"));
+        }
+        RuntimeException failure = _failure.get();
+        if (failure != null) {
+            throw failure;
+        }
+    }
+
+    /** Run STAGE, recording any failure and stopping the other stages. */
+    private void guard(Stage stage) {
+        try {
+            stage.run();
+        } catch (IOException excp) {
+            fail(error("I/O error: %s", excp.getMessage()));
+        } catch (RuntimeException excp) {
+            fail(excp);
+        }
+    }
+
+    /** Record EXCP as the pipeline's failure unless there is already one,
+     *  and stop the parser.  The later stages stop once they have drained
+     *  their rings. */
+    private void fail(RuntimeException excp) {
+        _failure.compareAndSet(null, excp);
+        _stopped = true;
+    }
+
+    /** The parser: split IN into lines and send them on, starting with
+     *  SETTING if it is not null. */
+    private void parse(Reader in, String setting) throws IOException {
+        try {
+            parseLines(in, setting);
+        } finally {
+            _work.close();
+            _free.abandon();
+        }
+    }
+
+    /** Split IN into lines and send them on, starting with SETTING if it
+     *  is not null. */
+    private void parseLines(Reader in, String setting) throws IOException {
+        boolean needSetting = setting == null;
+        if (setting != null) {
+            sendSetting(setting);
+        }
+        char[] buf = new char[BUFFER_SIZE];
+        int start = 0, end = 0;
+        boolean eof = false;
+        while ((!eof || start < end) && !_stopped) {
+            int nl = -1;
+            for (int i = start; i < end; i++) {
+                if (buf[i] == '\n') {
+                    nl = i;
+                    break;
+                }
+            }
+            if (nl < 0 && !eof) {
+                if (start > 0) {
+                    System.arraycopy(buf, start, buf, 0, end - start);
+                    end -= start;
+                    start = 0;
+                } else if (end == buf.length) {
+                    buf = Arrays.copyOf(buf, 2 * buf.length);
+                }
+                int n = in.read(buf, end, buf.length - end);
+                if (n < 0) {
+                    eof = true;
+                } else {
+                    end += n;
+                }
+                continue;
+            }
+            int lineEnd = nl < 0 ? end : nl;
+            if (lineEnd > start && buf[lineEnd - 1] == '\r') {
+                lineEnd -= 1;
+            }
+            boolean isSetting = false;
+            for (int i = start; i < lineEnd && !isSetting; i++) {
+                isSetting = buf[i] == '*';
+            }
+            if (needSetting && !isSetting) {
+                throw error("Wrong format of setting line");
+            }
+            needSetting = false;
+            if (isSetting) {
+                sendSetting(new String(buf, start, lineEnd - start));
+            } else {
+                sendMessage(buf, start, lineEnd);
+            }
+            start = nl < 0 ? end : nl + 1;
+        }
+        if (needSetting) {
+            throw error("Wrong next in process");
+        }
+    }
+
+    /** Send a control record for setting line SETTING. */
+    private void sendSetting(String setting) {
+        Record r = _free.take();
+        if (r != null) {
+            r.kind = SETTING;
+            r.setting = setting;
+            _work.put(r);
+        }
+    }
+
+    /** Send the characters of BUF from START to END-1, without blanks,
+     *  as a message line in as many records as it needs. */
+    private void sendMessage(char[] buf, int start, int end) {
+        Record r = _free.take();
+        int i = start;
+        while (r != null) {
+            r.kind = MESSAGE;
+            r.length = 0;
+            for (; i < end && r.length < RECORD_SIZE; i++) {
+                if (buf[i] != ' ') {
+                    r.text[r.length++] = buf[i];
+                }
+            }
+            r.endOfLine = i == end;
+            _work.put(r);
+            r = r.endOfLine ? null : _free.take();
+        }
+    }
+
+    /** The converter: apply setting records to my machine and convert
+     *  message records in place. */
+    private void convert() {
+        try {
+            for (Record r = _work.take(); r != null; r = _work.take()) {
+                if (r.kind == SETTING) {
+                    Main.setUp(_machine, r.setting);
+                    r.setting = null;
+                } else {
+                    _machine.convert(r.text, 0, r.length, ForeignPolicy.FAIL);
+                }
+                _done.put(r);
+            }
+        } finally {
+            _done.close();
+            _work.abandon();
+        }
+    }
+
+    /** The writer: write converted message records to OUT in groups of
+     *  five, one line per message line, and recycle every record.  Only
+     *  whole lines are written: the records of a line are held in my
+     *  buffer, which grows as needed, until its last one arrives. */
+    private void write(Writer out) throws IOException {
+        char[] buf = new char[BUFFER_SIZE];
+        char[] separator = System.lineSeparator().toCharArray();
+        int len = 0, complete = 0, column = 0;
+        try {
+            for (Record r = _done.take(); r != null; r = _done.take()) {
+                if (r.kind == MESSAGE) {
+                    int room = 2 * r.length + separator.length;
+                    if (len + room > buf.length && complete > 0) {
+                        out.write(buf, 0, complete);
+                        System.arraycopy(buf, complete, buf, 0,
+                                         len - complete);
+                        len -= complete;
+                        complete = 0;
+                    }
+                    if (len + room > buf.length) {
+                        buf = Arrays.copyOf(buf, Math.max(2 * buf.length,
+                                                          len + room));
+                    }
+                    for (int i = 0; i < r.length; i++) {
+                        if (column > 0 && column % GROUP == 0) {
+                            buf[len++] = ' ';
+                        }
+                        buf[len++] = r.text[i];
+                        column += 1;
+                    }
+                    if (r.endOfLine) {
+                        for (char c : separator) {
+                            buf[len++] = c;
+                        }
+                        column = 0;
+                        complete = len;
+                    }
+                }
+                _free.put(r);
+            }
+        } finally {
+            _free.close();
+            _done.abandon();
+            out.write(buf, 0, complete);
+            out.flush();
+        }
+    }
+
+    /** One stage's work. */
+    private interface Stage {
+        /** Do the work. */
+        void run() throws IOException;
+    }
+
+    /** A unit of work passed between stages. */
+    private static class Record {
+        /** MESSAGE or SETTING. */
+        int kind;
+        /** Characters of a message line. */
+        final char[] text = new char[RECORD_SIZE];
+        /** Number of characters in text. */
+        int length;
+        /** True iff this record ends its message line. */
+        boolean endOfLine;
+        /** A setting line. */
+        String setting;
+    }
+
+    /** A bounded queue with one producer thread and one consumer thread,
+     *  which need no locks: only the producer writes _tail and only the
+     *  consumer writes _head, each publishing with an ordered write. */
+    private static class Ring {
+        /** Put R at the end of this ring, waiting while it is full.  Does
+         *  nothing if my consumer has abandoned me. */
+        void put(Record r) {
+            long tail = _tail.get();
+            for (int idle = 0; tail - _head.get() == _slots.length; idle++) {
+                if (_abandoned) {
+                    return;
+                }
+                pause(idle);
+            }
+            _slots[(int) tail & MASK] = r;
+            _tail.lazySet(tail + 1);
+        }
+
+        /** Remove and return the first record of this ring, waiting while
+         *  it is empty.  Returns null once the ring is empty and closed. */
+        Record take() {
+            long head = _head.get();
+            for (int idle = 0; _tail.get() == head; idle++) {
+                if (_closed && _tail.get() == head) {
+                    return null;
+                }
+                pause(idle);
+            }
+            Record result = _slots[(int) head & MASK];
+            _slots[(int) head & MASK] = null;
+            _head.lazySet(head + 1);
+            return result;
+        }
+
+        /** Called by my producer when it will put no more. */
+        void close() {
+            _closed = true;
+        }
+
+        /** Called by my consumer when it will take no more. */
+        void abandon() {
+            _abandoned = true;
+        }
+
+        /** Records, indexed by sequence number modulo their number. */
+        private final Record[] _slots = new Record[RECORDS];
+        /** Sequence number of the next record to take. */
+        private final AtomicLong _head = new AtomicLong();
+        /** Sequence number of the next record to put. */
+        private final AtomicLong _tail = new AtomicLong();
+        /** True once my producer will put no more. */
+        private volatile boolean _closed;
+        /** True once my consumer will take no more. */
+        private volatile boolean _abandoned;
+    }
+
+    /** Wait a little, having already waited IDLE times: spin at first,
+     *  then yield the processor, then sleep. */
+    private static void pause(int idle) {
+        if (idle < SPINS) {
+            Thread.onSpinWait();
+        } else if (idle < SPINS + YIELDS) {
+            Thread.yield();
+        } else {
+            LockSupport.parkNanos(PARK_NANOS);
+        }
+    }
+
+    /** Record kinds. */
+    private static final int MESSAGE = 0, SETTING = 1;
+    /** Number of records in circulation (a power of 2). */
+    private static final int RECORDS = 64;
+    /** Mask for ring indices. */
+    private static final int MASK = RECORDS - 1;
+    /** Characters in a record. */
+    static final int RECORD_SIZE = 1 << 12;
+    /** Initial size of the parser's and the writer's buffers. */
+    private static final int BUFFER_SIZE = 1 << 16;
+    /** Letters per output group. */
+    private static final int GROUP = 5;
+    /** Waits spent spinning and yielding before sleeping. */
+    private static final int SPINS = 100, YIELDS = 1000;
+    /** Length of a sleep while waiting. */
+    private static final long PARK_NANOS = 50_000;
+
+    /** The machine, used only by the converter. */
+    private final Machine _machine;
+    /** Empty records, from the writer to the parser. */
+    private final Ring _free = new Ring();
+    /** Parsed records, from the parser to the converter. */
+    private final Ring _work = new Ring();
+    /** Converted records, from the converter to the writer. */
+    private final Ring _done = new Ring();
+    /** The first failure, if any. */
+    private final AtomicReference<RuntimeException> _failure =
+        new AtomicReference<>();
+    /** True once any stage has failed, which stops the parser. */
+    private volatile boolean _stopped;
+}
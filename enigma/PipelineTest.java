@@ -0,0 +1,176 @@
+package enigma;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.io.StringReader;
+import java.io.StringWriter;
+import java.util.Arrays;
+import java.util.Random;
+import java.util.Scanner;
+import org.junit.Test;
+import org.junit.Rule;
+import org.junit.rules.Timeout;
+import static org.junit.Assert.*;
+
+/** The suite of all JUnit tests for the Pipeline class.
+ *  @author Tianyu Liu
+ */
+public class PipelineTest {
+
+    /** Testing time limit. */
+    @Rule
+    public Timeout globalTimeout = Timeout.seconds(10);
+
+    /* ***** TESTING UTILITIES ***** */
+
+    /** Return a fresh machine for ServerTest.CONFIG. */
+    static Machine machine() {
+        return Main.readConfig(new Scanner(ServerTest.CONFIG));
+    }
+
+    /** Return the output of a Pipeline for INPUT, with setting SETTING
+     *  (possibly null). */
+    static String pipe(String input, String setting) {
+        StringWriter out = new StringWriter();
+        new Pipeline(machine()).run(new StringReader(input), out, setting);
+        return out.toString();
+    }
+
+    /** Return the output Main's one-line-at-a-time loop gives for INPUT,
+     *  which starts with a setting line. */
+    static String sequential(String input) {
+        Machine mach = machine();
+        StringBuilder result = new StringBuilder();
+        Scanner in = new Scanner(input);
+        while (in.hasNextLine()) {
+            String line = in.nextLine();
+            if (line.contains("*")) {
+                Main.setUp(mach, line);
+            } else {
+                result.append(Main.groups(mach.convert(line.replace(" ", ""))))
+                    .append(System.lineSeparator());
+            }
+        }
+        return result.toString();
+    }
+
+    /** Return LEN random letters, with a blank here and there. */
+    static String letters(int len, Random random) {
+        StringBuilder result = new StringBuilder();
+        for (int i = 0; i < len; i++) {
+            result.append(random.nextInt(7) == 0 ? ' '
+                          : (char) ('A' + random.nextInt(26)));
+        }
+        return result.toString();
+    }
+
+    /* ***** TESTS ***** */
+
+    @Test
+    public void testMatchesSequential() {
+        Random random = new Random(42);
+        StringBuilder input = new StringBuilder();
+        input.append("* B Beta I II III AAAA\n");
+        for (int i = 0; i < 300; i++) {
+            switch (random.nextInt(10)) {
+            case 0:
+                input.append("* B Beta III I II ")
+                    .append(letters(4, random).replace(' ', 'Q'))
+                    .append(" (AB) (CD)\n");
+                break;
+            case 1:
+                input.append("\n");
+                break;
+            case 2:
+                input.append(letters(3 * Pipeline.RECORD_SIZE + 7, random))
+                    .append("\n");
+                break;
+            default:
+                input.append(letters(random.nextInt(80), random))
+                    .append(random.nextBoolean() ? "\n" : "\r\n");
+            }
+        }
+        input.append("LAST LINE");
+        String text = input.toString();
+        assertEquals(sequential(text), pipe(text, null));
+    }
+
+    @Test
+    public void testSettingOption() {
+        assertEquals(sequential("* B Beta I II III AAAA\nHELLO WORLD\n"),
+                     pipe("HELLO WORLD\n", "* B Beta I II III AAAA"));
+    }
+
+    @Test
+    public void testFailures() {
+        try {
+            pipe("HELLO\n", null);
+            fail("missing setting line accepted");
+        } catch (EnigmaException excp) {
+            /* Expected. */
+        }
+        try {
+            pipe("", null);
+            fail("empty input accepted");
+        } catch (EnigmaException excp) {
+            /* Expected. */
+        }
+        StringWriter out = new StringWriter();
+        try {
+            new Pipeline(machine()).run(
+                new StringReader("* B Beta I II III AAAA\nHELLO\nBAD1\nOK\n"),
+                out, null);
+            fail("foreign character accepted");
+        } catch (EnigmaException excp) {
+            assertEquals(sequential("* B Beta I II III AAAA\nHELLO\n"),
+                         out.toString());
+        }
+    }
+
+    @Test
+    public void testLongLineFailure() {
+        String head = "* B Beta I II III AAAA\nHELLO\n";
+        char[] line = new char[3 * Pipeline.RECORD_SIZE];
+        Arrays.fill(line, 'A');
+        line[2 * Pipeline.RECORD_SIZE + 7] = '1';
+        StringWriter out = new StringWriter();
+        try {
+            new Pipeline(machine()).run(
+                new StringReader(head + new String(line) + "\nOK\n"), out,
+                null);
+            fail("foreign character accepted");
+        } catch (EnigmaException excp) {
+            assertEquals(sequential(head), out.toString());
+        }
+    }
+
+    @Test
+    public void testReadFailure() {
+        Random random = new Random(52);
+        StringBuilder text = new StringBuilder("* B Beta I II III AAAA\n");
+        for (int i = 0; i < 2000; i++) {
+            text.append(letters(random.nextInt(200), random)).append('\n');
+        }
+        String input = text.toString();
+        for (int trial = 0; trial < 20; trial++) {
+            Reader in = new StringReader(input) {
+                    @Override
+                    public int read(char[] buf, int off, int len)
+                        throws IOException {
+                        int n = super.read(buf, off, len);
+                        if (n < 0) {
+                            throw new IOException("device gone");
+                        }
+                        return n;
+                    }
+                };
+            StringWriter out = new StringWriter();
+            try {
+                new Pipeline(machine()).run(in, out, null);
+                fail("read failure ignored");
+            } catch (EnigmaException excp) {
+                assertEquals(sequential(input), out.toString());
+            }
+        }
+    }
+}
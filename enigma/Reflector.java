@@ -13,6 +13,11 @@ class Reflector extends FixedRotor {
         super(name, perm);
     }
 
+    @Override
+    Rotor copy() {
+        return copyState(new Reflector(name(), permutation()));
+    }
+
     @Override
     boolean reflecting() {
         return true;
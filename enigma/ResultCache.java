@@ -0,0 +1,308 @@
+package enigma;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.nio.file.attribute.FileTime;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.zip.CRC32;
+
+import static enigma.EnigmaException.*;
+
+/** A persistent cache of converted output, addressed by the SHA-256
+ *  digest of everything the output depends on (see key), so that a batch
+ *  run over mostly unchanged input copies the unchanged parts instead of
+ *  converting them.
+ *
+ *  Each entry is a file in a directory named by the first two hex digits
+ *  of its key, holding a magic number, a CRC-32 of the output and the
+ *  output.  Entries are written to a temporary file in the same directory
+ *  and renamed into place, so that any number of processes can read and
+ *  add entries at once: a reader sees a whole entry or none, and an
+ *  entry that fails its check is treated as absent.  Reading an entry
+ *  updates its modification time, and when the entries outgrow the size
+ *  limit the least recently used are removed.
+ *  @author Tianyu Liu
+ */
+class ResultCache implements Closeable {
+
+    /** A cache in DIR, created if necessary, whose entries are kept to
+     *  at most LIMIT bytes. */
+    ResultCache(Path dir, long limit) {
+        _dir = dir;
+        _limit = limit;
+        try {
+            Files.createDirectories(dir);
+        } catch (IOException excp) {
+            throw error("could not create cache %s", dir);
+        }
+    }
+
+    /** Return a digest identifying the output of machines configured as
+     *  CONFIG, written in CHARSET with lines ended by NEWLINE.  It covers
+     *  the configuration as compiled (alphabet, slots, pawls, stepping and
+     *  every rotor's kind, notches and wiring), not the text of the
+     *  configuration file. */
+    static byte[] fingerprint(Machine config, Charset charset,
+                              String newline) {
+        MessageDigest digest = digest();
+        update(digest, VERSION);
+        update(digest, charset.name());
+        update(digest, newline);
+        Alphabet alpha = config.alphabet();
+        StringBuilder chars = new StringBuilder();
+        for (int i = 0; i < alpha.size(); i++) {
+            chars.append(alpha.toChar(i));
+        }
+        update(digest, chars.toString());
+        update(digest, config.numRotors() + " " + config.numPawls() + " "
+               + config.stepping().name());
+        for (Rotor r : config.availableRotors()) {
+            update(digest, r.name());
+            update(digest, r.reflecting() ? "R" : r.rotates() ? "M" : "N");
+            int[] notches = r.rotates() ? r.getnotchlist() : new int[0];
+            ByteBuffer ints = ByteBuffer.allocate(4 * (notches.length
+                                                       + alpha.size() + 1));
+            ints.putInt(notches.length);
+            for (int p : notches) {
+                ints.putInt(p);
+            }
+            for (int c : r.permutation().forwardTable()) {
+                ints.putInt(c);
+            }
+            digest.update(ints.array());
+        }
+        return digest.digest();
+    }
+
+    /** Return the key of the output of LINES, message lines that begin
+     *  OFFSET characters (blanks excluded) after setting line SETTING, on
+     *  machines with FINGERPRINT. */
+    static byte[] key(byte[] fingerprint, String setting, long offset,
+                      List<String> lines) {
+        MessageDigest digest = digest();
+        digest.update(fingerprint);
+        update(digest, setting);
+        digest.update(ByteBuffer.allocate(8).putLong(offset).array());
+        for (String line : lines) {
+            update(digest, line);
+        }
+        return digest.digest();
+    }
+
+    /** Return the output cached under KEY, or null if there is none. */
+    byte[] get(byte[] key) {
+        Path file = file(key);
+        byte[] entry;
+        try {
+            entry = Files.readAllBytes(file);
+        } catch (NoSuchFileException excp) {
+            _misses += 1;
+            return null;
+        } catch (IOException excp) {
+            throw error("could not read cache entry %s", file);
+        }
+        ByteBuffer buf = ByteBuffer.wrap(entry);
+        if (entry.length < HEADER || buf.getInt() != MAGIC
+            || buf.getInt() != crc(entry, HEADER)) {
+            _misses += 1;
+            return null;
+        }
+        try {
+            Files.setLastModifiedTime(file, FileTime.fromMillis(
+                System.currentTimeMillis()));
+        } catch (IOException excp) {
+            /* Removed meanwhile by another process; the data is good. */
+        }
+        _hits += 1;
+        _served += entry.length - HEADER;
+        return Arrays.copyOfRange(entry, HEADER, entry.length);
+    }
+
+    /** Cache OUTPUT under KEY. */
+    void put(byte[] key, byte[] output) {
+        Path file = file(key);
+        ByteBuffer entry = ByteBuffer.allocate(HEADER + output.length);
+        entry.putInt(MAGIC).putInt(0).put(output);
+        entry.putInt(4, crc(entry.array(), HEADER));
+        try {
+            Files.createDirectories(file.getParent());
+            Path tmp = Files.createTempFile(file.getParent(), "tmp", PARTIAL);
+            Files.write(tmp, entry.array());
+            try {
+                Files.move(tmp, file, StandardCopyOption.ATOMIC_MOVE,
+                           StandardCopyOption.REPLACE_EXISTING);
+            } catch (AtomicMoveNotSupportedException excp) {
+                Files.move(tmp, file, StandardCopyOption.REPLACE_EXISTING);
+            }
+        } catch (IOException excp) {
+            throw error("could not write cache entry %s", file);
+        }
+        _stored += output.length;
+        _added += entry.capacity();
+        if (_added > _limit / TRIM_FRACTION) {
+            trim();
+        }
+    }
+
+    /** Remove the least recently used entries until the rest take at most
+     *  my size limit. */
+    void trim() {
+        _added = 0;
+        List<Entry> entries = new ArrayList<>();
+        long total = 0;
+        try (DirectoryStream<Path> dirs = Files.newDirectoryStream(_dir)) {
+            for (Path sub : dirs) {
+                if (!Files.isDirectory(sub)) {
+                    continue;
+                }
+                try (DirectoryStream<Path> files =
+                     Files.newDirectoryStream(sub)) {
+                    for (Path f : files) {
+                        if (f.getFileName().toString().endsWith(PARTIAL)) {
+                            continue;
+                        }
+                        try {
+                            Entry e = new Entry(f, Files.readAttributes(
+                                f, BasicFileAttributes.class));
+                            entries.add(e);
+                            total += e.size;
+                        } catch (NoSuchFileException excp) {
+                            continue;
+                        }
+                    }
+                }
+            }
+        } catch (IOException excp) {
+            throw error("could not list cache %s", _dir);
+        }
+        if (total <= _limit) {
+            return;
+        }
+        entries.sort(Comparator.comparing(e -> e.used));
+        for (int i = 0; i < entries.size() && total > _limit; i++) {
+            Entry e = entries.get(i);
+            try {
+                Files.deleteIfExists(e.file);
+            } catch (IOException excp) {
+                throw error("could not evict cache entry %s", e.file);
+            }
+            total -= e.size;
+            _evictions += 1;
+        }
+    }
+
+    /** Return the fraction of lookups that found an entry. */
+    double hitRate() {
+        long lookups = _hits + _misses;
+        return lookups == 0 ? 0 : (double) _hits / lookups;
+    }
+
+    /** Return a one-line summary of my lookups, hit rate, bytes copied
+     *  from and added to the cache, and evictions. */
+    String stats() {
+        return String.format("cache %d hits, %d misses (%.1f%% hit), "
+                             + "%d bytes cached, %d bytes stored, "
+                             + "%d evictions",
+                             _hits, _misses, 100 * hitRate(), _served,
+                             _stored, _evictions);
+    }
+
+    /** Keep my entries within my size limit. */
+    @Override
+    public void close() {
+        if (_stored > 0) {
+            trim();
+        }
+    }
+
+    /** Return the file of the entry with KEY. */
+    private Path file(byte[] key) {
+        StringBuilder hex = new StringBuilder();
+        for (byte b : key) {
+            hex.append(String.format("%02x", b & 0xff));
+        }
+        return _dir.resolve(hex.substring(0, 2)).resolve(hex.substring(2));
+    }
+
+    /** Return a new SHA-256 digest. */
+    private static MessageDigest digest() {
+        try {
+            return MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException excp) {
+            throw error("SHA-256 is not available");
+        }
+    }
+
+    /** Add S to DIGEST, followed by a zero byte. */
+    private static void update(MessageDigest digest, String s) {
+        digest.update(s.getBytes(StandardCharsets.UTF_8));
+        digest.update((byte) 0);
+    }
+
+    /** Return the CRC-32 of DATA from index FROM on. */
+    private static int crc(byte[] data, int from) {
+        CRC32 crc = new CRC32();
+        crc.update(data, from, data.length - from);
+        return (int) crc.getValue();
+    }
+
+    /** An entry found when trimming. */
+    private static class Entry {
+        /** The entry in FILE, with attributes ATTRS. */
+        Entry(Path file, BasicFileAttributes attrs) {
+            this.file = file;
+            size = attrs.size();
+            used = attrs.lastModifiedTime();
+        }
+
+        /** Its file. */
+        final Path file;
+        /** Its size in bytes. */
+        final long size;
+        /** When it was last written or read. */
+        final FileTime used;
+    }
+
+    /** Version of the layout of keys and entries. */
+    private static final String VERSION = "enigma-cache-1";
+    /** First word of every entry. */
+    private static final int MAGIC = 0x454e4331;
+    /** Bytes before the output in an entry. */
+    private static final int HEADER = 8;
+    /** Suffix of entries being written. */
+    private static final String PARTIAL = ".part";
+    /** Entries are trimmed after adding this fraction of the limit. */
+    private static final int TRIM_FRACTION = 4;
+
+    /** The cache directory. */
+    private final Path _dir;
+    /** Most bytes of entries kept. */
+    private final long _limit;
+    /** Entry bytes added since the last trim. */
+    private long _added;
+    /** Lookups that found an entry. */
+    private long _hits;
+    /** Lookups that found none. */
+    private long _misses;
+    /** Bytes of output copied from entries. */
+    private long _served;
+    /** Bytes of output added. */
+    private long _stored;
+    /** Entries removed by trimming. */
+    private long _evictions;
+}
@@ -0,0 +1,205 @@
+package enigma;
+
+import java.io.IOException;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Random;
+import java.util.stream.Stream;
+import org.junit.Test;
+import org.junit.Rule;
+import org.junit.rules.Timeout;
+import static org.junit.Assert.*;
+
+/** The suite of all JUnit tests for the ResultCache class.
+ *  @author Tianyu Liu
+ */
+public class ResultCacheTest {
+
+    /** Testing time limit. */
+    @Rule
+    public Timeout globalTimeout = Timeout.seconds(20);
+
+    /* ***** TESTING UTILITIES ***** */
+
+    /** Return input of SECTIONS sections of LINES random message lines of
+     *  up to 60 characters each, chosen by RANDOM. */
+    static String input(int sections, int lines, Random random) {
+        StringBuilder result = new StringBuilder();
+        String[] settings = {"* B Beta I II III AAAA", "* B Beta III II I QRST",
+                             "* B Beta II I III ZZZZ CDEF (AB) (CD)"};
+        for (int s = 0; s < sections; s++) {
+            result.append(settings[s % settings.length]).append('\n');
+            for (int i = 0; i < lines; i++) {
+                result.append(PipelineTest.letters(random.nextInt(60),
+                                                   random)).append('\n');
+            }
+        }
+        return result.toString();
+    }
+
+    /** Return the output of Main with OPTIONS on INPUT, using the files
+     *  in DIR. */
+    static String run(Path dir, String input, String... options)
+        throws IOException {
+        Path conf = dir.resolve("conf"), in = dir.resolve("in"),
+            out = dir.resolve("out");
+        Files.writeString(conf, ServerTest.CONFIG);
+        Files.writeString(in, input);
+        String[] args = new String[options.length + 3];
+        System.arraycopy(options, 0, args, 0, options.length);
+        args[options.length] = conf.toString();
+        args[options.length + 1] = in.toString();
+        args[options.length + 2] = out.toString();
+        Main.main(args);
+        return Files.readString(out);
+    }
+
+    /** Remove DIR and everything in it. */
+    static void delete(Path dir) throws IOException {
+        try (Stream<Path> files = Files.walk(dir)) {
+            for (Path p : (Iterable<Path>) files
+                     .sorted(Comparator.reverseOrder())::iterator) {
+                Files.delete(p);
+            }
+        }
+    }
+
+    /** Return the number of files under DIR. */
+    static long count(Path dir) throws IOException {
+        try (Stream<Path> files = Files.walk(dir)) {
+            return files.filter(Files::isRegularFile).count();
+        }
+    }
+
+    /** Return a key whose first byte is I. */
+    static byte[] key(int i) {
+        byte[] result = new byte[32];
+        result[0] = (byte) i;
+        return result;
+    }
+
+    /* ***** TESTS ***** */
+
+    @Test
+    public void testMatchesUncached() throws IOException {
+        Path dir = Files.createTempDirectory("enigma");
+        try {
+            String cache = "--cache=" + dir.resolve("cache");
+            String input = input(6, 20, new Random(50));
+            String expected = run(dir, input);
+            assertEquals(expected, run(dir, input, cache));
+            long entries = count(dir.resolve("cache"));
+            assertEquals(6, entries);
+            assertEquals(expected, run(dir, input, cache));
+            assertEquals(entries, count(dir.resolve("cache")));
+
+            String changed = input.replaceFirst("\n[A-Z ]*\n",
+                                                "\nHELLO WORLD\n");
+            assertEquals(run(dir, changed), run(dir, changed, cache));
+            assertEquals(entries + 1, count(dir.resolve("cache")));
+        } finally {
+            delete(dir);
+        }
+    }
+
+    @Test
+    public void testHitsSkipMachine() throws IOException {
+        Path dir = Files.createTempDirectory("enigma");
+        try {
+            Path cacheDir = dir.resolve("cache");
+            String input = "* B Beta I II III AAAA\nHELLO WORLD\n";
+            run(dir, input, "--cache=" + cacheDir);
+            Machine mach = PipelineTest.machine();
+            byte[] key = ResultCache.key(
+                ResultCache.fingerprint(mach, Charset.defaultCharset(),
+                                        System.lineSeparator()),
+                "* B Beta I II III AAAA", 0, List.of("HELLO WORLD"));
+            ResultCache cache = new ResultCache(cacheDir, 1 << 20);
+            assertNotNull(cache.get(key));
+            cache.put(key, "FROM CACHE\n".getBytes(StandardCharsets.UTF_8));
+            assertEquals("FROM CACHE\n",
+                         run(dir, input, "--cache=" + cacheDir));
+            assertEquals(1.0, cache.hitRate(), 0);
+        } finally {
+            delete(dir);
+        }
+    }
+
+    @Test
+    public void testLongSection() throws IOException {
+        Path dir = Files.createTempDirectory("enigma");
+        try {
+            String cache = "--cache=" + dir.resolve("cache");
+            String input = input(1, 5000, new Random(51));
+            String expected = run(dir, input);
+            assertEquals(expected, run(dir, input, cache));
+            assertTrue(count(dir.resolve("cache")) > 1);
+            int at = input.length() - 100;
+            at = input.indexOf('\n', at) + 1;
+            String changed = input.substring(0, at) + "SOMETHING NEW\n"
+                + input.substring(input.indexOf('\n', at) + 1);
+            assertEquals(run(dir, changed), run(dir, changed, cache));
+        } finally {
+            delete(dir);
+        }
+    }
+
+    @Test
+    public void testCorruptEntry() throws IOException {
+        Path dir = Files.createTempDirectory("enigma");
+        try {
+            ResultCache cache = new ResultCache(dir, 1 << 20);
+            byte[] key = new byte[32];
+            cache.put(key, "ABCDE\n".getBytes(StandardCharsets.UTF_8));
+            assertEquals("ABCDE\n", new String(cache.get(key),
+                                               StandardCharsets.UTF_8));
+            Path file;
+            try (Stream<Path> files = Files.walk(dir)) {
+                file = files.filter(Files::isRegularFile).findFirst().get();
+            }
+            byte[] entry = Files.readAllBytes(file);
+            entry[entry.length - 1] ^= 1;
+            Files.write(file, entry);
+            assertNull(cache.get(key));
+            assertNull(cache.get(new byte[] {1, 2, 3}));
+            assertEquals(1.0 / 3, cache.hitRate(), 1e-9);
+        } finally {
+            delete(dir);
+        }
+    }
+
+    @Test
+    public void testEviction() throws IOException {
+        Path dir = Files.createTempDirectory("enigma");
+        try {
+            byte[] output = new byte[1000];
+            try (ResultCache cache = new ResultCache(dir, 10000)) {
+                for (int i = 0; i < 8; i++) {
+                    cache.put(key(i), output);
+                }
+            }
+            assertEquals(8, count(dir));
+            try (Stream<Path> files = Files.walk(dir)) {
+                long time = 0;
+                for (Path p : (Iterable<Path>) files
+                         .filter(Files::isRegularFile).sorted()::iterator) {
+                    Files.setLastModifiedTime(p, FileTime.fromMillis(time));
+                    time += 1000;
+                }
+            }
+            ResultCache cache = new ResultCache(dir, 5000);
+            assertNotNull(cache.get(key(0)));
+            cache.trim();
+            assertEquals(4, count(dir));
+            assertNotNull(cache.get(key(0)));
+            assertTrue(cache.stats().contains("4 evictions"));
+        } finally {
+            delete(dir);
+        }
+    }
+}
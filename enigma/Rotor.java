@@ -68,6 +68,24 @@ class Rotor {
         _r = alphabet().toInt(r);
     }
 
+    /** Use ring setting R, an index into my alphabet. */
+    void useR(int r) {
+        _r = permutation().wrap(r);
+    }
+
+    /** Return a new rotor with my name, wiring, notches, setting and
+     *  ring, which moves independently of me. */
+    Rotor copy() {
+        return copyState(new Rotor(name(), permutation()));
+    }
+
+    /** Give R my setting and ring, and return R. */
+    Rotor copyState(Rotor r) {
+        r.set = set;
+        r._r = _r;
+        return r;
+    }
+
     /** Return the conversion of P (an integer in the range 0..size()-1)
      *  according to my permutation. */
     int convertForward(int p) {
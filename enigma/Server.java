@@ -0,0 +1,363 @@
+package enigma;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.SocketAddress;
+import java.net.StandardProtocolFamily;
+import java.net.UnixDomainSocketAddress;
+import java.nio.channels.Channels;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+import ucb.util.CommandArgs;
+
+import static enigma.EnigmaException.*;
+
+/** A long-running Enigma service.  The configuration is read once; each
+ *  connection then gets its own copy of the machine and is served on its
+ *  own (virtual, where the JVM provides them) thread.
+ *
+ *  The protocol is that of Main's input, one line at a time: a line
+ *  containing '*' is a setting line and sets up the connection's machine;
+ *  any other line is a message, answered with one line holding its
+ *  conversion in groups of five.  A request is thus a setting line
+ *  followed by one or more message lines.  A bad line, or a message
+ *  before any setting line, is answered with a line starting "Error: "
+ *  and leaves the machine as it was: a setting line is applied to a copy
+ *  of the machine, which replaces it only if the whole line is good, and
+ *  a message is checked against the alphabet before it is converted.
+ *
+ *  With a SessionStore, a connection may also carry many streams, each
+ *  with its own setting and rotor positions: a line "@ID", where ID is a
+ *  number, saves the state of the current stream, if any, and switches
+ *  to stream ID, which starts with no setting if it is new.  Streams are
+ *  kept when connections close, so a stream may continue on another
+ *  connection.
+ *  @author Tianyu Liu
+ */
+public final class Server implements Closeable {
+
+    /** Serve requests as specified by ARGS: the name of a configuration
+     *  file, and either --port=N to listen on TCP port N of the loopback
+     *  interface or --socket=PATH to listen on a Unix-domain socket.
+     *  --stats=SECONDS prints metrics to the standard error every SECONDS
+     *  seconds.  --calibration=FILE keeps the measurements that choose each
+     *  message's engine (see EngineSelector) in FILE; without it they are
+     *  taken afresh at startup.  --sessions=N enables "@ID" lines, keeping
+     *  the states of up to N streams in memory and the rest in a spill
+     *  file. */
+    public static void main(String... args) {
+        try {
+            CommandArgs options =
+                new CommandArgs("--port=(\\d+) --socket=(.+) "
+                                + "--stats=(\\d+) --calibration=(.+) "
+                                + "--sessions=(\\d+) --=(.*){1}", args);
+            if (!options.ok() || options.contains("--port")
+                                 == options.contains("--socket")) {
+                throw error("Usage: java enigma.Server "
+                            + "(--port=N | --socket=PATH) [--stats=SECONDS] "
+                            + "[--calibration=FILE] [--sessions=N] CONFIG");
+            }
+            Machine template =
+                Main.readConfig(Main.getInput(options.getFirst("--")));
+            EngineSelector selector = options.contains("--calibration")
+                ? EngineSelector.load(
+                    Paths.get(options.getFirst("--calibration")))
+                : new EngineSelector();
+            selector.prepare(template);
+            if (selector.changed() && options.contains("--calibration")) {
+                selector.save(Paths.get(options.getFirst("--calibration")));
+            }
+            template.setSelector(selector);
+            SocketAddress address;
+            if (options.contains("--port")) {
+                address = new InetSocketAddress(
+                    InetAddress.getLoopbackAddress(),
+                    Integer.parseInt(options.getFirst("--port")));
+            } else {
+                address = UnixDomainSocketAddress.of(
+                    options.getFirst("--socket"));
+            }
+            Server server = new Server(template);
+            if (options.contains("--sessions")) {
+                server.keepSessions(new SessionStore(
+                    template,
+                    Integer.parseInt(options.getFirst("--sessions"))));
+            }
+            System.err.printf("listening on %s%n", server.bind(address));
+            if (options.contains("--stats")) {
+                server.reportEvery(
+                    Integer.parseInt(options.getFirst("--stats")));
+            }
+            Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+                server.close();
+                System.err.println(server.stats());
+            }));
+            server.serve();
+            return;
+        } catch (EnigmaException excp) {
+            System.err.printf("Error: %s%n", excp.getMessage());
+        } catch (IOException excp) {
+            System.err.printf("Error: %s%n", excp.getMessage());
+        }
+        System.exit(1);
+    }
+
+    /** A server whose connections each use a copy of TEMPLATE. */
+    Server(Machine template) {
+        _template = template;
+        _executor = connectionExecutor();
+    }
+
+    /** Keep the states of "@ID" streams in SESSIONS. */
+    void keepSessions(SessionStore sessions) {
+        _sessions = sessions;
+    }
+
+    /** Start listening on ADDRESS, which is either an InetSocketAddress or
+     *  a UnixDomainSocketAddress, and return the address actually bound
+     *  (which supplies the port when ADDRESS asks for port 0). */
+    SocketAddress bind(SocketAddress address) throws IOException {
+        if (address instanceof UnixDomainSocketAddress) {
+            _listener = ServerSocketChannel.open(StandardProtocolFamily.UNIX);
+            _socketFile = (UnixDomainSocketAddress) address;
+        } else {
+            _listener = ServerSocketChannel.open();
+        }
+        _listener.bind(address);
+        _lastReport = System.nanoTime();
+        return _listener.getLocalAddress();
+    }
+
+    /** Accept and serve connections until I am closed. */
+    void serve() throws IOException {
+        try {
+            while (true) {
+                SocketChannel channel = _listener.accept();
+                _accepted.increment();
+                _active.incrementAndGet();
+                _executor.execute(() -> handle(channel));
+            }
+        } catch (ClosedChannelException excp) {
+            return;
+        }
+    }
+
+    /** Start a daemon thread that prints my metrics to the standard error
+     *  every SECONDS seconds. */
+    void reportEvery(int seconds) {
+        Thread reporter = new Thread(() -> {
+            try {
+                while (true) {
+                    Thread.sleep(TimeUnit.SECONDS.toMillis(seconds));
+                    System.err.println(stats());
+                }
+            } catch (InterruptedException excp) {
+                return;
+            }
+        }, "enigma-stats");
+        reporter.setDaemon(true);
+        reporter.start();
+    }
+
+    /** Return a one-line summary of my metrics: connections accepted and
+     *  open, messages and characters converted, errors, and throughput
+     *  since the last call, followed by the engines used if my machine
+     *  has a selector. */
+    synchronized String stats() {
+        long now = System.nanoTime();
+        long chars = _chars.sum();
+        double secs = (now - _lastReport) / 1e9;
+        double rate = secs > 0 ? (chars - _lastChars) / secs : 0;
+        _lastReport = now;
+        _lastChars = chars;
+        String result =
+            String.format("connections %d (%d open), messages %d, "
+                          + "characters %d, errors %d, %.0f chars/s",
+                          _accepted.sum(), _active.get(), _messages.sum(),
+                          chars, _errors.sum(), rate);
+        if (_sessions != null) {
+            result += "; " + _sessions.stats();
+        }
+        EngineSelector selector = _template.selector();
+        return selector == null ? result : result + "; " + selector.stats();
+    }
+
+    /** Return the number of connections accepted so far. */
+    long connections() {
+        return _accepted.sum();
+    }
+
+    /** Return the number of messages converted so far. */
+    long messages() {
+        return _messages.sum();
+    }
+
+    /** Stop accepting connections.  Connections already open are served
+     *  until their clients close them. */
+    @Override
+    public void close() {
+        try {
+            if (_listener != null) {
+                _listener.close();
+            }
+            if (_socketFile != null) {
+                Files.deleteIfExists(Paths.get(_socketFile.getPath()
+                                                .toString()));
+            }
+        } catch (IOException excp) {
+            return;
+        } finally {
+            _executor.shutdown();
+        }
+    }
+
+    /** Serve the requests arriving on CHANNEL with a fresh copy of my
+     *  machine. */
+    private void handle(SocketChannel channel) {
+        Machine machine = _template.copy();
+        long stream = NO_STREAM;
+        try (channel) {
+            BufferedReader in = new BufferedReader(new InputStreamReader(
+                Channels.newInputStream(channel), StandardCharsets.UTF_8));
+            Writer out = new BufferedWriter(new OutputStreamWriter(
+                Channels.newOutputStream(channel), StandardCharsets.UTF_8));
+            String line;
+            while ((line = in.readLine()) != null) {
+                try {
+                    if (line.startsWith("@") && _sessions != null) {
+                        long id = streamId(line);
+                        detach(stream, machine);
+                        if (!_sessions.restore(id, machine)) {
+                            machine = _template.copy();
+                        }
+                        stream = id;
+                    } else if (line.contains("*")) {
+                        Machine next = machine.copy();
+                        Main.setUp(next, line);
+                        machine = next;
+                    } else {
+                        if (machine.getRotor(1) == null) {
+                            throw error("no setting line yet");
+                        }
+                        String msg = line.replace(" ", "");
+                        checkMessage(machine, msg);
+                        out.write(Main.groups(machine.convert(msg)));
+                        out.write('\n');
+                        _messages.increment();
+                        _chars.add(msg.length());
+                    }
+                } catch (EnigmaException | IndexOutOfBoundsException excp) {
+                    _errors.increment();
+                    out.write("Error: " + excp.getMessage() + "\n");
+                }
+                if (!in.ready()) {
+                    out.flush();
+                }
+            }
+            out.flush();
+        } catch (IOException excp) {
+            _errors.increment();
+        } finally {
+            detach(stream, machine);
+            _active.decrementAndGet();
+        }
+    }
+
+    /** Check that every character of MSG is in MACHINE's alphabet. */
+    private static void checkMessage(Machine machine, String msg) {
+        Alphabet alpha = machine.alphabet();
+        for (int i = 0; i < msg.length(); i++) {
+            if (!alpha.contains(msg.charAt(i))) {
+                throw error("character %c is not in the alphabet",
+                            msg.charAt(i));
+            }
+        }
+    }
+
+    /** Return the stream number on LINE, "@ID". */
+    private static long streamId(String line) {
+        try {
+            long result = Long.parseLong(line.substring(1).trim());
+            if (result == NO_STREAM) {
+                throw error("bad stream: %s", line);
+            }
+            return result;
+        } catch (NumberFormatException excp) {
+            throw error("bad stream: %s", line);
+        }
+    }
+
+    /** Save the state of MACHINE as that of STREAM, unless STREAM is
+     *  NO_STREAM or MACHINE's rotors are not all in place. */
+    private void detach(long stream, Machine machine) {
+        if (stream == NO_STREAM) {
+            return;
+        }
+        for (int rotor : machine.slots()) {
+            if (rotor < 0) {
+                return;
+            }
+        }
+        _sessions.save(stream, machine);
+    }
+
+    /** Return an executor running each task on a new virtual thread if
+     *  this JVM has them, and otherwise on a pooled platform thread. */
+    private static ExecutorService connectionExecutor() {
+        try {
+            return (ExecutorService) Executors.class
+                .getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+        } catch (ReflectiveOperationException excp) {
+            return Executors.newCachedThreadPool(r -> {
+                Thread t = new Thread(r, "enigma-connection");
+                t.setDaemon(true);
+                return t;
+            });
+        }
+    }
+
+    /** Stream number meaning none. */
+    private static final long NO_STREAM = Long.MIN_VALUE;
+
+    /** The machine copied for each connection. */
+    private final Machine _template;
+    /** Runs one task per connection. */
+    private final ExecutorService _executor;
+    /** States of "@ID" streams, or null if they are not allowed. */
+    private volatile SessionStore _sessions;
+    /** Where I accept connections. */
+    private ServerSocketChannel _listener;
+    /** The Unix-domain socket I listen on, if any. */
+    private UnixDomainSocketAddress _socketFile;
+    /** Connections accepted. */
+    private final LongAdder _accepted = new LongAdder();
+    /** Connections still open. */
+    private final AtomicLong _active = new AtomicLong();
+    /** Messages converted. */
+    private final LongAdder _messages = new LongAdder();
+    /** Characters converted. */
+    private final LongAdder _chars = new LongAdder();
+    /** Bad requests and failed connections. */
+    private final LongAdder _errors = new LongAdder();
+    /** Time of the last call to stats(). */
+    private long _lastReport = System.nanoTime();
+    /** Characters converted as of the last call to stats(). */
+    private long _lastChars;
+}
@@ -0,0 +1,167 @@
+package enigma;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.PrintWriter;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.net.SocketAddress;
+import java.util.Scanner;
+import org.junit.Test;
+import org.junit.Rule;
+import org.junit.rules.Timeout;
+import static org.junit.Assert.*;
+
+/** The suite of all JUnit tests for the Server class, run over the
+ *  loopback interface.
+ *  @author Tianyu Liu
+ */
+public class ServerTest {
+
+    /** Testing time limit. */
+    @Rule
+    public Timeout globalTimeout = Timeout.seconds(10);
+
+    /* ***** TESTING UTILITIES ***** */
+
+    /** A configuration holding the rotors of trivial.in. */
+    static final String CONFIG =
+        "ABCDEFGHIJKLMNOPQRSTUVWXYZ 5 3\n"
+        + " I MQ (AELTPHQXRU) (BKNW) (CMOY) (DFG) (IV) (JZ) (S)\n"
+        + " II ME (FIXVYOMW) (CDKLHUP) (ESZ) (BJ) (GR) (NT) (A) (Q)\n"
+        + " III MV (ABDHPEJT) (CFLVMZOYQIRWUKXSG) (N)\n"
+        + " Beta N (ALBEVFCYODJWUGNMQTZSKPR) (HIX)\n"
+        + " B R (AE) (BN) (CK) (DQ) (FU) (GY) (HW) (IJ) (LO) (MP)\n"
+        + "     (RX) (SZ) (TV)\n";
+
+    /** Return a server for CONFIG listening on an ephemeral loopback
+     *  port, running on a daemon thread. */
+    private Server startServer(SocketAddress[] bound) throws IOException {
+        Server server = new Server(Main.readConfig(new Scanner(CONFIG)));
+        bound[0] = server.bind(
+            new InetSocketAddress(InetAddress.getLoopbackAddress(), 0));
+        Thread t = new Thread(() -> {
+            try {
+                server.serve();
+            } catch (IOException excp) {
+                return;
+            }
+        });
+        t.setDaemon(true);
+        t.start();
+        return server;
+    }
+
+    /* ***** TESTS ***** */
+
+    @Test
+    public void testSessions() throws IOException {
+        SocketAddress[] bound = new SocketAddress[1];
+        Server server = startServer(bound);
+        server.keepSessions(new SessionStore(
+            Main.readConfig(new Scanner(CONFIG)), 1));
+        try {
+            try (Socket sock = new Socket()) {
+                sock.connect(bound[0]);
+                PrintWriter out =
+                    new PrintWriter(sock.getOutputStream(), true);
+                BufferedReader in = new BufferedReader(
+                    new InputStreamReader(sock.getInputStream()));
+                out.println("@1");
+                out.println("* B Beta I II III AAAA");
+                out.println("HELLO");
+                assertEquals("ILBDA", in.readLine());
+                out.println("@2");
+                out.println("* B Beta I II III AAAA");
+                out.println("ILBDA");
+                assertEquals("HELLO", in.readLine());
+                out.println("@1");
+                out.println("WORLD");
+                assertEquals("AMTAZ", in.readLine());
+                out.println("@x");
+                assertTrue(in.readLine().startsWith("Error: "));
+            }
+            try (Socket sock = new Socket()) {
+                sock.connect(bound[0]);
+                PrintWriter out =
+                    new PrintWriter(sock.getOutputStream(), true);
+                BufferedReader in = new BufferedReader(
+                    new InputStreamReader(sock.getInputStream()));
+                out.println("@2");
+                out.println("AMTAZ");
+                assertEquals("WORLD", in.readLine());
+            }
+        } finally {
+            server.close();
+        }
+    }
+
+    @Test
+    public void testRequests() throws IOException {
+        SocketAddress[] bound = new SocketAddress[1];
+        Server server = startServer(bound);
+        try (Socket sock = new Socket()) {
+            sock.connect(bound[0]);
+            PrintWriter out = new PrintWriter(sock.getOutputStream(), true);
+            BufferedReader in = new BufferedReader(
+                new InputStreamReader(sock.getInputStream()));
+            out.println("* B Beta I II III AAAA");
+            out.println("HELLO WORLD");
+            assertEquals("ILBDA AMTAZ", in.readLine());
+            out.println("* B Beta I II III AAAA");
+            out.println("ILBDA AMTAZ");
+            assertEquals("HELLO WORLD", in.readLine());
+            out.println("* B Beta I I III AAAA");
+            assertTrue(in.readLine().startsWith("Error: "));
+        } finally {
+            server.close();
+        }
+    }
+
+    @Test
+    public void testBadLines() throws IOException {
+        SocketAddress[] bound = new SocketAddress[1];
+        Server server = startServer(bound);
+        try (Socket sock = new Socket()) {
+            sock.connect(bound[0]);
+            PrintWriter out = new PrintWriter(sock.getOutputStream(), true);
+            BufferedReader in = new BufferedReader(
+                new InputStreamReader(sock.getInputStream()));
+            out.println("HELLO");
+            assertEquals("Error: no setting line yet", in.readLine());
+            out.println("* B Beta I II III AAAA");
+            out.println("HELLO");
+            assertEquals("ILBDA", in.readLine());
+            out.println("* Beta B I II III QQQQ (HW)");
+            assertTrue(in.readLine().startsWith("Error: "));
+            out.println("HE1LO");
+            assertTrue(in.readLine().startsWith("Error: "));
+            out.println("* B Beta III IV XX AXLE");
+            assertEquals("Error: unknown rotor IV", in.readLine());
+            out.println("* B Beta I II XX AAAA");
+            assertEquals("Error: unknown rotor XX", in.readLine());
+            out.println("WORLD");
+            assertEquals("AMTAZ", in.readLine());
+        } finally {
+            server.close();
+        }
+    }
+
+    @Test
+    public void testLoad() throws IOException {
+        SocketAddress[] bound = new SocketAddress[1];
+        Server server = startServer(bound);
+        try {
+            LoadClient client =
+                new LoadClient(bound[0], "* B Beta I II III AAAA", 4, 50, 40);
+            client.run();
+            assertEquals(200, client.answered());
+            assertEquals(4, server.connections());
+            assertEquals(200, server.messages());
+        } finally {
+            server.close();
+        }
+    }
+}
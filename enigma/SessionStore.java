@@ -0,0 +1,440 @@
+package enigma;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+
+import static enigma.EnigmaException.*;
+
+/** The states of many independent streams of messages, each identified by
+ *  a long and converted in turn by a few shared machines.  A stream's
+ *  state is the rotor in each slot, the rotor positions and rings, and
+ *  its plugboard, which is kept once in a table however many streams use
+ *  it.  Each state is a fixed-size record in a direct (off-heap) buffer,
+ *  so that a stream costs a few dozen bytes rather than a Machine and its
+ *  rotors.
+ *
+ *  A machine attaches to a stream with restore, which loads the stream's
+ *  state, and detaches with save, which stores it back; both take
+ *  constant time.  At most CAPACITY states are held in memory.  Saving
+ *  or restoring one more evicts the one used least recently to a spill
+ *  file, from which it is read back when next restored.
+ *
+ *  Two machines attached to the same stream at once convert
+ *  independently, and the last to save wins.
+ *  @author Tianyu Liu
+ */
+class SessionStore implements Closeable {
+
+    /** A store for the states of machines like TEMPLATE holding at most
+     *  CAPACITY of them in memory.  Saving a state replaces its plugboard
+     *  by the equal one in my table, so that the table only grows with
+     *  plugboards that differ. */
+    SessionStore(Machine template, int capacity) {
+        _slots = template.numRotors();
+        _recordSize = HEADER + _slots * FIELDS * Integer.BYTES;
+        if (capacity < 1 || (long) capacity * _recordSize
+            > Integer.MAX_VALUE) {
+            throw error("bad session capacity: %d", capacity);
+        }
+        _capacity = capacity;
+        _records = ByteBuffer.allocateDirect(capacity * _recordSize);
+        _prev = new int[capacity + 1];
+        _next = new int[capacity + 1];
+        _prev[NIL] = _next[NIL] = NIL;
+        _record = ByteBuffer.allocate(_recordSize);
+    }
+
+    /** Set MACHINE to the state last saved for stream ID and return true,
+     *  or return false, leaving MACHINE alone, if there is none. */
+    synchronized boolean restore(long id, Machine machine) {
+        int slot = _resident.get(id);
+        if (slot < 0) {
+            int spilled = _spilled.get(id);
+            if (spilled < 0) {
+                return false;
+            }
+            slot = allocate();
+            readSpill(spilled, slot);
+            _spilled.remove(id);
+            freeSpill(spilled);
+            _resident.put(id, slot);
+        } else {
+            touch(slot);
+        }
+        int at = offset(slot);
+        machine.setPlugboard(_plugboards.get(_records.getInt(at
+                                                             + PLUGBOARD)));
+        int[] slots = new int[_slots], positions = new int[_slots],
+            rings = new int[_slots];
+        for (int k = 0; k < _slots; k++) {
+            int f = at + HEADER + k * FIELDS * Integer.BYTES;
+            slots[k] = _records.getInt(f);
+            positions[k] = _records.getInt(f + Integer.BYTES);
+            rings[k] = _records.getInt(f + 2 * Integer.BYTES);
+        }
+        machine.setSlots(slots);
+        machine.setRings(rings);
+        machine.setPositions(positions);
+        return true;
+    }
+
+    /** Store the state of MACHINE, whose rotors must be in place, as that
+     *  of stream ID. */
+    synchronized void save(long id, Machine machine) {
+        int[] slots = machine.slots(), positions = machine.positions(),
+            rings = machine.rings();
+        int plugboard = plugboardId(machine.plugboard());
+        machine.setPlugboard(_plugboards.get(plugboard));
+        int slot = _resident.get(id);
+        if (slot < 0) {
+            slot = allocate();
+            _resident.put(id, slot);
+            int spilled = _spilled.remove(id);
+            if (spilled >= 0) {
+                freeSpill(spilled);
+            }
+        } else {
+            touch(slot);
+        }
+        int at = offset(slot);
+        _records.putLong(at, id);
+        _records.putInt(at + PLUGBOARD, plugboard);
+        for (int k = 0; k < _slots; k++) {
+            int f = at + HEADER + k * FIELDS * Integer.BYTES;
+            _records.putInt(f, slots[k]);
+            _records.putInt(f + Integer.BYTES, positions[k]);
+            _records.putInt(f + 2 * Integer.BYTES, rings[k]);
+        }
+    }
+
+    /** Forget stream ID, returning true iff I had a state for it. */
+    synchronized boolean remove(long id) {
+        int slot = _resident.remove(id);
+        if (slot >= 0) {
+            unlink(slot);
+            _next[slot] = _free;
+            _free = slot;
+            return true;
+        }
+        int spilled = _spilled.remove(id);
+        if (spilled >= 0) {
+            freeSpill(spilled);
+            return true;
+        }
+        return false;
+    }
+
+    /** Return the number of streams whose states I hold. */
+    synchronized int size() {
+        return _resident.size() + _spilled.size();
+    }
+
+    /** Return the number of states held in memory. */
+    synchronized int resident() {
+        return _resident.size();
+    }
+
+    /** Return a one-line summary of the streams I hold. */
+    synchronized String stats() {
+        return String.format("sessions %d (%d in memory, %d spilled), "
+                             + "%d plugboards, %d evictions",
+                             size(), resident(), _spilled.size(),
+                             _plugboards.size(), _evictions);
+    }
+
+    /** Close and delete my spill file, if any. */
+    @Override
+    public synchronized void close() {
+        if (_spill != null) {
+            try {
+                _spill.close();
+            } catch (IOException excp) {
+                throw error("could not close session spill file");
+            }
+        }
+    }
+
+    /** Return the number of a free slot in memory, now the one used most
+     *  recently, evicting the state used least recently to the spill file
+     *  if there is none. */
+    private int allocate() {
+        int slot;
+        if (_free != NIL) {
+            slot = _free;
+            _free = _next[slot];
+        } else if (_used < _capacity) {
+            _used += 1;
+            slot = _used;
+        } else {
+            slot = _prev[NIL];
+            long id = _records.getLong(offset(slot));
+            int spilled = _freeSpillCount > 0
+                ? _freeSpills[--_freeSpillCount] : _spillRecords++;
+            writeSpill(slot, spilled);
+            _spilled.put(id, spilled);
+            _resident.remove(id);
+            unlink(slot);
+            _evictions += 1;
+        }
+        link(slot);
+        return slot;
+    }
+
+    /** Make SLOT, which is in the recency list, the one used most
+     *  recently. */
+    private void touch(int slot) {
+        if (_next[NIL] != slot) {
+            unlink(slot);
+            link(slot);
+        }
+    }
+
+    /** Put SLOT at the head of the recency list. */
+    private void link(int slot) {
+        _next[slot] = _next[NIL];
+        _prev[slot] = NIL;
+        _prev[_next[NIL]] = slot;
+        _next[NIL] = slot;
+    }
+
+    /** Remove SLOT from the recency list. */
+    private void unlink(int slot) {
+        _next[_prev[slot]] = _next[slot];
+        _prev[_next[slot]] = _prev[slot];
+    }
+
+    /** Make record SPILLED of the spill file free for reuse. */
+    private void freeSpill(int spilled) {
+        if (_freeSpillCount == _freeSpills.length) {
+            _freeSpills = Arrays.copyOf(_freeSpills, 2 * _freeSpillCount);
+        }
+        _freeSpills[_freeSpillCount++] = spilled;
+    }
+
+    /** Return the offset in _records of SLOT, numbered from 1. */
+    private int offset(int slot) {
+        return (slot - 1) * _recordSize;
+    }
+
+    /** Return the number of PLUGBOARD in my table of plugboards, adding
+     *  it if necessary.  Equal plugboards get the same number. */
+    private int plugboardId(Permutation plugboard) {
+        Integer result = _plugboardIds.get(plugboard);
+        if (result == null) {
+            String key = plugboard.cycles().toString(plugboard.alphabet());
+            result = _plugboardNames.get(key);
+            if (result == null) {
+                result = _plugboards.size();
+                _plugboards.add(plugboard);
+                _plugboardNames.put(key, result);
+                _plugboardIds.put(plugboard, result);
+            }
+        }
+        return result;
+    }
+
+    /** Write the state in SLOT to record SPILLED of the spill file. */
+    private void writeSpill(int slot, int spilled) {
+        try {
+            if (_spill == null) {
+                Path file = Files.createTempFile("enigma", ".sessions");
+                _spill = FileChannel.open(file, StandardOpenOption.READ,
+                                          StandardOpenOption.WRITE,
+                                          StandardOpenOption.DELETE_ON_CLOSE);
+            }
+            ByteBuffer record = _records.duplicate();
+            record.position(offset(slot)).limit(offset(slot) + _recordSize);
+            long at = (long) spilled * _recordSize;
+            while (record.hasRemaining()) {
+                at += _spill.write(record, at);
+            }
+        } catch (IOException excp) {
+            throw error("could not spill sessions: %s", excp.getMessage());
+        }
+    }
+
+    /** Read record SPILLED of the spill file into SLOT. */
+    private void readSpill(int spilled, int slot) {
+        try {
+            _record.clear();
+            long at = (long) spilled * _recordSize;
+            while (_record.hasRemaining()) {
+                int n = _spill.read(_record, at + _record.position());
+                if (n < 0) {
+                    throw error("session spill file truncated");
+                }
+            }
+            _record.flip();
+            ByteBuffer dst = _records.duplicate();
+            dst.position(offset(slot));
+            dst.put(_record);
+        } catch (IOException excp) {
+            throw error("could not read spilled sessions: %s",
+                        excp.getMessage());
+        }
+    }
+
+    /** A map from longs to non-negative ints, with open addressing and
+     *  linear probing in two arrays, so that it allocates nothing per
+     *  entry. */
+    static final class LongIntMap {
+
+        /** An empty map. */
+        LongIntMap() {
+            _keys = new long[MIN_TABLE];
+            _values = new int[MIN_TABLE];
+            Arrays.fill(_values, -1);
+        }
+
+        /** Return the number of entries. */
+        int size() {
+            return _size;
+        }
+
+        /** Return the value for KEY, or -1 if there is none. */
+        int get(long key) {
+            return _values[find(key)];
+        }
+
+        /** Set the value for KEY to VALUE, which is not negative. */
+        void put(long key, int value) {
+            int i = find(key);
+            if (_values[i] < 0) {
+                _size += 1;
+                _keys[i] = key;
+            }
+            _values[i] = value;
+            if (2 * _size > _keys.length) {
+                resize();
+            }
+        }
+
+        /** Remove KEY, returning its value, or -1 if it had none. */
+        int remove(long key) {
+            int i = find(key);
+            int result = _values[i];
+            if (result < 0) {
+                return result;
+            }
+            _size -= 1;
+            int mask = _keys.length - 1;
+            for (int j = (i + 1) & mask; _values[j] >= 0;
+                 j = (j + 1) & mask) {
+                int home = hash(_keys[j]) & mask;
+                if (((j - home) & mask) >= ((j - i) & mask)) {
+                    _keys[i] = _keys[j];
+                    _values[i] = _values[j];
+                    i = j;
+                }
+            }
+            _values[i] = -1;
+            return result;
+        }
+
+        /** Return the index of KEY in my arrays, or of the empty entry
+         *  where it would go. */
+        private int find(long key) {
+            int mask = _keys.length - 1;
+            int i = hash(key) & mask;
+            while (_values[i] >= 0 && _keys[i] != key) {
+                i = (i + 1) & mask;
+            }
+            return i;
+        }
+
+        /** Double the size of my arrays. */
+        private void resize() {
+            long[] keys = _keys;
+            int[] values = _values;
+            _keys = new long[2 * keys.length];
+            _values = new int[2 * keys.length];
+            Arrays.fill(_values, -1);
+            _size = 0;
+            for (int i = 0; i < keys.length; i++) {
+                if (values[i] >= 0) {
+                    put(keys[i], values[i]);
+                }
+            }
+        }
+
+        /** Return a well-mixed hash of KEY. */
+        private static int hash(long key) {
+            long h = key * 0x9e3779b97f4a7c15L;
+            return (int) (h ^ (h >>> 32));
+        }
+
+        /** Initial table size, a power of two. */
+        private static final int MIN_TABLE = 16;
+
+        /** Keys, valid where _values is not negative. */
+        private long[] _keys;
+        /** Values, or -1 for an empty entry. */
+        private int[] _values;
+        /** Number of entries. */
+        private int _size;
+    }
+
+    /** Bytes before the slot fields of a record: the stream id and the
+     *  plugboard number. */
+    private static final int HEADER = Long.BYTES + Integer.BYTES;
+    /** Offset of the plugboard number in a record. */
+    private static final int PLUGBOARD = Long.BYTES;
+    /** Ints per slot in a record: rotor, position and ring. */
+    private static final int FIELDS = 3;
+    /** Head of the recency list, which is not a slot. */
+    private static final int NIL = 0;
+    /** Initial size of _freeSpills. */
+    private static final int MIN_FREE = 16;
+
+    /** Rotor slots of my machines. */
+    private final int _slots;
+    /** Bytes per state. */
+    private final int _recordSize;
+    /** Most states held in memory. */
+    private final int _capacity;
+    /** States in memory, slot K (from 1) at offset (K - 1) * _recordSize. */
+    private final ByteBuffer _records;
+    /** Buffer for one state read from the spill file. */
+    private final ByteBuffer _record;
+    /** The recency list of slots in use, most recent first, as links in
+     *  both directions; element NIL is the head.  _next also links the
+     *  free slots, starting at _free. */
+    private final int[] _prev, _next;
+    /** First free slot, or NIL. */
+    private int _free = NIL;
+    /** Slots ever used. */
+    private int _used;
+    /** Slot of each stream whose state is in memory. */
+    private final LongIntMap _resident = new LongIntMap();
+    /** Spill file record of each stream whose state is spilled. */
+    private final LongIntMap _spilled = new LongIntMap();
+    /** Spill file records free for reuse, in the first _freeSpillCount
+     *  elements. */
+    private int[] _freeSpills = new int[MIN_FREE];
+    /** Number of free spill file records. */
+    private int _freeSpillCount;
+    /** Records in the spill file. */
+    private int _spillRecords;
+    /** The spill file, or null if nothing has been spilled. */
+    private FileChannel _spill;
+    /** States evicted to the spill file. */
+    private long _evictions;
+    /** Plugboards by number. */
+    private final List<Permutation> _plugboards = new ArrayList<>();
+    /** Number of each plugboard in _plugboards. */
+    private final Map<Permutation, Integer> _plugboardIds =
+        new IdentityHashMap<>();
+    /** Number of each plugboard, by its cycles. */
+    private final Map<String, Integer> _plugboardNames = new HashMap<>();
+}
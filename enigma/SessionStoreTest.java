@@ -0,0 +1,83 @@
+package enigma;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+import org.junit.Test;
+import org.junit.Rule;
+import org.junit.rules.Timeout;
+import static org.junit.Assert.*;
+
+/** The suite of all JUnit tests for the SessionStore class.
+ *  @author Tianyu Liu
+ */
+public class SessionStoreTest {
+
+    /** Testing time limit. */
+    @Rule
+    public Timeout globalTimeout = Timeout.seconds(10);
+
+    /* ***** TESTS ***** */
+
+    @Test
+    public void testInterleavedStreams() {
+        Machine worker = PipelineTest.machine();
+        Map<Long, Machine> expected = new HashMap<>();
+        String[] settings = {
+            "* B Beta I II III AAAA", "* B Beta III II I QRST (AB) (CD)",
+            "* B Beta II I III AXLE BCDE (HQ) (EX) (IP)",
+        };
+        Random random = new Random(46);
+        try (SessionStore store = new SessionStore(worker, 4)) {
+            for (int i = 0; i < 2000; i++) {
+                long id = random.nextInt(50) * 1000003L - 7;
+                Machine reference = expected.get(id);
+                if (reference == null || random.nextInt(20) == 0) {
+                    String setting =
+                        settings[random.nextInt(settings.length)];
+                    reference = PipelineTest.machine();
+                    Main.setUp(reference, setting);
+                    expected.put(id, reference);
+                    Main.setUp(worker, setting);
+                } else {
+                    assertTrue(store.restore(id, worker));
+                }
+                String msg = BanburismusTest.uniform(random.nextInt(30),
+                                                     random);
+                assertEquals(reference.convert(msg), worker.convert(msg));
+                store.save(id, worker);
+                assertTrue(store.resident() <= 4);
+            }
+            assertEquals(expected.size(), store.size());
+            assertTrue(store.stats(), store.stats().contains("3 plugboards"));
+            long first = expected.keySet().iterator().next();
+            assertTrue(store.remove(first));
+            assertFalse(store.remove(first));
+            assertFalse(store.restore(first, worker));
+            assertEquals(expected.size() - 1, store.size());
+        }
+    }
+
+    @Test
+    public void testLongIntMap() {
+        SessionStore.LongIntMap map = new SessionStore.LongIntMap();
+        Map<Long, Integer> expected = new HashMap<>();
+        Random random = new Random(47);
+        for (int i = 0; i < 20000; i++) {
+            long key = random.nextInt(500) * 64L;
+            if (random.nextInt(3) == 0) {
+                Integer value = expected.remove(key);
+                assertEquals(value == null ? -1 : value, map.remove(key));
+            } else {
+                int value = random.nextInt(1000);
+                expected.put(key, value);
+                map.put(key, value);
+            }
+            assertEquals(expected.size(), map.size());
+        }
+        for (long key = 0; key < 500 * 64L; key += 64) {
+            Integer value = expected.get(key);
+            assertEquals(value == null ? -1 : value, map.get(key));
+        }
+    }
+}
@@ -0,0 +1,435 @@
+package enigma;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.Comparator;
+import java.util.Deque;
+import java.util.List;
+import java.util.PriorityQueue;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.TimeUnit;
+
+import ucb.util.CommandArgs;
+
+import static enigma.EnigmaException.*;
+
+/** Runs stage 1 of an Attack in separate worker processes, so that a
+ *  search is not limited to one JVM's heap and survives restarts.
+ *
+ *  A coordinator splits the stage-1 work units into shards of a fixed
+ *  number of units and starts workers (this class run with --worker),
+ *  which connect back to it over the loopback interface.  The protocol is
+ *  one line at a time: the coordinator sends "shard LO HI" and the worker
+ *  answers with the best keys of units LO .. HI-1, one "cand" line each
+ *  as in an Attack checkpoint, followed by "done LO HI"; "exit" dismisses
+ *  the worker.  A shard whose worker dies is handed out again, and
+ *  workers are restarted while shards remain.
+ *
+ *  Each finished shard is appended to a journal, its keys followed by its
+ *  "done" line, and forced to disk.  The journal begins with the shape of
+ *  the search and its Attack.digest, and only a coordinator for the same
+ *  search accepts it: one started on an existing journal skips the
+ *  shards it records and merges their keys, discarding any partly
+ *  written shard at the end.  Stages 2 and 3 run in the
+ *  coordinator once every shard is done.
+ *  @author Tianyu Liu
+ */
+class Shards {
+
+    /** Search for keys as specified by ARGS: a configuration file and a
+     *  ciphertext, as for Attack, with --journal=FILE naming the journal.
+     *  --workers=W sets the number of worker processes (default: one per
+     *  processor); --shard=S the number of work units per shard (default
+     *  26); --threads=N the threads of each worker and of the coordinator.
+     *  --corpus, --model, --keep, --top and --plugs are as for Attack.
+     *  --worker=PORT runs a worker for the coordinator on PORT. */
+    public static void main(String... args) {
+        try {
+            CommandArgs options =
+                new CommandArgs("--journal=(.+) --workers=(\\d+) "
+                                + "--shard=(\\d+) --worker=(\\d+) "
+                                + "--corpus=(.+) --model=(.+) "
+                                + "--keep=(\\d+) --top=(\\d+) "
+                                + "--plugs=(\\d+) --threads=(\\d+) "
+                                + "--=(.*){2}", args);
+            if (!options.ok() || options.contains("--worker")
+                                 == options.contains("--journal")) {
+                throw error("Usage: java enigma.Shards --journal=FILE "
+                            + "[--workers=W] [--shard=S] [--threads=N] "
+                            + "[--corpus=FILE] [--model=FILE] [--keep=K] "
+                            + "[--top=T] [--plugs=P] CONFIG CIPHERTEXT");
+            }
+            List<String> files = options.get("--");
+            Machine machine = Main.readConfig(Main.getInput(files.get(0)));
+            Attack attack = new Attack(machine, files.get(1));
+            if (options.contains("--keep")) {
+                attack.setKeep(Integer.parseInt(options.getFirst("--keep")));
+            }
+            int processors = Runtime.getRuntime().availableProcessors();
+            int workers = options.contains("--workers")
+                ? Integer.parseInt(options.getFirst("--workers"))
+                : processors;
+            int threads = options.contains("--threads")
+                ? Integer.parseInt(options.getFirst("--threads"))
+                : Math.max(1, processors / Math.max(1, workers));
+            ForkJoinPool pool = new ForkJoinPool(threads);
+            if (options.contains("--worker")) {
+                work(attack, Integer.parseInt(options.getFirst("--worker")),
+                     pool);
+                return;
+            }
+            if (options.contains("--corpus")) {
+                attack.setModel(NGramModel.fromFile(
+                    machine.alphabet(), Attack.TRIGRAMS,
+                    options.getFirst("--corpus")));
+            } else if (options.contains("--model")) {
+                attack.setModel(NGramModel.load(
+                    Paths.get(options.getFirst("--model")),
+                    machine.alphabet()));
+            }
+            if (options.contains("--plugs")) {
+                attack.setMaxPlugs(
+                    Integer.parseInt(options.getFirst("--plugs")));
+            }
+            Shards shards = new Shards(
+                attack, Paths.get(options.getFirst("--journal")),
+                options.contains("--shard")
+                ? Integer.parseInt(options.getFirst("--shard"))
+                : DEFAULT_SHARD);
+            shards.setWorkerArgs(List.of("--keep=" + attack.keep(),
+                                         "--threads=" + threads,
+                                         files.get(0), files.get(1)));
+            int top = options.contains("--top")
+                ? Integer.parseInt(options.getFirst("--top")) : DEFAULT_TOP;
+            List<Attack.Candidate> ranked = shards.run(workers, pool);
+            for (int i = 0; i < Math.min(top, ranked.size()); i++) {
+                System.out.println(attack.setting(ranked.get(i)));
+            }
+            return;
+        } catch (EnigmaException excp) {
+            System.err.printf("Error: %s%n", excp.getMessage());
+        }
+        System.exit(1);
+    }
+
+    /** Serve the coordinator listening on loopback port PORT, searching
+     *  the shards it sends with ATTACK on POOL. */
+    static void work(Attack attack, int port, ForkJoinPool pool) {
+        try (SocketChannel channel = SocketChannel.open(
+                 new InetSocketAddress(InetAddress.getLoopbackAddress(),
+                                       port))) {
+            BufferedReader in = new BufferedReader(new InputStreamReader(
+                Channels.newInputStream(channel), StandardCharsets.UTF_8));
+            Writer out = new BufferedWriter(new OutputStreamWriter(
+                Channels.newOutputStream(channel), StandardCharsets.UTF_8));
+            String line;
+            while ((line = in.readLine()) != null) {
+                String[] f = line.split(" ");
+                if (!f[0].equals("shard") || f.length != 3) {
+                    return;
+                }
+                int lo = Integer.parseInt(f[1]), hi = Integer.parseInt(f[2]);
+                for (Attack.Candidate c : attack.search(lo, hi, pool)) {
+                    out.write(attack.format(c));
+                    out.write('\n');
+                }
+                out.write(String.format("done %d %d\n", lo, hi));
+                out.flush();
+            }
+        } catch (IOException excp) {
+            throw error("lost the coordinator: %s", excp.getMessage());
+        }
+    }
+
+    /** A coordinator for stage 1 of ATTACK in shards of SIZE work units,
+     *  journalled to JOURNAL. */
+    Shards(Attack attack, Path journal, int size) {
+        if (size < 1) {
+            throw error("shards must have at least one unit");
+        }
+        _attack = attack;
+        _journal = journal;
+        _size = size;
+        _count = (attack.units() + size - 1) / size;
+    }
+
+    /** Start workers with the arguments ARGS (the configuration, the
+     *  ciphertext and any options) after --worker=PORT. */
+    void setWorkerArgs(List<String> args) {
+        _workerArgs = args;
+    }
+
+    /** Return the number of shards. */
+    int count() {
+        return _count;
+    }
+
+    /** Return the number of shards recorded as done in my journal. */
+    synchronized int done() {
+        return _done.cardinality();
+    }
+
+    /** Finish every shard not in my journal with up to WORKERS worker
+     *  processes, then run stages 2 and 3 on POOL and return the keys,
+     *  best first. */
+    List<Attack.Candidate> run(int workers, ForkJoinPool pool) {
+        try (FileChannel journal = FileChannel.open(
+                 _journal, StandardOpenOption.CREATE,
+                 StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+            _out = journal;
+            replay();
+            for (int s = _done.nextClearBit(0); s < _count;
+                 s = _done.nextClearBit(s + 1)) {
+                _pending.add(s);
+            }
+            if (!_pending.isEmpty()) {
+                dispatch(Math.max(1, workers));
+            }
+        } catch (IOException excp) {
+            throw error("could not use journal %s: %s", _journal,
+                        excp.getMessage());
+        } finally {
+            _out = null;
+        }
+        return _attack.refine(new ArrayList<>(_best), pool);
+    }
+
+    /** Read my journal, marking the shards it records and merging their
+     *  keys, then cut off anything after its last complete shard.  Write
+     *  a header to an empty journal. */
+    private void replay() throws IOException {
+        String header = String.format("shards %d %d %d %s\n",
+                                      _attack.units(), _size, _attack.keep(),
+                                      _attack.digest());
+        long size = _out.size();
+        if (size == 0) {
+            append(header);
+            return;
+        }
+        ByteBuffer data = ByteBuffer.allocate((int) size);
+        while (data.hasRemaining() && _out.read(data) >= 0) {
+            continue;
+        }
+        String text = new String(data.array(), 0, data.position(),
+                                 StandardCharsets.UTF_8);
+        if (!text.startsWith(header)) {
+            throw error("journal %s is for a different search", _journal);
+        }
+        List<Attack.Candidate> shard = new ArrayList<>();
+        int kept = header.length();
+        for (int start = kept, end; (end = text.indexOf('\n', start)) >= 0;
+             start = end + 1) {
+            String[] f = text.substring(start, end).split(" ");
+            if (f[0].equals("cand")) {
+                shard.add(_attack.parse(f));
+            } else if (f[0].equals("done") && f.length == 3) {
+                int s = Integer.parseInt(f[1]) / _size;
+                _done.set(s);
+                for (Attack.Candidate c : shard) {
+                    Attack.offer(_best, c, _attack.keep());
+                }
+                shard.clear();
+                kept = end + 1;
+            } else {
+                break;
+            }
+        }
+        _out.truncate(text.substring(0, kept)
+                      .getBytes(StandardCharsets.UTF_8).length);
+    }
+
+    /** Hand out my pending shards to up to WORKERS worker processes
+     *  until all are done, restarting workers while shards remain. */
+    private void dispatch(int workers) throws IOException {
+        List<Process> processes = new ArrayList<>();
+        try (ServerSocketChannel listener = ServerSocketChannel.open()) {
+            listener.bind(new InetSocketAddress(
+                InetAddress.getLoopbackAddress(), 0));
+            int port = ((InetSocketAddress) listener.getLocalAddress())
+                .getPort();
+            Thread acceptor = new Thread(() -> accept(listener),
+                                         "enigma-shards");
+            acceptor.setDaemon(true);
+            acceptor.start();
+            int starts = 0;
+            synchronized (this) {
+                while (_done.cardinality() < _count) {
+                    processes.removeIf(p -> !p.isAlive());
+                    if (processes.isEmpty() && !_pending.isEmpty()) {
+                        if (starts >= MAX_RESTARTS * workers) {
+                            throw error("workers keep failing");
+                        }
+                        int n = Math.min(workers, _pending.size());
+                        for (int i = 0; i < n; i++, starts++) {
+                            processes.add(startWorker(port));
+                        }
+                    }
+                    try {
+                        wait(POLL);
+                    } catch (InterruptedException excp) {
+                        Thread.currentThread().interrupt();
+                        throw error("search interrupted");
+                    }
+                }
+            }
+        } finally {
+            for (Process p : processes) {
+                p.destroy();
+            }
+        }
+    }
+
+    /** Return a new worker process for the coordinator on PORT. */
+    private Process startWorker(int port) throws IOException {
+        List<String> command = new ArrayList<>();
+        command.add(Paths.get(System.getProperty("java.home"), "bin",
+                              "java").toString());
+        command.add("-cp");
+        command.add(System.getProperty("java.class.path"));
+        command.add(Shards.class.getName());
+        command.add("--worker=" + port);
+        command.addAll(_workerArgs);
+        return new ProcessBuilder(command)
+            .redirectOutput(ProcessBuilder.Redirect.DISCARD)
+            .redirectError(ProcessBuilder.Redirect.INHERIT)
+            .start();
+    }
+
+    /** Accept workers on LISTENER until it is closed, serving each on its
+     *  own thread. */
+    private void accept(ServerSocketChannel listener) {
+        try {
+            while (true) {
+                SocketChannel channel = listener.accept();
+                Thread t = new Thread(() -> serve(channel), "enigma-shard");
+                t.setDaemon(true);
+                t.start();
+            }
+        } catch (IOException excp) {
+            return;
+        }
+    }
+
+    /** Hand pending shards to the worker on CHANNEL, one at a time, until
+     *  none remain or the worker fails, in which case its shard is
+     *  returned to the pending queue. */
+    private void serve(SocketChannel channel) {
+        Integer shard = null;
+        try (channel) {
+            BufferedReader in = new BufferedReader(new InputStreamReader(
+                Channels.newInputStream(channel), StandardCharsets.UTF_8));
+            Writer out = new BufferedWriter(new OutputStreamWriter(
+                Channels.newOutputStream(channel), StandardCharsets.UTF_8));
+            while ((shard = take()) != null) {
+                int lo = shard * _size;
+                int hi = Math.min(lo + _size, _attack.units());
+                out.write(String.format("shard %d %d\n", lo, hi));
+                out.flush();
+                StringBuilder record = new StringBuilder();
+                List<Attack.Candidate> found = new ArrayList<>();
+                String done = String.format("done %d %d", lo, hi);
+                String line;
+                while (!done.equals(line = in.readLine())) {
+                    if (line == null || !line.startsWith("cand ")) {
+                        throw new IOException("bad reply: " + line);
+                    }
+                    found.add(_attack.parse(line.split(" ")));
+                    record.append(line).append('\n');
+                }
+                record.append(done).append('\n');
+                finish(shard, found, record.toString());
+                shard = null;
+            }
+            out.write("exit\n");
+            out.flush();
+        } catch (IOException | EnigmaException | NumberFormatException excp) {
+            System.err.printf("worker failed: %s%n", excp.getMessage());
+        } finally {
+            if (shard != null) {
+                release(shard);
+            }
+        }
+    }
+
+    /** Return the next pending shard, or null if there is none. */
+    private synchronized Integer take() {
+        return _pending.poll();
+    }
+
+    /** Return SHARD, which was not finished, to the pending queue. */
+    private synchronized void release(int shard) {
+        _pending.addFirst(shard);
+        notifyAll();
+    }
+
+    /** Record SHARD as done with keys FOUND, whose journal entry is
+     *  RECORD. */
+    private synchronized void finish(int shard, List<Attack.Candidate> found,
+                                     String record) throws IOException {
+        append(record);
+        _done.set(shard);
+        for (Attack.Candidate c : found) {
+            Attack.offer(_best, c, _attack.keep());
+        }
+        notifyAll();
+    }
+
+    /** Append TEXT to my journal and force it to disk. */
+    private void append(String text) throws IOException {
+        ByteBuffer data =
+            ByteBuffer.wrap(text.getBytes(StandardCharsets.UTF_8));
+        long pos = _out.size();
+        while (data.hasRemaining()) {
+            pos += _out.write(data, pos);
+        }
+        _out.force(false);
+    }
+
+    /** Default number of work units in a shard (one rotor order when the
+     *  alphabet has 26 letters). */
+    static final int DEFAULT_SHARD = 26;
+    /** Default number of setting lines printed. */
+    private static final int DEFAULT_TOP = 10;
+    /** Times the full complement of workers may be started. */
+    private static final int MAX_RESTARTS = 3;
+    /** Milliseconds between checks on the workers. */
+    private static final long POLL = TimeUnit.SECONDS.toMillis(1);
+
+    /** The search. */
+    private final Attack _attack;
+    /** Journal file. */
+    private final Path _journal;
+    /** Units per shard. */
+    private final int _size;
+    /** Number of shards. */
+    private final int _count;
+    /** Arguments for workers after --worker=PORT. */
+    private List<String> _workerArgs = List.of();
+    /** Shards done. */
+    private final BitSet _done = new BitSet();
+    /** Shards not done and not being worked on. */
+    private final Deque<Integer> _pending = new ArrayDeque<>();
+    /** Best stage-1 keys so far. */
+    private final PriorityQueue<Attack.Candidate> _best =
+        new PriorityQueue<>(Comparator.comparingDouble(c -> c.score));
+    /** The open journal, while running. */
+    private FileChannel _out;
+}
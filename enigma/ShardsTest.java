@@ -0,0 +1,133 @@
+package enigma;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import org.junit.Test;
+import org.junit.Rule;
+import org.junit.rules.Timeout;
+import static org.junit.Assert.*;
+
+/** The suite of all JUnit tests for the Shards class.
+ *  @author Tianyu Liu
+ */
+public class ShardsTest {
+
+    /** Testing time limit. */
+    @Rule
+    public Timeout globalTimeout = Timeout.seconds(60);
+
+    /* ***** TESTING UTILITIES ***** */
+
+    /** Return a coordinator for an attack on CIPHER with the BombeTest
+     *  configuration, which is in file CONFIG, journalled to JOURNAL in
+     *  shards of SIZE units. */
+    static Shards shards(Path config, String cipher, Path journal,
+                         int size) {
+        Attack attack = AttackTest.attack(cipher);
+        Shards result = new Shards(attack, journal, size);
+        result.setWorkerArgs(List.of("--keep=" + attack.keep(),
+                                     "--threads=1", config.toString(),
+                                     cipher));
+        return result;
+    }
+
+    /** Return a journal recording every shard of SIZE units of ATTACK
+     *  as done, with no keys. */
+    static byte[] journal(Attack attack, int size) {
+        StringBuilder result = new StringBuilder(String.format(
+            "shards %d %d %d %s\n", attack.units(), size, attack.keep(),
+            attack.digest()));
+        for (int lo = 0; lo < attack.units(); lo += size) {
+            result.append(String.format(
+                "done %d %d\n", lo, Math.min(lo + size, attack.units())));
+        }
+        return result.toString().getBytes(StandardCharsets.UTF_8);
+    }
+
+    /* ***** TESTS ***** */
+
+    @Test
+    public void testMatchesAttackAndResumes() throws IOException {
+        String cipher = AttackTest.encrypt("* B II III I KQD");
+        Path dir = Files.createTempDirectory("shards");
+        Path config = dir.resolve("config"), journal = dir.resolve("journal");
+        try {
+            Files.write(config,
+                        BombeTest.CONFIG.getBytes(StandardCharsets.UTF_8));
+            Attack att = AttackTest.attack(cipher);
+            String expected = att.setting(att.run(new ForkJoinPool(2))
+                                          .get(0));
+
+            Shards first = shards(config, cipher, journal, 20);
+            List<Attack.Candidate> ranked =
+                first.run(2, new ForkJoinPool(2));
+            assertEquals(expected, att.setting(ranked.get(0)));
+            assertEquals(first.count(), first.done());
+
+            List<String> lines = Files.readAllLines(journal);
+            int cut = lines.size() - 1;
+            while (!lines.get(cut - 1).startsWith("done")) {
+                cut -= 1;
+            }
+            Files.write(journal, (String.join("\n", lines.subList(0, cut))
+                                  + "\ncand 12").getBytes(
+                                      StandardCharsets.UTF_8));
+            Shards second = shards(config, cipher, journal, 20);
+            ranked = second.run(2, new ForkJoinPool(2));
+            assertEquals(expected, att.setting(ranked.get(0)));
+            assertEquals(second.count(), second.done());
+            List<String> resumed = Files.readAllLines(journal);
+            assertEquals(lines.size(), resumed.size());
+            assertEquals(lines.subList(0, cut), resumed.subList(0, cut));
+
+            Shards idle = shards(config, cipher, journal, 20);
+            idle.setWorkerArgs(List.of("--no-such-option"));
+            ranked = idle.run(2, new ForkJoinPool(2));
+            assertEquals(expected, att.setting(ranked.get(0)));
+        } finally {
+            Files.deleteIfExists(config);
+            Files.deleteIfExists(journal);
+            Files.deleteIfExists(dir);
+        }
+    }
+
+    @Test
+    public void testRejectsOtherJournal() throws IOException {
+        Path journal = Files.createTempFile("shards", ".journal");
+        try {
+            Files.write(journal, "shards 1 1 1\ndone 0 1\n"
+                        .getBytes(StandardCharsets.UTF_8));
+            shards(journal, AttackTest.PLAIN, journal, 20)
+                .run(1, new ForkJoinPool(1));
+            fail("journal for another search accepted");
+        } catch (EnigmaException excp) {
+            /* Expected. */
+        } finally {
+            Files.deleteIfExists(journal);
+        }
+    }
+
+    @Test
+    public void testRejectsOtherCiphertext() throws IOException {
+        Path journal = Files.createTempFile("shards", ".journal");
+        try {
+            String cipher = AttackTest.encrypt("* B II III I KQD");
+            Files.write(journal, journal(AttackTest.attack(cipher), 20));
+            Shards same = shards(journal, cipher, journal, 20);
+            same.run(1, new ForkJoinPool(1));
+            assertEquals(same.count(), same.done());
+            Files.write(journal, journal(AttackTest.attack(
+                AttackTest.encrypt("* B II III I KQE")), 20));
+            shards(journal, cipher, journal, 20).run(1, new ForkJoinPool(1));
+            fail("journal for another ciphertext accepted");
+        } catch (EnigmaException excp) {
+            /* Expected. */
+        } finally {
+            Files.deleteIfExists(journal);
+        }
+    }
+}
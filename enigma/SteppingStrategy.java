@@ -0,0 +1,331 @@
+package enigma;
+
+import java.util.Arrays;
+
+import static enigma.EnigmaException.*;
+
+/** How the rotors of a Machine move before each character is converted.
+ *  A strategy works on the rotors in a machine's slots, of which those
+ *  from slot FIRST to the last (the fast rotor) are driven; the others
+ *  never move.  Each strategy provides a single step, which allocates
+ *  nothing, and a jump of any number of steps.
+ *
+ *  A configuration chooses a strategy with a token "@NAME" after the
+ *  numbers of slots and pawls: "odometer" (the default), "cog" or "all",
+ *  or the name of a subclass with a no-argument constructor, for
+ *  strategies of one's own.  A Machine keeps its strategy in a final
+ *  field, and the built-in strategies are final classes loaded only when
+ *  named, so while a program uses one strategy the call in the
+ *  per-character loop has a single possible target and is inlined.
+ *  @author Tianyu Liu
+ */
+abstract class SteppingStrategy {
+
+    /** Advance ROTORS one step, moving only those from slot FIRST on. */
+    abstract void step(Rotor[] rotors, int first);
+
+    /** Advance ROTORS N steps, moving only those from slot FIRST on,
+     *  leaving them as N calls of step would.  By default, steps N
+     *  times. */
+    void advance(Rotor[] rotors, int first, long n) {
+        for (long i = 0; i < n; i++) {
+            step(rotors, first);
+        }
+    }
+
+    /** Return the name that selects me in a configuration. */
+    String name() {
+        return getClass().getName();
+    }
+
+    /** Return the strategy called NAME: a built-in name, or the name of a
+     *  subclass, which may omit the package if it is this one. */
+    static SteppingStrategy forName(String name) {
+        switch (name) {
+        case "odometer":
+            return ODOMETER;
+        case "cog":
+            return new Cog();
+        case "all":
+            return new All();
+        default:
+            break;
+        }
+        for (String className : new String[] {
+                name, SteppingStrategy.class.getPackageName() + "." + name
+            }) {
+            try {
+                Class<?> c = Class.forName(className);
+                if (SteppingStrategy.class.isAssignableFrom(c)) {
+                    return (SteppingStrategy)
+                        c.getDeclaredConstructor().newInstance();
+                }
+            } catch (ReflectiveOperationException excp) {
+                continue;
+            }
+        }
+        throw error("unknown stepping strategy: %s", name);
+    }
+
+    /** The stepping of the Enigma I and M4: a pawl drives each of the
+     *  driven rotors, the fast rotor always moves, and a rotor at a notch
+     *  moves itself and the rotor to its left (so that the middle rotor
+     *  steps twice in a row). */
+    static final SteppingStrategy ODOMETER = new Odometer();
+
+    /** The ratchet-and-pawl stepping of ODOMETER. */
+    static final class Odometer extends SteppingStrategy {
+
+        @Override
+        String name() {
+            return "odometer";
+        }
+
+        @Override
+        void step(Rotor[] rotors, int first) {
+            int last = rotors.length - 1;
+            for (int i = first; i <= last; i++) {
+                Rotor r = rotors[i];
+                if (i == last
+                    || r.rotates() && (i > first && r.atNotch()
+                                       || rotors[i + 1].atNotch())) {
+                    r.advance();
+                }
+            }
+        }
+
+        /** Between turnovers only the fast rotor moves, so it is jumped
+         *  directly from one turnover to the next.  Long jumps are first
+         *  reduced modulo the period of the rotor motion. */
+        @Override
+        void advance(Rotor[] rotors, int first, long n) {
+            if (first >= rotors.length) {
+                return;
+            }
+            if (n > cycleSearchLimit(rotors, first)) {
+                int[] start = positions(rotors);
+                long[] cycle = findCycle(rotors, first);
+                setPositions(rotors, start);
+                if (cycle != null && n > cycle[0]) {
+                    n = cycle[0] + (n - cycle[0]) % cycle[1];
+                }
+            }
+            while (n > 0) {
+                long quiet = quietSteps(rotors, first);
+                if (quiet >= n) {
+                    spinFastRotor(rotors, n);
+                    return;
+                }
+                spinFastRotor(rotors, quiet);
+                step(rotors, first);
+                n -= quiet + 1;
+            }
+        }
+
+        /** Return the number of steps worth walking through before it
+         *  pays to look for the period of the motion of ROTORS, driven
+         *  from slot FIRST: the number of combinations of the driven
+         *  rotors' positions, which bounds that period. */
+        private static long cycleSearchLimit(Rotor[] rotors, int first) {
+            long result = 1;
+            for (int i = first; i < rotors.length; i++) {
+                result *= rotors[i].size();
+                if (result > Integer.MAX_VALUE) {
+                    break;
+                }
+            }
+            return result;
+        }
+
+        /** Return the number of steps of ROTORS, driven from slot FIRST,
+         *  during which only the fast rotor would move, or Long.MAX_VALUE
+         *  if nothing else will ever move. */
+        private static long quietSteps(Rotor[] rotors, int first) {
+            int fast = rotors.length - 1;
+            if (fast <= first) {
+                return Long.MAX_VALUE;
+            }
+            for (int i = fast - 1; i > first; i--) {
+                if (rotors[i].atNotch()) {
+                    return 0;
+                }
+            }
+            Rotor fastRotor = rotors[fast];
+            if (!rotors[fast - 1].rotates()) {
+                return Long.MAX_VALUE;
+            }
+            if (!fastRotor.rotates()) {
+                return fastRotor.atNotch() ? 0 : Long.MAX_VALUE;
+            }
+            long result = Long.MAX_VALUE;
+            for (int notch : fastRotor.getnotchlist()) {
+                result = Math.min(result,
+                                  Math.floorMod(notch - fastRotor.setting(),
+                                                fastRotor.size()));
+            }
+            return result;
+        }
+
+        /** Advance the fast rotor of ROTORS alone N steps, if it
+         *  rotates. */
+        private static void spinFastRotor(Rotor[] rotors, long n) {
+            Rotor fastRotor = rotors[rotors.length - 1];
+            if (fastRotor.rotates()) {
+                int size = fastRotor.size();
+                fastRotor.set((int) ((fastRotor.setting() + n % size)
+                                     % size));
+            }
+        }
+
+        /** Move ROTORS, driven from slot FIRST, from STATE, a value of
+         *  positions(ROTORS), through the quiet steps to the next turnover
+         *  and one step past it, leaving the result in STATE.  Return the
+         *  number of steps taken, or -1 if no turnover will ever
+         *  happen. */
+        private long turnover(Rotor[] rotors, int first, int[] state) {
+            setPositions(rotors, state);
+            long quiet = quietSteps(rotors, first);
+            if (quiet == Long.MAX_VALUE) {
+                return -1;
+            }
+            spinFastRotor(rotors, quiet);
+            step(rotors, first);
+            System.arraycopy(positions(rotors), 0, state, 0, state.length);
+            return quiet + 1;
+        }
+
+        /** Return {M, L}, where the positions of ROTORS, driven from slot
+         *  FIRST, repeat with period L steps once M steps have passed, or
+         *  null if only the fast rotor will ever move.  Uses Brent's
+         *  cycle-finding algorithm over the positions at each turnover,
+         *  and leaves the positions undefined. */
+        private long[] findCycle(Rotor[] rotors, int first) {
+            int[] start = positions(rotors);
+            int[] tortoise = start.clone();
+            int[] hare = start.clone();
+            if (turnover(rotors, first, hare) < 0) {
+                return null;
+            }
+            long power = 1, lambda = 1;
+            while (!Arrays.equals(tortoise, hare)) {
+                if (power == lambda) {
+                    System.arraycopy(hare, 0, tortoise, 0, hare.length);
+                    power *= 2;
+                    lambda = 0;
+                }
+                if (turnover(rotors, first, hare) < 0) {
+                    return null;
+                }
+                lambda += 1;
+            }
+            tortoise = start.clone();
+            hare = start.clone();
+            for (long i = 0; i < lambda; i++) {
+                turnover(rotors, first, hare);
+            }
+            long mu = 0;
+            while (!Arrays.equals(tortoise, hare)) {
+                mu += turnover(rotors, first, tortoise);
+                turnover(rotors, first, hare);
+            }
+            long period = 0;
+            for (long i = 0; i < lambda; i++) {
+                period += turnover(rotors, first, hare);
+            }
+            return new long[] {mu, period};
+        }
+
+        /** Return the settings of ROTORS, by slot. */
+        private static int[] positions(Rotor[] rotors) {
+            int[] result = new int[rotors.length];
+            for (int k = 1; k < rotors.length; k++) {
+                result[k] = rotors[k].setting();
+            }
+            return result;
+        }
+
+        /** Set the setting of each of ROTORS but the first (the
+         *  reflector) to POSNS[K]. */
+        private static void setPositions(Rotor[] rotors, int[] posns) {
+            for (int k = 1; k < rotors.length; k++) {
+                rotors[k].set(posns[k]);
+            }
+        }
+    }
+
+    /** The gear-driven stepping of the Abwehr Enigma: the fast rotor
+     *  always moves, and each rotor that moves off a notch carries one
+     *  step to the rotor on its left, as in a counter, with no double
+     *  steps.  A rotor that cannot rotate stops the carry. */
+    static final class Cog extends SteppingStrategy {
+
+        @Override
+        String name() {
+            return "cog";
+        }
+
+        @Override
+        void step(Rotor[] rotors, int first) {
+            for (int i = rotors.length - 1; i >= first; i--) {
+                Rotor r = rotors[i];
+                if (!r.rotates()) {
+                    return;
+                }
+                boolean carry = r.atNotch();
+                r.advance();
+                if (!carry) {
+                    return;
+                }
+            }
+        }
+
+        /** Each rotor moves by the number of carries from the rotor on
+         *  its right, counted from its notches, so a jump takes time
+         *  proportional to the number of rotors. */
+        @Override
+        void advance(Rotor[] rotors, int first, long n) {
+            for (int i = rotors.length - 1; i >= first && n > 0; i--) {
+                Rotor r = rotors[i];
+                if (!r.rotates()) {
+                    return;
+                }
+                int size = r.size(), p = r.setting();
+                long carries = n / size * r.getnotchlist().length;
+                for (int notch : r.getnotchlist()) {
+                    if (Math.floorMod(notch - p, size) < n % size) {
+                        carries += 1;
+                    }
+                }
+                r.set(p + (int) (n % size));
+                n = carries;
+            }
+        }
+    }
+
+    /** Stepping in which every driven rotor that can rotate moves at
+     *  every character. */
+    static final class All extends SteppingStrategy {
+
+        @Override
+        String name() {
+            return "all";
+        }
+
+        @Override
+        void step(Rotor[] rotors, int first) {
+            for (int i = first; i < rotors.length; i++) {
+                rotors[i].advance();
+            }
+        }
+
+        @Override
+        void advance(Rotor[] rotors, int first, long n) {
+            for (int i = first; i < rotors.length; i++) {
+                Rotor r = rotors[i];
+                if (r.rotates()) {
+                    r.set(r.setting() + (int) (n % r.size()));
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,155 @@
+package enigma;
+
+import java.util.Random;
+import java.util.Scanner;
+import org.junit.Test;
+import org.junit.Rule;
+import org.junit.rules.Timeout;
+import static org.junit.Assert.*;
+
+/** The suite of all JUnit tests for the SteppingStrategy class.
+ *  @author Tianyu Liu
+ */
+public class SteppingStrategyTest {
+
+    /** Testing time limit. */
+    @Rule
+    public Timeout globalTimeout = Timeout.seconds(10);
+
+    /* ***** TESTING UTILITIES ***** */
+
+    /** Return a machine for ServerTest.CONFIG stepping as NAME says, set
+     *  up by SETTING. */
+    static Machine machine(String name, String setting) {
+        Machine result = Main.readConfig(new Scanner(
+            ServerTest.CONFIG.replace(" 3\n", " 3 @" + name + "\n")));
+        Main.setUp(result, setting);
+        return result;
+    }
+
+    /** Return the positions of MACHINE after N single steps. */
+    static int[] stepped(Machine machine, int n) {
+        Machine mach = machine.copy();
+        for (int i = 0; i < n; i++) {
+            mach.step();
+        }
+        return mach.positions();
+    }
+
+    /** Return the positions of MACHINE after advancing N steps. */
+    static int[] advanced(Machine machine, long n) {
+        Machine mach = machine.copy();
+        mach.advance(n);
+        return mach.positions();
+    }
+
+    /** Check that advancing the strategy called NAME matches stepping it,
+     *  from random settings. */
+    private void checkAdvance(String name) {
+        Random random = new Random(48);
+        for (int trial = 0; trial < 20; trial++) {
+            StringBuilder posns = new StringBuilder();
+            for (int k = 0; k < 4; k++) {
+                posns.append((char) ('A' + random.nextInt(26)));
+            }
+            Machine mach = machine(name, "* B Beta I II III " + posns);
+            int n = random.nextInt(20000);
+            assertArrayEquals(name + " " + n, stepped(mach, n),
+                              advanced(mach, n));
+        }
+    }
+
+    /** A strategy of one's own: only the fast rotor moves, backwards. */
+    static class Backward extends SteppingStrategy {
+        @Override
+        void step(Rotor[] rotors, int first) {
+            Rotor fast = rotors[rotors.length - 1];
+            fast.set(fast.setting() - 1);
+        }
+    }
+
+    /* ***** TESTS ***** */
+
+    @Test
+    public void testOdometerDoubleSteps() {
+        Machine mach = machine("odometer", "* B Beta I II III AADU");
+        assertSame(SteppingStrategy.ODOMETER, mach.stepping());
+        String[] expected = {"ADV", "AEW", "BFX", "BFY"};
+        for (String posns : expected) {
+            mach.step();
+            int[] p = mach.positions();
+            for (int k = 0; k < 3; k++) {
+                assertEquals(posns.charAt(k), 'A' + p[k + 2]);
+            }
+        }
+        assertSame(SteppingStrategy.ODOMETER,
+                   Main.readConfig(new Scanner(ServerTest.CONFIG))
+                   .stepping());
+    }
+
+    @Test
+    public void testCogSteps() {
+        Machine mach = machine("cog", "* B Beta I II III AADU");
+        assertEquals("cog", mach.stepping().name());
+        String[] expected = {"ADV", "AEW", "AEX"};
+        for (String posns : expected) {
+            mach.step();
+            int[] p = mach.positions();
+            for (int k = 0; k < 3; k++) {
+                assertEquals(posns.charAt(k), 'A' + p[k + 2]);
+            }
+        }
+        mach = machine("cog", "* B Beta I II III AQEV");
+        mach.step();
+        assertArrayEquals(new int[] {0, 0, 17, 5, 22}, mach.positions());
+    }
+
+    @Test
+    public void testAllSteps() {
+        Machine mach = machine("all", "* B Beta I II III AZZZ");
+        mach.step();
+        assertArrayEquals(new int[] {0, 0, 0, 0, 0}, mach.positions());
+        assertArrayEquals(stepped(mach, 27), advanced(mach, 27));
+    }
+
+    @Test
+    public void testAdvance() {
+        checkAdvance("odometer");
+        checkAdvance("cog");
+        checkAdvance("all");
+    }
+
+    @Test
+    public void testLongAdvance() {
+        for (String name : new String[] {"odometer", "cog", "all"}) {
+            Machine mach = machine(name, "* B Beta I II III QRST");
+            long n = 123456789012345L;
+            Machine split = mach.copy();
+            split.advance(n - 1000);
+            split.advance(1000);
+            assertArrayEquals(name, split.positions(), advanced(mach, n));
+        }
+    }
+
+    @Test
+    public void testUserStrategy() {
+        Machine mach = machine("SteppingStrategyTest$Backward",
+                               "* B Beta I II III AAAA");
+        mach.step();
+        assertArrayEquals(new int[] {0, 0, 0, 0, 25}, mach.positions());
+        mach.advance(3);
+        assertArrayEquals(new int[] {0, 0, 0, 0, 22}, mach.positions());
+        assertTrue(SteppingStrategy.forName(Backward.class.getName())
+                   instanceof Backward);
+    }
+
+    @Test(expected = EnigmaException.class)
+    public void testUnknownStrategy() {
+        SteppingStrategy.forName("String");
+    }
+
+    @Test(expected = EnigmaException.class)
+    public void testLanesNeedOdometer() {
+        new LaneEngine(machine("cog", "* B Beta I II III AAAA"), 4);
+    }
+}
@@ -16,7 +16,29 @@ public class UnitTest {
         }
         System.exit(textui.runClasses(PermutationTest.class,
                 MovingRotorTest.class,
-                MachineTest.class));
+                MachineTest.class,
+                EnigmaStreamTest.class,
+                EnigmaProcessorTest.class,
+                ServerTest.class,
+                ByteModeTest.class,
+                EnigmaChannelTest.class,
+                BombeTest.class,
+                AttackTest.class,
+                NGramModelTest.class,
+                CatalogueTest.class,
+                KeySpaceTest.class,
+                LaneEngineTest.class,
+                BulkConverterTest.class,
+                CribScannerTest.class,
+                BanburismusTest.class,
+                ShardsTest.class,
+                PipelineTest.class,
+                EngineSelectorTest.class,
+                CheckpointTest.class,
+                SessionStoreTest.class,
+                SteppingStrategyTest.class,
+                KeyCanonTest.class,
+                ResultCacheTest.class));
     }
 
 }
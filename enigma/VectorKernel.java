@@ -0,0 +1,46 @@
+package enigma;
+
+import jdk.incubator.vector.IntVector;
+import jdk.incubator.vector.VectorSpecies;
+
+/** The BulkConverter kernel using vector gathers.  This class needs the
+ *  jdk.incubator.vector module; BulkConverter loads it reflectively and
+ *  falls back to scalar code when it cannot.
+ *  @author Tianyu Liu
+ */
+final class VectorKernel implements BulkConverter.Kernel {
+
+    @Override
+    public void apply(int[] text, int from, int len, int[] off, int[] seg,
+                      int[] plug, int[] f, int[] m, int[] g) {
+        int[] idx = _idx;
+        int i = 0;
+        for (int bound = SPECIES.loopBound(len); i < bound;
+             i += SPECIES.length()) {
+            IntVector o = IntVector.fromArray(SPECIES, off, i);
+            IntVector x = IntVector.fromArray(SPECIES, plug, 0, text,
+                                              from + i);
+            x.add(o).intoArray(idx, 0);
+            x = IntVector.fromArray(SPECIES, f, 0, idx, 0);
+            x.add(IntVector.fromArray(SPECIES, seg, i)).intoArray(idx, 0);
+            x = IntVector.fromArray(SPECIES, m, 0, idx, 0);
+            x.add(o).intoArray(idx, 0);
+            IntVector.fromArray(SPECIES, g, 0, idx, 0).intoArray(idx, 0);
+            IntVector.fromArray(SPECIES, plug, 0, idx, 0)
+                .intoArray(text, from + i);
+        }
+        for (; i < len; i++) {
+            int o = off[i];
+            text[from + i] = plug[g[o + m[seg[i] + f[o
+                + plug[text[from + i]]]]]];
+        }
+    }
+
+    /** The vector shape used.  This is fixed at 256 bits: with 512-bit
+     *  vectors, JDK 17's compiled gathers have been seen to crash. */
+    private static final VectorSpecies<Integer> SPECIES =
+        IntVector.SPECIES_256;
+
+    /** Index vectors for gathers. */
+    private final int[] _idx = new int[SPECIES.length()];
+}